@@ -0,0 +1,192 @@
+package com.bitespeed.identityreconciliation.load;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Closed-loop HTTP load test of POST /identify against a running instance: N concurrent clients
+ * each send a request, wait for the answer and send the next, for a fixed duration per level.
+ * Run it once against the default (platform-thread) server and once against the
+ * virtual-threads profile to compare them:
+ *
+ * mvn -Pbenchmarks test-compile exec:exec \
+ *   -Dbenchmark.main=com.bitespeed.identityreconciliation.load.IdentifyLoadTest \
+ *   -Djmh.args="--url http://localhost:8080/identify --clients 1000,5000,10000 --duration 30s"
+ *
+ * A request is a new contact with probability --new-ratio (a write), otherwise an exact repeat of
+ * one of --known contacts created up front (a read). The client is fully asynchronous, so it does
+ * not need a thread per simulated client.
+ */
+public class IdentifyLoadTest {
+
+    private final HttpClient client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(30))
+            .build();
+    private final URI uri;
+    private final double newRatio;
+    private final int known;
+    private final String runId = Long.toString(System.currentTimeMillis(), 36);
+    private final AtomicLong sequence = new AtomicLong();
+
+    IdentifyLoadTest(URI uri, double newRatio, int known) {
+        this.uri = uri;
+        this.newRatio = newRatio;
+        this.known = known;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String url = "http://localhost:8080/identify";
+        String clients = "1000,5000,10000";
+        Duration duration = Duration.ofSeconds(30);
+        double newRatio = 0.2;
+        int known = 1000;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--url" -> url = args[i + 1];
+                case "--clients" -> clients = args[i + 1];
+                case "--duration" -> duration = Duration.parse("PT" + args[i + 1]);
+                case "--new-ratio" -> newRatio = Double.parseDouble(args[i + 1]);
+                case "--known" -> known = Integer.parseInt(args[i + 1]);
+                default -> throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        IdentifyLoadTest test = new IdentifyLoadTest(URI.create(url), newRatio, known);
+        test.seed();
+        System.out.printf("%8s %10s %8s %8s %8s %8s %8s%n", "clients", "req/s", "p50 ms", "p99 ms", "max ms", "errors", "status");
+        for (String level : clients.split(",")) {
+            Result result = test.run(Integer.parseInt(level.trim()), duration);
+            System.out.printf("%8d %10.0f %8.1f %8.1f %8.1f %8d %8s%n", result.clients, result.throughput(),
+                    result.percentile(0.50), result.percentile(0.99), result.percentile(1.0), result.errors, result.statuses);
+        }
+    }
+
+    // The contacts later requests repeat, so reads hit existing clusters
+    private void seed() {
+        for (int i = 0; i < known; i++) {
+            client.sendAsync(request(knownBody(i)), HttpResponse.BodyHandlers.discarding()).join();
+        }
+    }
+
+    private Result run(int clients, Duration duration) {
+        long deadline = System.nanoTime() + duration.toNanos();
+        List<ClientLoop> loops = new ArrayList<>(clients);
+        for (int i = 0; i < clients; i++) {
+            loops.add(new ClientLoop(deadline));
+        }
+        long started = System.nanoTime();
+        CompletableFuture.allOf(loops.stream().map(ClientLoop::start).toArray(CompletableFuture[]::new)).join();
+        long elapsed = System.nanoTime() - started;
+
+        return new Result(clients, elapsed, loops);
+    }
+
+    private HttpRequest request(String body) {
+        return HttpRequest.newBuilder(uri)
+                .timeout(Duration.ofSeconds(60))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+    }
+
+    private String nextBody() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (random.nextDouble() < newRatio) {
+            long n = sequence.incrementAndGet();
+            return "{\"email\":\"load-" + runId + "-" + n + "@example.com\",\"phoneNumber\":\"" + runId + n + "\"}";
+        }
+        return knownBody(random.nextInt(known));
+    }
+
+    private String knownBody(int i) {
+        return "{\"email\":\"known-" + runId + "-" + i + "@example.com\",\"phoneNumber\":\"k" + runId + i + "\"}";
+    }
+
+    // One simulated client: requests are chained, so its samples are only touched by one request at a time
+    private final class ClientLoop {
+        private final long deadline;
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+        private long[] latencies = new long[64];
+        private int count;
+        private int errors;
+        private final int[] statuses = new int[6];
+
+        ClientLoop(long deadline) {
+            this.deadline = deadline;
+        }
+
+        CompletableFuture<Void> start() {
+            next();
+            return done;
+        }
+
+        private void next() {
+            if (System.nanoTime() >= deadline) {
+                done.complete(null);
+                return;
+            }
+            long sent = System.nanoTime();
+            client.sendAsync(request(nextBody()), HttpResponse.BodyHandlers.discarding())
+                    .whenComplete((response, failure) -> {
+                        if (failure != null) {
+                            errors++;
+                        } else {
+                            statuses[Math.min(response.statusCode() / 100, 5)]++;
+                            if (count == latencies.length) {
+                                latencies = Arrays.copyOf(latencies, count * 2);
+                            }
+                            latencies[count++] = System.nanoTime() - sent;
+                        }
+                        next();
+                    });
+        }
+    }
+
+    private static final class Result {
+        private final int clients;
+        private final long elapsedNanos;
+        private final long[] latencies;
+        private long errors;
+        private final String statuses;
+
+        Result(int clients, long elapsedNanos, List<ClientLoop> loops) {
+            this.clients = clients;
+            this.elapsedNanos = elapsedNanos;
+            this.latencies = new long[loops.stream().mapToInt(loop -> loop.count).sum()];
+            long[] statusCounts = new long[6];
+            int offset = 0;
+            for (ClientLoop loop : loops) {
+                System.arraycopy(loop.latencies, 0, latencies, offset, loop.count);
+                offset += loop.count;
+                errors += loop.errors;
+                for (int i = 0; i < statusCounts.length; i++) {
+                    statusCounts[i] += loop.statuses[i];
+                }
+            }
+            Arrays.sort(latencies);
+            this.statuses = "2xx=" + statusCounts[2] + ",4xx=" + statusCounts[4] + ",5xx=" + statusCounts[5];
+        }
+
+        double throughput() {
+            return latencies.length / (elapsedNanos / 1e9);
+        }
+
+        double percentile(double p) {
+            if (latencies.length == 0) {
+                return Double.NaN;
+            }
+            int index = (int) Math.min(latencies.length - 1, Math.ceil(p * latencies.length) - 1);
+            return latencies[Math.max(0, index)] / 1e6;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.bitespeed.identityreconciliation.service;
+
+import com.bitespeed.identityreconciliation.dto.ContactSummary;
+import com.bitespeed.identityreconciliation.dto.IdentifyResponse;
+import com.bitespeed.identityreconciliation.model.Contact;
+import com.bitespeed.identityreconciliation.model.LinkPrecedence;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// ContactService.buildResponse and JSON serialization, by cluster size; pure CPU and allocation, no repository involved
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BuildResponseBenchmark {
+
+    @Param({"1", "10", "1000"})
+    public int clusterSize;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private ContactService contactService;
+    private List<Contact> cluster;
+
+    @Setup
+    public void setUp() {
+        contactService = new ContactService(null, null, null, null, null, null, null, null, null, null, null, null, null, 0, 0);
+        LocalDateTime now = LocalDateTime.now();
+        cluster = new ArrayList<>(clusterSize);
+        for (long id = 1; id <= clusterSize; id++) {
+            cluster.add(Contact.builder()
+                    .id(id)
+                    .email("user" + (id % 7) + "@bench.dev")
+                    .phoneNumber(String.valueOf(7_000_000_000L + id))
+                    .linkedId(id == 1 ? null : 1L)
+                    .linkPrecedence(id == 1 ? LinkPrecedence.PRIMARY : LinkPrecedence.SECONDARY)
+                    .createdAt(now)
+                    .updatedAt(now)
+                    .build());
+        }
+    }
+
+    @Benchmark
+    public ContactSummary buildResponse() {
+        return contactService.buildResponse(cluster);
+    }
+
+    // What a request pays after the database: building the response and writing it as JSON
+    @Benchmark
+    public byte[] buildAndSerialize() throws Exception {
+        return objectMapper.writeValueAsBytes(new IdentifyResponse(contactService.buildResponse(cluster)));
+    }
+}
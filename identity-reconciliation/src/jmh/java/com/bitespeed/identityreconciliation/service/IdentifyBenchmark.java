@@ -0,0 +1,179 @@
+package com.bitespeed.identityreconciliation.service;
+
+import com.bitespeed.identityreconciliation.IdentityReconciliationApplication;
+import com.bitespeed.identityreconciliation.dto.ContactSummary;
+import com.bitespeed.identityreconciliation.embedded.EmbeddedIdentityService;
+import com.bitespeed.identityreconciliation.model.Contact;
+import com.bitespeed.identityreconciliation.model.LinkPrecedence;
+import com.bitespeed.identityreconciliation.repository.ContactRepository;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ContactService.identifyOrLinkContact per scenario, against the real JPA stack on Postgres
+ * or against the embedded in-memory store (EmbeddedIdentityService). Run with {@code -prof gc}
+ * for allocations/op. Every scenario works on fresh identifiers, seeded outside the measurement.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IdentifyBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Backend {
+
+        @Param({"memory", "postgres"})
+        public String repository;
+
+        @Param({"200"})
+        public int largeClusterSize;
+
+        ContactService contactService;
+        ContactRepository contactRepository;
+        private ConfigurableApplicationContext context;
+        private long sequence;
+
+        @Setup(Level.Trial)
+        public void start() {
+            if (repository.equals("postgres")) {
+                context = new SpringApplicationBuilder(IdentityReconciliationApplication.class)
+                        .properties("spring.config.name=benchmark")
+                        .run();
+                contactService = context.getBean(ContactService.class);
+                contactRepository = context.getBean(ContactRepository.class);
+            }
+        }
+
+        // Start every iteration from an empty store so it does not grow across the run
+        @Setup(Level.Iteration)
+        public void reset() {
+            if (context != null) {
+                contactRepository.deleteAllInBatch();
+            } else {
+                EmbeddedIdentityService embedded = EmbeddedIdentityService.inMemory();
+                contactService = embedded.contactService();
+                contactRepository = embedded.contactRepository();
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void stop() {
+            if (context != null) {
+                context.close();
+            }
+        }
+
+        String nextEmail() {
+            return "user" + (++sequence) + "@bench.dev";
+        }
+
+        String nextPhone() {
+            return String.valueOf(7_000_000_000L + ++sequence);
+        }
+
+        // A primary with size - 1 secondaries, all sharing its email
+        Contact seedCluster(String email, int size, LocalDateTime createdAt) {
+            Contact primary = contactRepository.save(Contact.builder()
+                    .email(email)
+                    .phoneNumber(nextPhone())
+                    .linkPrecedence(LinkPrecedence.PRIMARY)
+                    .createdAt(createdAt)
+                    .updatedAt(createdAt)
+                    .build());
+            List<Contact> secondaries = new ArrayList<>(size - 1);
+            for (int i = 1; i < size; i++) {
+                secondaries.add(Contact.builder()
+                        .email(email)
+                        .phoneNumber(nextPhone())
+                        .linkedId(primary.getId())
+                        .linkPrecedence(LinkPrecedence.SECONDARY)
+                        .createdAt(createdAt)
+                        .updatedAt(createdAt)
+                        .build());
+            }
+            contactRepository.saveAll(secondaries);
+            return primary;
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ExistingPrimary {
+        Contact primary;
+        String newPhone;
+
+        @Setup(Level.Invocation)
+        public void seed(Backend backend) {
+            primary = backend.seedCluster(backend.nextEmail(), 1, LocalDateTime.now());
+            newPhone = backend.nextPhone();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class RepeatedPrimary {
+        Contact primary;
+
+        @Setup(Level.Iteration)
+        public void seed(Backend backend) {
+            primary = backend.seedCluster(backend.nextEmail(), 1, LocalDateTime.now());
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class TwoPrimaries {
+        Contact older;
+        Contact newer;
+
+        @Setup(Level.Invocation)
+        public void seed(Backend backend) {
+            LocalDateTime now = LocalDateTime.now();
+            older = backend.seedCluster(backend.nextEmail(), 1, now.minusDays(1));
+            newer = backend.seedCluster(backend.nextEmail(), 1, now);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class TwoLargeClusters {
+        Contact older;
+        Contact newer;
+
+        @Setup(Level.Invocation)
+        public void seed(Backend backend) {
+            LocalDateTime now = LocalDateTime.now();
+            older = backend.seedCluster(backend.nextEmail(), backend.largeClusterSize, now.minusDays(1));
+            newer = backend.seedCluster(backend.nextEmail(), backend.largeClusterSize, now);
+        }
+    }
+
+    @Benchmark
+    public ContactSummary newContact(Backend backend) {
+        return backend.contactService.identifyOrLinkContact(backend.nextEmail(), backend.nextPhone());
+    }
+
+    @Benchmark
+    public ContactSummary exactRepeat(Backend backend, RepeatedPrimary state) {
+        return backend.contactService.identifyOrLinkContact(state.primary.getEmail(), state.primary.getPhoneNumber());
+    }
+
+    @Benchmark
+    public ContactSummary newSecondary(Backend backend, ExistingPrimary state) {
+        return backend.contactService.identifyOrLinkContact(state.primary.getEmail(), state.newPhone);
+    }
+
+    @Benchmark
+    public ContactSummary twoPrimaryMerge(Backend backend, TwoPrimaries state) {
+        return backend.contactService.identifyOrLinkContact(state.older.getEmail(), state.newer.getPhoneNumber());
+    }
+
+    @Benchmark
+    public ContactSummary largeClusterMerge(Backend backend, TwoLargeClusters state) {
+        return backend.contactService.identifyOrLinkContact(state.older.getEmail(), state.newer.getPhoneNumber());
+    }
+}
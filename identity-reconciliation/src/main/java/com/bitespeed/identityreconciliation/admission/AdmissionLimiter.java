@@ -0,0 +1,165 @@
+package com.bitespeed.identityreconciliation.admission;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Adaptive concurrency limit for the identify endpoints of one shard (see AdmissionLimiters). A call that would take the number of calls in flight
+ * past the limit is rejected at once (the controller answers 429 with Retry-After) instead of queueing for a
+ * Tomcat thread or a pooled connection, so a slow database sheds load rather than making every caller wait.
+ *
+ * The limit follows latency, gradient style: every completed call updates a short-term and a long-term average
+ * of its latency. While the short-term one stays within {@code latency-tolerance} times the long-term one the
+ * limit grows by a fifth of its square root per call; past that it shrinks in proportion to the excess, by up
+ * to 10% per call, and a failed call cuts it by 10%. Calls made while under half the limit say nothing about
+ * capacity and leave it as is. It stays within {@code [min-limit, max-limit]}. A batch holds one permit and
+ * its latency counts per item, so a batch of 1000 identifies reads as 1000 calls of a thousandth of its time.
+ *
+ * Reads may use the whole limit, writes only {@code write-share} of it, so once the limit is reached merges and
+ * new contacts are shed first and lookups keep the rest of the capacity. identify.admission.limit and
+ * identify.admission.in-flight gauge the state, identify.admission.rejected counts rejections by priority;
+ * all are tagged with the shard.
+ */
+public class AdmissionLimiter {
+
+    private static final double BACKOFF = 0.9;
+    private static final double SMOOTHING = 0.2;
+    private static final double SHORT_WINDOW = 10;
+    private static final double LONG_WINDOW = 600;
+
+    private final boolean enabled;
+    private final int minLimit;
+    private final int maxLimit;
+    private final double writeShare;
+    private final double latencyTolerance;
+    private final Duration retryAfter;
+    private final Map<Priority, Counter> rejected = new EnumMap<>(Priority.class);
+
+    // Written under this; limit and inFlight are also read by the gauges
+    private volatile double limit;
+    private volatile int inFlight;
+    private double shortLatency;
+    private double longLatency;
+
+    public AdmissionLimiter(MeterRegistry meterRegistry, String shard, boolean enabled, int initialLimit, int minLimit,
+                            int maxLimit, double writeShare, double latencyTolerance, Duration retryAfter) {
+        this.enabled = enabled;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.writeShare = writeShare;
+        this.latencyTolerance = latencyTolerance;
+        this.retryAfter = retryAfter;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+        Gauge.builder("identify.admission.limit", this, AdmissionLimiter::getLimit)
+                .description("Identify calls admitted at once")
+                .tag("shard", shard)
+                .register(meterRegistry);
+        Gauge.builder("identify.admission.in-flight", this, AdmissionLimiter::getInFlight)
+                .description("Identify calls in flight")
+                .tag("shard", shard)
+                .register(meterRegistry);
+        for (Priority priority : Priority.values()) {
+            rejected.put(priority, Counter.builder("identify.admission.rejected")
+                    .description("Identify calls rejected by admission control")
+                    .tag("priority", priority.tag)
+                    .tag("shard", shard)
+                    .register(meterRegistry));
+        }
+    }
+
+    public int getLimit() {
+        return (int) limit;
+    }
+
+    public int getInFlight() {
+        return inFlight;
+    }
+
+    // Whole seconds for the Retry-After header, at least 1
+    public long retryAfterSeconds() {
+        return Math.max(1, (retryAfter.toMillis() + 999) / 1000);
+    }
+
+    // A permit for one call, or null if the call is to be rejected; every permit must be released
+    public Permit tryAcquire(Priority priority) {
+        if (!enabled) {
+            return new Permit(0, false);
+        }
+        synchronized (this) {
+            double allowed = priority == Priority.READ ? limit : Math.max(1, limit * writeShare);
+            if (inFlight + 1 > allowed) {
+                rejected.get(priority).increment();
+                return null;
+            }
+            inFlight++;
+            return new Permit(inFlight, true);
+        }
+    }
+
+    private synchronized void release(Permit permit, long latency, boolean succeeded) {
+        inFlight--;
+        if (!succeeded) {
+            limit = Math.max(minLimit, limit * BACKOFF);
+            return;
+        }
+        if (longLatency == 0) {
+            shortLatency = latency;
+            longLatency = latency;
+        } else {
+            shortLatency += (latency - shortLatency) * 2 / (SHORT_WINDOW + 1);
+            longLatency += (latency - longLatency) * 2 / (LONG_WINDOW + 1);
+        }
+        // After a slow period the long-term average would keep the limit high once latency recovers; pull it back
+        if (longLatency > 2 * shortLatency) {
+            longLatency *= 0.95;
+        }
+        if (permit.inFlight < limit / 2) {
+            return;
+        }
+        double gradient = Math.max(0.5, Math.min(1.0, latencyTolerance * longLatency / Math.max(1, shortLatency)));
+        double estimate = limit * gradient + Math.sqrt(limit);
+        limit = Math.max(minLimit, Math.min(maxLimit, limit * (1 - SMOOTHING) + estimate * SMOOTHING));
+    }
+
+    public final class Permit {
+
+        private final int inFlight;
+        private final AtomicBoolean tracked;
+        private final long started = System.nanoTime();
+
+        private Permit(int inFlight, boolean tracked) {
+            this.inFlight = inFlight;
+            this.tracked = new AtomicBoolean(tracked);
+        }
+
+        // A failed call counts as overload; callers release in a finally block, and only the first release counts
+        public void release(boolean succeeded) {
+            release(succeeded, 1);
+        }
+
+        // release() for a batch of calls made under one permit, whose latency counts per call
+        public void release(boolean succeeded, int calls) {
+            if (tracked.compareAndSet(true, false)) {
+                AdmissionLimiter.this.release(this, (System.nanoTime() - started) / Math.max(1, calls), succeeded);
+            }
+        }
+    }
+
+    public enum Priority {
+        // Lookups: never create or link contacts
+        READ("read"),
+        // Identifies that may create, link or merge contacts
+        WRITE("write");
+
+        private final String tag;
+
+        Priority(String tag) {
+            this.tag = tag;
+        }
+    }
+}
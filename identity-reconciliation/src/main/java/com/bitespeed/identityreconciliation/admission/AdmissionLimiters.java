@@ -0,0 +1,48 @@
+package com.bitespeed.identityreconciliation.admission;
+
+import com.bitespeed.identityreconciliation.sharding.ShardRouter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * One AdmissionLimiter per shard with tenants, and one for the default store, all with the identity.admission
+ * settings. Shards are separate databases, so a slow shard sheds its own tenants' calls and leaves the limits of
+ * the others alone. The default store's meters are tagged shard=default.
+ */
+@Component
+public class AdmissionLimiters {
+
+    private static final String DEFAULT_STORE = "default";
+
+    private final ShardRouter shardRouter;
+    private final AdmissionLimiter defaultStore;
+    private final Map<String, AdmissionLimiter> byShard = new HashMap<>();
+
+    public AdmissionLimiters(MeterRegistry meterRegistry, ShardRouter shardRouter,
+                             @Value("${identity.admission.enabled:true}") boolean enabled,
+                             @Value("${identity.admission.initial-limit:20}") int initialLimit,
+                             @Value("${identity.admission.min-limit:4}") int minLimit,
+                             @Value("${identity.admission.max-limit:200}") int maxLimit,
+                             @Value("${identity.admission.write-share:0.8}") double writeShare,
+                             @Value("${identity.admission.latency-tolerance:2.0}") double latencyTolerance,
+                             @Value("${identity.admission.retry-after:1s}") Duration retryAfter) {
+        this.shardRouter = shardRouter;
+        this.defaultStore = new AdmissionLimiter(meterRegistry, DEFAULT_STORE, enabled, initialLimit, minLimit,
+                maxLimit, writeShare, latencyTolerance, retryAfter);
+        for (String tenant : shardRouter.tenants()) {
+            byShard.computeIfAbsent(shardRouter.shardOf(tenant), shard -> new AdmissionLimiter(meterRegistry, shard,
+                    enabled, initialLimit, minLimit, maxLimit, writeShare, latencyTolerance, retryAfter));
+        }
+    }
+
+    // Limiter of the shard holding the tenant's store; the tenant must be known to the ShardRouter
+    public AdmissionLimiter forTenant(String tenant) {
+        String shard = shardRouter.shardOf(tenant);
+        return shard == null ? defaultStore : byShard.get(shard);
+    }
+}
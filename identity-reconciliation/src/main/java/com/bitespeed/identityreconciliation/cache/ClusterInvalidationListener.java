@@ -0,0 +1,129 @@
+package com.bitespeed.identityreconciliation.cache;
+
+import com.bitespeed.identityreconciliation.sharding.ShardRouter;
+import com.bitespeed.identityreconciliation.sharding.TenantContext;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.springframework.jdbc.datasource.DataSourceUtils;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.*;
+
+// Evicts clusters changed by other nodes, using a dedicated LISTEN connection per database: the default
+// store's, and with identity.sharding one per shard, listening on the channels of the tenants on it
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ClusterInvalidationListener {
+
+    private static final int POLL_TIMEOUT_MILLIS = 1000;
+    private static final long RECONNECT_DELAY_MILLIS = 5000;
+
+    private final IdentityGraphCache identityGraphCache;
+    private final DataSource dataSource;
+    private final ShardRouter shardRouter;
+
+    private final List<Thread> workers = new ArrayList<>();
+    private volatile boolean running;
+
+    @PostConstruct
+    void start() {
+        if (!identityGraphCache.isEnabled()) {
+            return;
+        }
+        running = true;
+        startWorker("cluster-invalidation-listener", Collections.singletonList(null));
+        Map<String, List<String>> tenantsByShard = new TreeMap<>();
+        for (String tenant : shardRouter.tenants()) {
+            tenantsByShard.computeIfAbsent(shardRouter.shardOf(tenant), shard -> new ArrayList<>()).add(tenant);
+        }
+        tenantsByShard.forEach((shard, tenants) -> startWorker("cluster-invalidation-listener-" + shard, tenants));
+    }
+
+    @PreDestroy
+    void stop() throws InterruptedException {
+        running = false;
+        for (Thread worker : workers) {
+            worker.interrupt();
+            worker.join(POLL_TIMEOUT_MILLIS * 2L);
+        }
+    }
+
+    private void startWorker(String name, List<String> tenants) {
+        Thread worker = new Thread(() -> listen(tenants), name);
+        worker.setDaemon(true);
+        worker.start();
+        workers.add(worker);
+    }
+
+    // Listen for the given stores, which share one database (null is the default store)
+    private void listen(List<String> tenants) {
+        while (running) {
+            try (Connection connection = TenantContext.call(tenants.get(0), () -> DataSourceUtils.getConnection(dataSource))) {
+                Map<String, String> tenantByChannel = new HashMap<>();
+                try (Statement statement = connection.createStatement()) {
+                    for (String tenant : tenants) {
+                        String channel = IdentityGraphCache.invalidationChannel(tenant);
+                        statement.execute("LISTEN " + channel);
+                        tenantByChannel.put(channel, tenant);
+                    }
+                }
+                // Anything committed while we were not listening may have been missed
+                invalidateAll(tenants);
+                PGConnection pgConnection = connection.unwrap(PGConnection.class);
+                while (running) {
+                    PGNotification[] notifications = pgConnection.getNotifications(POLL_TIMEOUT_MILLIS);
+                    if (notifications != null) {
+                        for (PGNotification notification : notifications) {
+                            TenantContext.run(tenantByChannel.get(notification.getName()),
+                                    () -> handle(notification.getParameter()));
+                        }
+                    }
+                }
+            } catch (Exception e) {
+                if (!running) {
+                    return;
+                }
+                log.warn("Cluster invalidation listener failed, dropping cache and reconnecting", e);
+                invalidateAll(tenants);
+                try {
+                    Thread.sleep(RECONNECT_DELAY_MILLIS);
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void invalidateAll(List<String> tenants) {
+        for (String tenant : tenants) {
+            TenantContext.run(tenant, identityGraphCache::invalidateAll);
+        }
+    }
+
+    // Payload is "<nodeId>:<root>,<root>,..." or "<nodeId>:*" for every cluster of the store
+    private void handle(String payload) {
+        int separator = payload.indexOf(':');
+        if (separator < 0 || payload.substring(0, separator).equals(identityGraphCache.getNodeId())) {
+            return;
+        }
+        if (payload.substring(separator + 1).equals(IdentityGraphCache.ALL_ROOTS)) {
+            identityGraphCache.invalidateAll();
+            return;
+        }
+        List<Long> roots = new ArrayList<>();
+        for (String id : payload.substring(separator + 1).split(",")) {
+            if (!id.isEmpty()) {
+                roots.add(Long.valueOf(id));
+            }
+        }
+        identityGraphCache.invalidate(roots);
+    }
+}
@@ -0,0 +1,364 @@
+package com.bitespeed.identityreconciliation.cache;
+
+import com.bitespeed.identityreconciliation.model.Contact;
+import com.bitespeed.identityreconciliation.model.LinkPrecedence;
+import com.bitespeed.identityreconciliation.repository.ContactRepository;
+import com.bitespeed.identityreconciliation.sharding.TenantContext;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+
+/**
+ * In-process identity graph in front of the contact table: a union-find over contact ids
+ * plus a hash index from email and phone to a contact, so repeat identifies resolve their
+ * cluster without SQL.
+ *
+ * Consistency: the cache is write-through on this node and invalidated across nodes.
+ * A write transaction publishes the roots it changed with pg_notify, which Postgres delivers
+ * only on commit; every node's {@link ClusterInvalidationListener} evicts those roots. A NOTIFY payload must stay
+ * under 8000 bytes, so the roots go out in several notifications, or, past MAX_NOTIFICATIONS of them, as one
+ * notification that drops the whole graph on the other nodes. Reads
+ * that raced with an invalidation are not cached (generation check), and every cluster also
+ * expires after {@code identity.cache.ttl} to bound staleness if a notification is missed.
+ *
+ * Every store (the default one and, with identity.sharding, each tenant's) has its own graph, lock and
+ * NOTIFY channel; the store is the one bound to the calling thread, and {@code max-contacts} bounds each graph.
+ */
+@Component
+public class IdentityGraphCache {
+
+    public static final String INVALIDATION_CHANNEL = "contact_cluster_changed";
+    // Payload roots that stand for every cluster of the store
+    public static final String ALL_ROOTS = "*";
+
+    // Postgres rejects NOTIFY payloads of 8000 bytes or more; payloads are ASCII, so chars are bytes
+    static final int MAX_PAYLOAD_LENGTH = 7900;
+    // Beyond this many notifications for one write, evicting everything is cheaper than the notifications
+    static final int MAX_NOTIFICATIONS = 16;
+
+    // Lets the listener skip this node's own notifications, already applied write-through
+    private final String nodeId = UUID.randomUUID().toString();
+
+    private final ContactRepository contactRepository;
+    private final boolean enabled;
+    private final int maxContacts;
+    private final long ttlNanos;
+
+    // The default store's graph, and each tenant's
+    private final Graph defaultGraph = new Graph();
+    private final ConcurrentHashMap<String, Graph> tenantGraphs = new ConcurrentHashMap<>();
+
+    public IdentityGraphCache(ContactRepository contactRepository,
+                              @Value("${identity.cache.enabled:false}") boolean enabled,
+                              @Value("${identity.cache.max-contacts:100000}") int maxContacts,
+                              @Value("${identity.cache.ttl:60s}") Duration ttl) {
+        this.contactRepository = contactRepository;
+        this.enabled = enabled;
+        this.maxContacts = maxContacts;
+        this.ttlNanos = ttl.toNanos();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    // Cluster for an identify that would be a no-op (exact email/phone pair already present), or null
+    public List<Contact> lookup(String email, String phoneNumber) {
+        if (!enabled) {
+            return null;
+        }
+        Graph graph = graph();
+        graph.lock.lock();
+        try {
+            CachedCluster cluster = repeatOf(graph, email, phoneNumber);
+            return cluster == null ? null : copies(cluster.members);
+        } finally {
+            graph.lock.unlock();
+        }
+    }
+
+    // Called with the graph's lock held
+    private CachedCluster repeatOf(Graph graph, String email, String phoneNumber) {
+        Long root = null;
+        for (String key : keys(email, phoneNumber)) {
+            Long contactId = graph.index.get(key);
+            if (contactId == null) {
+                return null;
+            }
+            Long keyRoot = graph.find(contactId);
+            if (root != null && !root.equals(keyRoot)) {
+                // Identifiers in different clusters: this request merges them
+                return null;
+            }
+            root = keyRoot;
+        }
+        CachedCluster cluster = root == null ? null : graph.clusters.get(root);
+        if (cluster == null) {
+            return null;
+        }
+        if (System.nanoTime() - cluster.loadedAt > ttlNanos) {
+            graph.evict(root);
+            return null;
+        }
+        boolean exists = cluster.members.stream()
+                .anyMatch(c -> Objects.equals(c.getEmail(), email) && Objects.equals(c.getPhoneNumber(), phoneNumber));
+        return exists ? cluster : null;
+    }
+
+    // Generation to pass to put(); taken before reading the cluster from the database
+    public long generation() {
+        Graph graph = graph();
+        graph.lock.lock();
+        try {
+            return graph.generation;
+        } finally {
+            graph.lock.unlock();
+        }
+    }
+
+    // Cache a cluster read without writing; dropped if any invalidation happened since the read started
+    public void put(List<Contact> cluster, long readGeneration) {
+        if (!enabled || cluster.isEmpty()) {
+            return;
+        }
+        Graph graph = graph();
+        graph.lock.lock();
+        try {
+            if (readGeneration == graph.generation) {
+                graph.store(cluster, Collections.emptySet());
+            }
+        } finally {
+            graph.lock.unlock();
+        }
+    }
+
+    // Apply a committed write: merged roots are unioned into the surviving primary, then its cluster is replaced
+    public void applyWrite(List<Contact> cluster, Set<Long> changedRoots) {
+        if (!enabled) {
+            return;
+        }
+        Graph graph = graph();
+        graph.lock.lock();
+        try {
+            graph.generation++;
+            graph.store(cluster, changedRoots);
+        } finally {
+            graph.lock.unlock();
+        }
+    }
+
+    // Tell every node (including this one) that these roots changed; delivered when the current transaction commits
+    public void publishInvalidation(Collection<Long> roots) {
+        String channel = invalidationChannel(TenantContext.current());
+        for (String payload : invalidationPayloads(roots)) {
+            contactRepository.notifyChannel(channel, payload);
+        }
+    }
+
+    // The current store's NOTIFY channel; tenants sharing a shard database each have their own
+    public static String invalidationChannel(String tenant) {
+        return tenant == null ? INVALIDATION_CHANNEL : INVALIDATION_CHANNEL + "_" + tenant;
+    }
+
+    // NOTIFY payloads announcing these changed roots, each "<nodeId>:<root>,<root>,..." and under the NOTIFY limit,
+    // or a single "<nodeId>:*" if they would take more than MAX_NOTIFICATIONS; empty if there is nothing to publish
+    public List<String> invalidationPayloads(Collection<Long> roots) {
+        if (!enabled || roots.isEmpty()) {
+            return List.of();
+        }
+        String prefix = nodeId + ":";
+        List<String> payloads = new ArrayList<>();
+        StringBuilder payload = new StringBuilder(prefix);
+        for (Long root : roots) {
+            String id = String.valueOf(root);
+            if (payload.length() > prefix.length() && payload.length() + 1 + id.length() > MAX_PAYLOAD_LENGTH) {
+                payloads.add(payload.toString());
+                if (payloads.size() == MAX_NOTIFICATIONS) {
+                    return List.of(prefix + ALL_ROOTS);
+                }
+                payload.setLength(prefix.length());
+            }
+            if (payload.length() > prefix.length()) {
+                payload.append(',');
+            }
+            payload.append(id);
+        }
+        payloads.add(payload.toString());
+        return payloads;
+    }
+
+    // Evict the clusters containing these contacts
+    public void invalidate(Collection<Long> contactIds) {
+        Graph graph = graph();
+        graph.lock.lock();
+        try {
+            graph.generation++;
+            for (Long id : contactIds) {
+                if (graph.parent.containsKey(id)) {
+                    graph.evict(graph.find(id));
+                }
+            }
+        } finally {
+            graph.lock.unlock();
+        }
+    }
+
+    // Drop the current store's graph
+    public void invalidateAll() {
+        Graph graph = graph();
+        graph.lock.lock();
+        try {
+            graph.generation++;
+            graph.parent.clear();
+            graph.index.clear();
+            graph.clusters.clear();
+            graph.cachedContacts = 0;
+        } finally {
+            graph.lock.unlock();
+        }
+    }
+
+    // Graph of the store bound to this thread; contact ids are only unique within a store
+    private Graph graph() {
+        String tenant = TenantContext.current();
+        return tenant == null ? defaultGraph : tenantGraphs.computeIfAbsent(tenant, t -> new Graph());
+    }
+
+    private static List<String> keys(String email, String phoneNumber) {
+        List<String> keys = new ArrayList<>(2);
+        if (email != null) {
+            keys.add("e:" + email);
+        }
+        if (phoneNumber != null) {
+            keys.add("p:" + phoneNumber);
+        }
+        return keys;
+    }
+
+    private static LocalDateTime version(List<Contact> cluster) {
+        return cluster.stream()
+                .map(c -> c.getUpdatedAt() != null ? c.getUpdatedAt() : c.getCreatedAt())
+                .filter(Objects::nonNull)
+                .max(Comparator.naturalOrder())
+                .orElse(LocalDateTime.MIN);
+    }
+
+    private static List<Contact> copies(List<Contact> contacts) {
+        return contacts.stream().map(c -> c.toBuilder().build()).collect(Collectors.toList());
+    }
+
+    // One store's cached graph, guarded by its own lock
+    private final class Graph {
+
+        private final ReentrantLock lock = new ReentrantLock();
+        // Union-find over contact ids; a cluster's root is its primary
+        private final Map<Long, Long> parent = new HashMap<>();
+        // "e:<email>" / "p:<phone>" -> id of a contact carrying that identifier
+        private final Map<String, Long> index = new HashMap<>();
+        // Root -> cached cluster, in least-recently-used order
+        private final LinkedHashMap<Long, CachedCluster> clusters = new LinkedHashMap<>(16, 0.75f, true);
+        private int cachedContacts;
+        private long generation;
+
+        void store(List<Contact> cluster, Set<Long> changedRoots) {
+            Contact primary = cluster.stream()
+                    .filter(c -> c.getLinkPrecedence() == LinkPrecedence.PRIMARY)
+                    .findFirst()
+                    .orElse(cluster.get(0));
+            Long root = primary.getId();
+            LocalDateTime version = version(cluster);
+
+            CachedCluster existing = clusters.get(root);
+            if (existing != null && existing.version.isAfter(version)) {
+                // A newer view of this cluster is already cached
+                return;
+            }
+
+            // Merged primaries keep their subtrees; re-pointing the old root moves the whole subtree
+            for (Long changedRoot : changedRoots) {
+                if (!changedRoot.equals(root) && parent.containsKey(changedRoot)) {
+                    Long oldRoot = find(changedRoot);
+                    CachedCluster merged = clusters.remove(oldRoot);
+                    if (merged != null) {
+                        cachedContacts -= merged.members.size();
+                    }
+                    if (!oldRoot.equals(root)) {
+                        parent.put(oldRoot, root);
+                    }
+                }
+            }
+            if (existing != null) {
+                cachedContacts -= existing.members.size();
+            }
+
+            parent.put(root, root);
+            for (Contact contact : cluster) {
+                if (!parent.containsKey(contact.getId()) || !find(contact.getId()).equals(root)) {
+                    parent.put(contact.getId(), root);
+                }
+                for (String key : keys(contact.getEmail(), contact.getPhoneNumber())) {
+                    index.put(key, contact.getId());
+                }
+            }
+            clusters.put(root, new CachedCluster(copies(cluster), version, System.nanoTime()));
+            cachedContacts += cluster.size();
+
+            // Bound memory: drop least-recently-used clusters
+            Iterator<Long> eldest = clusters.keySet().iterator();
+            while (cachedContacts > maxContacts && eldest.hasNext()) {
+                Long eldestRoot = eldest.next();
+                if (eldestRoot.equals(root)) {
+                    break;
+                }
+                removeMembers(clusters.get(eldestRoot));
+                eldest.remove();
+            }
+        }
+
+        void evict(Long root) {
+            CachedCluster cluster = clusters.remove(root);
+            if (cluster != null) {
+                removeMembers(cluster);
+            }
+        }
+
+        private void removeMembers(CachedCluster cluster) {
+            cachedContacts -= cluster.members.size();
+            for (Contact contact : cluster.members) {
+                parent.remove(contact.getId());
+                for (String key : keys(contact.getEmail(), contact.getPhoneNumber())) {
+                    index.remove(key, contact.getId());
+                }
+            }
+        }
+
+        // Find with path compression
+        Long find(Long id) {
+            Long root = id;
+            Long next = parent.get(root);
+            while (next != null && !next.equals(root)) {
+                root = next;
+                next = parent.get(root);
+            }
+            Long current = id;
+            while (!current.equals(root)) {
+                Long following = parent.put(current, root);
+                current = following;
+            }
+            return root;
+        }
+    }
+
+    private record CachedCluster(List<Contact> members, LocalDateTime version, long loadedAt) {
+    }
+}
@@ -0,0 +1,31 @@
+package com.bitespeed.identityreconciliation.config;
+
+import com.bitespeed.identityreconciliation.dto.IdentifyRequest;
+import com.bitespeed.identityreconciliation.model.ContactEvent;
+import org.springframework.aot.hint.BindingReflectionHintsRegistrar;
+import org.springframework.aot.hint.RuntimeHints;
+import org.springframework.aot.hint.RuntimeHintsRegistrar;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.ImportRuntimeHints;
+import org.springframework.util.ClassUtils;
+
+// Spring registers reflection hints for controller bodies only. A native image also needs them for the
+// types we write and read with the ObjectMapper directly: change events, write-behind journal lines and
+// imported rows.
+@Configuration(proxyBeanMethods = false)
+@ImportRuntimeHints(JsonHintsConfiguration.JsonHints.class)
+public class JsonHintsConfiguration {
+
+    public static class JsonHints implements RuntimeHintsRegistrar {
+
+        @Override
+        public void registerHints(RuntimeHints hints, ClassLoader classLoader) {
+            new BindingReflectionHintsRegistrar().registerReflectionHints(hints.reflection(),
+                    ContactEvent.class,
+                    IdentifyRequest.class,
+                    // Package-private in writebehind
+                    ClassUtils.resolveClassName("com.bitespeed.identityreconciliation.writebehind.ContactJournal$Entry",
+                            classLoader));
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.bitespeed.identityreconciliation.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+// Boot's DataSource auto-configuration backs off once an R2DBC ConnectionFactory exists, but in the
+// reactive profile JPA, Flyway, the cache listener and the importer still need the JDBC pool
+@Configuration(proxyBeanMethods = false)
+@ConditionalOnProperty(name = "spring.main.web-application-type", havingValue = "reactive")
+public class ReactiveDataSourceConfiguration {
+
+    @Bean
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource dataSource(DataSourceProperties properties) {
+        return properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+    }
+}
@@ -0,0 +1,37 @@
+package com.bitespeed.identityreconciliation.consistency;
+
+import com.bitespeed.identityreconciliation.sharding.ShardRouter;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+// Runs a contact graph check on startup when identity.check.mode is report or repair, e.g.
+// java -jar app.jar --spring.main.web-application-type=none --identity.check.mode=report
+// With identity.sharding, identity.check.tenant checks that tenant's store instead of the default one.
+@Component
+@ConditionalOnProperty("identity.check.mode")
+@RequiredArgsConstructor
+public class ContactGraphCheckRunner implements ApplicationRunner {
+
+    private final ContactGraphChecker contactGraphChecker;
+    private final ShardRouter shardRouter;
+
+    @Value("${identity.check.mode}")
+    private String mode;
+
+    @Value("${identity.check.tenant:}")
+    private String tenant;
+
+    @Override
+    public void run(ApplicationArguments args) throws Exception {
+        boolean repair = switch (mode) {
+            case "report" -> false;
+            case "repair" -> true;
+            default -> throw new IllegalArgumentException("identity.check.mode must be report or repair, not " + mode);
+        };
+        shardRouter.routeJob(tenant, () -> contactGraphChecker.check(repair));
+    }
+}
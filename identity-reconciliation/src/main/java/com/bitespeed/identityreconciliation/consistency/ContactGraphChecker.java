@@ -0,0 +1,652 @@
+package com.bitespeed.identityreconciliation.consistency;
+
+import com.bitespeed.identityreconciliation.cache.IdentityGraphCache;
+import com.bitespeed.identityreconciliation.importer.IntUnionFind;
+import com.bitespeed.identityreconciliation.importer.LongIntHashMap;
+import com.bitespeed.identityreconciliation.model.Contact;
+import com.bitespeed.identityreconciliation.model.LinkPrecedence;
+import com.bitespeed.identityreconciliation.repository.ContactBatchRepository;
+import com.bitespeed.identityreconciliation.repository.ContactClusterRepository;
+import com.bitespeed.identityreconciliation.repository.HotClusterRepository;
+import com.bitespeed.identityreconciliation.sharding.TenantContext;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Offline check of the contact graph against what identify maintains: every cluster has exactly one
+ * PRIMARY, its oldest primary contact, and every other contact links straight to it. Older merges that
+ * re-linked one level deep, or failed halfway, left chains (secondary -> demoted primary -> primary),
+ * orphans (secondaries linked to nothing that is live) and clusters with several primaries.
+ *
+ * The live contacts are read in keyset-paginated chunks over id ranges, one range at a time per worker
+ * thread, into primitive arrays indexed by the contact's rank in id order (about 35 bytes per contact).
+ * A single thread folds the links and the email and phone hashes into a union-find, so a component is
+ * what identify would resolve as one cluster. The identifier index is the only part that grows with the
+ * distinct identifiers; above identity.check.max-identifiers the hashes are folded in several passes
+ * over the table, one hash partition per pass. Components never split existing clusters, since the
+ * links are part of the graph.
+ *
+ * The hashes can collide, so a component is only a candidate. Every component with a contact to relink
+ * is read back with its stored identifiers, chunk-size contacts per worker task, and split again on the
+ * identifiers themselves; the split components are what is reported and repaired. Only their identifiers
+ * are held as strings, and only while their task runs.
+ *
+ * The check reports anomalies and, when repairing, relinks every contact whose link or precedence
+ * differs from its component's, in batched updates. Like the importer it is not coordinated with
+ * identify traffic, so run it while the service is not taking writes.
+ */
+@Slf4j
+@Service
+public class ContactGraphChecker {
+
+    private static final int RANGES_PER_THREAD = 8;
+    private static final int SAMPLE_SIZE = 10;
+
+    private final ContactBatchRepository contactBatchRepository;
+    private final ContactClusterRepository contactClusterRepository;
+    private final HotClusterRepository hotClusterRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final IdentityGraphCache identityGraphCache;
+    private final int threads;
+    private final int chunkSize;
+    private final long maxIdentifiers;
+
+    public ContactGraphChecker(ContactBatchRepository contactBatchRepository,
+                               ContactClusterRepository contactClusterRepository,
+                               HotClusterRepository hotClusterRepository,
+                               TransactionTemplate transactionTemplate,
+                               IdentityGraphCache identityGraphCache,
+                               @Value("${identity.check.threads:0}") int threads,
+                               @Value("${identity.check.chunk-size:10000}") int chunkSize,
+                               @Value("${identity.check.max-identifiers:20000000}") long maxIdentifiers) {
+        this.contactBatchRepository = contactBatchRepository;
+        this.contactClusterRepository = contactClusterRepository;
+        this.hotClusterRepository = hotClusterRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.identityGraphCache = identityGraphCache;
+        this.threads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        this.chunkSize = chunkSize;
+        this.maxIdentifiers = maxIdentifiers;
+    }
+
+    public CheckResult check(boolean repair) throws InterruptedException {
+        long started = System.nanoTime();
+        AtomicInteger workerNumber = new AtomicInteger();
+        // Workers check the caller's store
+        String tenant = TenantContext.current();
+        ExecutorService workers = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(() -> TenantContext.run(tenant, runnable),
+                    "contact-graph-check-" + workerNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<IdRange> ranges = plan(workers);
+            long total = ranges.isEmpty() ? 0 : ranges.get(ranges.size() - 1).base + ranges.get(ranges.size() - 1).count;
+            if (total > Integer.MAX_VALUE - 8) {
+                throw new IllegalStateException("Too many contacts for one check: " + total);
+            }
+            ContactGraph graph = new ContactGraph((int) total);
+            // Every contact carries at most an email and a phone
+            int passes = (int) Math.max(1, (2 * total + maxIdentifiers - 1) / maxIdentifiers);
+            for (int pass = 0; pass < passes; pass++) {
+                scan(workers, ranges, graph, pass, passes);
+            }
+            graph.linkContacts();
+            Report report = graph.analyze();
+            long relinked = verify(workers, graph, report, repair);
+
+            CheckResult result = new CheckResult(total, report.clusters, report.clustersWithSeveralPrimaries,
+                    report.chained, report.orphaned, report.toRelink, relinked, report.hashCollisions, passes,
+                    Duration.ofNanos(System.nanoTime() - started));
+            log.info("Contact graph check: {} live contacts in {} clusters, {} clusters with several primaries, " +
+                            "{} chained and {} orphaned contacts, {} to relink, {} relinked, {} hash collisions " +
+                            "in {} ({} pass(es), {} contacts/s)",
+                    result.contacts(), result.clusters(), result.clustersWithSeveralPrimaries(), result.chainedContacts(),
+                    result.orphanedContacts(), result.contactsToRelink(), result.contactsRelinked(),
+                    result.hashCollisions(), result.elapsed(), result.passes(), result.contactsPerSecond());
+            logSample("Clusters with several primaries, by primary id", report.severalPrimariesSample);
+            logSample("Chained contacts", report.chainedSample);
+            logSample("Orphaned contacts", report.orphanedSample);
+            logSample("Components joined only by identifier hash collisions, by first contact id",
+                    report.hashCollisionSample);
+            return result;
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    // Split the id space into ranges and count the live contacts of each, so every contact's node is its rank
+    private List<IdRange> plan(ExecutorService workers) throws InterruptedException {
+        long[] bounds = contactBatchRepository.idBounds();
+        if (bounds == null) {
+            return List.of();
+        }
+        long afterId = bounds[0] - 1;
+        long span = bounds[1] - afterId;
+        int rangeCount = (int) Math.min(span, (long) threads * RANGES_PER_THREAD);
+        List<IdRange> ranges = new ArrayList<>(rangeCount);
+        List<Future<Long>> counts = new ArrayList<>(rangeCount);
+        for (int i = 0; i < rangeCount; i++) {
+            long from = afterId + span * i / rangeCount;
+            long to = afterId + span * (i + 1) / rangeCount;
+            ranges.add(new IdRange(from, to));
+            counts.add(workers.submit(() -> contactBatchRepository.countLiveBetween(from, to)));
+        }
+        long base = 0;
+        for (int i = 0; i < rangeCount; i++) {
+            ranges.get(i).base = base;
+            ranges.get(i).count = await(counts.get(i));
+            base += ranges.get(i).count;
+        }
+        return ranges;
+    }
+
+    // One pass over the table: the workers read the ranges and hand the identifiers of this pass's partition
+    // to this thread, which alone touches the union-find; the first pass also fills the contact arrays
+    private void scan(ExecutorService workers, List<IdRange> ranges, ContactGraph graph, int pass, int passes)
+            throws InterruptedException {
+        long started = System.nanoTime();
+        BlockingQueue<IdentifierBatch> batches = new ArrayBlockingQueue<>(threads * 2);
+        for (IdRange range : ranges) {
+            workers.execute(() -> {
+                try {
+                    IdentifierBatch last;
+                    try {
+                        scanRange(range, graph, pass, passes, batches);
+                        last = IdentifierBatch.END;
+                    } catch (RuntimeException e) {
+                        last = IdentifierBatch.failed(e);
+                    }
+                    batches.put(last);
+                } catch (InterruptedException e) {
+                    // The check was abandoned
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+        graph.startPass();
+        for (int remaining = ranges.size(); remaining > 0; ) {
+            IdentifierBatch batch = batches.take();
+            if (batch.failure != null) {
+                throw new IllegalStateException("Contact graph scan failed", batch.failure);
+            }
+            if (batch == IdentifierBatch.END) {
+                remaining--;
+            } else {
+                graph.addIdentifiers(batch);
+            }
+        }
+        double seconds = Math.max(1e-9, (System.nanoTime() - started) / 1e9);
+        log.info("Contact graph check: pass {} of {} over {} contacts ({} contacts/s)",
+                pass + 1, passes, graph.size, Math.round(graph.size / seconds));
+    }
+
+    private void scanRange(IdRange range, ContactGraph graph, int pass, int passes,
+                           BlockingQueue<IdentifierBatch> batches) throws InterruptedException {
+        long afterId = range.fromId;
+        int node = (int) range.base;
+        int end = (int) (range.base + range.count);
+        while (true) {
+            List<Contact> chunk = contactBatchRepository.findLiveLinksAfter(afterId, range.toId, chunkSize);
+            if (chunk.isEmpty()) {
+                break;
+            }
+            if (node + chunk.size() > end) {
+                throw changedDuringCheck(range);
+            }
+            IdentifierBatch batch = new IdentifierBatch(chunk.size());
+            for (Contact contact : chunk) {
+                if (pass == 0) {
+                    graph.set(node, contact);
+                }
+                batch.add(node, contact.getEmailHash(), contact.getPhoneHash(), pass, passes);
+                node++;
+            }
+            batches.put(batch);
+            afterId = chunk.get(chunk.size() - 1).getId();
+        }
+        if (node != end) {
+            throw changedDuringCheck(range);
+        }
+    }
+
+    // Recheck the components with a contact to relink on their stored identifiers, then (when repairing)
+    // flatten every resulting component onto its primary and rebuild what is derived from the links
+    private long verify(ExecutorService workers, ContactGraph graph, Report report, boolean repair)
+            throws InterruptedException {
+        // Members of those components, grouped by component in root order; component i ends at ends[i]
+        int[] cursor = new int[graph.size];
+        for (int node = 0; node < graph.size; node++) {
+            int root = graph.nodes.find(node);
+            if (report.toVerify[root]) {
+                cursor[root]++;
+            }
+        }
+        int components = 0;
+        int total = 0;
+        for (int root = 0; root < graph.size; root++) {
+            if (report.toVerify[root] && graph.nodes.find(root) == root) {
+                int count = cursor[root];
+                cursor[root] = total;
+                total += count;
+                components++;
+            }
+        }
+        int[] members = new int[total];
+        for (int node = 0; node < graph.size; node++) {
+            int root = graph.nodes.find(node);
+            if (report.toVerify[root]) {
+                members[cursor[root]++] = node;
+            }
+        }
+        int[] ends = new int[components];
+        for (int root = 0, component = 0; root < graph.size; root++) {
+            if (report.toVerify[root] && graph.nodes.find(root) == root) {
+                ends[component++] = cursor[root];
+            }
+        }
+
+        LocalDateTime now = LocalDateTime.now();
+        List<Future<Verified>> tasks = new ArrayList<>();
+        for (int first = 0, component = 0; component < components; component++) {
+            int from = first == 0 ? 0 : ends[first - 1];
+            if (ends[component] - from >= chunkSize || component == components - 1) {
+                int firstComponent = first;
+                int lastComponent = component + 1;
+                tasks.add(workers.submit(() ->
+                        verifyComponents(graph, members, ends, firstComponent, lastComponent, repair, now)));
+                first = lastComponent;
+            }
+        }
+        long relinked = 0;
+        for (Future<Verified> task : tasks) {
+            Verified verified = await(task);
+            report.toRelink += verified.toRelink;
+            report.clusters += verified.extraClusters;
+            report.clustersWithSeveralPrimaries += verified.severalPrimariesDelta;
+            report.hashCollisions += verified.hashCollisions;
+            for (long id : verified.hashCollisionSample) {
+                sample(report.hashCollisionSample, id);
+            }
+            relinked += verified.relinked;
+        }
+        if (relinked > 0) {
+            transactionTemplate.executeWithoutResult(status -> {
+                contactClusterRepository.deleteStale();
+                contactClusterRepository.rebuildAll();
+                hotClusterRepository.deleteAllInBatch();
+            });
+            identityGraphCache.invalidateAll();
+        }
+        return relinked;
+    }
+
+    // Components firstComponent .. lastComponent - 1, split on their stored identifiers and links; only reads the
+    // graph, so tasks run in parallel
+    private Verified verifyComponents(ContactGraph graph, int[] members, int[] ends, int firstComponent,
+                                      int lastComponent, boolean repair, LocalDateTime now) {
+        int from = firstComponent == 0 ? 0 : ends[firstComponent - 1];
+        int to = ends[lastComponent - 1];
+        Map<Long, Contact> stored = new HashMap<>((to - from) * 2);
+        for (int start = from; start < to; start += chunkSize) {
+            Long[] ids = new Long[Math.min(chunkSize, to - start)];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = graph.ids[members[start + i]];
+            }
+            for (Contact contact : contactBatchRepository.findIdentifiers(ids)) {
+                stored.put(contact.getId(), contact);
+            }
+        }
+
+        Verified verified = new Verified();
+        List<Contact> updates = new ArrayList<>();
+        for (int component = firstComponent, start = from; component < lastComponent; start = ends[component++]) {
+            int size = ends[component] - start;
+            IntUnionFind local = new IntUnionFind(size);
+            LongIntHashMap localByNode = new LongIntHashMap(size);
+            for (int i = 0; i < size; i++) {
+                local.add();
+                localByNode.putIfAbsent(members[start + i], i);
+            }
+            Map<String, Integer> byEmail = new HashMap<>();
+            Map<String, Integer> byPhone = new HashMap<>();
+            for (int i = 0; i < size; i++) {
+                int node = members[start + i];
+                int linked = graph.nodeOf(graph.links[node]);
+                if (linked >= 0) {
+                    local.union(i, localByNode.get(linked));
+                }
+                Contact contact = stored.get(graph.ids[node]);
+                if (contact == null) {
+                    throw new IllegalStateException("Contact " + graph.ids[node] +
+                            " changed during the check; run it while the service is not taking writes");
+                }
+                unionOnIdentifier(local, byEmail, contact.getEmail(), i);
+                unionOnIdentifier(local, byPhone, contact.getPhoneNumber(), i);
+            }
+
+            // The contact identify keeps as primary, and the number of primaries, per split component
+            int[] best = new int[size];
+            int[] primaries = new int[size];
+            Arrays.fill(best, -1);
+            int splits = 0;
+            int componentPrimaries = 0;
+            for (int i = 0; i < size; i++) {
+                int root = local.find(i);
+                if (root == i) {
+                    splits++;
+                }
+                if (best[root] < 0 || graph.keepsOver(members[start + i], members[start + best[root]])) {
+                    best[root] = i;
+                }
+                if (graph.primary[members[start + i]]) {
+                    primaries[root]++;
+                    componentPrimaries++;
+                }
+            }
+            if (splits > 1) {
+                verified.hashCollisions++;
+                verified.extraClusters += splits - 1;
+                sample(verified.hashCollisionSample, graph.ids[members[start]]);
+                verified.severalPrimariesDelta -= componentPrimaries > 1 ? 1 : 0;
+                for (int i = 0; i < size; i++) {
+                    verified.severalPrimariesDelta += local.find(i) == i && primaries[i] > 1 ? 1 : 0;
+                }
+            }
+            for (int i = 0; i < size; i++) {
+                int node = members[start + i];
+                int primary = members[start + best[local.find(i)]];
+                if (!graph.isLinkedAsIdentifyWould(node, primary)) {
+                    verified.toRelink++;
+                    if (repair) {
+                        updates.add(Contact.builder()
+                                .id(graph.ids[node])
+                                .linkedId(node == primary ? null : graph.ids[primary])
+                                .linkPrecedence(node == primary ? LinkPrecedence.PRIMARY : LinkPrecedence.SECONDARY)
+                                .updatedAt(now)
+                                .build());
+                    }
+                }
+            }
+        }
+        if (!updates.isEmpty()) {
+            transactionTemplate.executeWithoutResult(status -> contactBatchRepository.updateLinks(updates));
+            verified.relinked = updates.size();
+        }
+        return verified;
+    }
+
+    private static void unionOnIdentifier(IntUnionFind local, Map<String, Integer> index, String identifier, int i) {
+        if (identifier != null) {
+            Integer other = index.putIfAbsent(identifier, i);
+            if (other != null) {
+                local.union(i, other);
+            }
+        }
+    }
+
+    private static <T> T await(Future<T> future) throws InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Contact graph check failed", e.getCause());
+        }
+    }
+
+    private static IllegalStateException changedDuringCheck(IdRange range) {
+        return new IllegalStateException("Contacts with ids in (" + range.fromId + ", " + range.toId +
+                "] changed during the check; run it while the service is not taking writes");
+    }
+
+    private static void sample(List<Long> sample, long id) {
+        if (sample.size() < SAMPLE_SIZE) {
+            sample.add(id);
+        }
+    }
+
+    private static void logSample(String anomaly, List<Long> ids) {
+        if (!ids.isEmpty()) {
+            log.warn("{} (first {}): {}", anomaly, ids.size(), ids);
+        }
+    }
+
+    // Live contacts with an id in (fromId, toId], which are nodes base .. base + count - 1
+    private static final class IdRange {
+        private final long fromId;
+        private final long toId;
+        private long base;
+        private long count;
+
+        IdRange(long fromId, long toId) {
+            this.fromId = fromId;
+            this.toId = toId;
+        }
+    }
+
+    // The email and phone hashes of one chunk that fall in the current pass's partition
+    private static final class IdentifierBatch {
+        private static final IdentifierBatch END = new IdentifierBatch(0);
+
+        private final int[] nodes;
+        private final long[] hashes;
+        private final boolean[] phone;
+        private int size;
+        private RuntimeException failure;
+
+        IdentifierBatch(int contacts) {
+            nodes = new int[contacts * 2];
+            hashes = new long[contacts * 2];
+            phone = new boolean[contacts * 2];
+        }
+
+        static IdentifierBatch failed(RuntimeException failure) {
+            IdentifierBatch batch = new IdentifierBatch(0);
+            batch.failure = failure;
+            return batch;
+        }
+
+        void add(int node, Long emailHash, Long phoneHash, int pass, int passes) {
+            add(node, emailHash, false, pass, passes);
+            add(node, phoneHash, true, pass, passes);
+        }
+
+        private void add(int node, Long hash, boolean isPhone, int pass, int passes) {
+            if (hash != null && Long.remainderUnsigned(hash, passes) == pass) {
+                nodes[size] = node;
+                hashes[size] = hash;
+                phone[size] = isPhone;
+                size++;
+            }
+        }
+    }
+
+    /**
+     * The live contacts as dense int nodes in id order. Arrays are written by the scan workers, each into
+     * its own range of nodes, and read by the checking thread once the first pass is over.
+     */
+    private static final class ContactGraph {
+        private final int size;
+        private final long[] ids;
+        // Linked contact id, 0 for none
+        private final long[] links;
+        // Creation time in epoch microseconds, Long.MAX_VALUE if unknown
+        private final long[] createdAt;
+        private final boolean[] primary;
+        private final IntUnionFind nodes;
+        private LongIntHashMap nodeByEmail;
+        private LongIntHashMap nodeByPhone;
+
+        ContactGraph(int size) {
+            this.size = size;
+            ids = new long[size];
+            links = new long[size];
+            createdAt = new long[size];
+            primary = new boolean[size];
+            nodes = new IntUnionFind(size);
+            for (int node = 0; node < size; node++) {
+                nodes.add();
+            }
+        }
+
+        void set(int node, Contact contact) {
+            ids[node] = contact.getId();
+            links[node] = contact.getLinkedId() != null ? contact.getLinkedId() : 0;
+            LocalDateTime created = contact.getCreatedAt();
+            createdAt[node] = created == null ? Long.MAX_VALUE
+                    : created.toEpochSecond(ZoneOffset.UTC) * 1_000_000 + created.getNano() / 1_000;
+            primary[node] = contact.getLinkPrecedence() == LinkPrecedence.PRIMARY;
+        }
+
+        // Each pass indexes only its own partition of the identifiers
+        void startPass() {
+            nodeByEmail = new LongIntHashMap(1 << 16);
+            nodeByPhone = new LongIntHashMap(1 << 16);
+        }
+
+        void addIdentifiers(IdentifierBatch batch) {
+            for (int i = 0; i < batch.size; i++) {
+                LongIntHashMap index = batch.phone[i] ? nodeByPhone : nodeByEmail;
+                int other = index.putIfAbsent(batch.hashes[i], batch.nodes[i]);
+                if (other >= 0) {
+                    nodes.union(batch.nodes[i], other);
+                }
+            }
+        }
+
+        // Union every contact with the live contact it is linked to
+        void linkContacts() {
+            nodeByEmail = null;
+            nodeByPhone = null;
+            for (int node = 0; node < size; node++) {
+                int linked = nodeOf(links[node]);
+                if (linked >= 0) {
+                    nodes.union(node, linked);
+                }
+            }
+        }
+
+        Report analyze() {
+            Report report = new Report(size);
+            for (int node = 0; node < size; node++) {
+                int root = nodes.find(node);
+                int best = report.primaryByRoot[root];
+                if (best < 0 || keepsOver(node, best)) {
+                    report.primaryByRoot[root] = node;
+                }
+            }
+            boolean[] seenPrimary = new boolean[size];
+            boolean[] severalPrimaries = new boolean[size];
+            for (int node = 0; node < size; node++) {
+                int root = nodes.find(node);
+                if (root == node) {
+                    report.clusters++;
+                }
+                if (primary[node]) {
+                    if (seenPrimary[root] && !severalPrimaries[root]) {
+                        severalPrimaries[root] = true;
+                        report.clustersWithSeveralPrimaries++;
+                        sample(report.severalPrimariesSample, ids[report.primaryByRoot[root]]);
+                    }
+                    seenPrimary[root] = true;
+                }
+                int linked = nodeOf(links[node]);
+                if ((!primary[node] && links[node] == 0) || (links[node] != 0 && linked < 0)) {
+                    report.orphaned++;
+                    sample(report.orphanedSample, ids[node]);
+                } else if (linked >= 0 && links[linked] != 0) {
+                    report.chained++;
+                    sample(report.chainedSample, ids[node]);
+                }
+                if (!isLinkedAsIdentifyWould(node, report.primaryByRoot[root])) {
+                    report.toVerify[root] = true;
+                }
+            }
+            return report;
+        }
+
+        boolean isLinkedAsIdentifyWould(int node, int primaryNode) {
+            return node == primaryNode
+                    ? primary[node] && links[node] == 0
+                    : !primary[node] && links[node] == ids[primaryNode];
+        }
+
+        // The contact identify keeps as primary: the oldest PRIMARY, or the oldest contact if none is
+        private boolean keepsOver(int node, int other) {
+            if (primary[node] != primary[other]) {
+                return primary[node];
+            }
+            return createdAt[node] != createdAt[other] ? createdAt[node] < createdAt[other] : ids[node] < ids[other];
+        }
+
+        // Node of a live contact id, or -1
+        private int nodeOf(long id) {
+            if (id == 0) {
+                return -1;
+            }
+            int node = Arrays.binarySearch(ids, id);
+            return node >= 0 ? node : -1;
+        }
+    }
+
+    // What one verification task found
+    private static final class Verified {
+        private long toRelink;
+        private long relinked;
+        private long extraClusters;
+        private long severalPrimariesDelta;
+        private long hashCollisions;
+        private final List<Long> hashCollisionSample = new ArrayList<>();
+    }
+
+    private static final class Report {
+        // The node every contact of a component should link to, indexed by the component's root
+        private final int[] primaryByRoot;
+        // Components with a contact to relink, indexed by the component's root
+        private final boolean[] toVerify;
+        private long clusters;
+        private long clustersWithSeveralPrimaries;
+        private long chained;
+        private long orphaned;
+        private long toRelink;
+        private long hashCollisions;
+        private final List<Long> severalPrimariesSample = new ArrayList<>();
+        private final List<Long> chainedSample = new ArrayList<>();
+        private final List<Long> orphanedSample = new ArrayList<>();
+        private final List<Long> hashCollisionSample = new ArrayList<>();
+
+        Report(int size) {
+            primaryByRoot = new int[size];
+            toVerify = new boolean[size];
+            Arrays.fill(primaryByRoot, -1);
+        }
+
+    }
+
+    public record CheckResult(long contacts, long clusters, long clustersWithSeveralPrimaries, long chainedContacts,
+                              long orphanedContacts, long contactsToRelink, long contactsRelinked, long hashCollisions,
+                              int passes, Duration elapsed) {
+
+        public long contactsPerSecond() {
+            return elapsed.isZero() ? 0 : Math.round(contacts / (elapsed.toNanos() / 1e9));
+        }
+    }
+}
@@ -1,31 +1,153 @@
 package com.bitespeed.identityreconciliation.controller;
 
+import com.bitespeed.identityreconciliation.admission.AdmissionLimiter;
+import com.bitespeed.identityreconciliation.admission.AdmissionLimiter.Permit;
+import com.bitespeed.identityreconciliation.admission.AdmissionLimiter.Priority;
+import com.bitespeed.identityreconciliation.admission.AdmissionLimiters;
+import com.bitespeed.identityreconciliation.dto.BatchIdentifyResponse;
+import com.bitespeed.identityreconciliation.dto.ContactSummary;
+import com.bitespeed.identityreconciliation.dto.ErrorResponse;
+import com.bitespeed.identityreconciliation.dto.IdentifyRequest;
+import com.bitespeed.identityreconciliation.dto.IdentifyResponse;
+import com.bitespeed.identityreconciliation.service.ContactBatchService;
 import com.bitespeed.identityreconciliation.service.ContactService;
+import com.bitespeed.identityreconciliation.sharding.ShardRouter;
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
-import java.util.Map;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Supplier;
 
 @RestController
 @RequestMapping("/identify")
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 @RequiredArgsConstructor
 public class ContactController {
     private final ContactService contactService;
+    private final ContactBatchService contactBatchService;
+    private final ShardRouter shardRouter;
+    private final AdmissionLimiters admissionLimiters;
 
+    @Value("${identity.batch.max-size:1000}")
+    private int maxBatchSize;
+
+    @Value("${identity.response.max-page-size:10000}")
+    private int maxPageSize;
 
     @PostMapping
-    public ResponseEntity<Map<String, Object>> identifyContact(@RequestBody Map<String, String> request) {
-        String email = request.get("email");
-        String phoneNumber = request.get("phoneNumber");
+    public ResponseEntity<?> identifyContact(@RequestBody IdentifyRequest request) {
+        if (isBlank(request.email()) && isBlank(request.phoneNumber())) {
+            return ResponseEntity.badRequest().body(new ErrorResponse("Either email or phoneNumber must be provided."));
+        }
+        if (!shardRouter.isKnown(request.tenant())) {
+            return ResponseEntity.badRequest().body(new ErrorResponse("Unknown tenant: " + request.tenant()));
+        }
 
-        if ((email == null || email.trim().isEmpty()) && (phoneNumber == null || phoneNumber.trim().isEmpty())) {
-            return ResponseEntity.badRequest().body(Map.of("error", "Either email or phoneNumber must be provided."));
+        // Repeats answered from the identity graph cache never reach the database, so they are never shed
+        ContactSummary cached = contactService.identifyFromCache(request.tenant(), request.email(), request.phoneNumber());
+        if (cached != null) {
+            return ResponseEntity.ok(new IdentifyResponse(cached));
+        }
+        return admitted(request.tenant(), Priority.WRITE, 1, () -> {
+            ContactSummary contact = contactService.identifyOrLinkContact(request.tenant(), request.email(), request.phoneNumber());
+            return ResponseEntity.ok(new IdentifyResponse(contact));
+        });
+    }
+
+    // Read-only: served from the contact_cluster projection, never creates or links contacts
+    @GetMapping
+    public ResponseEntity<?> lookupContact(@RequestParam(required = false) String email,
+                                           @RequestParam(required = false) String phoneNumber,
+                                           @RequestParam(required = false) String tenant) {
+        if (isBlank(email) == isBlank(phoneNumber)) {
+            return ResponseEntity.badRequest().body(new ErrorResponse("Exactly one of email or phoneNumber must be provided."));
+        }
+        if (!shardRouter.isKnown(tenant)) {
+            return ResponseEntity.badRequest().body(new ErrorResponse("Unknown tenant: " + tenant));
         }
 
-        Map<String, Object> contactResponse = contactService.identifyOrLinkContact(email, phoneNumber);
-        Map<String, Object> response = new java.util.HashMap<>();
-        response.put("contact", contactResponse);
-        return ResponseEntity.ok(response);
+        String lookupEmail = isBlank(email) ? null : email;
+        String lookupPhoneNumber = isBlank(phoneNumber) ? null : phoneNumber;
+        return admitted(tenant, Priority.READ, 1, () -> contactService.lookup(tenant, lookupEmail, lookupPhoneNumber)
+                .<ResponseEntity<?>>map(contact -> ResponseEntity.ok(new IdentifyResponse(contact)))
+                .orElseGet(() -> ResponseEntity.status(HttpStatus.NOT_FOUND).body(new ErrorResponse("No contact found."))));
+    }
+
+    // Pages through all secondaries of a primary (whose lists a response may cut), straight from the contact table
+    @GetMapping("/{primaryContactId}/secondaries")
+    public ResponseEntity<?> secondaries(@PathVariable Long primaryContactId,
+                                         @RequestParam(defaultValue = "0") long after,
+                                         @RequestParam(defaultValue = "1000") int limit,
+                                         @RequestParam(required = false) String tenant) {
+        if (limit < 1 || limit > maxPageSize) {
+            return ResponseEntity.badRequest().body(new ErrorResponse("limit must be between 1 and " + maxPageSize + "."));
+        }
+        if (!shardRouter.isKnown(tenant)) {
+            return ResponseEntity.badRequest().body(new ErrorResponse("Unknown tenant: " + tenant));
+        }
+
+        return admitted(tenant, Priority.READ, 1, () -> contactService.secondaries(tenant, primaryContactId, after, limit)
+                .<ResponseEntity<?>>map(ResponseEntity::ok)
+                .orElseGet(() -> ResponseEntity.status(HttpStatus.NOT_FOUND).body(new ErrorResponse("No contact found."))));
+    }
+
+    @PostMapping("/batch")
+    public ResponseEntity<?> identifyContacts(@RequestBody List<IdentifyRequest> requests) {
+        if (requests == null || requests.isEmpty()) {
+            return ResponseEntity.badRequest().body(new ErrorResponse("At least one item must be provided."));
+        }
+        if (requests.size() > maxBatchSize) {
+            return ResponseEntity.badRequest().body(new ErrorResponse("At most " + maxBatchSize + " items can be identified per batch."));
+        }
+        for (int i = 0; i < requests.size(); i++) {
+            IdentifyRequest request = requests.get(i);
+            if (request == null || (isBlank(request.email()) && isBlank(request.phoneNumber()))) {
+                return ResponseEntity.badRequest().body(new ErrorResponse("Item " + i + ": Either email or phoneNumber must be provided."));
+            }
+            // One transaction, so one store
+            if (!Objects.equals(request.tenant(), requests.get(0).tenant())) {
+                return ResponseEntity.badRequest().body(new ErrorResponse("Item " + i + ": All items must be for the same tenant."));
+            }
+        }
+        if (!shardRouter.isKnown(requests.get(0).tenant())) {
+            return ResponseEntity.badRequest().body(new ErrorResponse("Unknown tenant: " + requests.get(0).tenant()));
+        }
+
+        // Per-item results, in request order
+        return admitted(requests.get(0).tenant(), Priority.WRITE, requests.size(), () -> {
+            List<IdentifyResponse> results = contactBatchService.identifyBatch(requests).stream()
+                    .map(IdentifyResponse::new)
+                    .toList();
+            return ResponseEntity.ok(new BatchIdentifyResponse(results));
+        });
+    }
+
+    // Runs the call (of the given number of identifies) if the tenant's shard admits it, else answers 429 straight away
+    private ResponseEntity<?> admitted(String tenant, Priority priority, int calls, Supplier<ResponseEntity<?>> call) {
+        AdmissionLimiter admissionLimiter = admissionLimiters.forTenant(tenant);
+        Permit permit = admissionLimiter.tryAcquire(priority);
+        if (permit == null) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(admissionLimiter.retryAfterSeconds()))
+                    .body(new ErrorResponse("Too many requests, retry later."));
+        }
+        boolean succeeded = false;
+        try {
+            ResponseEntity<?> response = call.get();
+            succeeded = true;
+            return response;
+        } finally {
+            permit.release(succeeded, calls);
+        }
+    }
+
+    private static boolean isBlank(String value) {
+        return value == null || value.trim().isEmpty();
     }
 }
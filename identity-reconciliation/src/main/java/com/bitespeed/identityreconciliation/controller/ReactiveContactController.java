@@ -0,0 +1,52 @@
+package com.bitespeed.identityreconciliation.controller;
+
+import com.bitespeed.identityreconciliation.dto.ErrorResponse;
+import com.bitespeed.identityreconciliation.dto.IdentifyRequest;
+import com.bitespeed.identityreconciliation.dto.IdentifyResponse;
+import com.bitespeed.identityreconciliation.service.ReactiveContactService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Mono;
+
+// WebFlux /identify for the reactive profile; same contract as ContactController's
+@RestController
+@RequestMapping("/identify")
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+@RequiredArgsConstructor
+public class ReactiveContactController {
+    private final ReactiveContactService contactService;
+
+    @PostMapping
+    public Mono<ResponseEntity<?>> identifyContact(@RequestBody IdentifyRequest request) {
+        if (isBlank(request.email()) && isBlank(request.phoneNumber())) {
+            return Mono.just(ResponseEntity.badRequest().body(new ErrorResponse("Either email or phoneNumber must be provided.")));
+        }
+        // Only the default store: identity.sharding routes JDBC connections, not R2DBC ones
+        if (!isBlank(request.tenant())) {
+            return Mono.just(ResponseEntity.badRequest().body(new ErrorResponse("Unknown tenant: " + request.tenant())));
+        }
+
+        return contactService.identifyOrLinkContact(request.email(), request.phoneNumber())
+                .map(contact -> ResponseEntity.ok(new IdentifyResponse(contact)));
+    }
+
+    // See ContactController.lookupContact
+    @GetMapping
+    public Mono<ResponseEntity<?>> lookupContact(@RequestParam(required = false) String email,
+                                                 @RequestParam(required = false) String phoneNumber) {
+        if (isBlank(email) == isBlank(phoneNumber)) {
+            return Mono.just(ResponseEntity.badRequest().body(new ErrorResponse("Exactly one of email or phoneNumber must be provided.")));
+        }
+
+        return contactService.lookup(isBlank(email) ? null : email, isBlank(phoneNumber) ? null : phoneNumber)
+                .<ResponseEntity<?>>map(contact -> ResponseEntity.ok(new IdentifyResponse(contact)))
+                .defaultIfEmpty(ResponseEntity.status(HttpStatus.NOT_FOUND).body(new ErrorResponse("No contact found.")));
+    }
+
+    private static boolean isBlank(String value) {
+        return value == null || value.trim().isEmpty();
+    }
+}
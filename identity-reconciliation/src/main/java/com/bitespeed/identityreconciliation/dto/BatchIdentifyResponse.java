@@ -0,0 +1,7 @@
+package com.bitespeed.identityreconciliation.dto;
+
+import java.util.List;
+
+// Per-item results of POST /identify/batch, in request order
+public record BatchIdentifyResponse(List<IdentifyResponse> results) {
+}
@@ -0,0 +1,101 @@
+package com.bitespeed.identityreconciliation.dto;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+import java.io.IOException;
+import java.util.List;
+
+// Consolidated contact of an identity cluster; emails and phone numbers start with the primary's.
+// Lists of large clusters may be cut to their first entries (identity.response.max-list-size, hot clusters);
+// the counts are always those of the whole cluster.
+@JsonSerialize(using = ContactSummary.Serializer.class)
+public record ContactSummary(Long primaryContactId,
+                             List<String> emails,
+                             List<String> phoneNumbers,
+                             List<Long> secondaryContactIds,
+                             int emailCount,
+                             int phoneNumberCount,
+                             int secondaryContactCount) {
+
+    public ContactSummary(Long primaryContactId, List<String> emails, List<String> phoneNumbers, List<Long> secondaryContactIds) {
+        this(primaryContactId, emails, phoneNumbers, secondaryContactIds, emails.size(), phoneNumbers.size(),
+                secondaryContactIds.size());
+    }
+
+    public boolean isTruncated() {
+        return emailCount > emails.size() || phoneNumberCount > phoneNumbers.size()
+                || secondaryContactCount > secondaryContactIds.size();
+    }
+
+    // The same summary with every list cut to at most maxSize entries (0 = no limit)
+    public ContactSummary limit(int maxSize) {
+        if (maxSize <= 0 || (emails.size() <= maxSize && phoneNumbers.size() <= maxSize && secondaryContactIds.size() <= maxSize)) {
+            return this;
+        }
+        return new ContactSummary(primaryContactId, head(emails, maxSize), head(phoneNumbers, maxSize),
+                head(secondaryContactIds, maxSize), emailCount, phoneNumberCount, secondaryContactCount);
+    }
+
+    private static <T> List<T> head(List<T> values, int maxSize) {
+        return values.size() > maxSize ? values.subList(0, maxSize) : values;
+    }
+
+    // Writes the fields directly with pre-encoded names, skipping bean introspection and name escaping
+    public static final class Serializer extends StdSerializer<ContactSummary> {
+
+        private static final SerializedString PRIMARY_CONTACT_ID = new SerializedString("primaryContactId");
+        private static final SerializedString EMAILS = new SerializedString("emails");
+        private static final SerializedString PHONE_NUMBERS = new SerializedString("phoneNumbers");
+        private static final SerializedString SECONDARY_CONTACT_IDS = new SerializedString("secondaryContactIds");
+        private static final SerializedString EMAIL_COUNT = new SerializedString("emailCount");
+        private static final SerializedString PHONE_NUMBER_COUNT = new SerializedString("phoneNumberCount");
+        private static final SerializedString SECONDARY_CONTACT_COUNT = new SerializedString("secondaryContactCount");
+
+        public Serializer() {
+            super(ContactSummary.class);
+        }
+
+        @Override
+        public void serialize(ContactSummary summary, JsonGenerator generator, SerializerProvider provider) throws IOException {
+            generator.writeStartObject(summary);
+            generator.writeFieldName(PRIMARY_CONTACT_ID);
+            if (summary.primaryContactId() == null) {
+                generator.writeNull();
+            } else {
+                generator.writeNumber(summary.primaryContactId());
+            }
+            generator.writeFieldName(EMAILS);
+            writeStrings(generator, summary.emails());
+            generator.writeFieldName(PHONE_NUMBERS);
+            writeStrings(generator, summary.phoneNumbers());
+            generator.writeFieldName(SECONDARY_CONTACT_IDS);
+            generator.writeStartArray(summary.secondaryContactIds(), summary.secondaryContactIds().size());
+            for (Long id : summary.secondaryContactIds()) {
+                generator.writeNumber(id);
+            }
+            generator.writeEndArray();
+            // Only on truncated responses, so complete ones keep the original shape
+            if (summary.isTruncated()) {
+                generator.writeFieldName(EMAIL_COUNT);
+                generator.writeNumber(summary.emailCount());
+                generator.writeFieldName(PHONE_NUMBER_COUNT);
+                generator.writeNumber(summary.phoneNumberCount());
+                generator.writeFieldName(SECONDARY_CONTACT_COUNT);
+                generator.writeNumber(summary.secondaryContactCount());
+            }
+            generator.writeEndObject();
+        }
+
+        private static void writeStrings(JsonGenerator generator, List<String> values) throws IOException {
+            generator.writeStartArray(values, values.size());
+            for (String value : values) {
+                generator.writeString(value);
+            }
+            generator.writeEndArray();
+        }
+    }
+}
@@ -0,0 +1,4 @@
+package com.bitespeed.identityreconciliation.dto;
+
+public record ErrorResponse(String error) {
+}
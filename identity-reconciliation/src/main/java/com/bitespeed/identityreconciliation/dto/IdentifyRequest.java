@@ -1,9 +1,9 @@
 package com.bitespeed.identityreconciliation.dto;
 
-import lombok.Data;
+// tenant selects the store (see ShardRouter); requests without one use the default store
+public record IdentifyRequest(String email, String phoneNumber, String tenant) {
 
-@Data
-public class IdentifyRequest {
-    private String email;
-    private String phoneNumber;
+    public IdentifyRequest(String email, String phoneNumber) {
+        this(email, phoneNumber, null);
+    }
 }
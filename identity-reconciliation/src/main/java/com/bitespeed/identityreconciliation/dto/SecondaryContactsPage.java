@@ -0,0 +1,11 @@
+package com.bitespeed.identityreconciliation.dto;
+
+import java.util.List;
+
+// One page of GET /identify/{primaryContactId}/secondaries in id order; next is the "after" of the following
+// page, null on the last one
+public record SecondaryContactsPage(Long primaryContactId, List<SecondaryContact> secondaries, Long next) {
+
+    public record SecondaryContact(Long id, String email, String phoneNumber) {
+    }
+}
@@ -0,0 +1,203 @@
+package com.bitespeed.identityreconciliation.embedded;
+
+import com.bitespeed.identityreconciliation.model.Contact;
+import com.bitespeed.identityreconciliation.model.LinkPrecedence;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+import java.util.function.Supplier;
+
+// Append-only file of the in-memory store's writes: every saved contact is appended whole and every removal
+// as its id, so replaying the file in order rebuilds the store. On open the file is replayed and rewritten
+// with one record per contact, so it only grows with the writes since the last start. Appends are flushed
+// to the OS after each repository call and forced to disk on close. Not thread-safe, the store serializes
+// access.
+@Slf4j
+final class ContactSnapshotFile implements Closeable {
+
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+
+    private final Path file;
+    private FileOutputStream stream;
+    private DataOutputStream out;
+
+    private ContactSnapshotFile(Path file) {
+        this.file = file;
+    }
+
+    // Replays the file (if any) into the callbacks, compacts it to the given contacts, and opens it for appends
+    static ContactSnapshotFile open(Path file, Consumer<Contact> put, LongConsumer remove,
+                                   Supplier<Iterable<Contact>> contacts) throws IOException {
+        ContactSnapshotFile snapshot = new ContactSnapshotFile(file);
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        if (Files.exists(file)) {
+            snapshot.replay(put, remove);
+        }
+        snapshot.rewrite(contacts.get());
+        return snapshot;
+    }
+
+    void put(Contact contact) throws IOException {
+        out.writeByte(PUT);
+        out.writeLong(contact.getId());
+        writeString(contact.getEmail());
+        writeString(contact.getPhoneNumber());
+        out.writeLong(contact.getLinkedId() == null ? 0 : contact.getLinkedId());
+        out.writeByte(contact.getLinkPrecedence() == null ? -1 : contact.getLinkPrecedence().ordinal());
+        writeTime(contact.getCreatedAt());
+        writeTime(contact.getUpdatedAt());
+        writeTime(contact.getDeletedAt());
+    }
+
+    void remove(long id) throws IOException {
+        out.writeByte(REMOVE);
+        out.writeLong(id);
+    }
+
+    void flush() throws IOException {
+        out.flush();
+    }
+
+    // Drop every record, for a store that was emptied
+    void clear() throws IOException {
+        out.flush();
+        stream.getChannel().truncate(0);
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.flush();
+        stream.getChannel().force(true);
+        out.close();
+    }
+
+    private void replay(Consumer<Contact> put, LongConsumer remove) throws IOException {
+        long records = 0;
+        long validLength = 0;
+        try (CountingInputStream counting = new CountingInputStream(new BufferedInputStream(Files.newInputStream(file)));
+             DataInputStream in = new DataInputStream(counting)) {
+            while (true) {
+                int tag = in.read();
+                if (tag == -1) {
+                    break;
+                }
+                if (tag == PUT) {
+                    put.accept(readContact(in));
+                } else if (tag == REMOVE) {
+                    remove.accept(in.readLong());
+                } else {
+                    throw new IOException("Corrupt snapshot " + file + " at byte " + validLength);
+                }
+                records++;
+                validLength = counting.count;
+            }
+        } catch (EOFException e) {
+            // A record cut short by a crash mid-append; everything before it was replayed
+            log.warn("Ignoring a partial record at byte {} of {}", validLength, file);
+        }
+        log.info("Replayed {} records from {}", records, file);
+    }
+
+    // Write the contacts to a new file and swap it in, then append to it
+    private void rewrite(Iterable<Contact> contacts) throws IOException {
+        Path compacted = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileOutputStream compactedStream = new FileOutputStream(compacted.toFile())) {
+            out = new DataOutputStream(new BufferedOutputStream(compactedStream, 1 << 16));
+            for (Contact contact : contacts) {
+                put(contact);
+            }
+            out.flush();
+            compactedStream.getChannel().force(true);
+        }
+        Files.move(compacted, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        stream = new FileOutputStream(file.toFile(), true);
+        out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16));
+    }
+
+    private Contact readContact(DataInputStream in) throws IOException {
+        long id = in.readLong();
+        String email = readString(in);
+        String phoneNumber = readString(in);
+        long linkedId = in.readLong();
+        byte precedence = in.readByte();
+        return Contact.builder()
+                .id(id)
+                .email(email)
+                .phoneNumber(phoneNumber)
+                .linkedId(linkedId == 0 ? null : linkedId)
+                .linkPrecedence(precedence < 0 ? null : LinkPrecedence.values()[precedence])
+                .createdAt(readTime(in))
+                .updatedAt(readTime(in))
+                .deletedAt(readTime(in))
+                .build();
+    }
+
+    private void writeString(String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private void writeTime(LocalDateTime time) throws IOException {
+        out.writeBoolean(time != null);
+        if (time != null) {
+            out.writeLong(time.toEpochSecond(ZoneOffset.UTC));
+            out.writeInt(time.getNano());
+        }
+    }
+
+    private static LocalDateTime readTime(DataInputStream in) throws IOException {
+        return in.readBoolean() ? LocalDateTime.ofEpochSecond(in.readLong(), in.readInt(), ZoneOffset.UTC) : null;
+    }
+
+    // Bytes read so far, so replay knows where the last complete record ends
+    private static final class CountingInputStream extends FilterInputStream {
+        private long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.bitespeed.identityreconciliation.embedded;
+
+import com.bitespeed.identityreconciliation.cache.IdentityGraphCache;
+import com.bitespeed.identityreconciliation.dto.ContactSummary;
+import com.bitespeed.identityreconciliation.dto.SecondaryContactsPage;
+import com.bitespeed.identityreconciliation.events.ContactEventOutbox;
+import com.bitespeed.identityreconciliation.repository.ContactClusterRepository;
+import com.bitespeed.identityreconciliation.repository.HotClusterRepository;
+import com.bitespeed.identityreconciliation.service.ContactService;
+import com.bitespeed.identityreconciliation.service.IdentifierNormalizer;
+import com.bitespeed.identityreconciliation.service.IdentifyCoalescer;
+import com.bitespeed.identityreconciliation.service.IdentifyMetrics;
+import com.bitespeed.identityreconciliation.service.IdentityLockManager;
+import com.bitespeed.identityreconciliation.sharding.ShardRouter;
+import com.bitespeed.identityreconciliation.sharding.ShardingProperties;
+import com.bitespeed.identityreconciliation.writebehind.WriteBehindBuffer;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
+import jakarta.persistence.EntityManager;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * Identify without Postgres, for edge and batch jobs that embed reconciliation: the server's ContactService,
+ * wired by hand over an {@link InMemoryContactRepository} instead of by Spring over JPA. Matching, merging,
+ * normalization, coalescing and the responses are the same; lookups resolve the cluster from the store
+ * instead of contact_cluster. There is no identity graph cache (the store is already in memory), no hot-cluster
+ * summaries, write-behind or change events, and no transactions (see InMemoryContactRepository); instead,
+ * reconciliations run one at a time, so merges never interleave.
+ *
+ * Thread-safe. {@link #open(Path)} persists the contacts to a snapshot file and reloads them from it on the
+ * next open; close the service to force the file to disk.
+ */
+public class EmbeddedIdentityService implements Closeable {
+
+    private final InMemoryContactRepository contactRepository;
+    private final ContactService contactService;
+
+    public EmbeddedIdentityService(InMemoryContactRepository contactRepository, String defaultCountryCode,
+                                   MeterRegistry meterRegistry) {
+        this.contactRepository = contactRepository;
+        IdentifierNormalizer normalizer = new IdentifierNormalizer(defaultCountryCode);
+        this.contactService = new ContactService(contactRepository,
+                clusterProjection(contactRepository),
+                normalizer,
+                new IdentityLockManager(contactRepository, normalizer, 1024, false),
+                new TransactionTemplate(new SerialTransactionManager()),
+                unsupported(EntityManager.class, Map.of("clear", args -> null)),
+                new IdentityGraphCache(contactRepository, false, 0, Duration.ZERO),
+                new IdentifyMetrics(ObservationRegistry.NOOP, meterRegistry),
+                new WriteBehindBuffer(null, null, null, null, null, null, null, meterRegistry,
+                        false, Path.of("write-behind"), Duration.ZERO, 0),
+                unsupported(HotClusterRepository.class, Map.of("findById", args -> Optional.empty())),
+                new ContactEventOutbox(null, false),
+                new IdentifyCoalescer(meterRegistry, true, 10_000),
+                new ShardRouter(ShardingProperties.disabled()),
+                // No hot-cluster summaries, and responses list every identifier
+                0, 0);
+    }
+
+    // A store that lives as long as the process
+    public static EmbeddedIdentityService inMemory() {
+        return new EmbeddedIdentityService(new InMemoryContactRepository(), "", new SimpleMeterRegistry());
+    }
+
+    // A store loaded from, and persisted to, the snapshot file
+    public static EmbeddedIdentityService open(Path snapshotFile) throws IOException {
+        return new EmbeddedIdentityService(new InMemoryContactRepository(snapshotFile), "", new SimpleMeterRegistry());
+    }
+
+    public ContactSummary identify(String email, String phoneNumber) {
+        return contactService.identifyOrLinkContact(email, phoneNumber);
+    }
+
+    public Optional<ContactSummary> lookup(String email, String phoneNumber) {
+        return contactService.lookup(email, phoneNumber);
+    }
+
+    public Optional<SecondaryContactsPage> secondaries(Long primaryContactId, long after, int limit) {
+        return contactService.secondaries(primaryContactId, after, limit);
+    }
+
+    public ContactService contactService() {
+        return contactService;
+    }
+
+    public InMemoryContactRepository contactRepository() {
+        return contactRepository;
+    }
+
+    @Override
+    public void close() throws IOException {
+        contactRepository.close();
+    }
+
+    // contact_cluster is computed from the store on read, so there is nothing to refresh
+    private static ContactClusterRepository clusterProjection(InMemoryContactRepository store) {
+        return unsupported(ContactClusterRepository.class, Map.of(
+                "refresh", args -> 0,
+                "findPrimaryContactIdByEmail", args -> store.findPrimaryContactIdByEmail((String) args[0]),
+                "findPrimaryContactIdByPhoneNumber", args -> store.findPrimaryContactIdByPhoneNumber((String) args[0]),
+                "findById", args -> store.findClusterById((Long) args[0])));
+    }
+
+    // A JPA-only collaborator of ContactService: the given methods are answered, any other call fails
+    private static <T> T unsupported(Class<T> type, Map<String, Function<Object[], Object>> methods) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            Function<Object[], Object> answer = methods.get(method.getName());
+            if (answer != null) {
+                return answer.apply(args);
+            }
+            return switch (method.getName()) {
+                case "hashCode" -> System.identityHashCode(proxy);
+                case "equals" -> proxy == args[0];
+                case "toString" -> "Embedded " + type.getSimpleName();
+                default -> throw new UnsupportedOperationException(type.getSimpleName() + "." + method.getName()
+                        + " is not available in the embedded service");
+            };
+        }));
+    }
+
+    // Every repository call is atomic on its own, so there is nothing to commit or roll back. The store has no
+    // advisory locks on primary ids either: without one lock across the whole reconciliation, a merge could
+    // relink contacts under a primary that a concurrent merge of a neighbouring cluster has just demoted
+    private static final class SerialTransactionManager implements PlatformTransactionManager {
+        private final ReentrantLock reconciliation = new ReentrantLock();
+
+        @Override
+        public TransactionStatus getTransaction(TransactionDefinition definition) {
+            reconciliation.lock();
+            return new SimpleTransactionStatus();
+        }
+
+        @Override
+        public void commit(TransactionStatus status) {
+            reconciliation.unlock();
+        }
+
+        @Override
+        public void rollback(TransactionStatus status) {
+            reconciliation.unlock();
+        }
+    }
+}
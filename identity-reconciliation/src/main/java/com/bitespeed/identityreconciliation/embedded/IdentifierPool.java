@@ -0,0 +1,69 @@
+package com.bitespeed.identityreconciliation.embedded;
+
+import java.util.Arrays;
+
+// Interns emails and phone numbers to dense int codes: every distinct identifier is held once, however many
+// contacts carry it, and the store and its indexes work on the codes. Codes are never released.
+final class IdentifierPool {
+
+    static final int NONE = -1;
+
+    private String[] values = new String[1024];
+    // Code + 1 per slot, open addressing on the string hash; 0 marks an empty slot
+    private int[] slots = new int[2048];
+    private int size;
+
+    // Code of the identifier, or NONE if it was never interned (so nothing carries it)
+    int code(String value) {
+        if (value == null) {
+            return NONE;
+        }
+        int mask = slots.length - 1;
+        for (int slot = home(value, mask); slots[slot] != 0; slot = (slot + 1) & mask) {
+            if (values[slots[slot] - 1].equals(value)) {
+                return slots[slot] - 1;
+            }
+        }
+        return NONE;
+    }
+
+    int intern(String value) {
+        if (value == null) {
+            return NONE;
+        }
+        int code = code(value);
+        if (code != NONE) {
+            return code;
+        }
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+        }
+        values[size] = value;
+        if ((size + 1) * 2 > slots.length) {
+            slots = new int[slots.length * 2];
+            for (int i = 0; i < size; i++) {
+                insert(i);
+            }
+        }
+        insert(size);
+        return size++;
+    }
+
+    String value(int code) {
+        return code == NONE ? null : values[code];
+    }
+
+    private void insert(int code) {
+        int mask = slots.length - 1;
+        int slot = home(values[code], mask);
+        while (slots[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        slots[slot] = code + 1;
+    }
+
+    private static int home(String value, int mask) {
+        int mixed = value.hashCode() * 0x9E3779B9;
+        return (mixed ^ (mixed >>> 16)) & mask;
+    }
+}
@@ -0,0 +1,681 @@
+package com.bitespeed.identityreconciliation.embedded;
+
+import com.bitespeed.identityreconciliation.model.Contact;
+import com.bitespeed.identityreconciliation.model.ContactCluster;
+import com.bitespeed.identityreconciliation.model.IdentifierHash;
+import com.bitespeed.identityreconciliation.model.LinkPrecedence;
+import com.bitespeed.identityreconciliation.repository.ContactRepository;
+import jakarta.persistence.EntityNotFoundException;
+import org.springframework.data.domain.Example;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.repository.query.FluentQuery;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * ContactRepository over process memory, for deployments without Postgres: contacts are kept in a map keyed
+ * by the primitive id, with emails and phone numbers interned to int codes, and hash indexes from each code
+ * and each primary id to the contact ids carrying it. Every query of the contract answers as its SQL does,
+ * including soft deletes (see {@link ContactRepository#LIVE}); reads return copies, like rows loaded from a
+ * database. Example, Sort and Pageable queries are not supported.
+ *
+ * Calls are atomic: reads share a lock and writes take it exclusively. There are no transactions, so a
+ * reconciliation's writes are not rolled back if it fails midway. With a snapshot file, every write is also
+ * appended to it (see {@link ContactSnapshotFile}) and the store is rebuilt from it on the next open.
+ */
+public class InMemoryContactRepository implements ContactRepository, Closeable {
+
+    private static final LongArrayList NO_IDS = new LongArrayList();
+
+    private final LongObjectHashMap<StoredContact> contacts = new LongObjectHashMap<>(1024);
+    private final LongObjectHashMap<LongArrayList> byEmail = new LongObjectHashMap<>(1024);
+    private final LongObjectHashMap<LongArrayList> byPhone = new LongObjectHashMap<>(1024);
+    private final LongObjectHashMap<LongArrayList> byLinkedId = new LongObjectHashMap<>(1024);
+    private final IdentifierPool identifiers = new IdentifierPool();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ContactSnapshotFile snapshot;
+    private long nextId = 1;
+
+    public InMemoryContactRepository() {
+        this.snapshot = null;
+    }
+
+    // A store persisted to the snapshot file, starting from what the file holds
+    public InMemoryContactRepository(Path snapshotFile) throws IOException {
+        this.snapshot = ContactSnapshotFile.open(snapshotFile, this::store, this::unstore, this::findAll);
+    }
+
+    // ---- ContactRepository queries ----
+
+    @Override
+    public List<Contact> findByIdentifierHashes(String email, Long emailHash, String phone, Long phoneHash) {
+        return read(() -> {
+            List<Contact> found = new ArrayList<>();
+            Set<Long> seen = new HashSet<>();
+            for (LongArrayList ids : List.of(idsOf(byEmail, email), idsOf(byPhone, phone))) {
+                for (int i = 0; i < ids.size(); i++) {
+                    StoredContact contact = contacts.get(ids.get(i));
+                    if (isLive(contact) && seen.add(contact.id())) {
+                        found.add(toContact(contact));
+                    }
+                }
+            }
+            return found;
+        });
+    }
+
+    @Override
+    public List<Contact> findClusterByIdentifierHashes(String email, Long emailHash, String phone, Long phoneHash) {
+        return findClustersByIdentifierHashes(new String[]{email}, null, new String[]{phone}, null);
+    }
+
+    // The matching live contacts, their link chains up to the primaries, and everything linked to those primaries;
+    // then, as in the SQL, only the live ones
+    @Override
+    public List<Contact> findClustersByIdentifierHashes(String[] emails, Long[] emailHashes, String[] phones, Long[] phoneHashes) {
+        return read(() -> {
+            LongObjectHashMap<StoredContact> cluster = new LongObjectHashMap<>(16);
+            LongArrayList order = new LongArrayList();
+            LongArrayList pending = new LongArrayList();
+            for (String email : emails) {
+                addLiveIds(pending, idsOf(byEmail, email));
+            }
+            for (String phone : phones) {
+                addLiveIds(pending, idsOf(byPhone, phone));
+            }
+            LongArrayList primaries = new LongArrayList();
+            while (pending.size() > 0) {
+                long id = pending.removeLast();
+                StoredContact contact = contacts.get(id);
+                if (cluster.put(id, contact) == null) {
+                    order.add(id);
+                    if (contact.linkedId() == 0) {
+                        primaries.add(id);
+                    } else if (contacts.get(contact.linkedId()) != null) {
+                        pending.add(contact.linkedId());
+                    }
+                }
+            }
+            while (primaries.size() > 0) {
+                LongArrayList children = byLinkedId.get(primaries.removeLast());
+                for (int i = 0; children != null && i < children.size(); i++) {
+                    long child = children.get(i);
+                    if (cluster.put(child, contacts.get(child)) == null) {
+                        order.add(child);
+                        primaries.add(child);
+                    }
+                }
+            }
+            List<Contact> found = new ArrayList<>(order.size());
+            for (int i = 0; i < order.size(); i++) {
+                StoredContact contact = cluster.get(order.get(i));
+                if (isLive(contact)) {
+                    found.add(toContact(contact));
+                }
+            }
+            return found;
+        });
+    }
+
+    @Override
+    public boolean existsByEmailHash(String email, Long emailHash, String phone, Long phoneHash) {
+        return read(() -> {
+            int phoneCode = identifiers.code(phone);
+            return (phone == null || phoneCode != IdentifierPool.NONE)
+                    && anyLive(idsOf(byEmail, email), contact -> contact.phone() == phoneCode);
+        });
+    }
+
+    @Override
+    public boolean existsByPhoneHashWithoutEmail(String phone, Long phoneHash) {
+        return read(() -> anyLive(idsOf(byPhone, phone), contact -> contact.email() == IdentifierPool.NONE));
+    }
+
+    @Override
+    public boolean existsByEmailHash(String email, Long emailHash) {
+        return read(() -> anyLive(idsOf(byEmail, email), contact -> true));
+    }
+
+    @Override
+    public boolean existsByPhoneHash(String phone, Long phoneHash) {
+        return read(() -> anyLive(idsOf(byPhone, phone), contact -> true));
+    }
+
+    @Override
+    public List<Contact> findSecondariesAfter(Long primaryId, Long afterId, Limit limit) {
+        return read(() -> {
+            StoredContact primary = contacts.get(primaryId);
+            LongArrayList children = byLinkedId.get(primaryId);
+            if ((primary != null && primary.deletedAt() != null) || children == null) {
+                return List.of();
+            }
+            int max = limit.isLimited() ? limit.max() : Integer.MAX_VALUE;
+            List<Contact> page = new ArrayList<>();
+            for (long id : children.toSortedArray()) {
+                StoredContact contact = contacts.get(id);
+                if (id > afterId && contact.deletedAt() == null) {
+                    if (page.size() == max) {
+                        break;
+                    }
+                    page.add(toContact(contact));
+                }
+            }
+            return page;
+        });
+    }
+
+    @Override
+    public List<Contact> findAllByLinkedIdOrId(Long id) {
+        return read(() -> {
+            List<Contact> found = new ArrayList<>();
+            StoredContact self = contacts.get(id);
+            if (isLive(self)) {
+                found.add(toContact(self));
+            }
+            LongArrayList children = byLinkedId.get(id);
+            for (int i = 0; children != null && i < children.size(); i++) {
+                StoredContact child = contacts.get(children.get(i));
+                if (isLive(child)) {
+                    found.add(toContact(child));
+                }
+            }
+            return found;
+        });
+    }
+
+    @Override
+    public int relinkAll(Long primaryId, Collection<Long> ids, LinkPrecedence precedence, LocalDateTime updatedAt) {
+        return write(() -> {
+            LongArrayList targets = new LongArrayList();
+            for (Long id : ids) {
+                targets.add(id);
+                LongArrayList children = byLinkedId.get(id);
+                for (int i = 0; children != null && i < children.size(); i++) {
+                    targets.add(children.get(i));
+                }
+            }
+            int relinked = 0;
+            for (int i = 0; i < targets.size(); i++) {
+                StoredContact contact = contacts.get(targets.get(i));
+                // A contact is listed twice if it was both given and linked to a given one
+                if (contact != null && (contact.linkedId() != primaryId || contact.linkPrecedence() != precedence
+                        || contact.updatedAt() != updatedAt)) {
+                    // Identifiers are unchanged, so only the link index moves
+                    StoredContact updated = new StoredContact(contact.id(), contact.email(), contact.phone(), primaryId,
+                            precedence, contact.createdAt(), updatedAt, contact.deletedAt(),
+                            contact.emailHash(), contact.phoneHash());
+                    put(updated);
+                    if (snapshot != null) {
+                        snapshot.put(toContact(updated));
+                    }
+                    relinked++;
+                }
+            }
+            return relinked;
+        });
+    }
+
+    // One process holds the whole store, and EmbeddedIdentityService runs one reconciliation at a time
+    @Override
+    public long acquireAdvisoryLocks(Long[] keys) {
+        return keys.length;
+    }
+
+    // No other nodes to notify
+    @Override
+    public long notifyChannel(String channel, String payload) {
+        return 0;
+    }
+
+    // ---- contact_cluster, computed from the store ----
+
+    // Primary of the live contact carrying the email (or phone), as contact_cluster would resolve it
+    public Optional<Long> findPrimaryContactIdByEmail(String email) {
+        return read(() -> primaryOf(idsOf(byEmail, email)));
+    }
+
+    public Optional<Long> findPrimaryContactIdByPhoneNumber(String phone) {
+        return read(() -> primaryOf(idsOf(byPhone, phone)));
+    }
+
+    // The consolidated cluster of a live primary, ordered as in the identify response
+    public Optional<ContactCluster> findClusterById(Long primaryId) {
+        return read(() -> {
+            StoredContact primary = contacts.get(primaryId);
+            if (primary == null || primary.linkedId() != 0 || primary.deletedAt() != null) {
+                return Optional.empty();
+            }
+            Set<String> emails = new LinkedHashSet<>();
+            Set<String> phoneNumbers = new LinkedHashSet<>();
+            addIdentifiers(primary, emails, phoneNumbers);
+            List<Long> secondaryIds = new ArrayList<>();
+            LongArrayList children = byLinkedId.get(primaryId);
+            for (long id : children == null ? new long[0] : children.toSortedArray()) {
+                StoredContact child = contacts.get(id);
+                if (child.deletedAt() == null) {
+                    addIdentifiers(child, emails, phoneNumbers);
+                    secondaryIds.add(id);
+                }
+            }
+            return Optional.of(ContactCluster.builder()
+                    .primaryContactId(primaryId)
+                    .emails(emails.toArray(String[]::new))
+                    .phoneNumbers(phoneNumbers.toArray(String[]::new))
+                    .secondaryContactIds(secondaryIds.toArray(Long[]::new))
+                    .updatedAt(primary.updatedAt())
+                    .build());
+        });
+    }
+
+    // ---- CrudRepository / JpaRepository ----
+
+    @Override
+    public <S extends Contact> S save(S contact) {
+        return write(() -> {
+            if (contact.getId() == null) {
+                contact.setId(nextId++);
+            }
+            contact.setEmailHash(IdentifierHash.of(contact.getEmail()));
+            contact.setPhoneHash(IdentifierHash.of(contact.getPhoneNumber()));
+            persist(contact);
+            return contact;
+        });
+    }
+
+    @Override
+    public <S extends Contact> List<S> saveAll(Iterable<S> entities) {
+        return write(() -> {
+            List<S> saved = new ArrayList<>();
+            for (S contact : entities) {
+                saved.add(save(contact));
+            }
+            return saved;
+        });
+    }
+
+    @Override
+    public <S extends Contact> S saveAndFlush(S contact) {
+        return save(contact);
+    }
+
+    @Override
+    public <S extends Contact> List<S> saveAllAndFlush(Iterable<S> entities) {
+        return saveAll(entities);
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public Optional<Contact> findById(Long id) {
+        return read(() -> Optional.ofNullable(contacts.get(id)).map(this::toContact));
+    }
+
+    @Override
+    public boolean existsById(Long id) {
+        return read(() -> contacts.get(id) != null);
+    }
+
+    // In id order
+    @Override
+    public List<Contact> findAll() {
+        return read(() -> {
+            List<Contact> all = new ArrayList<>(contacts.size());
+            contacts.forEachValue(contact -> all.add(toContact(contact)));
+            all.sort(Comparator.comparing(Contact::getId));
+            return all;
+        });
+    }
+
+    @Override
+    public List<Contact> findAllById(Iterable<Long> ids) {
+        return read(() -> {
+            List<Contact> found = new ArrayList<>();
+            for (Long id : ids) {
+                StoredContact contact = contacts.get(id);
+                if (contact != null) {
+                    found.add(toContact(contact));
+                }
+            }
+            return found;
+        });
+    }
+
+    @Override
+    public long count() {
+        return read(() -> (long) contacts.size());
+    }
+
+    @Override
+    public void deleteById(Long id) {
+        deleteAllByIdInBatch(List.of(id));
+    }
+
+    @Override
+    public void delete(Contact contact) {
+        deleteById(contact.getId());
+    }
+
+    @Override
+    public void deleteAllById(Iterable<? extends Long> ids) {
+        write(() -> {
+            for (Long id : ids) {
+                remove(id);
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public void deleteAll(Iterable<? extends Contact> entities) {
+        write(() -> {
+            for (Contact contact : entities) {
+                remove(contact.getId());
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public void deleteAllInBatch(Iterable<Contact> entities) {
+        deleteAll(entities);
+    }
+
+    @Override
+    public void deleteAllByIdInBatch(Iterable<Long> ids) {
+        deleteAllById(ids);
+    }
+
+    @Override
+    public void deleteAll() {
+        deleteAllInBatch();
+    }
+
+    @Override
+    public void deleteAllInBatch() {
+        write(() -> {
+            contacts.clear();
+            byEmail.clear();
+            byPhone.clear();
+            byLinkedId.clear();
+            if (snapshot != null) {
+                snapshot.clear();
+            }
+            return null;
+        });
+    }
+
+    @Override
+    @Deprecated
+    public Contact getOne(Long id) {
+        return getReferenceById(id);
+    }
+
+    @Override
+    @Deprecated
+    public Contact getById(Long id) {
+        return getReferenceById(id);
+    }
+
+    @Override
+    public Contact getReferenceById(Long id) {
+        return findById(id).orElseThrow(() -> new EntityNotFoundException("No contact " + id));
+    }
+
+    @Override
+    public List<Contact> findAll(Sort sort) {
+        throw unsupported();
+    }
+
+    @Override
+    public Page<Contact> findAll(Pageable pageable) {
+        throw unsupported();
+    }
+
+    @Override
+    public <S extends Contact> Optional<S> findOne(Example<S> example) {
+        throw unsupported();
+    }
+
+    @Override
+    public <S extends Contact> List<S> findAll(Example<S> example) {
+        throw unsupported();
+    }
+
+    @Override
+    public <S extends Contact> List<S> findAll(Example<S> example, Sort sort) {
+        throw unsupported();
+    }
+
+    @Override
+    public <S extends Contact> Page<S> findAll(Example<S> example, Pageable pageable) {
+        throw unsupported();
+    }
+
+    @Override
+    public <S extends Contact> long count(Example<S> example) {
+        throw unsupported();
+    }
+
+    @Override
+    public <S extends Contact> boolean exists(Example<S> example) {
+        throw unsupported();
+    }
+
+    @Override
+    public <S extends Contact, R> R findBy(Example<S> example, Function<FluentQuery.FetchableFluentQuery<S>, R> queryFunction) {
+        throw unsupported();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (snapshot != null) {
+            lock.writeLock().lock();
+            try {
+                snapshot.close();
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    // ---- store ----
+
+    // A contact as stored: identifiers as pool codes, no link as 0
+    private record StoredContact(long id, int email, int phone, long linkedId, LinkPrecedence linkPrecedence,
+                                 LocalDateTime createdAt, LocalDateTime updatedAt, LocalDateTime deletedAt,
+                                 Long emailHash, Long phoneHash) {
+    }
+
+    // Store the contact and append it to the snapshot; runs under the write lock
+    private void persist(Contact contact) throws IOException {
+        store(contact);
+        if (snapshot != null) {
+            snapshot.put(contact);
+        }
+    }
+
+    private void remove(Long id) throws IOException {
+        if (contacts.get(id) != null) {
+            unstore(id);
+            if (snapshot != null) {
+                snapshot.remove(id);
+            }
+        }
+    }
+
+    // Store the contact and index it, replacing any stored version; also used by snapshot replay
+    private void store(Contact contact) {
+        StoredContact stored = new StoredContact(contact.getId(),
+                identifiers.intern(contact.getEmail()),
+                identifiers.intern(contact.getPhoneNumber()),
+                contact.getLinkedId() == null ? 0 : contact.getLinkedId(),
+                contact.getLinkPrecedence(),
+                contact.getCreatedAt(),
+                contact.getUpdatedAt(),
+                contact.getDeletedAt(),
+                IdentifierHash.of(contact.getEmail()),
+                IdentifierHash.of(contact.getPhoneNumber()));
+        put(stored);
+        nextId = Math.max(nextId, stored.id() + 1);
+    }
+
+    // Replace the stored version, moving only the index entries whose key changed
+    private void put(StoredContact stored) {
+        StoredContact previous = contacts.put(stored.id(), stored);
+        if (previous == null || previous.email() != stored.email()) {
+            if (previous != null) {
+                unindex(byEmail, previous.email(), previous.id());
+            }
+            index(byEmail, stored.email(), stored.id());
+        }
+        if (previous == null || previous.phone() != stored.phone()) {
+            if (previous != null) {
+                unindex(byPhone, previous.phone(), previous.id());
+            }
+            index(byPhone, stored.phone(), stored.id());
+        }
+        if (previous == null || previous.linkedId() != stored.linkedId()) {
+            if (previous != null && previous.linkedId() != 0) {
+                unindex(byLinkedId, previous.linkedId(), previous.id());
+            }
+            if (stored.linkedId() != 0) {
+                index(byLinkedId, stored.linkedId(), stored.id());
+            }
+        }
+    }
+
+    private void unstore(long id) {
+        unindex(contacts.remove(id));
+    }
+
+    private void unindex(StoredContact stored) {
+        if (stored != null) {
+            unindex(byEmail, stored.email(), stored.id());
+            unindex(byPhone, stored.phone(), stored.id());
+            if (stored.linkedId() != 0) {
+                unindex(byLinkedId, stored.linkedId(), stored.id());
+            }
+        }
+    }
+
+    private static void index(LongObjectHashMap<LongArrayList> index, long key, long id) {
+        if (key != IdentifierPool.NONE) {
+            index.computeIfAbsent(key, k -> new LongArrayList()).add(id);
+        }
+    }
+
+    private static void unindex(LongObjectHashMap<LongArrayList> index, long key, long id) {
+        LongArrayList ids = key == IdentifierPool.NONE ? null : index.get(key);
+        if (ids != null) {
+            ids.remove(id);
+            if (ids.size() == 0) {
+                index.remove(key);
+            }
+        }
+    }
+
+    private LongArrayList idsOf(LongObjectHashMap<LongArrayList> index, String identifier) {
+        int code = identifiers.code(identifier);
+        LongArrayList ids = code == IdentifierPool.NONE ? null : index.get(code);
+        return ids == null ? NO_IDS : ids;
+    }
+
+    // Live as in ContactRepository.LIVE: not deleted, and not linked to a deleted primary
+    private boolean isLive(StoredContact contact) {
+        if (contact == null || contact.deletedAt() != null) {
+            return false;
+        }
+        StoredContact primary = contact.linkedId() == 0 ? null : contacts.get(contact.linkedId());
+        return primary == null || primary.deletedAt() == null;
+    }
+
+    private void addLiveIds(LongArrayList pending, LongArrayList ids) {
+        for (int i = 0; i < ids.size(); i++) {
+            if (contacts.get(ids.get(i)).deletedAt() == null) {
+                pending.add(ids.get(i));
+            }
+        }
+    }
+
+    private boolean anyLive(LongArrayList ids, Predicate<StoredContact> matches) {
+        for (int i = 0; i < ids.size(); i++) {
+            StoredContact contact = contacts.get(ids.get(i));
+            if (matches.test(contact) && isLive(contact)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Optional<Long> primaryOf(LongArrayList ids) {
+        for (int i = 0; i < ids.size(); i++) {
+            StoredContact contact = contacts.get(ids.get(i));
+            if (isLive(contact)) {
+                return Optional.of(contact.linkedId() == 0 ? contact.id() : contact.linkedId());
+            }
+        }
+        return Optional.empty();
+    }
+
+    private void addIdentifiers(StoredContact contact, Set<String> emails, Set<String> phoneNumbers) {
+        if (contact.email() != IdentifierPool.NONE) {
+            emails.add(identifiers.value(contact.email()));
+        }
+        if (contact.phone() != IdentifierPool.NONE) {
+            phoneNumbers.add(identifiers.value(contact.phone()));
+        }
+    }
+
+    private Contact toContact(StoredContact stored) {
+        return new Contact(stored.id(), identifiers.value(stored.phone()), identifiers.value(stored.email()),
+                stored.linkedId() == 0 ? null : stored.linkedId(), stored.linkPrecedence(), stored.createdAt(),
+                stored.updatedAt(), stored.deletedAt(), stored.emailHash(), stored.phoneHash());
+    }
+
+    private <T> T read(Supplier<T> query) {
+        lock.readLock().lock();
+        try {
+            return query.get();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Reentrant, so a write may call other writes; the snapshot is flushed once the outermost one is done
+    private <T> T write(Update<T> update) {
+        lock.writeLock().lock();
+        try {
+            T result = update.apply();
+            if (snapshot != null && lock.getWriteHoldCount() == 1) {
+                snapshot.flush();
+            }
+            return result;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private interface Update<T> {
+        T apply() throws IOException;
+    }
+
+    private static UnsupportedOperationException unsupported() {
+        return new UnsupportedOperationException("Example, Sort and Pageable queries are not supported in memory");
+    }
+}
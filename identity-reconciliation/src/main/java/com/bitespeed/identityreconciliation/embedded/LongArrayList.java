@@ -0,0 +1,47 @@
+package com.bitespeed.identityreconciliation.embedded;
+
+import java.util.Arrays;
+
+// Unordered set of contact ids on a primitive array, for the index entries of one identifier or primary.
+// Most identifiers belong to a handful of contacts, so membership is a linear scan.
+final class LongArrayList {
+
+    private long[] values = new long[2];
+    private int size;
+
+    int size() {
+        return size;
+    }
+
+    long get(int index) {
+        return values[index];
+    }
+
+    void add(long value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+        }
+        values[size++] = value;
+    }
+
+    long removeLast() {
+        return values[--size];
+    }
+
+    // Remove one occurrence by moving the last value into its place
+    boolean remove(long value) {
+        for (int i = 0; i < size; i++) {
+            if (values[i] == value) {
+                values[i] = values[--size];
+                return true;
+            }
+        }
+        return false;
+    }
+
+    long[] toSortedArray() {
+        long[] sorted = Arrays.copyOf(values, size);
+        Arrays.sort(sorted);
+        return sorted;
+    }
+}
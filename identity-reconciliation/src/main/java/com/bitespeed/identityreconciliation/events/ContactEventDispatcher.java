@@ -0,0 +1,129 @@
+package com.bitespeed.identityreconciliation.events;
+
+import com.bitespeed.identityreconciliation.model.ContactEvent;
+import com.bitespeed.identityreconciliation.repository.ContactEventRepository;
+import com.bitespeed.identityreconciliation.sharding.ShardRouter;
+import com.bitespeed.identityreconciliation.sharding.TenantContext;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drains the contact_event outbox to the configured ContactEventSink, every
+ * {@code identity.events.dispatch-interval}, in batches of {@code identity.events.batch-size}.
+ *
+ * Each batch is read in id order, published, and deleted in one transaction, under an advisory lock
+ * that only one node holds at a time, so a cluster's events reach the sink in the order they were
+ * committed. Delivery is at least once: a batch whose delete does not commit after the sink accepted
+ * it is published again.
+ *
+ * Each run drains every store's outbox. Events from a tenant's store carry its tenant; ids are only
+ * unique within a store, so consumers key events by tenant and id.
+ */
+@Slf4j
+@Component
+public class ContactEventDispatcher {
+
+    private final ContactEventRepository contactEventRepository;
+    private final ContactEventSink sink;
+    private final TransactionTemplate transactionTemplate;
+    private final ShardRouter shardRouter;
+    private final boolean enabled;
+    private final Duration dispatchInterval;
+    private final int batchSize;
+
+    private ScheduledExecutorService dispatcher;
+
+    public ContactEventDispatcher(ContactEventRepository contactEventRepository,
+                                  ContactEventSink sink,
+                                  TransactionTemplate transactionTemplate,
+                                  ShardRouter shardRouter,
+                                  @Value("${identity.events.enabled:false}") boolean enabled,
+                                  @Value("${identity.events.dispatch-interval:1s}") Duration dispatchInterval,
+                                  @Value("${identity.events.batch-size:500}") int batchSize) {
+        this.contactEventRepository = contactEventRepository;
+        this.sink = sink;
+        this.transactionTemplate = transactionTemplate;
+        this.shardRouter = shardRouter;
+        this.enabled = enabled;
+        this.dispatchInterval = dispatchInterval;
+        this.batchSize = batchSize;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        dispatcher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "contact-event-dispatcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        dispatcher.scheduleWithFixedDelay(this::dispatchQuietly, dispatchInterval.toMillis(), dispatchInterval.toMillis(),
+                TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (dispatcher != null) {
+            dispatcher.shutdownNow();
+        }
+    }
+
+    // Publish batches until the current store's outbox is drained or another node is draining it; returns how many were published
+    public int dispatch() {
+        int dispatched = 0;
+        while (true) {
+            Integer batch = transactionTemplate.execute(status -> dispatchBatch());
+            dispatched += batch;
+            if (batch < batchSize) {
+                return dispatched;
+            }
+        }
+    }
+
+    private int dispatchBatch() {
+        if (!contactEventRepository.tryLockDispatch(TenantContext.lockKey())) {
+            return 0;
+        }
+        List<ContactEvent> batch = contactEventRepository.findAllByOrderById(Limit.of(batchSize));
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        batch.forEach(event -> event.setTenant(TenantContext.current()));
+        try {
+            sink.publish(batch);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not publish " + batch.size() + " contact events", e);
+        }
+        contactEventRepository.deleteAllByIdInBatch(batch.stream().map(ContactEvent::getId).toList());
+        return batch.size();
+    }
+
+    // A failed batch stays in the outbox, so the next run publishes it again
+    private void dispatchQuietly() {
+        shardRouter.forEachStore(tenant -> {
+            try {
+                int dispatched = dispatch();
+                if (dispatched > 0) {
+                    log.debug("Dispatched {} contact events of {}", dispatched, ShardRouter.describe(tenant));
+                }
+            } catch (Exception e) {
+                log.warn("Contact event dispatch of {} failed, retrying on the next one", ShardRouter.describe(tenant), e);
+            }
+        });
+    }
+}
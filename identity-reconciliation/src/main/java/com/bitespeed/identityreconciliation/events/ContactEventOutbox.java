@@ -0,0 +1,72 @@
+package com.bitespeed.identityreconciliation.events;
+
+import com.bitespeed.identityreconciliation.model.ContactEvent;
+import com.bitespeed.identityreconciliation.model.ContactEventType;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.List;
+
+/**
+ * Writes contact events to the contact_event outbox, in the transaction that changes the cluster, so an
+ * event exists exactly when its change committed. Writers hold the locks of the primaries they change
+ * while they write, so a cluster's events get increasing ids in commit order; ContactEventDispatcher
+ * publishes them in id order. Does nothing unless {@code identity.events.enabled}.
+ */
+@Component
+public class ContactEventOutbox {
+
+    private static final int BATCH_SIZE = 500;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final boolean enabled;
+
+    public ContactEventOutbox(JdbcTemplate jdbcTemplate,
+                              @Value("${identity.events.enabled:false}") boolean enabled) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    // Must run inside the writing transaction; ids follow list order
+    public void record(List<ContactEvent> events) {
+        if (!enabled || events.isEmpty()) {
+            return;
+        }
+        jdbcTemplate.batchUpdate(
+                "INSERT INTO contact_event (type, primary_contact_id, contact_id, merged_contact_ids, email, phone_number, " +
+                        "created_at) VALUES (?, ?, ?, ?, ?, ?, ?)",
+                events, BATCH_SIZE, (ps, event) -> {
+                    ps.setString(1, event.getType().name());
+                    ps.setLong(2, event.getPrimaryContactId());
+                    ps.setObject(3, event.getContactId(), Types.BIGINT);
+                    if (event.getMergedContactIds() != null) {
+                        ps.setArray(4, ps.getConnection().createArrayOf("bigint", event.getMergedContactIds()));
+                    } else {
+                        ps.setNull(4, Types.ARRAY);
+                    }
+                    ps.setString(5, event.getEmail());
+                    ps.setString(6, event.getPhoneNumber());
+                    ps.setTimestamp(7, Timestamp.valueOf(event.getCreatedAt()));
+                });
+    }
+
+    // SECONDARY_ADDED for stored contacts, with the primary each is linked to now, in id order
+    public void recordSecondariesAdded(Long[] contactIds) {
+        if (!enabled || contactIds.length == 0) {
+            return;
+        }
+        jdbcTemplate.update("""
+                INSERT INTO contact_event (type, primary_contact_id, contact_id, email, phone_number, created_at)
+                SELECT ?, linked_contact_id, id, email, phone_number, LOCALTIMESTAMP
+                  FROM contact WHERE id = ANY(?) AND linked_contact_id IS NOT NULL
+                 ORDER BY id
+                """, ContactEventType.SECONDARY_ADDED.name(), contactIds);
+    }
+}
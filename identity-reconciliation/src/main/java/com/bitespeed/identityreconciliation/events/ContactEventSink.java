@@ -0,0 +1,13 @@
+package com.bitespeed.identityreconciliation.events;
+
+import com.bitespeed.identityreconciliation.model.ContactEvent;
+
+import java.io.IOException;
+import java.util.List;
+
+// Where dispatched contact events go, in outbox order. The events are deleted from the outbox once publish
+// returns, so it must not return before they are accepted; if it throws they are published again later.
+public interface ContactEventSink {
+
+    void publish(List<ContactEvent> events) throws IOException;
+}
@@ -0,0 +1,58 @@
+package com.bitespeed.identityreconciliation.events;
+
+import com.bitespeed.identityreconciliation.model.ContactEvent;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+// Appends events to a local file, one JSON line each, forced to disk before publish returns. A crash
+// between the write and the outbox delete repeats the batch, so consumers dedupe on the event id.
+@Component
+@ConditionalOnProperty(name = "identity.events.sink", havingValue = "file", matchIfMissing = true)
+public class FileContactEventSink implements ContactEventSink {
+
+    private final ObjectMapper objectMapper;
+    private final Path file;
+    private FileChannel channel;
+
+    public FileContactEventSink(ObjectMapper objectMapper,
+                                @Value("${identity.events.file:events/contact-events.ndjson}") Path file) {
+        this.objectMapper = objectMapper;
+        this.file = file;
+    }
+
+    @Override
+    public synchronized void publish(List<ContactEvent> events) throws IOException {
+        if (channel == null) {
+            Files.createDirectories(file.toAbsolutePath().getParent());
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+        StringBuilder lines = new StringBuilder(events.size() * 160);
+        for (ContactEvent event : events) {
+            lines.append(objectMapper.writeValueAsString(event)).append('\n');
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        channel.force(false);
+    }
+
+    @PreDestroy
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+    }
+}
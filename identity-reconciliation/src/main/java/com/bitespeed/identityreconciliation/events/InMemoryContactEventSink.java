@@ -0,0 +1,29 @@
+package com.bitespeed.identityreconciliation.events;
+
+import com.bitespeed.identityreconciliation.model.ContactEvent;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Keeps published events in process, for tests and local runs (identity.events.sink=memory)
+@Component
+@ConditionalOnProperty(name = "identity.events.sink", havingValue = "memory")
+public class InMemoryContactEventSink implements ContactEventSink {
+
+    private final List<ContactEvent> published = new ArrayList<>();
+
+    @Override
+    public synchronized void publish(List<ContactEvent> events) {
+        published.addAll(events);
+    }
+
+    public synchronized List<ContactEvent> events() {
+        return List.copyOf(published);
+    }
+
+    public synchronized void clear() {
+        published.clear();
+    }
+}
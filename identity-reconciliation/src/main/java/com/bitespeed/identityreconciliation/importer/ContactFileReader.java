@@ -0,0 +1,136 @@
+package com.bitespeed.identityreconciliation.importer;
+
+import com.bitespeed.identityreconciliation.dto.IdentifyRequest;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+// Streams rows of a contact file: NDJSON (.ndjson/.jsonl, one identify request per line)
+// or CSV with a header naming the email and phoneNumber columns. Blank values are read as null.
+final class ContactFileReader implements Closeable {
+
+    private final BufferedReader reader;
+    private final ObjectMapper objectMapper;
+    private final boolean json;
+    private int emailColumn = -1;
+    private int phoneColumn = -1;
+    private long lineNumber;
+
+    private ContactFileReader(Path file, ObjectMapper objectMapper) throws IOException {
+        String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+        this.reader = Files.newBufferedReader(file, StandardCharsets.UTF_8);
+        this.objectMapper = objectMapper;
+        this.json = name.endsWith(".ndjson") || name.endsWith(".jsonl");
+    }
+
+    static ContactFileReader open(Path file, ObjectMapper objectMapper) throws IOException {
+        ContactFileReader contactFileReader = new ContactFileReader(file, objectMapper);
+        try {
+            if (!contactFileReader.json) {
+                contactFileReader.readHeader();
+            }
+            return contactFileReader;
+        } catch (IOException | RuntimeException e) {
+            contactFileReader.close();
+            throw e;
+        }
+    }
+
+    // Next row, or null at the end of the file
+    IdentifyRequest next() throws IOException {
+        String line;
+        do {
+            line = reader.readLine();
+            lineNumber++;
+            if (line == null) {
+                return null;
+            }
+        } while (line.isBlank());
+
+        if (json) {
+            try {
+                IdentifyRequest row = objectMapper.readValue(line, IdentifyRequest.class);
+                return new IdentifyRequest(blankToNull(row.email()), blankToNull(row.phoneNumber()));
+            } catch (JsonProcessingException e) {
+                throw new IllegalArgumentException("Line " + lineNumber + ": invalid JSON", e);
+            }
+        }
+        List<String> fields = splitCsv(line);
+        return new IdentifyRequest(blankToNull(field(fields, emailColumn)), blankToNull(field(fields, phoneColumn)));
+    }
+
+    private static String field(List<String> fields, int column) {
+        return column < 0 || column >= fields.size() ? null : fields.get(column);
+    }
+
+    long getLineNumber() {
+        return lineNumber;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    private void readHeader() throws IOException {
+        String header = reader.readLine();
+        lineNumber++;
+        if (header == null) {
+            throw new IllegalArgumentException("CSV file is empty");
+        }
+        List<String> columns = splitCsv(header);
+        for (int i = 0; i < columns.size(); i++) {
+            String column = columns.get(i).trim().replace("_", "").toLowerCase(Locale.ROOT);
+            if (column.equals("email")) {
+                emailColumn = i;
+            } else if (column.equals("phonenumber")) {
+                phoneColumn = i;
+            }
+        }
+        if (emailColumn < 0 && phoneColumn < 0) {
+            throw new IllegalArgumentException("CSV header must name an email or phoneNumber column");
+        }
+    }
+
+    // RFC 4180 fields on one line: quoted fields may contain commas and doubled quotes
+    private static List<String> splitCsv(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char ch = line.charAt(i);
+            if (quoted) {
+                if (ch != '"') {
+                    field.append(ch);
+                } else if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (ch == '"') {
+                quoted = true;
+            } else if (ch == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(ch);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    private static String blankToNull(String value) {
+        return value == null || value.trim().isEmpty() ? null : value;
+    }
+}
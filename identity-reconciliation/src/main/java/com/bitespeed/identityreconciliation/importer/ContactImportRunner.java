@@ -0,0 +1,34 @@
+package com.bitespeed.identityreconciliation.importer;
+
+import com.bitespeed.identityreconciliation.sharding.ShardRouter;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.nio.file.Path;
+
+// Runs a bulk import on startup when identity.import.file is set, e.g.
+// java -jar app.jar --spring.main.web-application-type=none --identity.import.file=contacts.csv
+// With identity.sharding, identity.import.tenant imports into that tenant's store instead of the default one.
+@Component
+@ConditionalOnProperty("identity.import.file")
+@RequiredArgsConstructor
+public class ContactImportRunner implements ApplicationRunner {
+
+    private final ContactImportService contactImportService;
+    private final ShardRouter shardRouter;
+
+    @Value("${identity.import.file}")
+    private String file;
+
+    @Value("${identity.import.tenant:}")
+    private String tenant;
+
+    @Override
+    public void run(ApplicationArguments args) throws Exception {
+        shardRouter.routeJob(tenant, () -> contactImportService.importFile(Path.of(file)));
+    }
+}
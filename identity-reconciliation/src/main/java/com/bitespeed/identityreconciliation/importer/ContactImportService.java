@@ -0,0 +1,369 @@
+package com.bitespeed.identityreconciliation.importer;
+
+import com.bitespeed.identityreconciliation.cache.IdentityGraphCache;
+import com.bitespeed.identityreconciliation.dto.IdentifyRequest;
+import com.bitespeed.identityreconciliation.model.Contact;
+import com.bitespeed.identityreconciliation.model.ContactImport;
+import com.bitespeed.identityreconciliation.model.LinkPrecedence;
+import com.bitespeed.identityreconciliation.repository.ContactBatchRepository;
+import com.bitespeed.identityreconciliation.repository.ContactClusterRepository;
+import com.bitespeed.identityreconciliation.repository.HotClusterRepository;
+import com.bitespeed.identityreconciliation.repository.ContactImportRepository;
+import com.bitespeed.identityreconciliation.service.IdentifierNormalizer;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Offline bulk import of a contact file (CSV or NDJSON), producing the same PRIMARY/SECONDARY
+ * layout as sending every row to {@code /identify} in file order, without per-row round trips.
+ *
+ * The import streams the file twice, holding only primitive arrays keyed by 64-bit identifier
+ * hashes in memory. The existing contacts and then the file rows are folded into a union-find
+ * whose roots are the oldest contact of each component, i.e. its primary. The file is then
+ * re-read and written with COPY in chunks, each committed together with the import's checkpoint,
+ * and finally the existing primaries the import merged are re-linked. Running the import of the
+ * same file again resumes after the last committed chunk.
+ *
+ * Imported rows keep file order in their ids and created_at. Identify traffic is not coordinated
+ * with, so imports are meant to run while the service is not taking writes.
+ */
+@Slf4j
+@Service
+public class ContactImportService {
+
+    private static final long PROGRESS_INTERVAL = 1_000_000;
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final ContactBatchRepository contactBatchRepository;
+    private final ContactImportRepository contactImportRepository;
+    private final ContactClusterRepository contactClusterRepository;
+    private final HotClusterRepository hotClusterRepository;
+    private final IdentifierNormalizer normalizer;
+    private final TransactionTemplate transactionTemplate;
+    private final IdentityGraphCache identityGraphCache;
+    private final ObjectMapper objectMapper;
+    private final int chunkSize;
+
+    public ContactImportService(ContactBatchRepository contactBatchRepository,
+                                ContactImportRepository contactImportRepository,
+                                ContactClusterRepository contactClusterRepository,
+                                HotClusterRepository hotClusterRepository,
+                                IdentifierNormalizer normalizer,
+                                TransactionTemplate transactionTemplate,
+                                IdentityGraphCache identityGraphCache,
+                                ObjectMapper objectMapper,
+                                @Value("${identity.import.chunk-size:10000}") int chunkSize) {
+        this.contactBatchRepository = contactBatchRepository;
+        this.contactImportRepository = contactImportRepository;
+        this.contactClusterRepository = contactClusterRepository;
+        this.hotClusterRepository = hotClusterRepository;
+        this.normalizer = normalizer;
+        this.transactionTemplate = transactionTemplate;
+        this.identityGraphCache = identityGraphCache;
+        this.objectMapper = objectMapper;
+        this.chunkSize = chunkSize;
+    }
+
+    public ImportResult importFile(Path file) throws IOException {
+        long started = System.nanoTime();
+        String fileName = file.toAbsolutePath().normalize().toString();
+        long fileSize = Files.size(file);
+        ContactImport checkpoint = contactImportRepository.findByFileNameAndFileSize(fileName, fileSize).orElse(null);
+        if (checkpoint != null && checkpoint.getStatus() == ContactImport.Status.DONE) {
+            log.info("Import of {} already completed", fileName);
+            return ImportResult.of(checkpoint, Duration.ZERO);
+        }
+        if (checkpoint != null) {
+            log.info("Resuming import of {} after {} of {} rows", fileName, checkpoint.getRowsWritten(), checkpoint.getRowsToImport());
+        }
+
+        // Existing contacts are older than any imported row, so they enter the graph first.
+        // When resuming, rows already copied into the reserved block are rebuilt from the file instead.
+        ImportGraph graph = new ImportGraph();
+        long idLimit = checkpoint != null ? checkpoint.getIdBase() : Long.MAX_VALUE;
+        transactionTemplate.executeWithoutResult(status -> contactBatchRepository.scanBelow(idLimit, graph::addExisting));
+        graph.linkExisting();
+        log.info("Import {}: loaded {} existing contacts", fileName, graph.existingCount);
+
+        cluster(file, graph);
+
+        if (checkpoint == null) {
+            checkpoint = start(fileName, fileSize, graph);
+        } else if (checkpoint.getRowsToImport() != graph.newCount) {
+            throw new IllegalStateException("File " + fileName + " no longer matches its import checkpoint");
+        }
+        graph.idBase = checkpoint.getIdBase();
+
+        if (checkpoint.getStatus() == ContactImport.Status.COPYING) {
+            checkpoint = copy(file, graph, checkpoint);
+        }
+        checkpoint = relinkExisting(graph, checkpoint);
+
+        identityGraphCache.invalidateAll();
+        ImportResult result = ImportResult.of(checkpoint, Duration.ofNanos(System.nanoTime() - started));
+        log.info("Import {}: {} rows read, {} imported, {} skipped, {} existing contacts re-linked in {} ({} rows/s)",
+                fileName, result.rowsRead(), result.rowsImported(), result.rowsSkipped(), result.contactsRelinked(),
+                result.elapsed(), result.rowsPerSecond());
+        return result;
+    }
+
+    // Pass 1: fold every row into the graph
+    private void cluster(Path file, ImportGraph graph) throws IOException {
+        long started = System.nanoTime();
+        int row = 0;
+        try (ContactFileReader reader = ContactFileReader.open(file, objectMapper)) {
+            for (IdentifyRequest request = reader.next(); request != null; request = reader.next()) {
+                request = normalizer.normalize(request);
+                graph.addRow(row++, request.email(), request.phoneNumber());
+                if (row % PROGRESS_INTERVAL == 0) {
+                    progress("clustering", row, started);
+                }
+            }
+        }
+        if (row % PROGRESS_INTERVAL != 0) {
+            progress("clustering", row, started);
+        }
+        graph.releaseIndexes();
+    }
+
+    // Reserve the id block for the new rows and record the checkpoint
+    private ContactImport start(String fileName, long fileSize, ImportGraph graph) {
+        return transactionTemplate.execute(status -> {
+            LocalDateTime now = LocalDateTime.now().truncatedTo(ChronoUnit.MICROS);
+            return contactImportRepository.save(ContactImport.builder()
+                    .fileName(fileName)
+                    .fileSize(fileSize)
+                    .status(ContactImport.Status.COPYING)
+                    .idBase(graph.newCount == 0 ? 0 : contactBatchRepository.reserveIdBlock(graph.newCount))
+                    .rowsRead(graph.rowsRead)
+                    .rowsToImport((long) graph.newCount)
+                    .rowsWritten(0L)
+                    .contactsRelinked(0L)
+                    .startedAt(now)
+                    .updatedAt(now)
+                    .build());
+        });
+    }
+
+    // Pass 2: re-read the file and COPY the new rows, skipping chunks a previous run committed
+    private ContactImport copy(Path file, ImportGraph graph, ContactImport checkpoint) throws IOException {
+        long started = System.nanoTime();
+        long alreadyWritten = checkpoint.getRowsWritten();
+        List<Contact> chunk = new ArrayList<>(chunkSize);
+        int row = 0;
+        int ordinal = 0;
+        try (ContactFileReader reader = ContactFileReader.open(file, objectMapper)) {
+            for (IdentifyRequest request = reader.next(); request != null; request = reader.next(), row++) {
+                if (graph.skippedRows.get(row) || ordinal++ < alreadyWritten) {
+                    continue;
+                }
+                request = normalizer.normalize(request);
+                int node = graph.existingCount + ordinal - 1;
+                int root = graph.nodes.find(node);
+                // Distinct microsecond timestamps keep "oldest first" identical to file order
+                LocalDateTime createdAt = checkpoint.getStartedAt().plus(ordinal - 1, ChronoUnit.MICROS);
+                chunk.add(Contact.builder()
+                        .id(graph.idOf(node))
+                        .email(request.email())
+                        .phoneNumber(request.phoneNumber())
+                        .linkedId(root == node ? null : graph.idOf(root))
+                        .linkPrecedence(root == node ? LinkPrecedence.PRIMARY : LinkPrecedence.SECONDARY)
+                        .createdAt(createdAt)
+                        .updatedAt(createdAt)
+                        .build());
+                if (chunk.size() == chunkSize) {
+                    checkpoint = writeChunk(checkpoint, chunk, ordinal);
+                    chunk.clear();
+                }
+                if (ordinal % PROGRESS_INTERVAL == 0) {
+                    progress("copying", ordinal - alreadyWritten, started);
+                }
+            }
+        }
+        checkpoint = writeChunk(checkpoint, chunk, ordinal);
+        progress("copying", ordinal - alreadyWritten, started);
+        return checkpoint;
+    }
+
+    private ContactImport writeChunk(ContactImport checkpoint, List<Contact> chunk, long rowsWritten) {
+        return transactionTemplate.execute(status -> {
+            if (!chunk.isEmpty()) {
+                contactBatchRepository.copyAll(chunk);
+            }
+            checkpoint.setRowsWritten(rowsWritten);
+            if (rowsWritten == checkpoint.getRowsToImport()) {
+                checkpoint.setStatus(ContactImport.Status.RELINKING);
+            }
+            checkpoint.setUpdatedAt(LocalDateTime.now());
+            return contactImportRepository.save(checkpoint);
+        });
+    }
+
+    // Pass 3: demote existing primaries merged by the import and point their secondaries at the surviving primary
+    private ContactImport relinkExisting(ImportGraph graph, ContactImport checkpoint) {
+        LocalDateTime now = LocalDateTime.now();
+        List<Contact> relinked = new ArrayList<>();
+        for (int node = 0; node < graph.existingCount; node++) {
+            int root = graph.nodes.find(node);
+            long rootId = graph.idOf(root);
+            if (root != node && graph.existingLinks[node] != rootId) {
+                relinked.add(Contact.builder()
+                        .id(graph.existingIds[node])
+                        .linkedId(rootId)
+                        .linkPrecedence(LinkPrecedence.SECONDARY)
+                        .updatedAt(now)
+                        .build());
+            }
+        }
+        return transactionTemplate.execute(status -> {
+            contactBatchRepository.updateLinks(relinked);
+            // Imported rows bypass identify, so rebuild the lookup projection as part of finishing;
+            // hot cluster summaries are rebuilt by their next identify
+            contactClusterRepository.deleteStale();
+            contactClusterRepository.rebuildAll();
+            hotClusterRepository.deleteAllInBatch();
+            checkpoint.setContactsRelinked((long) relinked.size());
+            checkpoint.setStatus(ContactImport.Status.DONE);
+            checkpoint.setUpdatedAt(LocalDateTime.now());
+            return contactImportRepository.save(checkpoint);
+        });
+    }
+
+    private static void progress(String phase, long rows, long startedNanos) {
+        double seconds = Math.max(1e-9, (System.nanoTime() - startedNanos) / 1e9);
+        log.info("Import {}: {} rows ({} rows/s)", phase, rows, Math.round(rows / seconds));
+    }
+
+    // 64-bit FNV-1a of a kind tag, the value's length and its chars; collisions (~n^2 / 2^65) are not checked
+    private static long hash(long hash, char kind, String value) {
+        hash = (hash ^ kind) * FNV_PRIME;
+        if (value == null) {
+            return hash;
+        }
+        hash = (hash ^ value.length()) * FNV_PRIME;
+        for (int i = 0; i < value.length(); i++) {
+            hash = (hash ^ value.charAt(i)) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    /**
+     * Contacts as dense int nodes: existing contacts first (primaries oldest first, then
+     * secondaries), then the imported rows in file order. Since a union keeps the smaller node
+     * as root, every component's root is the contact identify would keep as its primary.
+     */
+    private static final class ImportGraph {
+        private final IntUnionFind nodes = new IntUnionFind();
+        // Identifier hash -> a node carrying it; exact email/phone pair hashes already present
+        private LongIntHashMap nodeByIdentifier = new LongIntHashMap(1 << 16);
+        private LongIntHashMap pairs = new LongIntHashMap(1 << 16);
+        private LongIntHashMap nodeByContactId = new LongIntHashMap(1 << 16);
+        // Rows identify would reject (no identifier) or treat as a no-op (pair already present)
+        private final BitSet skippedRows = new BitSet();
+        private long[] existingIds = new long[1024];
+        // Current primary of each existing contact (its own id for primaries)
+        private long[] existingLinks = new long[1024];
+        private int existingCount;
+        private int newCount;
+        private long rowsRead;
+        private long idBase;
+
+        void addExisting(Contact contact) {
+            int node = nodes.add();
+            if (node == existingIds.length) {
+                existingIds = Arrays.copyOf(existingIds, node * 2);
+                existingLinks = Arrays.copyOf(existingLinks, node * 2);
+            }
+            existingIds[node] = contact.getId();
+            existingLinks[node] = contact.getLinkPrecedence() == LinkPrecedence.PRIMARY || contact.getLinkedId() == null
+                    ? contact.getId()
+                    : contact.getLinkedId();
+            existingCount++;
+            nodeByContactId.putIfAbsent(contact.getId(), node);
+            if (contact.getEmail() != null || contact.getPhoneNumber() != null) {
+                pairs.putIfAbsent(pairKey(contact.getEmail(), contact.getPhoneNumber()), node);
+                linkIdentifiers(node, contact.getEmail(), contact.getPhoneNumber());
+            }
+        }
+
+        // Union existing contacts with the contact they are linked to
+        void linkExisting() {
+            for (int node = 0; node < existingCount; node++) {
+                int linked = nodeByContactId.get(existingLinks[node]);
+                if (linked >= 0) {
+                    nodes.union(node, linked);
+                }
+            }
+            nodeByContactId = null;
+        }
+
+        void addRow(int row, String email, String phoneNumber) {
+            rowsRead++;
+            if ((email == null && phoneNumber == null) || pairs.putIfAbsent(pairKey(email, phoneNumber), row) >= 0) {
+                skippedRows.set(row);
+                return;
+            }
+            int node = nodes.add();
+            newCount++;
+            linkIdentifiers(node, email, phoneNumber);
+        }
+
+        // The hash indexes are only needed while clustering
+        void releaseIndexes() {
+            nodeByIdentifier = null;
+            pairs = null;
+        }
+
+        long idOf(int node) {
+            return node < existingCount ? existingIds[node] : idBase + (node - existingCount);
+        }
+
+        private void linkIdentifiers(int node, String email, String phoneNumber) {
+            if (email != null) {
+                link(node, hash(FNV_OFFSET, 'e', email));
+            }
+            if (phoneNumber != null) {
+                link(node, hash(FNV_OFFSET, 'p', phoneNumber));
+            }
+        }
+
+        private void link(int node, long identifier) {
+            int other = nodeByIdentifier.putIfAbsent(identifier, node);
+            if (other >= 0) {
+                nodes.union(node, other);
+            }
+        }
+
+        private static long pairKey(String email, String phoneNumber) {
+            return hash(hash(FNV_OFFSET, 'e', email), 'p', phoneNumber);
+        }
+    }
+
+    public record ImportResult(String fileName, long rowsRead, long rowsImported, long rowsSkipped,
+                               long contactsRelinked, Duration elapsed) {
+
+        static ImportResult of(ContactImport checkpoint, Duration elapsed) {
+            return new ImportResult(checkpoint.getFileName(), checkpoint.getRowsRead(), checkpoint.getRowsToImport(),
+                    checkpoint.getRowsRead() - checkpoint.getRowsToImport(), checkpoint.getContactsRelinked(), elapsed);
+        }
+
+        public long rowsPerSecond() {
+            return elapsed.isZero() ? 0 : Math.round(rowsRead / (elapsed.toNanos() / 1e9));
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.bitespeed.identityreconciliation.importer;
+
+import java.util.Arrays;
+
+// Union-find over dense int nodes on a primitive array (4 bytes per node).
+// A union keeps the smaller node as root, so a component's root is its earliest node.
+public final class IntUnionFind {
+
+    private int[] parent;
+    private int size;
+
+    public IntUnionFind() {
+        this(1024);
+    }
+
+    public IntUnionFind(int expectedSize) {
+        parent = new int[Math.max(16, expectedSize)];
+    }
+
+    public int add() {
+        if (size == parent.length) {
+            parent = Arrays.copyOf(parent, parent.length * 2);
+        }
+        parent[size] = size;
+        return size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Find with path halving
+    public int find(int node) {
+        while (parent[node] != node) {
+            parent[node] = parent[parent[node]];
+            node = parent[node];
+        }
+        return node;
+    }
+
+    public void union(int a, int b) {
+        int rootA = find(a);
+        int rootB = find(b);
+        if (rootA < rootB) {
+            parent[rootB] = rootA;
+        } else if (rootB < rootA) {
+            parent[rootA] = rootB;
+        }
+    }
+}
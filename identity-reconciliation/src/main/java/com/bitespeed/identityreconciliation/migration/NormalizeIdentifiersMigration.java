@@ -0,0 +1,161 @@
+package com.bitespeed.identityreconciliation.migration;
+
+import com.bitespeed.identityreconciliation.model.IdentifierHash;
+import com.bitespeed.identityreconciliation.repository.ContactClusterRepository;
+import com.bitespeed.identityreconciliation.service.IdentifierNormalizer;
+import lombok.extern.slf4j.Slf4j;
+import org.flywaydb.core.api.MigrationVersion;
+import org.flywaydb.core.api.migration.Context;
+import org.flywaydb.core.api.migration.JavaMigration;
+import org.springframework.stereotype.Component;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * V5: normalize the stored identifiers and add the 64-bit hash columns the match query looks them up by.
+ *
+ * A Java migration (a bean, picked up by Spring Boot's Flyway setup) so existing rows go through the same
+ * IdentifierNormalizer and IdentifierHash as new ones. Like V2 it runs outside a transaction: rows are
+ * rewritten in committed id-range batches and the indexes are built CONCURRENTLY; only the contact_cluster
+ * rebuild is one transaction.
+ *
+ * Clusters that normalization gave a shared identifier stay separate until the next identify on that
+ * identifier merges them, exactly like two clusters a new request links.
+ */
+@Slf4j
+@Component
+public class NormalizeIdentifiersMigration implements JavaMigration {
+
+    private static final int BATCH_SIZE = 10_000;
+
+    private final IdentifierNormalizer normalizer;
+
+    public NormalizeIdentifiersMigration(IdentifierNormalizer normalizer) {
+        this.normalizer = normalizer;
+    }
+
+    @Override
+    public MigrationVersion getVersion() {
+        return MigrationVersion.fromVersion("5");
+    }
+
+    @Override
+    public String getDescription() {
+        return "normalize identifiers";
+    }
+
+    @Override
+    public Integer getChecksum() {
+        return null;
+    }
+
+    @Override
+    public boolean canExecuteInTransaction() {
+        return false;
+    }
+
+    @Override
+    public void migrate(Context context) throws Exception {
+        Connection connection = context.getConnection();
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(true);
+        try (Statement statement = connection.createStatement()) {
+            // 1. Expand: nullable column adds are catalog-only changes
+            statement.execute("ALTER TABLE contact ADD COLUMN IF NOT EXISTS email_hash BIGINT, " +
+                    "ADD COLUMN IF NOT EXISTS phone_hash BIGINT");
+
+            // 2. Normalize and hash every row, one committed batch of ids at a time
+            long rewritten = 0;
+            long[] range = idRange(statement);
+            for (long batchStart = range[0]; batchStart <= range[1]; batchStart += BATCH_SIZE) {
+                rewritten += rewriteBatch(connection, batchStart, batchStart + BATCH_SIZE);
+            }
+            log.info("V5: normalized identifiers of {} contacts", rewritten);
+
+            // 3. The hash indexes replace the wide string indexes
+            statement.execute("CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_contact_email_hash ON contact (email_hash)");
+            statement.execute("CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_contact_phone_hash ON contact (phone_hash)");
+            statement.execute("DROP INDEX CONCURRENTLY IF EXISTS idx_contact_email");
+            statement.execute("DROP INDEX CONCURRENTLY IF EXISTS idx_contact_phone_number");
+
+            // 4. The lookup projection carries the identifiers too. Every row is upserted in place and rows of
+            // primaries that no longer exist are deleted, in one transaction: GET /identify keeps reading the
+            // old projection until it commits instead of finding an empty table
+            connection.setAutoCommit(false);
+            try {
+                statement.execute("WITH " + ContactClusterRepository.REBUILD_MEMBERS +
+                        " WHERE c.link_precedence = 'PRIMARY' OR c.linked_contact_id IS NOT NULL" + ContactClusterRepository.REBUILD_ROWS);
+                statement.execute("DELETE FROM contact_cluster cc WHERE NOT EXISTS (SELECT 1 FROM contact p " +
+                        "WHERE p.id = cc.primary_contact_id AND p.link_precedence = 'PRIMARY')");
+                connection.commit();
+            } catch (Exception e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+            try (ResultSet rs = statement.executeQuery("""
+                    SELECT (SELECT COUNT(*) FROM (SELECT FROM contact_cluster, unnest(emails) e GROUP BY e HAVING COUNT(*) > 1) x)
+                         + (SELECT COUNT(*) FROM (SELECT FROM contact_cluster, unnest(phone_numbers) p GROUP BY p HAVING COUNT(*) > 1) y)
+                    """)) {
+                rs.next();
+                if (rs.getLong(1) > 0) {
+                    log.info("V5: {} identifiers are now shared by more than one cluster; identify merges them on next use",
+                            rs.getLong(1));
+                }
+            }
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    private static long[] idRange(Statement statement) throws Exception {
+        try (ResultSet rs = statement.executeQuery("SELECT COALESCE(MIN(id), 0), COALESCE(MAX(id), -1) FROM contact")) {
+            rs.next();
+            return new long[]{rs.getLong(1), rs.getLong(2)};
+        }
+    }
+
+    private int rewriteBatch(Connection connection, long fromId, long toId) throws Exception {
+        List<Long> ids = new ArrayList<>();
+        List<String> emails = new ArrayList<>();
+        List<String> phones = new ArrayList<>();
+        try (PreparedStatement select = connection.prepareStatement(
+                "SELECT id, email, phone_number FROM contact WHERE id >= ? AND id < ?")) {
+            select.setLong(1, fromId);
+            select.setLong(2, toId);
+            try (ResultSet rs = select.executeQuery()) {
+                while (rs.next()) {
+                    ids.add(rs.getLong(1));
+                    emails.add(normalizer.email(rs.getString(2)));
+                    phones.add(normalizer.phoneNumber(rs.getString(3)));
+                }
+            }
+        }
+        if (ids.isEmpty()) {
+            return 0;
+        }
+
+        String[] emailArray = emails.toArray(String[]::new);
+        String[] phoneArray = phones.toArray(String[]::new);
+        try (PreparedStatement update = connection.prepareStatement("""
+                UPDATE contact c
+                   SET email = u.email, phone_number = u.phone_number, email_hash = u.email_hash, phone_hash = u.phone_hash
+                  FROM unnest(CAST(? AS BIGINT[]), CAST(? AS VARCHAR[]), CAST(? AS VARCHAR[]), CAST(? AS BIGINT[]), CAST(? AS BIGINT[]))
+                       AS u(id, email, phone_number, email_hash, phone_hash)
+                 WHERE c.id = u.id
+                """)) {
+            update.setArray(1, connection.createArrayOf("bigint", ids.toArray()));
+            update.setArray(2, connection.createArrayOf("varchar", emailArray));
+            update.setArray(3, connection.createArrayOf("varchar", phoneArray));
+            update.setArray(4, connection.createArrayOf("bigint", IdentifierHash.of(emailArray)));
+            update.setArray(5, connection.createArrayOf("bigint", IdentifierHash.of(phoneArray)));
+            return update.executeUpdate();
+        }
+    }
+}
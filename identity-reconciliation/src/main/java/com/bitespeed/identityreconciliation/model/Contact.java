@@ -2,6 +2,9 @@ package com.bitespeed.identityreconciliation.model;
 
 import jakarta.persistence.*;
 import lombok.*;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+import org.hibernate.id.enhanced.SequenceStyleGenerator;
 import java.time.LocalDateTime;
 
 
@@ -11,21 +14,50 @@ import java.time.LocalDateTime;
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
-@Builder
-@Table(name = "contact")
+@Builder(toBuilder = true)
+@Table(name = "contact", indexes = {
+        @Index(name = "idx_contact_email_hash", columnList = "email_hash"),
+        @Index(name = "idx_contact_phone_hash", columnList = "phone_hash"),
+        @Index(name = "idx_contact_linked_contact_id_id", columnList = "linked_contact_id, id")
+})
 public class Contact {
+
+    // Pooled-lo sequence (see V6): each nextval owns the next ID_BLOCK_SIZE ids, so ids are assigned
+    // in memory and inserts can be batched; writers that take a single nextval just use its first id
+    public static final String ID_SEQUENCE = "contact_id_seq";
+    public static final int ID_BLOCK_SIZE = 50;
+
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "contact_id")
+    @GenericGenerator(name = "contact_id", type = SequenceStyleGenerator.class, parameters = {
+            @Parameter(name = SequenceStyleGenerator.SEQUENCE_PARAM, value = ID_SEQUENCE),
+            @Parameter(name = SequenceStyleGenerator.INCREMENT_PARAM, value = "" + ID_BLOCK_SIZE),
+            @Parameter(name = SequenceStyleGenerator.OPT_PARAM, value = "pooled-lo")
+    })
     private Long id;
     private String phoneNumber;
     private String email;
-    private String linkedId;
+
+    // Id of the primary this contact is linked to (null for primaries)
+    @Column(name = "linked_contact_id")
+    private Long linkedId;
 
     @Enumerated(EnumType.STRING)
     private LinkPrecedence linkPrecedence;
     private LocalDateTime createdAt;
     private LocalDateTime updatedAt;
     private LocalDateTime deletedAt;
+
+    // IdentifierHash of email and phoneNumber, the keys the match query looks contacts up by
+    private Long emailHash;
+    private Long phoneHash;
+
+    @PrePersist
+    @PreUpdate
+    void hashIdentifiers() {
+        emailHash = IdentifierHash.of(email);
+        phoneHash = IdentifierHash.of(phoneNumber);
+    }
 }
 
 
@@ -0,0 +1,30 @@
+package com.bitespeed.identityreconciliation.model;
+
+import jakarta.persistence.*;
+import lombok.*;
+import java.time.LocalDateTime;
+
+// A contact moved out of contact by ContactArchiver: soft-deleted, or linked to a soft-deleted primary.
+// Written only with SQL; the entity describes the table.
+@Entity
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+@Table(name = "contact_archive")
+public class ContactArchive {
+    @Id
+    private Long id;
+    private String phoneNumber;
+    private String email;
+
+    @Column(name = "linked_contact_id")
+    private Long linkedId;
+
+    @Enumerated(EnumType.STRING)
+    private LinkPrecedence linkPrecedence;
+    private LocalDateTime createdAt;
+    private LocalDateTime updatedAt;
+    private LocalDateTime deletedAt;
+    private LocalDateTime archivedAt;
+}
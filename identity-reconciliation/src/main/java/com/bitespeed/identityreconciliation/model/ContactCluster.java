@@ -0,0 +1,22 @@
+package com.bitespeed.identityreconciliation.model;
+
+import jakarta.persistence.*;
+import lombok.*;
+import java.time.LocalDateTime;
+
+// Denormalized read model of one identity cluster, keyed by its primary and kept in step with every
+// write to the cluster; identifiers are ordered as in the identify response (primary's first, then by id)
+@Entity
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+@Table(name = "contact_cluster")
+public class ContactCluster {
+    @Id
+    private Long primaryContactId;
+    private String[] emails;
+    private String[] phoneNumbers;
+    private Long[] secondaryContactIds;
+    private LocalDateTime updatedAt;
+}
@@ -0,0 +1,63 @@
+package com.bitespeed.identityreconciliation.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import jakarta.persistence.*;
+import lombok.*;
+import java.time.LocalDateTime;
+import java.util.Collection;
+
+// Change to a cluster, written to the contact_event outbox in the transaction that made it and removed once
+// dispatched. primaryContactId is the cluster's primary after the change: the new primary, the primary a
+// secondary was added to, or the primary that absorbed the mergedContactIds primaries.
+@Entity
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+@Table(name = "contact_event")
+public class ContactEvent {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Enumerated(EnumType.STRING)
+    private ContactEventType type;
+    private Long primaryContactId;
+    private Long contactId;
+    private Long[] mergedContactIds;
+    private String email;
+    private String phoneNumber;
+    private LocalDateTime createdAt;
+    // Tenant whose store the event came from (identity.sharding), set on dispatch; absent for the default store
+    @Transient
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String tenant;
+
+    public static ContactEvent primaryCreated(Contact primary) {
+        return added(ContactEventType.PRIMARY_CREATED, primary.getId(), primary);
+    }
+
+    public static ContactEvent secondaryAdded(Long primaryContactId, Contact secondary) {
+        return added(ContactEventType.SECONDARY_ADDED, primaryContactId, secondary);
+    }
+
+    public static ContactEvent merged(Long primaryContactId, Collection<Long> demotedIds) {
+        return ContactEvent.builder()
+                .type(ContactEventType.PRIMARIES_MERGED)
+                .primaryContactId(primaryContactId)
+                .mergedContactIds(demotedIds.stream().sorted().toArray(Long[]::new))
+                .createdAt(LocalDateTime.now())
+                .build();
+    }
+
+    private static ContactEvent added(ContactEventType type, Long primaryContactId, Contact contact) {
+        return ContactEvent.builder()
+                .type(type)
+                .primaryContactId(primaryContactId)
+                .contactId(contact.getId())
+                .email(contact.getEmail())
+                .phoneNumber(contact.getPhoneNumber())
+                .createdAt(LocalDateTime.now())
+                .build();
+    }
+}
@@ -0,0 +1,7 @@
+package com.bitespeed.identityreconciliation.model;
+
+public enum ContactEventType {
+    PRIMARY_CREATED,
+    SECONDARY_ADDED,
+    PRIMARIES_MERGED
+}
@@ -0,0 +1,41 @@
+package com.bitespeed.identityreconciliation.model;
+
+import jakarta.persistence.*;
+import lombok.*;
+import java.time.LocalDateTime;
+
+// Checkpoint of a bulk contact import, committed together with each chunk of rows it writes
+@Entity
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+@Table(name = "contact_import", uniqueConstraints =
+        @UniqueConstraint(name = "uq_contact_import_file", columnNames = {"file_name", "file_size"}))
+public class ContactImport {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(length = 1024)
+    private String fileName;
+    private Long fileSize;
+
+    @Enumerated(EnumType.STRING)
+    private Status status;
+
+    // First id of the block reserved for the imported rows; row n of the import gets idBase + n
+    private Long idBase;
+    private Long rowsRead;
+    private Long rowsToImport;
+    private Long rowsWritten;
+    private Long contactsRelinked;
+    private LocalDateTime startedAt;
+    private LocalDateTime updatedAt;
+
+    public enum Status {
+        COPYING,
+        RELINKING,
+        DONE
+    }
+}
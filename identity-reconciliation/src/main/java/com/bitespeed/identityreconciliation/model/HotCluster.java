@@ -0,0 +1,27 @@
+package com.bitespeed.identityreconciliation.model;
+
+import jakarta.persistence.*;
+import lombok.*;
+import java.time.LocalDateTime;
+
+// Bounded summary of a cluster too large to load per request: the first entries of each response list
+// (same order as contact_cluster) and the full counts. Identify keeps it exact, other writers delete it;
+// projectionStale marks its contact_cluster row for the background rebuild.
+@Entity
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+@Table(name = "hot_cluster")
+public class HotCluster {
+    @Id
+    private Long primaryContactId;
+    private String[] emails;
+    private String[] phoneNumbers;
+    private Long[] secondaryContactIds;
+    private Integer emailCount;
+    private Integer phoneNumberCount;
+    private Integer memberCount;
+    private Boolean projectionStale;
+    private LocalDateTime updatedAt;
+}
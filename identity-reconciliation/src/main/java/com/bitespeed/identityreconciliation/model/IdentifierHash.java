@@ -0,0 +1,32 @@
+package com.bitespeed.identityreconciliation.model;
+
+// Fixed-width lookup key of a normalized identifier, stored in contact.email_hash / phone_hash.
+// Queries probe the narrow hash index and recheck the string, so a collision never matches.
+public final class IdentifierHash {
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private IdentifierHash() {
+    }
+
+    // 64-bit FNV-1a of the identifier's chars, stable across JVMs and nodes; null for a missing identifier
+    public static Long of(String identifier) {
+        if (identifier == null) {
+            return null;
+        }
+        long hash = FNV_OFFSET;
+        for (int i = 0; i < identifier.length(); i++) {
+            hash = (hash ^ identifier.charAt(i)) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    public static Long[] of(String[] identifiers) {
+        Long[] hashes = new Long[identifiers.length];
+        for (int i = 0; i < identifiers.length; i++) {
+            hashes[i] = of(identifiers[i]);
+        }
+        return hashes;
+    }
+}
@@ -0,0 +1,88 @@
+package com.bitespeed.identityreconciliation.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+
+// Moves soft-deleted contacts, and the contacts of soft-deleted primaries, from contact to contact_archive
+@Repository
+@RequiredArgsConstructor
+public class ContactArchiveRepository {
+
+    // Advisory key (two-int form, apart from the contact and identifier locks) held by the node archiving
+    private static final int ARCHIVE_LOCK_CLASS = 0x41524348;
+    private static final DateTimeFormatter PARTITION_SUFFIX = DateTimeFormatter.ofPattern("yyyy_MM");
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public record Candidate(long id, long root) {
+    }
+
+    // One archiver per store at a time across nodes; held until the current transaction ends. tenantKey is
+    // TenantContext.lockKey().
+    public boolean tryLockArchive(int tenantKey) {
+        return Boolean.TRUE.equals(jdbcTemplate.queryForObject(
+                "SELECT pg_try_advisory_xact_lock(" + ARCHIVE_LOCK_CLASS + ", ?)", Boolean.class, tenantKey));
+    }
+
+    // Up to limit contacts to move and the primary each is linked to: contacts of deleted primaries, then deleted
+    // contacts in id order. Both come from the partial index on deleted rows, never from a scan of the live ones.
+    public List<Candidate> findCandidates(int limit) {
+        return jdbcTemplate.query("""
+                SELECT id, root FROM (
+                    (SELECT s.id, s.linked_contact_id AS root
+                       FROM contact p JOIN contact s ON s.linked_contact_id = p.id
+                      WHERE p.deleted_at IS NOT NULL
+                      LIMIT ?)
+                    UNION
+                    (SELECT c.id, COALESCE(c.linked_contact_id, c.id)
+                       FROM contact c
+                      WHERE c.deleted_at IS NOT NULL
+                      ORDER BY c.id
+                      LIMIT ?)
+                ) candidates
+                LIMIT ?
+                """, (rs, row) -> new Candidate(rs.getLong("id"), rs.getLong("root")), limit, limit, limit);
+    }
+
+    // Move the candidates that are still archivable and still linked to one of the given (locked) roots, in one
+    // statement; returns the root of each contact moved. A deleted primary moves only with, or after, every
+    // contact linked to it, since the link is a foreign key.
+    public List<Long> moveToArchive(Long[] ids, Long[] roots) {
+        return jdbcTemplate.queryForList("""
+                WITH moved AS (
+                    DELETE FROM contact c
+                     WHERE c.id = ANY(?)
+                       AND COALESCE(c.linked_contact_id, c.id) = ANY(?)
+                       AND (c.deleted_at IS NOT NULL
+                            OR EXISTS (SELECT 1 FROM contact p WHERE p.id = c.linked_contact_id AND p.deleted_at IS NOT NULL))
+                       AND NOT EXISTS (SELECT 1 FROM contact s WHERE s.linked_contact_id = c.id AND s.id <> ALL(?))
+                    RETURNING c.*
+                ), archived AS (
+                    INSERT INTO contact_archive (id, phone_number, email, linked_contact_id, link_precedence, created_at,
+                                                 updated_at, deleted_at, archived_at)
+                    SELECT id, phone_number, email, linked_contact_id, link_precedence, created_at, updated_at, deleted_at,
+                           LOCALTIMESTAMP
+                      FROM moved
+                )
+                SELECT COALESCE(linked_contact_id, id) FROM moved
+                """, Long.class, ids, roots, ids);
+    }
+
+    public boolean isPartitioned() {
+        return Boolean.TRUE.equals(jdbcTemplate.queryForObject(
+                "SELECT EXISTS (SELECT 1 FROM pg_partitioned_table WHERE partrelid = to_regclass('contact_archive'))",
+                Boolean.class));
+    }
+
+    // The partition of contact_archive for rows archived in the given month
+    public void createPartition(YearMonth month) {
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS contact_archive_" + month.format(PARTITION_SUFFIX) +
+                " PARTITION OF contact_archive FOR VALUES FROM ('" + month.atDay(1) + "') TO ('" +
+                month.plusMonths(1).atDay(1) + "')");
+    }
+}
@@ -0,0 +1,227 @@
+package com.bitespeed.identityreconciliation.repository;
+
+import com.bitespeed.identityreconciliation.model.Contact;
+import com.bitespeed.identityreconciliation.model.IdentifierHash;
+import com.bitespeed.identityreconciliation.model.LinkPrecedence;
+import lombok.RequiredArgsConstructor;
+import org.postgresql.PGConnection;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+// JDBC-batched writes for bulk reconciliation, bypassing per-entity persistence
+@Repository
+@RequiredArgsConstructor
+public class ContactBatchRepository {
+
+    private static final int BATCH_SIZE = 500;
+    private static final int SCAN_FETCH_SIZE = 10_000;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    // Reserve ids from the contact id sequence in one round trip, so new rows can be inserted in a batch.
+    // The sequence is pooled (pooled-lo): each nextval owns the Contact.ID_BLOCK_SIZE ids starting at it.
+    public List<Long> reserveIds(int count) {
+        List<Long> blocks = jdbcTemplate.queryForList(
+                "SELECT nextval('" + Contact.ID_SEQUENCE + "') FROM generate_series(1, ?)",
+                Long.class, (count + Contact.ID_BLOCK_SIZE - 1) / Contact.ID_BLOCK_SIZE);
+        List<Long> ids = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ids.add(blocks.get(i / Contact.ID_BLOCK_SIZE) + i % Contact.ID_BLOCK_SIZE);
+        }
+        return ids;
+    }
+
+    // Reserve a contiguous block of ids by advancing the sequence past it; returns the first id.
+    // Not atomic with concurrent nextval calls, so only for offline imports.
+    public long reserveIdBlock(long count) {
+        Long last = jdbcTemplate.queryForObject(
+                "SELECT setval('" + Contact.ID_SEQUENCE + "', nextval('" + Contact.ID_SEQUENCE + "') + ? - 1)",
+                Long.class, count);
+        return last - count + 1;
+    }
+
+    // Stream live contacts below an id (primaries first, oldest first) with a server-side cursor; must run inside a transaction
+    public void scanBelow(long idLimit, Consumer<Contact> consumer) {
+        jdbcTemplate.query(connection -> {
+            PreparedStatement statement = connection.prepareStatement(
+                    "SELECT c.id, c.phone_number, c.email, c.linked_contact_id, c.link_precedence FROM contact c " +
+                            "WHERE c.id < ? AND " + ContactRepository.LIVE + " " +
+                            "ORDER BY c.link_precedence = 'PRIMARY' DESC, c.created_at, c.id");
+            statement.setFetchSize(SCAN_FETCH_SIZE);
+            statement.setLong(1, idLimit);
+            return statement;
+        }, rs -> {
+            long linkedId = rs.getLong("linked_contact_id");
+            consumer.accept(Contact.builder()
+                    .id(rs.getLong("id"))
+                    .phoneNumber(rs.getString("phone_number"))
+                    .email(rs.getString("email"))
+                    .linkedId(rs.wasNull() ? null : linkedId)
+                    .linkPrecedence(LinkPrecedence.valueOf(rs.getString("link_precedence")))
+                    .build());
+        });
+    }
+
+    // Smallest and largest contact id, or null for an empty table
+    public long[] idBounds() {
+        return jdbcTemplate.query("SELECT min(id), max(id) FROM contact", rs -> {
+            rs.next();
+            long min = rs.getLong(1);
+            return rs.wasNull() ? null : new long[]{min, rs.getLong(2)};
+        });
+    }
+
+    // Live contacts with an id in (afterId, maxId]
+    public long countLiveBetween(long afterId, long maxId) {
+        return jdbcTemplate.queryForObject(
+                "SELECT count(*) FROM contact c WHERE c.id > ? AND c.id <= ? AND " + ContactRepository.LIVE,
+                Long.class, afterId, maxId);
+    }
+
+    // One keyset page of the live contacts with an id in (afterId, maxId], in id order: links, creation
+    // time and identifier hashes only, not the identifiers themselves
+    public List<Contact> findLiveLinksAfter(long afterId, long maxId, int limit) {
+        return jdbcTemplate.query(
+                "SELECT c.id, c.linked_contact_id, c.link_precedence, c.created_at, c.email_hash, c.phone_hash " +
+                        "FROM contact c WHERE c.id > ? AND c.id <= ? AND " + ContactRepository.LIVE + " " +
+                        "ORDER BY c.id LIMIT ?",
+                (rs, row) -> {
+                    Timestamp createdAt = rs.getTimestamp("created_at");
+                    return Contact.builder()
+                            .id(rs.getLong("id"))
+                            .linkedId(rs.getObject("linked_contact_id", Long.class))
+                            .linkPrecedence(LinkPrecedence.valueOf(rs.getString("link_precedence")))
+                            .createdAt(createdAt != null ? createdAt.toLocalDateTime() : null)
+                            .emailHash(rs.getObject("email_hash", Long.class))
+                            .phoneHash(rs.getObject("phone_hash", Long.class))
+                            .build();
+                },
+                afterId, maxId, limit);
+    }
+
+    // The stored email and phone number of the given contacts, to check identifiers that matched by hash
+    public List<Contact> findIdentifiers(Long[] ids) {
+        return jdbcTemplate.query(
+                "SELECT c.id, c.email, c.phone_number FROM contact c WHERE c.id = ANY(?) AND " + ContactRepository.LIVE,
+                (rs, row) -> Contact.builder()
+                        .id(rs.getLong("id"))
+                        .email(rs.getString("email"))
+                        .phoneNumber(rs.getString("phone_number"))
+                        .build(),
+                (Object) ids);
+    }
+
+    // Write contacts that already carry a reserved id with COPY, the fastest way into Postgres
+    public long copyAll(List<Contact> contacts) {
+        StringBuilder csv = new StringBuilder(contacts.size() * 96);
+        for (Contact contact : contacts) {
+            csv.append(contact.getId()).append(',');
+            appendCsv(csv, contact.getPhoneNumber()).append(',');
+            appendCsv(csv, contact.getEmail()).append(',');
+            csv.append(contact.getLinkedId() != null ? contact.getLinkedId().toString() : "").append(',');
+            csv.append(contact.getLinkPrecedence().name()).append(',');
+            csv.append(contact.getCreatedAt()).append(',');
+            csv.append(contact.getUpdatedAt()).append(',');
+            csv.append(hashOrEmpty(contact.getPhoneNumber())).append(',');
+            csv.append(hashOrEmpty(contact.getEmail())).append('\n');
+        }
+        return jdbcTemplate.execute((ConnectionCallback<Long>) connection -> {
+            try {
+                return connection.unwrap(PGConnection.class).getCopyAPI().copyIn(
+                        "COPY contact (id, phone_number, email, linked_contact_id, link_precedence, created_at, updated_at, " +
+                                "phone_hash, email_hash) " +
+                                "FROM STDIN WITH (FORMAT csv)",
+                        new StringReader(csv.toString()));
+            } catch (IOException e) {
+                throw new IllegalStateException("COPY into contact failed", e);
+            }
+        });
+    }
+
+    // Insert contacts that already carry a reserved id
+    public void insertAll(List<Contact> contacts) {
+        jdbcTemplate.batchUpdate(
+                "INSERT INTO contact (id, phone_number, email, linked_contact_id, link_precedence, created_at, updated_at, " +
+                        "phone_hash, email_hash) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)",
+                contacts, BATCH_SIZE, ContactBatchRepository::setInsert);
+    }
+
+    // Insert contacts that already carry a reserved id, skipping ids already present (journal replay)
+    public void insertMissing(List<Contact> contacts) {
+        jdbcTemplate.batchUpdate(
+                "INSERT INTO contact (id, phone_number, email, linked_contact_id, link_precedence, created_at, updated_at, " +
+                        "phone_hash, email_hash) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?) ON CONFLICT (id) DO NOTHING",
+                contacts, BATCH_SIZE, ContactBatchRepository::setInsert);
+    }
+
+    // Point the given contacts at the primary of the contact they are linked to, where that one was
+    // demoted (clusters are flat, so one hop suffices); returns the primaries they end up linked to
+    public List<Long> relinkToPrimaries(Long[] ids) {
+        return jdbcTemplate.queryForList("""
+                WITH relinked AS (
+                    UPDATE contact s SET linked_contact_id = p.linked_contact_id, updated_at = LOCALTIMESTAMP
+                      FROM contact p
+                     WHERE s.id = ANY(?) AND p.id = s.linked_contact_id AND p.linked_contact_id IS NOT NULL
+                    RETURNING s.id, s.linked_contact_id
+                )
+                SELECT DISTINCT COALESCE(r.linked_contact_id, c.linked_contact_id)
+                  FROM contact c LEFT JOIN relinked r ON r.id = c.id
+                 WHERE c.id = ANY(?)
+                """, Long.class, ids, ids);
+    }
+
+    // Persist link changes (linkedId, linkPrecedence, updatedAt) of existing contacts
+    public void updateLinks(List<Contact> contacts) {
+        jdbcTemplate.batchUpdate(
+                "UPDATE contact SET linked_contact_id = ?, link_precedence = ?, updated_at = ? WHERE id = ?",
+                contacts, BATCH_SIZE, (ps, contact) -> {
+                    if (contact.getLinkedId() != null) {
+                        ps.setLong(1, contact.getLinkedId());
+                    } else {
+                        ps.setNull(1, Types.BIGINT);
+                    }
+                    ps.setString(2, contact.getLinkPrecedence().name());
+                    ps.setTimestamp(3, Timestamp.valueOf(contact.getUpdatedAt()));
+                    ps.setLong(4, contact.getId());
+                });
+    }
+
+    private static void setInsert(PreparedStatement ps, Contact contact) throws SQLException {
+        ps.setLong(1, contact.getId());
+        ps.setString(2, contact.getPhoneNumber());
+        ps.setString(3, contact.getEmail());
+        if (contact.getLinkedId() != null) {
+            ps.setLong(4, contact.getLinkedId());
+        } else {
+            ps.setNull(4, Types.BIGINT);
+        }
+        ps.setString(5, contact.getLinkPrecedence().name());
+        ps.setTimestamp(6, Timestamp.valueOf(contact.getCreatedAt()));
+        ps.setTimestamp(7, Timestamp.valueOf(contact.getUpdatedAt()));
+        ps.setObject(8, IdentifierHash.of(contact.getPhoneNumber()), Types.BIGINT);
+        ps.setObject(9, IdentifierHash.of(contact.getEmail()), Types.BIGINT);
+    }
+
+    private static String hashOrEmpty(String identifier) {
+        return identifier != null ? IdentifierHash.of(identifier).toString() : "";
+    }
+
+    // Unquoted empty is NULL in COPY csv; anything else is quoted so commas, quotes and empty strings survive
+    private static StringBuilder appendCsv(StringBuilder csv, String value) {
+        if (value != null) {
+            csv.append('"').append(value.replace("\"", "\"\"")).append('"');
+        }
+        return csv;
+    }
+}
@@ -0,0 +1,104 @@
+package com.bitespeed.identityreconciliation.repository;
+
+import com.bitespeed.identityreconciliation.model.ContactCluster;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.Optional;
+
+@Repository
+public interface ContactClusterRepository extends JpaRepository<ContactCluster, Long> {
+
+    // Rebuilds the projection rows of the clusters whose members are selected by a WHERE on contact c,
+    // from the committed-or-own rows of the current transaction; the WHERE leaves out soft-deleted contacts. Emails and phones are ordered like
+    // ContactService.buildResponse: the primary's first, then by the id of the first contact carrying them.
+    String REBUILD_MEMBERS = """
+            members AS (
+                SELECT COALESCE(c.linked_contact_id, c.id) AS root, c.id, c.email, c.phone_number, c.link_precedence,
+                       CASE WHEN c.linked_contact_id IS NULL THEN 0 ELSE 1 END AS primary_rank
+                  FROM contact c
+            """;
+    String REBUILD_ROWS = """
+            )
+            INSERT INTO contact_cluster (primary_contact_id, emails, phone_numbers, secondary_contact_ids, updated_at)
+            SELECT r.root, COALESCE(e.emails, '{}'), COALESCE(p.phone_numbers, '{}'), COALESCE(s.ids, '{}'), LOCALTIMESTAMP
+              FROM (SELECT root FROM members WHERE primary_rank = 0) r
+              LEFT JOIN (SELECT root, array_agg(email ORDER BY primary_rank, first_id) AS emails
+                           FROM (SELECT root, email, min(primary_rank) AS primary_rank, min(id) AS first_id
+                                   FROM members WHERE email IS NOT NULL GROUP BY root, email) x
+                          GROUP BY root) e ON e.root = r.root
+              LEFT JOIN (SELECT root, array_agg(phone_number ORDER BY primary_rank, first_id) AS phone_numbers
+                           FROM (SELECT root, phone_number, min(primary_rank) AS primary_rank, min(id) AS first_id
+                                   FROM members WHERE phone_number IS NOT NULL GROUP BY root, phone_number) x
+                          GROUP BY root) p ON p.root = r.root
+              LEFT JOIN (SELECT root, array_agg(id ORDER BY id) AS ids
+                           FROM members WHERE link_precedence = 'SECONDARY' GROUP BY root) s ON s.root = r.root
+            ON CONFLICT (primary_contact_id) DO UPDATE
+               SET emails = EXCLUDED.emails, phone_numbers = EXCLUDED.phone_numbers,
+                   secondary_contact_ids = EXCLUDED.secondary_contact_ids, updated_at = EXCLUDED.updated_at
+            """;
+
+    // Refresh the clusters of the given roots (surviving primaries and primaries merged away); run it in
+    // the transaction that changed them, after the writes, so readers never see a half-applied link.
+    // Writers other than the hot path drop the roots' hot_cluster summaries, rebuilt on their next identify.
+    String REFRESH = """
+            WITH stale AS (
+                DELETE FROM contact_cluster cc
+                 WHERE cc.primary_contact_id = ANY(CAST(:roots AS BIGINT[]))
+                   AND NOT EXISTS (SELECT 1 FROM contact p WHERE p.id = cc.primary_contact_id AND p.link_precedence = 'PRIMARY'
+                                     AND p.deleted_at IS NULL)
+            ), hot AS (
+                DELETE FROM hot_cluster h WHERE h.primary_contact_id = ANY(CAST(:roots AS BIGINT[]))
+            ), """ + REBUILD_MEMBERS + """
+                 WHERE ((c.id = ANY(CAST(:roots AS BIGINT[])) AND c.link_precedence = 'PRIMARY')
+                        OR c.linked_contact_id = ANY(CAST(:roots AS BIGINT[])))
+                   AND c.deleted_at IS NULL
+            """ + REBUILD_ROWS;
+
+    // REFRESH keeping the hot_cluster summaries, which the hot path keeps exact; used by HotClusterRefresher
+    String REFRESH_PROJECTION = """
+            WITH stale AS (
+                DELETE FROM contact_cluster cc
+                 WHERE cc.primary_contact_id = ANY(CAST(:roots AS BIGINT[]))
+                   AND NOT EXISTS (SELECT 1 FROM contact p WHERE p.id = cc.primary_contact_id AND p.link_precedence = 'PRIMARY'
+                                     AND p.deleted_at IS NULL)
+            ), """ + REBUILD_MEMBERS + """
+                 WHERE ((c.id = ANY(CAST(:roots AS BIGINT[])) AND c.link_precedence = 'PRIMARY')
+                        OR c.linked_contact_id = ANY(CAST(:roots AS BIGINT[])))
+                   AND c.deleted_at IS NULL
+            """ + REBUILD_ROWS;
+
+    @Modifying
+    @Query(value = REFRESH_PROJECTION, nativeQuery = true)
+    int refreshProjection(@Param("roots") Long[] roots);
+
+    @Modifying
+    @Query(value = REFRESH, nativeQuery = true)
+    int refresh(@Param("roots") Long[] roots);
+
+    // Rebuild every cluster, e.g. after a bulk import; rows of primaries that no longer exist are removed first
+    @Modifying
+    @Query(value = "DELETE FROM contact_cluster cc WHERE NOT EXISTS (SELECT 1 FROM contact p " +
+            "WHERE p.id = cc.primary_contact_id AND p.link_precedence = 'PRIMARY' AND p.deleted_at IS NULL)", nativeQuery = true)
+    int deleteStale();
+
+    @Modifying
+    @Query(value = "WITH " + REBUILD_MEMBERS + """
+                 WHERE (c.link_precedence = 'PRIMARY' OR c.linked_contact_id IS NOT NULL) AND c.deleted_at IS NULL
+            """ + REBUILD_ROWS, nativeQuery = true)
+    int rebuildAll();
+
+    // Single GIN index probe each, returning only the root so the lists of a hot cluster's row are never read.
+    // An identifier belongs to one cluster, except right after V5 normalized identifiers into ones other
+    // clusters carry; until identify merges those, the oldest cluster answers.
+    @Query(value = "SELECT primary_contact_id FROM contact_cluster WHERE emails @> ARRAY[CAST(:email AS VARCHAR)] " +
+            "ORDER BY primary_contact_id LIMIT 1", nativeQuery = true)
+    Optional<Long> findPrimaryContactIdByEmail(@Param("email") String email);
+
+    @Query(value = "SELECT primary_contact_id FROM contact_cluster WHERE phone_numbers @> ARRAY[CAST(:phone AS VARCHAR)] " +
+            "ORDER BY primary_contact_id LIMIT 1", nativeQuery = true)
+    Optional<Long> findPrimaryContactIdByPhoneNumber(@Param("phone") String phone);
+}
@@ -0,0 +1,24 @@
+package com.bitespeed.identityreconciliation.repository;
+
+import com.bitespeed.identityreconciliation.model.ContactEvent;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public interface ContactEventRepository extends JpaRepository<ContactEvent, Long> {
+
+    // Advisory key (two-int form, apart from the contact and identifier locks) held by the node draining the outbox
+    int DISPATCH_LOCK_CLASS = 0x4f555458;
+
+    List<ContactEvent> findAllByOrderById(Limit limit);
+
+    // One dispatcher per store at a time across nodes, so a cluster's events are never published out of order;
+    // held until the draining transaction ends. tenantKey is TenantContext.lockKey().
+    @Query(value = "SELECT pg_try_advisory_xact_lock(" + DISPATCH_LOCK_CLASS + ", :tenantKey)", nativeQuery = true)
+    boolean tryLockDispatch(@Param("tenantKey") int tenantKey);
+}
@@ -0,0 +1,13 @@
+package com.bitespeed.identityreconciliation.repository;
+
+import com.bitespeed.identityreconciliation.model.ContactImport;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.Optional;
+
+@Repository
+public interface ContactImportRepository extends JpaRepository<ContactImport, Long> {
+
+    Optional<ContactImport> findByFileNameAndFileSize(String fileName, Long fileSize);
+}
@@ -1,30 +1,176 @@
 package com.bitespeed.identityreconciliation.repository;
 
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import com.bitespeed.identityreconciliation.model.Contact;
+import com.bitespeed.identityreconciliation.model.IdentifierHash;
+import com.bitespeed.identityreconciliation.model.LinkPrecedence;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 
 @Repository
 public interface ContactRepository extends JpaRepository<Contact, Long> {
 
-    // Find contacts that exactly match the email or phone from the request
-    @Query("SELECT c FROM Contact c WHERE (:email IS NOT NULL AND c.email = :email) OR (:phone IS NOT NULL AND c.phoneNumber = :phone)")
-    List<Contact> findByEmailOrPhoneNumber(@Param("email") String email, @Param("phone") String phone);
+    // Soft-deleted contacts take no part in identify, and neither does any contact linked to a soft-deleted
+    // primary (an orphan): deleting a primary deletes its cluster. ContactArchiver moves both out of the table.
+    // Native-query condition on a contact aliased c.
+    String LIVE = "c.deleted_at IS NULL " +
+            "AND NOT EXISTS (SELECT 1 FROM contact dp WHERE dp.id = c.linked_contact_id AND dp.deleted_at IS NOT NULL)";
 
-    // Find all contacts linked to a primary contact
-    @Query("SELECT c FROM Contact c WHERE (c.linkedId IS NOT NULL AND CAST(c.linkedId AS long) = :id) OR c.id = :id")
+    // Find contacts that exactly match the email or phone from the request. Every lookup by identifier goes
+    // through the 64-bit hash index and rechecks the string, so a hash collision never matches.
+    default List<Contact> findByEmailOrPhoneNumber(String email, String phone) {
+        return findByIdentifierHashes(email, IdentifierHash.of(email), phone, IdentifierHash.of(phone));
+    }
+
+    @Query("SELECT c FROM Contact c WHERE ((c.emailHash = :emailHash AND c.email = :email) " +
+            "OR (c.phoneHash = :phoneHash AND c.phoneNumber = :phone)) AND c.deletedAt IS NULL " +
+            "AND NOT EXISTS (SELECT 1 FROM Contact p WHERE p.id = c.linkedId AND p.deletedAt IS NOT NULL)")
+    List<Contact> findByIdentifierHashes(@Param("email") String email, @Param("emailHash") Long emailHash,
+                                         @Param("phone") String phone, @Param("phoneHash") Long phoneHash);
+
+    // Resolve the whole identity cluster in one statement: the contacts matching the email or phone,
+    // every contact up their link chain, and every contact linked (transitively) to the primaries found.
+    // The CTEs carry whole rows so every step is an index seek (no final join back to contact). Only live
+    // contacts match; the walk passes through deleted primaries so their orphans can be left out at the end.
+    default List<Contact> findClusterByEmailOrPhoneNumber(String email, String phone) {
+        return findClusterByIdentifierHashes(email, IdentifierHash.of(email), phone, IdentifierHash.of(phone));
+    }
+
+    @Query(value = """
+            WITH RECURSIVE up AS (
+                SELECT c.* FROM contact c
+                 WHERE ((c.email_hash = CAST(:emailHash AS BIGINT) AND c.email = CAST(:email AS VARCHAR))
+                        OR (c.phone_hash = CAST(:phoneHash AS BIGINT) AND c.phone_number = CAST(:phone AS VARCHAR)))
+                   AND c.deleted_at IS NULL
+                UNION
+                SELECT p.* FROM contact p JOIN up ON p.id = up.linked_contact_id
+            ), down AS (
+                SELECT * FROM up WHERE linked_contact_id IS NULL
+                UNION
+                SELECT c.* FROM contact c JOIN down ON c.linked_contact_id = down.id
+            ), cluster AS (
+                SELECT * FROM up UNION SELECT * FROM down
+            )
+            SELECT c.* FROM cluster c
+             WHERE c.deleted_at IS NULL
+               AND NOT EXISTS (SELECT 1 FROM cluster p WHERE p.id = c.linked_contact_id AND p.deleted_at IS NOT NULL)
+            """, nativeQuery = true)
+    List<Contact> findClusterByIdentifierHashes(@Param("email") String email, @Param("emailHash") Long emailHash,
+                                                @Param("phone") String phone, @Param("phoneHash") Long phoneHash);
+
+    // Batch variant of findClusterByEmailOrPhoneNumber: the clusters of every given email and phone in one statement
+    default List<Contact> findClustersByEmailsOrPhoneNumbers(String[] emails, String[] phones) {
+        return findClustersByIdentifierHashes(emails, IdentifierHash.of(emails), phones, IdentifierHash.of(phones));
+    }
+
+    @Query(value = """
+            WITH RECURSIVE up AS (
+                SELECT c.* FROM contact c
+                 WHERE ((c.email_hash = ANY(CAST(:emailHashes AS BIGINT[])) AND c.email = ANY(CAST(:emails AS VARCHAR[])))
+                        OR (c.phone_hash = ANY(CAST(:phoneHashes AS BIGINT[])) AND c.phone_number = ANY(CAST(:phones AS VARCHAR[]))))
+                   AND c.deleted_at IS NULL
+                UNION
+                SELECT p.* FROM contact p JOIN up ON p.id = up.linked_contact_id
+            ), down AS (
+                SELECT * FROM up WHERE linked_contact_id IS NULL
+                UNION
+                SELECT c.* FROM contact c JOIN down ON c.linked_contact_id = down.id
+            ), cluster AS (
+                SELECT * FROM up UNION SELECT * FROM down
+            )
+            SELECT c.* FROM cluster c
+             WHERE c.deleted_at IS NULL
+               AND NOT EXISTS (SELECT 1 FROM cluster p WHERE p.id = c.linked_contact_id AND p.deleted_at IS NOT NULL)
+            """, nativeQuery = true)
+    List<Contact> findClustersByIdentifierHashes(@Param("emails") String[] emails, @Param("emailHashes") Long[] emailHashes,
+                                                 @Param("phones") String[] phones, @Param("phoneHashes") Long[] phoneHashes);
+
+    // Whether a contact with exactly this email and phone (either may be null) exists, without loading any
+    // rows: an EXISTS probe on the hash index of the email, or of the phone for phone-only requests
+    default boolean existsByEmailAndPhoneNumber(String email, String phone) {
+        return email != null
+                ? existsByEmailHash(email, IdentifierHash.of(email), phone, IdentifierHash.of(phone))
+                : existsByPhoneHashWithoutEmail(phone, IdentifierHash.of(phone));
+    }
+
+    @Query(value = """
+            SELECT EXISTS (SELECT 1 FROM contact c
+                            WHERE c.email_hash = CAST(:emailHash AS BIGINT) AND c.email = CAST(:email AS VARCHAR)
+                              AND ((c.phone_hash = CAST(:phoneHash AS BIGINT) AND c.phone_number = CAST(:phone AS VARCHAR))
+                                   OR (CAST(:phone AS VARCHAR) IS NULL AND c.phone_number IS NULL))
+                              AND (""" + LIVE + "))", nativeQuery = true)
+    boolean existsByEmailHash(@Param("email") String email, @Param("emailHash") Long emailHash,
+                              @Param("phone") String phone, @Param("phoneHash") Long phoneHash);
+
+    @Query(value = """
+            SELECT EXISTS (SELECT 1 FROM contact c
+                            WHERE c.phone_hash = CAST(:phoneHash AS BIGINT) AND c.phone_number = CAST(:phone AS VARCHAR)
+                              AND c.email IS NULL
+                              AND (""" + LIVE + "))", nativeQuery = true)
+    boolean existsByPhoneHashWithoutEmail(@Param("phone") String phone, @Param("phoneHash") Long phoneHash);
+
+    // Whether any live contact carries the email (or phone)
+    default boolean existsByEmail(String email) {
+        return existsByEmailHash(email, IdentifierHash.of(email));
+    }
+
+    default boolean existsByPhoneNumber(String phone) {
+        return existsByPhoneHash(phone, IdentifierHash.of(phone));
+    }
+
+    @Query(value = "SELECT EXISTS (SELECT 1 FROM contact c WHERE c.email_hash = CAST(:emailHash AS BIGINT) " +
+            "AND c.email = CAST(:email AS VARCHAR) AND " + LIVE + ")", nativeQuery = true)
+    boolean existsByEmailHash(@Param("email") String email, @Param("emailHash") Long emailHash);
+
+    @Query(value = "SELECT EXISTS (SELECT 1 FROM contact c WHERE c.phone_hash = CAST(:phoneHash AS BIGINT) " +
+            "AND c.phone_number = CAST(:phone AS VARCHAR) AND " + LIVE + ")", nativeQuery = true)
+    boolean existsByPhoneHash(@Param("phone") String phone, @Param("phoneHash") Long phoneHash);
+
+    // One page of a live primary's live secondaries in id order after the given id (keyset on linked_contact_id, id)
+    @Query("SELECT c FROM Contact c WHERE c.linkedId = :primaryId AND c.id > :afterId AND c.deletedAt IS NULL " +
+            "AND NOT EXISTS (SELECT 1 FROM Contact p WHERE p.id = :primaryId AND p.deletedAt IS NOT NULL) ORDER BY c.id")
+    List<Contact> findSecondariesAfter(@Param("primaryId") Long primaryId, @Param("afterId") Long afterId, Limit limit);
+
+    // Find all live contacts linked to a primary contact (served by the pk and (linked_contact_id, id) indexes)
+    @Query("SELECT c FROM Contact c WHERE (c.linkedId = :id OR c.id = :id) AND c.deletedAt IS NULL " +
+            "AND NOT EXISTS (SELECT 1 FROM Contact p WHERE p.id = c.linkedId AND p.deletedAt IS NOT NULL)")
     List<Contact> findAllByLinkedIdOrId(@Param("id") Long id);
 
+    // Re-parent the given primaries and everything linked to them under a single primary in one set-based UPDATE.
+    // Clears the persistence context afterwards, so previously loaded contacts are detached and not dirty-checked.
+    @Transactional
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("UPDATE Contact c SET c.linkedId = :primaryId, c.linkPrecedence = :precedence, c.updatedAt = :updatedAt " +
+            "WHERE c.linkedId IN :ids OR c.id IN :ids")
+    int relinkAll(@Param("primaryId") Long primaryId,
+                  @Param("ids") Collection<Long> ids,
+                  @Param("precedence") LinkPrecedence precedence,
+                  @Param("updatedAt") LocalDateTime updatedAt);
+
+    // Take transaction-scoped Postgres advisory locks on the given keys, in the order given
+    @Query(value = "SELECT COUNT(*) FROM unnest(CAST(:keys AS BIGINT[])) AS k, LATERAL pg_advisory_xact_lock(k)", nativeQuery = true)
+    long acquireAdvisoryLocks(@Param("keys") Long[] keys);
+
+    // Postgres NOTIFY on a channel; delivered to listeners when the current transaction commits
+    @Query(value = "SELECT COUNT(*) FROM pg_notify(:channel, :payload)", nativeQuery = true)
+    long notifyChannel(@Param("channel") String channel, @Param("payload") String payload);
+
     // Find contacts by exact email match
-    @Query("SELECT c FROM Contact c WHERE c.email = :email")
-    List<Contact> findByEmail(@Param("email") String email);
+    default List<Contact> findByEmail(String email) {
+        return findByIdentifierHashes(email, IdentifierHash.of(email), null, null);
+    }
 
     // Find contacts by exact phone match
-    @Query("SELECT c FROM Contact c WHERE c.phoneNumber = :phone")
-    List<Contact> findByPhoneNumber(@Param("phone") String phone);
+    default List<Contact> findByPhoneNumber(String phone) {
+        return findByIdentifierHashes(null, null, phone, IdentifierHash.of(phone));
+    }
 }
 
 
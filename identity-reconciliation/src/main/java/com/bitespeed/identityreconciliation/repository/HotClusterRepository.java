@@ -0,0 +1,216 @@
+package com.bitespeed.identityreconciliation.repository;
+
+import com.bitespeed.identityreconciliation.model.Contact;
+import com.bitespeed.identityreconciliation.model.HotCluster;
+import com.bitespeed.identityreconciliation.model.IdentifierHash;
+import com.bitespeed.identityreconciliation.model.LinkPrecedence;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+@Repository
+public interface HotClusterRepository extends JpaRepository<HotCluster, Long> {
+
+    interface ClusterSize {
+        Long getPrimaryContactId();
+
+        Integer getMemberCount();
+
+        Boolean getSummarized();
+    }
+
+    // One matching live contact's root per identifier (an identifier belongs to one cluster), by the hash indexes
+    String ROOTS = """
+            roots AS (
+                (SELECT COALESCE(c.linked_contact_id, c.id) AS root FROM contact c
+                  WHERE c.email_hash = CAST(:emailHash AS BIGINT) AND c.email = CAST(:email AS VARCHAR)
+                    AND (""" + ContactRepository.LIVE + """
+                    ) LIMIT 1)
+                UNION
+                (SELECT COALESCE(c.linked_contact_id, c.id) FROM contact c
+                  WHERE c.phone_hash = CAST(:phoneHash AS BIGINT) AND c.phone_number = CAST(:phone AS VARCHAR)
+                    AND (""" + ContactRepository.LIVE + """
+                    ) LIMIT 1)
+            )""";
+
+    // Root and size of the clusters of the email and phone, without loading them: the hot_cluster count or the
+    // length of the contact_cluster row. The projection row is only read for clusters that have no summary yet.
+    default List<ClusterSize> findSizesByEmailOrPhoneNumber(String email, String phone) {
+        return findSizesByIdentifierHashes(email, IdentifierHash.of(email), phone, IdentifierHash.of(phone));
+    }
+
+    @Query(value = "WITH " + ROOTS + """
+            SELECT r.root AS primaryContactId,
+                   COALESCE(h.member_count, 1 + cardinality(cc.secondary_contact_ids), 1) AS memberCount,
+                   h.primary_contact_id IS NOT NULL AS summarized
+              FROM roots r
+              LEFT JOIN hot_cluster h ON h.primary_contact_id = r.root
+              LEFT JOIN contact_cluster cc ON h.primary_contact_id IS NULL AND cc.primary_contact_id = r.root
+            """, nativeQuery = true)
+    List<ClusterSize> findSizesByIdentifierHashes(@Param("email") String email, @Param("emailHash") Long emailHash,
+                                                  @Param("phone") String phone, @Param("phoneHash") Long phoneHash);
+
+    interface ClusterMember {
+        Long getId();
+
+        String getEmail();
+
+        String getPhoneNumber();
+
+        Long getLinkedId();
+
+        String getLinkPrecedence();
+
+        LocalDateTime getCreatedAt();
+
+        LocalDateTime getUpdatedAt();
+
+        // Set on the rows standing for a hot cluster's root, which carry no contact
+        Boolean getHot();
+    }
+
+    // The clusters of the email and phone as ContactRepository.findClusterByEmailOrPhoneNumber loads them, unless
+    // one of them is hot (summarized, or at least :hotThreshold contacts): then just the roots of the hot ones.
+    // Both come from one statement, so identify pays no separate hot check.
+    default ClusterMatch findClusterUnlessHot(String email, String phone, int hotThreshold) {
+        List<ClusterMember> members = findClusterUnlessHot(email, IdentifierHash.of(email), phone, IdentifierHash.of(phone),
+                hotThreshold);
+        Set<Long> hotRoots = members.stream().filter(ClusterMember::getHot).map(ClusterMember::getId)
+                .collect(Collectors.toSet());
+        if (!hotRoots.isEmpty()) {
+            return new ClusterMatch(List.of(), hotRoots);
+        }
+        List<Contact> contacts = members.stream()
+                .map(member -> Contact.builder()
+                        .id(member.getId())
+                        .email(member.getEmail())
+                        .phoneNumber(member.getPhoneNumber())
+                        .linkedId(member.getLinkedId())
+                        .linkPrecedence(LinkPrecedence.valueOf(member.getLinkPrecedence()))
+                        .createdAt(member.getCreatedAt())
+                        .updatedAt(member.getUpdatedAt())
+                        .emailHash(IdentifierHash.of(member.getEmail()))
+                        .phoneHash(IdentifierHash.of(member.getPhoneNumber()))
+                        .build())
+                .collect(Collectors.toCollection(ArrayList::new));
+        return new ClusterMatch(contacts, Set.of());
+    }
+
+    // The up/down walk of findClusterByIdentifierHashes, started only when no root found by ROOTS is hot
+    @Query(value = "WITH RECURSIVE " + ROOTS + """
+            , hot AS (
+                SELECT r.root FROM roots r
+                  LEFT JOIN hot_cluster h ON h.primary_contact_id = r.root
+                  LEFT JOIN contact_cluster cc ON h.primary_contact_id IS NULL AND cc.primary_contact_id = r.root
+                 WHERE h.primary_contact_id IS NOT NULL OR 1 + cardinality(cc.secondary_contact_ids) >= CAST(:hotThreshold AS INTEGER)
+            ), up AS (
+                SELECT c.* FROM contact c
+                 WHERE ((c.email_hash = CAST(:emailHash AS BIGINT) AND c.email = CAST(:email AS VARCHAR))
+                        OR (c.phone_hash = CAST(:phoneHash AS BIGINT) AND c.phone_number = CAST(:phone AS VARCHAR)))
+                   AND c.deleted_at IS NULL
+                   AND NOT EXISTS (SELECT 1 FROM hot)
+                UNION
+                SELECT p.* FROM contact p JOIN up ON p.id = up.linked_contact_id
+            ), down AS (
+                SELECT * FROM up WHERE linked_contact_id IS NULL
+                UNION
+                SELECT c.* FROM contact c JOIN down ON c.linked_contact_id = down.id
+            ), cluster AS (
+                SELECT * FROM up UNION SELECT * FROM down
+            )
+            SELECT c.id, c.email, c.phone_number AS phoneNumber, c.linked_contact_id AS linkedId,
+                   c.link_precedence AS linkPrecedence, c.created_at AS createdAt, c.updated_at AS updatedAt, FALSE AS hot
+              FROM cluster c
+             WHERE c.deleted_at IS NULL
+               AND NOT EXISTS (SELECT 1 FROM cluster p WHERE p.id = c.linked_contact_id AND p.deleted_at IS NOT NULL)
+            UNION ALL
+            SELECT root, NULL, NULL, NULL, NULL, NULL, NULL, TRUE FROM hot
+            """, nativeQuery = true)
+    List<ClusterMember> findClusterUnlessHot(@Param("email") String email, @Param("emailHash") Long emailHash,
+                                             @Param("phone") String phone, @Param("phoneHash") Long phoneHash,
+                                             @Param("hotThreshold") int hotThreshold);
+
+    // Contacts of the request's clusters, or the roots of those that are hot (and no contacts)
+    record ClusterMatch(List<Contact> contacts, Set<Long> hotRoots) {
+    }
+
+    // Summarize a cluster from its contacts, keeping the first :size entries of each list in response order.
+    // Reads the whole cluster, so it runs only when a cluster turns hot and after a merge into it. Marks the
+    // contact_cluster row for the background refresh; a root that is no longer a primary gets no row.
+    @Modifying
+    @Query(value = """
+            WITH members AS (
+                SELECT c.id, c.email, c.phone_number, CASE WHEN c.linked_contact_id IS NULL THEN 0 ELSE 1 END AS primary_rank
+                  FROM contact c
+                 WHERE ((c.id = CAST(:root AS BIGINT) AND c.link_precedence = 'PRIMARY')
+                        OR c.linked_contact_id = CAST(:root AS BIGINT))
+                   AND c.deleted_at IS NULL
+            ), emails AS (
+                SELECT email, min(primary_rank) AS primary_rank, min(id) AS first_id
+                  FROM members WHERE email IS NOT NULL GROUP BY email
+            ), phones AS (
+                SELECT phone_number, min(primary_rank) AS primary_rank, min(id) AS first_id
+                  FROM members WHERE phone_number IS NOT NULL GROUP BY phone_number
+            )
+            INSERT INTO hot_cluster (primary_contact_id, emails, phone_numbers, secondary_contact_ids, email_count,
+                                     phone_number_count, member_count, projection_stale, updated_at)
+            SELECT CAST(:root AS BIGINT),
+                   ARRAY(SELECT email FROM emails ORDER BY primary_rank, first_id LIMIT CAST(:size AS INTEGER)),
+                   ARRAY(SELECT phone_number FROM phones ORDER BY primary_rank, first_id LIMIT CAST(:size AS INTEGER)),
+                   ARRAY(SELECT id FROM members WHERE primary_rank = 1 ORDER BY id LIMIT CAST(:size AS INTEGER)),
+                   (SELECT COUNT(*) FROM emails), (SELECT COUNT(*) FROM phones), (SELECT COUNT(*) FROM members),
+                   TRUE, LOCALTIMESTAMP
+             WHERE EXISTS (SELECT 1 FROM members WHERE primary_rank = 0)
+            ON CONFLICT (primary_contact_id) DO UPDATE
+               SET emails = EXCLUDED.emails, phone_numbers = EXCLUDED.phone_numbers,
+                   secondary_contact_ids = EXCLUDED.secondary_contact_ids, email_count = EXCLUDED.email_count,
+                   phone_number_count = EXCLUDED.phone_number_count, member_count = EXCLUDED.member_count,
+                   projection_stale = EXCLUDED.projection_stale, updated_at = EXCLUDED.updated_at
+            """, nativeQuery = true)
+    int rebuild(@Param("root") Long root, @Param("size") int size);
+
+    // Add a new secondary to the summary in O(size): identifiers the cluster did not have yet are appended
+    // while their list has room (a new contact has the highest first id), its id is merged into the lowest
+    // :size ids, and the counts move. The contact_cluster row is left to the background refresh.
+    @Modifying
+    @Query(value = """
+            UPDATE hot_cluster
+               SET emails = CASE WHEN CAST(:emailIsNew AS BOOLEAN) AND cardinality(emails) < CAST(:size AS INTEGER)
+                                 THEN emails || CAST(:email AS VARCHAR) ELSE emails END,
+                   email_count = email_count + CASE WHEN CAST(:emailIsNew AS BOOLEAN) THEN 1 ELSE 0 END,
+                   phone_numbers = CASE WHEN CAST(:phoneIsNew AS BOOLEAN) AND cardinality(phone_numbers) < CAST(:size AS INTEGER)
+                                        THEN phone_numbers || CAST(:phone AS VARCHAR) ELSE phone_numbers END,
+                   phone_number_count = phone_number_count + CASE WHEN CAST(:phoneIsNew AS BOOLEAN) THEN 1 ELSE 0 END,
+                   secondary_contact_ids = ARRAY(SELECT id FROM unnest(secondary_contact_ids || CAST(:id AS BIGINT)) AS s(id)
+                                                  ORDER BY id LIMIT CAST(:size AS INTEGER)),
+                   member_count = member_count + 1,
+                   projection_stale = TRUE,
+                   updated_at = LOCALTIMESTAMP
+             WHERE primary_contact_id = CAST(:root AS BIGINT)
+            """, nativeQuery = true)
+    int append(@Param("root") Long root, @Param("id") Long id, @Param("email") String email,
+               @Param("emailIsNew") boolean emailIsNew, @Param("phone") String phone,
+               @Param("phoneIsNew") boolean phoneIsNew, @Param("size") int size);
+
+    @Query(value = "SELECT primary_contact_id FROM hot_cluster WHERE projection_stale ORDER BY primary_contact_id",
+            nativeQuery = true)
+    List<Long> findStaleRoots();
+
+    // Claims a stale row for the refresher; an append committed after this marks it stale again
+    @Modifying
+    @Query(value = "UPDATE hot_cluster SET projection_stale = FALSE WHERE primary_contact_id = :root AND projection_stale",
+            nativeQuery = true)
+    int clearStale(@Param("root") Long root);
+
+    @Modifying
+    @Query(value = "UPDATE hot_cluster SET projection_stale = TRUE WHERE primary_contact_id = :root", nativeQuery = true)
+    int markStale(@Param("root") Long root);
+}
@@ -0,0 +1,155 @@
+package com.bitespeed.identityreconciliation.repository;
+
+import com.bitespeed.identityreconciliation.model.Contact;
+import com.bitespeed.identityreconciliation.model.ContactCluster;
+import com.bitespeed.identityreconciliation.model.IdentifierHash;
+import com.bitespeed.identityreconciliation.model.LinkPrecedence;
+import io.r2dbc.spi.ConnectionFactory;
+import io.r2dbc.spi.Readable;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Mono;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+// R2DBC counterpart of the ContactRepository queries used by identify, for the reactive profile.
+// Statements are the same native SQL, so both paths read and write the table identically.
+@Repository
+@ConditionalOnProperty(name = "spring.main.web-application-type", havingValue = "reactive")
+public class ReactiveContactRepository {
+
+    private static final String CONTACT_COLUMNS =
+            "id, phone_number, email, linked_contact_id, link_precedence, created_at, updated_at, deleted_at, email_hash, phone_hash";
+
+    private final DatabaseClient databaseClient;
+
+    public ReactiveContactRepository(ConnectionFactory connectionFactory) {
+        this.databaseClient = DatabaseClient.create(connectionFactory);
+    }
+
+    // See ContactRepository.findClusterByEmailOrPhoneNumber
+    public Mono<List<Contact>> findClusterByEmailOrPhoneNumber(String email, String phone) {
+        DatabaseClient.GenericExecuteSpec spec = databaseClient.sql("""
+                WITH RECURSIVE up AS (
+                    SELECT c.* FROM contact c
+                     WHERE ((c.email_hash = CAST(:emailHash AS BIGINT) AND c.email = CAST(:email AS VARCHAR))
+                            OR (c.phone_hash = CAST(:phoneHash AS BIGINT) AND c.phone_number = CAST(:phone AS VARCHAR)))
+                       AND c.deleted_at IS NULL
+                    UNION
+                    SELECT p.* FROM contact p JOIN up ON p.id = up.linked_contact_id
+                ), down AS (
+                    SELECT * FROM up WHERE linked_contact_id IS NULL
+                    UNION
+                    SELECT c.* FROM contact c JOIN down ON c.linked_contact_id = down.id
+                ), cluster AS (
+                    SELECT * FROM up UNION SELECT * FROM down
+                )
+                SELECT %s FROM cluster c
+                 WHERE c.deleted_at IS NULL
+                   AND NOT EXISTS (SELECT 1 FROM cluster p WHERE p.id = c.linked_contact_id AND p.deleted_at IS NOT NULL)
+                """.formatted(CONTACT_COLUMNS));
+        spec = bindNullable(spec, "email", email);
+        spec = bindNullable(spec, "phone", phone);
+        spec = bindNullable(spec, "emailHash", IdentifierHash.of(email));
+        spec = bindNullable(spec, "phoneHash", IdentifierHash.of(phone));
+        return spec.map(ReactiveContactRepository::toContact).all().collectList();
+    }
+
+    // See ContactRepository.relinkAll
+    public Mono<Long> relinkAll(Long primaryId, Collection<Long> ids, LinkPrecedence precedence, LocalDateTime updatedAt) {
+        return databaseClient.sql("UPDATE contact SET linked_contact_id = :primaryId, link_precedence = :precedence, " +
+                        "updated_at = :updatedAt WHERE linked_contact_id = ANY(:ids) OR id = ANY(:ids)")
+                .bind("primaryId", primaryId)
+                .bind("precedence", precedence.name())
+                .bind("updatedAt", updatedAt)
+                .bind("ids", ids.toArray(Long[]::new))
+                .fetch()
+                .rowsUpdated();
+    }
+
+    // Insert a new contact and set its generated id
+    public Mono<Contact> insert(Contact contact) {
+        DatabaseClient.GenericExecuteSpec spec = databaseClient.sql(
+                "INSERT INTO contact (id, phone_number, email, linked_contact_id, link_precedence, created_at, updated_at, " +
+                        "phone_hash, email_hash) VALUES (nextval('" + Contact.ID_SEQUENCE + "'), :phone, :email, :linkedId, " +
+                        ":precedence, :createdAt, :updatedAt, :phoneHash, :emailHash) RETURNING id");
+        spec = bindNullable(spec, "phone", contact.getPhoneNumber());
+        spec = bindNullable(spec, "email", contact.getEmail());
+        spec = bindNullable(spec, "linkedId", contact.getLinkedId());
+        spec = bindNullable(spec, "phoneHash", IdentifierHash.of(contact.getPhoneNumber()));
+        spec = bindNullable(spec, "emailHash", IdentifierHash.of(contact.getEmail()));
+        return spec.bind("precedence", contact.getLinkPrecedence().name())
+                .bind("createdAt", contact.getCreatedAt())
+                .bind("updatedAt", contact.getUpdatedAt())
+                .map(row -> row.get("id", Long.class))
+                .one()
+                .map(id -> {
+                    contact.setId(id);
+                    return contact;
+                });
+    }
+
+    // See ContactRepository.acquireAdvisoryLocks
+    public Mono<Void> acquireAdvisoryLocks(Long[] keys) {
+        return databaseClient.sql("SELECT COUNT(*) FROM unnest(CAST(:keys AS BIGINT[])) AS k, LATERAL pg_advisory_xact_lock(k)")
+                .bind("keys", keys)
+                .then();
+    }
+
+    // See ContactRepository.notifyChannel
+    public Mono<Void> notifyChannel(String channel, String payload) {
+        return databaseClient.sql("SELECT COUNT(*) FROM pg_notify(:channel, :payload)")
+                .bind("channel", channel)
+                .bind("payload", payload)
+                .then();
+    }
+
+    // See ContactClusterRepository.refresh
+    public Mono<Void> refreshClusters(Long[] roots) {
+        return databaseClient.sql(ContactClusterRepository.REFRESH)
+                .bind("roots", roots)
+                .then();
+    }
+
+    // See ContactClusterRepository.findPrimaryContactIdByEmail and findPrimaryContactIdByPhoneNumber
+    public Mono<ContactCluster> findProjectionByEmailOrPhoneNumber(String email, String phone) {
+        return databaseClient.sql(email != null
+                        ? "SELECT * FROM contact_cluster WHERE emails @> ARRAY[CAST(:value AS VARCHAR)] ORDER BY primary_contact_id LIMIT 1"
+                        : "SELECT * FROM contact_cluster WHERE phone_numbers @> ARRAY[CAST(:value AS VARCHAR)] ORDER BY primary_contact_id LIMIT 1")
+                .bind("value", email != null ? email : phone)
+                .map(row -> ContactCluster.builder()
+                        .primaryContactId(row.get("primary_contact_id", Long.class))
+                        .emails(row.get("emails", String[].class))
+                        .phoneNumbers(row.get("phone_numbers", String[].class))
+                        .secondaryContactIds(row.get("secondary_contact_ids", Long[].class))
+                        .updatedAt(row.get("updated_at", LocalDateTime.class))
+                        .build())
+                .one();
+    }
+
+    private static DatabaseClient.GenericExecuteSpec bindNullable(DatabaseClient.GenericExecuteSpec spec, String name, String value) {
+        return value != null ? spec.bind(name, value) : spec.bindNull(name, String.class);
+    }
+
+    private static DatabaseClient.GenericExecuteSpec bindNullable(DatabaseClient.GenericExecuteSpec spec, String name, Long value) {
+        return value != null ? spec.bind(name, value) : spec.bindNull(name, Long.class);
+    }
+
+    private static Contact toContact(Readable row) {
+        return Contact.builder()
+                .id(row.get("id", Long.class))
+                .phoneNumber(row.get("phone_number", String.class))
+                .email(row.get("email", String.class))
+                .linkedId(row.get("linked_contact_id", Long.class))
+                .linkPrecedence(LinkPrecedence.valueOf(row.get("link_precedence", String.class)))
+                .createdAt(row.get("created_at", LocalDateTime.class))
+                .updatedAt(row.get("updated_at", LocalDateTime.class))
+                .deletedAt(row.get("deleted_at", LocalDateTime.class))
+                .emailHash(row.get("email_hash", Long.class))
+                .phoneHash(row.get("phone_hash", Long.class))
+                .build();
+    }
+}
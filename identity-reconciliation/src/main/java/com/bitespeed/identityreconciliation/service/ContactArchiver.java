@@ -0,0 +1,192 @@
+package com.bitespeed.identityreconciliation.service;
+
+import com.bitespeed.identityreconciliation.cache.IdentityGraphCache;
+import com.bitespeed.identityreconciliation.repository.ContactArchiveRepository;
+import com.bitespeed.identityreconciliation.repository.ContactArchiveRepository.Candidate;
+import com.bitespeed.identityreconciliation.repository.ContactClusterRepository;
+import com.bitespeed.identityreconciliation.sharding.ShardRouter;
+import com.bitespeed.identityreconciliation.sharding.TenantContext;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.YearMonth;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Moves soft-deleted contacts, and contacts linked to a soft-deleted primary, from contact to contact_archive,
+ * so the table and its indexes only hold what identify can still match. Every
+ * {@code identity.archive.interval} it moves them {@code batch-size} at a time, one short transaction per
+ * batch with {@code batch-delay} between batches, until none are left.
+ *
+ * A batch locks the primaries of the contacts it moves like a merge does, so it never races an identify on the
+ * same cluster, and takes row locks only on the rows it deletes. It then refreshes the clusters' contact_cluster
+ * rows and evicts them from every node's identity graph cache. Until then a cached cluster can still list a
+ * contact deleted since it was cached, for at most {@code identity.cache.ttl}. identify.archive.contacts counts
+ * the contacts moved and identify.archive.rate is the rate of the last run, in contacts per second. Each run
+ * covers every store, the default one and each tenant's.
+ */
+@Slf4j
+@Component
+public class ContactArchiver {
+
+    private final ContactArchiveRepository contactArchiveRepository;
+    private final ContactClusterRepository contactClusterRepository;
+    private final IdentityLockManager lockManager;
+    private final IdentityGraphCache identityGraphCache;
+    private final TransactionTemplate transactionTemplate;
+    private final ShardRouter shardRouter;
+    private final boolean enabled;
+    private final Duration interval;
+    private final int batchSize;
+    private final Duration batchDelay;
+    private final Counter archived;
+
+    private volatile double rate;
+    // Per store; the default store's under ""
+    private final Map<String, YearMonth> partitionedUntil = new ConcurrentHashMap<>();
+    private ScheduledExecutorService archiver;
+
+    public ContactArchiver(ContactArchiveRepository contactArchiveRepository,
+                           ContactClusterRepository contactClusterRepository,
+                           IdentityLockManager lockManager,
+                           IdentityGraphCache identityGraphCache,
+                           TransactionTemplate transactionTemplate,
+                           ShardRouter shardRouter,
+                           MeterRegistry meterRegistry,
+                           @Value("${identity.archive.enabled:true}") boolean enabled,
+                           @Value("${identity.archive.interval:5m}") Duration interval,
+                           @Value("${identity.archive.batch-size:500}") int batchSize,
+                           @Value("${identity.archive.batch-delay:200ms}") Duration batchDelay) {
+        this.contactArchiveRepository = contactArchiveRepository;
+        this.contactClusterRepository = contactClusterRepository;
+        this.lockManager = lockManager;
+        this.identityGraphCache = identityGraphCache;
+        this.transactionTemplate = transactionTemplate;
+        this.shardRouter = shardRouter;
+        this.enabled = enabled;
+        this.interval = interval;
+        this.batchSize = batchSize;
+        this.batchDelay = batchDelay;
+        this.archived = Counter.builder("identify.archive.contacts")
+                .description("Contacts moved to contact_archive")
+                .baseUnit("contacts")
+                .register(meterRegistry);
+        Gauge.builder("identify.archive.rate", this, archiver -> archiver.rate)
+                .description("Contacts moved per second by the last archiver run")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        archiver = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "contact-archiver");
+            thread.setDaemon(true);
+            return thread;
+        });
+        archiver.scheduleWithFixedDelay(this::archiveQuietly, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (archiver != null) {
+            archiver.shutdownNow();
+        }
+    }
+
+    // Move batches of the current store until nothing is left to archive (or another node is archiving);
+    // returns how many were moved
+    public int archive() {
+        long started = System.nanoTime();
+        ensurePartitions();
+        int moved = 0;
+        while (true) {
+            List<Long> movedRoots = transactionTemplate.execute(status -> archiveBatch());
+            if (movedRoots.isEmpty()) {
+                break;
+            }
+            // Other nodes evict on the commit's notification, this one here
+            identityGraphCache.invalidate(new HashSet<>(movedRoots));
+            moved += movedRoots.size();
+            archived.increment(movedRoots.size());
+            try {
+                Thread.sleep(batchDelay.toMillis());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        double seconds = (System.nanoTime() - started) / 1e9;
+        rate = moved / seconds;
+        if (moved > 0) {
+            log.info("Archived {} contacts in {} ms ({} contacts/s)", moved, Math.round(seconds * 1000), Math.round(rate));
+        }
+        return moved;
+    }
+
+    // One batch; returns the root of each contact moved
+    private List<Long> archiveBatch() {
+        if (!contactArchiveRepository.tryLockArchive(TenantContext.lockKey())) {
+            return List.of();
+        }
+        List<Candidate> candidates = contactArchiveRepository.findCandidates(batchSize);
+        if (candidates.isEmpty()) {
+            return List.of();
+        }
+        Set<Long> roots = new HashSet<>();
+        candidates.forEach(candidate -> roots.add(candidate.root()));
+        lockManager.lockContacts(roots);
+
+        List<Long> movedRoots = contactArchiveRepository.moveToArchive(
+                candidates.stream().map(Candidate::id).toArray(Long[]::new), roots.toArray(Long[]::new));
+        Set<Long> changedRoots = new HashSet<>(movedRoots);
+        if (!changedRoots.isEmpty()) {
+            contactClusterRepository.refresh(changedRoots.toArray(Long[]::new));
+            identityGraphCache.publishInvalidation(changedRoots);
+        }
+        return movedRoots;
+    }
+
+    // This month's and next month's archive partitions, so a run never writes to a month without one
+    private void ensurePartitions() {
+        YearMonth next = YearMonth.now().plusMonths(1);
+        String store = Objects.requireNonNullElse(TenantContext.current(), "");
+        if (next.equals(partitionedUntil.get(store))) {
+            return;
+        }
+        if (contactArchiveRepository.isPartitioned()) {
+            contactArchiveRepository.createPartition(next.minusMonths(1));
+            contactArchiveRepository.createPartition(next);
+        }
+        partitionedUntil.put(store, next);
+    }
+
+    // A failed batch rolls back whole, so the next run retries it
+    private void archiveQuietly() {
+        shardRouter.forEachStore(tenant -> {
+            try {
+                archive();
+            } catch (Exception e) {
+                log.warn("Contact archiving of {} failed, retrying on the next run", ShardRouter.describe(tenant), e);
+            }
+        });
+    }
+}
@@ -0,0 +1,332 @@
+package com.bitespeed.identityreconciliation.service;
+
+import com.bitespeed.identityreconciliation.cache.IdentityGraphCache;
+import com.bitespeed.identityreconciliation.dto.ContactSummary;
+import com.bitespeed.identityreconciliation.dto.IdentifyRequest;
+import com.bitespeed.identityreconciliation.events.ContactEventOutbox;
+import com.bitespeed.identityreconciliation.model.Contact;
+import com.bitespeed.identityreconciliation.model.ContactEvent;
+import com.bitespeed.identityreconciliation.model.ContactEventType;
+import com.bitespeed.identityreconciliation.model.LinkPrecedence;
+import com.bitespeed.identityreconciliation.repository.ContactBatchRepository;
+import com.bitespeed.identityreconciliation.repository.ContactClusterRepository;
+import com.bitespeed.identityreconciliation.repository.ContactRepository;
+import com.bitespeed.identityreconciliation.sharding.ShardRouter;
+import com.bitespeed.identityreconciliation.writebehind.WriteBehindBuffer;
+import jakarta.persistence.EntityManager;
+import lombok.RequiredArgsConstructor;
+import org.springframework.dao.PessimisticLockingFailureException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.function.Supplier;
+
+@Service
+@RequiredArgsConstructor
+public class ContactBatchService {
+
+    private static final int MAX_ATTEMPTS = 3;
+
+    // Oldest first; contacts created in this batch sort after existing ones, in creation order
+    private static final Comparator<Contact> OLDEST_FIRST = Comparator.comparing(Contact::getCreatedAt)
+            .thenComparing(c -> c.getId() < 0)
+            .thenComparingLong(Contact::getId);
+
+    private final ContactRepository contactRepository;
+    private final ContactBatchRepository contactBatchRepository;
+    private final ContactClusterRepository contactClusterRepository;
+    private final ContactService contactService;
+    private final IdentifierNormalizer normalizer;
+    private final IdentityLockManager lockManager;
+    private final IdentityGraphCache identityGraphCache;
+    private final TransactionTemplate transactionTemplate;
+    private final EntityManager entityManager;
+    private final WriteBehindBuffer writeBehind;
+    private final ContactEventOutbox eventOutbox;
+    private final ShardRouter shardRouter;
+
+    // Reconcile all requests together, as if identified one after another in request order.
+    // Each result is the item's consolidated contact after the whole batch has been applied.
+    // A batch is one transaction, so all its requests must be for the same tenant.
+    public List<ContactSummary> identifyBatch(List<IdentifyRequest> requests) {
+        String tenant = requests.get(0).tenant();
+        if (requests.stream().anyMatch(r -> !Objects.equals(r.tenant(), tenant))) {
+            throw new IllegalArgumentException("All requests of a batch must be for the same tenant");
+        }
+        return shardRouter.route(tenant, () -> identifyNormalized(requests.stream().map(normalizer::normalize).toList()));
+    }
+
+    private List<ContactSummary> identifyNormalized(List<IdentifyRequest> requests) {
+        long[] keys = requests.stream()
+                .flatMapToLong(r -> Arrays.stream(lockManager.keysFor(r.email(), r.phoneNumber())))
+                .distinct()
+                .sorted()
+                .toArray();
+
+        return lockManager.withStripes(keys, () -> {
+            // The batch reads and writes with JDBC only, so buffered secondaries are inserted first
+            if (writeBehind.isEnabled()) {
+                writeBehind.flush();
+            }
+            long cacheGeneration = identityGraphCache.generation();
+            BatchReconciliation result = reconcileWithRetry(requests, keys);
+
+            Map<List<Contact>, ContactSummary> responses = new IdentityHashMap<>();
+            for (List<Contact> cluster : result.itemClusters()) {
+                responses.computeIfAbsent(cluster, c -> {
+                    Set<Long> changedRoots = result.changedRoots().get(primaryOf(c).getId());
+                    if (changedRoots == null) {
+                        identityGraphCache.put(c, cacheGeneration);
+                    } else {
+                        identityGraphCache.applyWrite(c, changedRoots);
+                    }
+                    return contactService.buildResponse(c);
+                });
+            }
+            return result.itemClusters().stream().map(responses::get).toList();
+        });
+    }
+
+    private BatchReconciliation reconcileWithRetry(List<IdentifyRequest> requests, long[] keys) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return transactionTemplate.execute(status -> reconcile(requests, keys));
+            } catch (PessimisticLockingFailureException e) {
+                // Deadlock between nodes re-locking a cluster that changed under them
+                if (attempt >= MAX_ATTEMPTS) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private BatchReconciliation reconcile(List<IdentifyRequest> requests, long[] keys) {
+        lockManager.lockIdentifiers(keys);
+
+        // One grouped lookup for every identifier in the batch, re-read once the clusters' primaries are locked
+        String[] emails = requests.stream().map(IdentifyRequest::email).filter(Objects::nonNull).distinct().toArray(String[]::new);
+        String[] phones = requests.stream().map(IdentifyRequest::phoneNumber).filter(Objects::nonNull).distinct().toArray(String[]::new);
+        Supplier<List<Contact>> clusterReader = () -> contactRepository.findClustersByEmailsOrPhoneNumbers(emails, phones);
+        List<Contact> loaded = contactService.lockClusterPrimaries(clusterReader, clusterReader.get());
+        // Changes are written with JDBC below; keep Hibernate from dirty-checking the loaded rows
+        entityManager.clear();
+
+        ClusterGraph graph = new ClusterGraph(loaded);
+        List<Long> itemRoots = new ArrayList<>(requests.size());
+        for (IdentifyRequest request : requests) {
+            itemRoots.add(graph.identify(request.email(), request.phoneNumber()));
+        }
+
+        Map<Long, Long> realIds = graph.created.isEmpty()
+                ? Map.of()
+                : graph.assignIds(contactBatchRepository.reserveIds(graph.created.size()));
+        contactBatchRepository.insertAll(graph.created);
+        contactBatchRepository.updateLinks(new ArrayList<>(graph.relinked.values()));
+        eventOutbox.record(graph.events(realIds));
+
+        // Changed clusters, keyed by their final primary, with the existing roots merged into them
+        Map<Long, Set<Long>> changedRoots = new HashMap<>();
+        Set<Long> publish = new HashSet<>();
+        graph.changedRoots.forEach((root, merged) -> {
+            Set<Long> roots = new HashSet<>();
+            for (Long id : merged) {
+                roots.add(realIds.getOrDefault(id, id));
+            }
+            changedRoots.put(realIds.getOrDefault(root, root), roots);
+            merged.stream().filter(id -> id > 0).forEach(publish::add);
+        });
+        identityGraphCache.publishInvalidation(publish);
+        Set<Long> projected = new HashSet<>(changedRoots.keySet());
+        changedRoots.values().forEach(projected::addAll);
+        if (!projected.isEmpty()) {
+            contactClusterRepository.refresh(projected.toArray(Long[]::new));
+        }
+
+        List<List<Contact>> itemClusters = new ArrayList<>(requests.size());
+        for (Long itemRoot : itemRoots) {
+            itemClusters.add(graph.members.get(graph.rootById.get(itemRoot)));
+        }
+        return new BatchReconciliation(itemClusters, changedRoots);
+    }
+
+    private static Contact primaryOf(List<Contact> cluster) {
+        return cluster.stream()
+                .filter(c -> c.getLinkPrecedence() == LinkPrecedence.PRIMARY)
+                .findFirst()
+                .orElse(cluster.get(0));
+    }
+
+    // The loaded clusters, mutated in memory by each request in turn
+    private static final class ClusterGraph {
+        private final Map<Long, Contact> byId = new HashMap<>();
+        private final Map<String, List<Contact>> byEmail = new HashMap<>();
+        private final Map<String, List<Contact>> byPhone = new HashMap<>();
+        private final Map<Long, Long> rootById = new HashMap<>();
+        private final Map<Long, List<Contact>> members = new HashMap<>();
+        // Final root -> roots whose cluster changed and now live under it (itself included)
+        private final Map<Long, Set<Long>> changedRoots = new HashMap<>();
+        // New contacts, with negative placeholder ids until assignIds
+        private final List<Contact> created = new ArrayList<>();
+        // What each request did, in order, for the outbox
+        private final List<GraphEvent> events = new ArrayList<>();
+        // Existing contacts whose link changed
+        private final Map<Long, Contact> relinked = new LinkedHashMap<>();
+        private final LocalDateTime now = LocalDateTime.now();
+        private long nextPlaceholderId = Long.MIN_VALUE;
+
+        ClusterGraph(List<Contact> loaded) {
+            loaded.forEach(c -> byId.put(c.getId(), c));
+            for (Contact contact : loaded) {
+                Long root = resolveRoot(contact);
+                rootById.put(contact.getId(), root);
+                members.computeIfAbsent(root, r -> new ArrayList<>()).add(contact);
+                index(contact);
+            }
+        }
+
+        // Same decisions as ContactService.reconcile, applied to the in-memory clusters; returns the item's root
+        Long identify(String email, String phoneNumber) {
+            Set<Long> roots = new LinkedHashSet<>();
+            if (email != null) {
+                byEmail.getOrDefault(email, List.of()).forEach(c -> roots.add(rootById.get(c.getId())));
+            }
+            if (phoneNumber != null) {
+                byPhone.getOrDefault(phoneNumber, List.of()).forEach(c -> roots.add(rootById.get(c.getId())));
+            }
+
+            if (roots.isEmpty()) {
+                Contact primary = add(email, phoneNumber, null, LinkPrecedence.PRIMARY);
+                changedRoots.put(primary.getId(), new HashSet<>(Set.of(primary.getId())));
+                events.add(new GraphEvent(ContactEventType.PRIMARY_CREATED, primary.getId(), primary, null));
+                return primary.getId();
+            }
+
+            Contact oldest = roots.stream().map(byId::get).min(OLDEST_FIRST).orElseThrow();
+            Long root = oldest.getId();
+            List<Long> losers = new ArrayList<>();
+            for (Long loser : roots) {
+                if (!loser.equals(root)) {
+                    merge(loser, root);
+                    losers.add(loser);
+                }
+            }
+            if (!losers.isEmpty()) {
+                events.add(new GraphEvent(ContactEventType.PRIMARIES_MERGED, root, null, losers));
+            }
+
+            boolean exists = members.get(root).stream()
+                    .anyMatch(c -> Objects.equals(c.getEmail(), email) && Objects.equals(c.getPhoneNumber(), phoneNumber));
+            if (!exists) {
+                Contact secondary = add(email, phoneNumber, root, LinkPrecedence.SECONDARY);
+                changedRoots.computeIfAbsent(root, r -> new HashSet<>()).add(root);
+                events.add(new GraphEvent(ContactEventType.SECONDARY_ADDED, root, secondary, null));
+            }
+            return root;
+        }
+
+        private void merge(Long loser, Long root) {
+            for (Contact contact : members.remove(loser)) {
+                contact.setLinkedId(root);
+                contact.setLinkPrecedence(LinkPrecedence.SECONDARY);
+                contact.setUpdatedAt(now);
+                rootById.put(contact.getId(), root);
+                members.get(root).add(contact);
+                if (contact.getId() > 0) {
+                    relinked.put(contact.getId(), contact);
+                }
+            }
+            Set<Long> changed = changedRoots.computeIfAbsent(root, r -> new HashSet<>());
+            changed.add(root);
+            changed.add(loser);
+            Set<Long> loserChanged = changedRoots.remove(loser);
+            if (loserChanged != null) {
+                changed.addAll(loserChanged);
+            }
+        }
+
+        private Contact add(String email, String phoneNumber, Long linkedId, LinkPrecedence precedence) {
+            Contact contact = Contact.builder()
+                    .id(nextPlaceholderId++)
+                    .email(email)
+                    .phoneNumber(phoneNumber)
+                    .linkedId(linkedId)
+                    .linkPrecedence(precedence)
+                    .createdAt(now)
+                    .updatedAt(now)
+                    .build();
+            Long root = linkedId != null ? linkedId : contact.getId();
+            byId.put(contact.getId(), contact);
+            rootById.put(contact.getId(), root);
+            members.computeIfAbsent(root, r -> new ArrayList<>()).add(contact);
+            index(contact);
+            created.add(contact);
+            return contact;
+        }
+
+        // Swap placeholder ids for reserved ones (same order), returning placeholder -> real id
+        Map<Long, Long> assignIds(List<Long> reservedIds) {
+            Map<Long, Long> realIds = new HashMap<>();
+            List<Long> ids = new ArrayList<>(reservedIds);
+            Collections.sort(ids);
+            for (int i = 0; i < created.size(); i++) {
+                realIds.put(created.get(i).getId(), ids.get(i));
+            }
+            for (Contact contact : created) {
+                contact.setId(realIds.get(contact.getId()));
+                if (contact.getLinkedId() != null) {
+                    contact.setLinkedId(realIds.getOrDefault(contact.getLinkedId(), contact.getLinkedId()));
+                }
+            }
+            for (Contact contact : relinked.values()) {
+                contact.setLinkedId(realIds.getOrDefault(contact.getLinkedId(), contact.getLinkedId()));
+            }
+            return realIds;
+        }
+
+        // The recorded events with real ids; call after assignIds
+        List<ContactEvent> events(Map<Long, Long> realIds) {
+            List<ContactEvent> resolved = new ArrayList<>(events.size());
+            for (GraphEvent event : events) {
+                Long root = realIds.getOrDefault(event.root(), event.root());
+                resolved.add(switch (event.type()) {
+                    case PRIMARY_CREATED -> ContactEvent.primaryCreated(event.contact());
+                    case SECONDARY_ADDED -> ContactEvent.secondaryAdded(root, event.contact());
+                    case PRIMARIES_MERGED -> ContactEvent.merged(root,
+                            event.merged().stream().map(id -> realIds.getOrDefault(id, id)).toList());
+                });
+            }
+            return resolved;
+        }
+
+        private void index(Contact contact) {
+            if (contact.getEmail() != null) {
+                byEmail.computeIfAbsent(contact.getEmail(), e -> new ArrayList<>()).add(contact);
+            }
+            if (contact.getPhoneNumber() != null) {
+                byPhone.computeIfAbsent(contact.getPhoneNumber(), p -> new ArrayList<>()).add(contact);
+            }
+        }
+
+        // Follow links up to the primary (tolerates legacy chains)
+        private Long resolveRoot(Contact contact) {
+            Contact current = contact;
+            for (int hops = 0; hops < byId.size(); hops++) {
+                if (current.getLinkPrecedence() == LinkPrecedence.PRIMARY || current.getLinkedId() == null
+                        || !byId.containsKey(current.getLinkedId())) {
+                    break;
+                }
+                current = byId.get(current.getLinkedId());
+            }
+            return current.getId();
+        }
+    }
+
+    // A change to the in-memory clusters; ids may still be placeholders
+    private record GraphEvent(ContactEventType type, Long root, Contact contact, List<Long> merged) {
+    }
+
+    private record BatchReconciliation(List<List<Contact>> itemClusters, Map<Long, Set<Long>> changedRoots) {
+    }
+}
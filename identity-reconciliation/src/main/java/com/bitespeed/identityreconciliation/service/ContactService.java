@@ -1,25 +1,194 @@
 package com.bitespeed.identityreconciliation.service;
 
 import java.util.*;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
-import lombok.RequiredArgsConstructor;
+import com.bitespeed.identityreconciliation.cache.IdentityGraphCache;
+import com.bitespeed.identityreconciliation.dto.ContactSummary;
+import com.bitespeed.identityreconciliation.dto.SecondaryContactsPage;
+import com.bitespeed.identityreconciliation.dto.SecondaryContactsPage.SecondaryContact;
+import com.bitespeed.identityreconciliation.events.ContactEventOutbox;
+import com.bitespeed.identityreconciliation.repository.ContactClusterRepository;
 import com.bitespeed.identityreconciliation.repository.ContactRepository;
+import com.bitespeed.identityreconciliation.repository.HotClusterRepository;
+import com.bitespeed.identityreconciliation.repository.HotClusterRepository.ClusterMatch;
+import com.bitespeed.identityreconciliation.repository.HotClusterRepository.ClusterSize;
 import com.bitespeed.identityreconciliation.model.Contact;
+import com.bitespeed.identityreconciliation.model.ContactCluster;
+import com.bitespeed.identityreconciliation.model.ContactEvent;
+import com.bitespeed.identityreconciliation.model.HotCluster;
 import com.bitespeed.identityreconciliation.model.LinkPrecedence;
+import com.bitespeed.identityreconciliation.service.IdentifyMetrics.Outcome;
+import com.bitespeed.identityreconciliation.sharding.ShardRouter;
+import com.bitespeed.identityreconciliation.writebehind.WriteBehindBuffer;
+import io.micrometer.observation.Observation;
+import jakarta.persistence.EntityManager;
 import java.time.LocalDateTime;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.PessimisticLockingFailureException;
+import org.springframework.data.domain.Limit;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
 
 @Service
-@RequiredArgsConstructor
 public class ContactService {
 
+    private static final int MAX_ATTEMPTS = 3;
+    private static final int SMALL_CLUSTER = 8;
+    private static final Comparator<Contact> RESPONSE_ORDER = Comparator
+            .comparing((Contact c) -> c.getLinkPrecedence() != LinkPrecedence.PRIMARY)
+            .thenComparing(Contact::getId);
+
     private final ContactRepository contactRepository;
+    private final ContactClusterRepository contactClusterRepository;
+    private final IdentifierNormalizer normalizer;
+    private final IdentityLockManager lockManager;
+    private final TransactionTemplate transactionTemplate;
+    private final EntityManager entityManager;
+    private final IdentityGraphCache identityGraphCache;
+    private final IdentifyMetrics metrics;
+    private final WriteBehindBuffer writeBehind;
+    private final HotClusterRepository hotClusterRepository;
+    private final ContactEventOutbox eventOutbox;
+    private final IdentifyCoalescer coalescer;
+    private final ShardRouter shardRouter;
+    // Clusters with at least this many contacts are reconciled from their hot_cluster summary, which keeps
+    // this many entries of each list, instead of being loaded; 0 turns hot-cluster handling off
+    private final int hotThreshold;
+    // Cap on each list of a response (0 = none); the full cluster is paged by secondaries()
+    private final int maxListSize;
+
+    public ContactService(ContactRepository contactRepository,
+                          ContactClusterRepository contactClusterRepository,
+                          IdentifierNormalizer normalizer,
+                          IdentityLockManager lockManager,
+                          TransactionTemplate transactionTemplate,
+                          EntityManager entityManager,
+                          IdentityGraphCache identityGraphCache,
+                          IdentifyMetrics metrics,
+                          WriteBehindBuffer writeBehind,
+                          HotClusterRepository hotClusterRepository,
+                          ContactEventOutbox eventOutbox,
+                          IdentifyCoalescer coalescer,
+                          ShardRouter shardRouter,
+                          @Value("${identity.clusters.hot-threshold:1000}") int hotThreshold,
+                          @Value("${identity.response.max-list-size:0}") int maxListSize) {
+        this.contactRepository = contactRepository;
+        this.contactClusterRepository = contactClusterRepository;
+        this.normalizer = normalizer;
+        this.lockManager = lockManager;
+        this.transactionTemplate = transactionTemplate;
+        this.entityManager = entityManager;
+        this.identityGraphCache = identityGraphCache;
+        this.metrics = metrics;
+        this.writeBehind = writeBehind;
+        this.hotClusterRepository = hotClusterRepository;
+        this.eventOutbox = eventOutbox;
+        this.coalescer = coalescer;
+        this.shardRouter = shardRouter;
+        this.hotThreshold = hotThreshold;
+        this.maxListSize = maxListSize;
+    }
+
+    public ContactSummary identifyOrLinkContact(String email, String phoneNumber) {
+        return identifyOrLinkContact(null, email, phoneNumber);
+    }
+
+    // Identify within the tenant's store (null for the default store); nothing it does reads another store
+    public ContactSummary identifyOrLinkContact(String tenant, String email, String phoneNumber) {
+        String normalizedEmail = normalizer.email(email);
+        String normalizedPhoneNumber = normalizer.phoneNumber(phoneNumber);
+        return shardRouter.route(tenant, () ->
+                // Retried duplicates of a call still in flight share its reconciliation
+                coalescer.coalesce(normalizedEmail, normalizedPhoneNumber, () -> identify(normalizedEmail, normalizedPhoneNumber)));
+    }
+
+    // Identify answered from the identity graph cache alone, or null if it needs the store; one cache lookup both
+    // decides and answers, so a caller that skips admission control for a repeat never reaches the database
+    public ContactSummary identifyFromCache(String tenant, String email, String phoneNumber) {
+        String normalizedEmail = normalizer.email(email);
+        String normalizedPhoneNumber = normalizer.phoneNumber(phoneNumber);
+        return shardRouter.route(tenant, () -> fromCache(normalizedEmail, normalizedPhoneNumber));
+    }
+
+    // Repeat identifies are answered from the in-process identity graph without any SQL
+    private ContactSummary fromCache(String email, String phoneNumber) {
+        List<Contact> cached = metrics.stage("cache", () -> identityGraphCache.lookup(email, phoneNumber));
+        if (cached == null) {
+            return null;
+        }
+        metrics.outcome(Outcome.NO_OP);
+        metrics.clusterSize(cached.size());
+        return metrics.stage("response", () -> buildResponse(cached));
+    }
+
+    private ContactSummary identify(String email, String phoneNumber) {
+        ContactSummary cached = fromCache(email, phoneNumber);
+        if (cached != null) {
+            return cached;
+        }
+
+        // Requests sharing an email or phone are serialized; everything else runs in parallel.
+        // Stripes are taken before the transaction so waiting threads do not hold a connection.
+        long[] keys = lockManager.keysFor(email, phoneNumber);
+        Observation lockWait = metrics.start("lock-wait");
+        return lockManager.withStripes(keys, () -> {
+            lockWait.stop();
+            long cacheGeneration = identityGraphCache.generation();
+            Reconciliation result = metrics.stage("transaction", () -> reconcileWithRetry(email, phoneNumber, keys));
+            metrics.outcome(result.outcome());
+            metrics.clusterSize(result.clusterSize());
+
+            // Hot clusters are answered from their summary and never kept in the identity graph cache
+            if (result.summary() != null) {
+                identityGraphCache.invalidate(result.changedRoots());
+                return result.summary().limit(maxListSize);
+            }
 
-    public Map<String, Object> identifyOrLinkContact(String email, String phoneNumber) {
-        // Find contacts that exactly match the email or phone from the request
-        List<Contact> matchedContacts = contactRepository.findByEmailOrPhoneNumber(email, phoneNumber);
+            // A write-behind secondary is journaled only once the transaction that decided it committed
+            if (result.deferred() != null) {
+                metrics.stage("journal", () -> writeBehind.append(result.deferred()));
+            }
+
+            // Write-through once committed; read-only results are cached only if nothing changed meanwhile.
+            // A cluster that just reached the hot threshold is left out, its next identify takes the hot path.
+            if (hotThreshold > 0 && result.contacts().size() >= hotThreshold) {
+                identityGraphCache.invalidate(result.changedRoots());
+            } else if (result.changedRoots().isEmpty()) {
+                identityGraphCache.put(result.contacts(), cacheGeneration);
+            } else {
+                identityGraphCache.applyWrite(result.contacts(), result.changedRoots());
+            }
+            return metrics.stage("response", () -> buildResponse(result.contacts()));
+        });
+    }
+
+    private Reconciliation reconcileWithRetry(String email, String phoneNumber, long[] keys) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return transactionTemplate.execute(status -> reconcile(email, phoneNumber, keys));
+            } catch (PessimisticLockingFailureException e) {
+                // Deadlock between nodes re-locking a cluster that changed under them
+                if (attempt >= MAX_ATTEMPTS) {
+                    throw e;
+                }
+            }
+        }
+    }
 
-        if (matchedContacts.isEmpty()) {
+    private Reconciliation reconcile(String email, String phoneNumber, long[] keys) {
+        // Serialize with other nodes on the same identifiers before reading
+        metrics.stage("advisory-lock", () -> lockManager.lockIdentifiers(keys));
+
+        // Load the matching contacts together with their whole cluster in a single round trip. Clusters of hot
+        // identifiers are too large to load per request; the same statement returns only their roots instead.
+        ClusterMatch match = metrics.stage("match", () -> matchCluster(email, phoneNumber));
+        if (!match.hotRoots().isEmpty()) {
+            return reconcileHot(email, phoneNumber, match.hotRoots());
+        }
+        List<Contact> cluster = match.contacts();
+
+        if (cluster.isEmpty()) {
             // No existing contacts found, create a new primary contact
             Contact newContact = Contact.builder()
                     .email(email)
@@ -29,113 +198,391 @@ public class ContactService {
                     .updatedAt(LocalDateTime.now())
                     .build();
 
-            contactRepository.save(newContact);
-            return buildResponse(Collections.singletonList(newContact));
+            metrics.stage("insert", () -> contactRepository.save(newContact));
+            refreshProjection(Set.of(newContact.getId()));
+            eventOutbox.record(List.of(ContactEvent.primaryCreated(newContact)));
+            return new Reconciliation(Collections.singletonList(newContact), Set.of(newContact.getId()), Outcome.CREATED_PRIMARY, null);
         }
 
-        // Find all unique primaries among matched contacts
-        Set<Long> primaryIds = new HashSet<>();
-        List<Contact> primaries = new ArrayList<>();
-        
-        for (Contact contact : matchedContacts) {
-            if (contact.getLinkPrecedence() == LinkPrecedence.PRIMARY) {
-                primaryIds.add(contact.getId());
-                primaries.add(contact);
-            } else if (contact.getLinkedId() != null) {
-                primaryIds.add(Long.valueOf(contact.getLinkedId()));
-            }
+        // Check if the exact email and phone combination already exists
+        boolean alreadyExists = containsExactly(cluster, email, phoneNumber);
+
+        if (!alreadyExists || primaryIds(cluster).size() > 1) {
+            // This request writes into the cluster, so lock its primaries against concurrent merges
+            List<Contact> matched = cluster;
+            cluster = metrics.stage("lock-primaries", () ->
+                    lockClusterPrimaries(() -> findCluster(email, phoneNumber), matched));
+            alreadyExists = containsExactly(cluster, email, phoneNumber);
         }
 
-        // Get all primary contacts
-        List<Contact> allPrimaries = contactRepository.findAllById(primaryIds);
-        
+        // Find all primaries in the cluster
+        List<Contact> allPrimaries = cluster.stream()
+                .filter(c -> c.getLinkPrecedence() == LinkPrecedence.PRIMARY)
+                .collect(Collectors.toList());
+
         // Find the oldest primary
         Contact oldestPrimary = allPrimaries.stream()
                 .min(Comparator.comparing(Contact::getCreatedAt))
-                .orElse(matchedContacts.get(0));
-
-        // If there are multiple primaries, demote the newer ones and their secondaries
-        for (Contact primary : allPrimaries) {
-            if (!primary.getId().equals(oldestPrimary.getId())) {
-                // Demote this primary
-                primary.setLinkPrecedence(LinkPrecedence.SECONDARY);
-                primary.setLinkedId(oldestPrimary.getId().toString());
-                primary.setUpdatedAt(LocalDateTime.now());
-                contactRepository.save(primary);
-                
-                // Demote all its secondaries
-                List<Contact> secondaries = contactRepository.findAllByLinkedIdOrId(primary.getId());
-                for (Contact sec : secondaries) {
-                    if (!sec.getId().equals(primary.getId()) && sec.getLinkPrecedence() == LinkPrecedence.SECONDARY) {
-                        sec.setLinkedId(oldestPrimary.getId().toString());
-                        sec.setUpdatedAt(LocalDateTime.now());
-                        contactRepository.save(sec);
-                    }
+                .orElse(cluster.get(0));
+
+        // If there are multiple primaries, demote the newer ones and re-link their secondaries in one UPDATE
+        Set<Long> demotedIds = allPrimaries.stream()
+                .map(Contact::getId)
+                .filter(id -> !id.equals(oldestPrimary.getId()))
+                .collect(Collectors.toSet());
+
+        // Outbox events of this request, in the order its changes were made
+        List<ContactEvent> events = new ArrayList<>(2);
+        if (!demotedIds.isEmpty()) {
+            events.add(ContactEvent.merged(oldestPrimary.getId(), demotedIds));
+            LocalDateTime now = LocalDateTime.now();
+            int relinked = metrics.stage("merge", () ->
+                    contactRepository.relinkAll(oldestPrimary.getId(), demotedIds, LinkPrecedence.SECONDARY, now));
+            metrics.mergedRows(relinked);
+
+            // Mirror the update on the loaded cluster so the response reflects it
+            for (Contact contact : cluster) {
+                if (demotedIds.contains(contact.getId()) || demotedIds.contains(contact.getLinkedId())) {
+                    contact.setLinkPrecedence(LinkPrecedence.SECONDARY);
+                    contact.setLinkedId(oldestPrimary.getId());
+                    contact.setUpdatedAt(now);
                 }
             }
         }
 
-        // Check if the exact email and phone combination already exists
-        boolean alreadyExists = matchedContacts.stream()
-                .anyMatch(c ->
-                        Objects.equals(c.getEmail(), email) &&
-                        Objects.equals(c.getPhoneNumber(), phoneNumber)
-                );
+        // Everything now linked to the oldest primary, rebuilt in memory from the cluster
+        List<Contact> allRelated = cluster.stream()
+                .filter(c -> c.getId().equals(oldestPrimary.getId()) || oldestPrimary.getId().equals(c.getLinkedId()))
+                .collect(Collectors.toCollection(ArrayList::new));
+
+        // Roots whose cluster this request changes, for cache invalidation on other nodes.
+        // A plain new secondary goes to the write-behind buffer when enabled; its flush publishes the change
+        // and records its event.
+        Set<Long> changedRoots = new HashSet<>(demotedIds);
+        boolean writeBehindSecondary = writeBehind.isEnabled() && demotedIds.isEmpty() && !alreadyExists;
+        if (!demotedIds.isEmpty() || !alreadyExists) {
+            changedRoots.add(oldestPrimary.getId());
+            if (!writeBehindSecondary) {
+                identityGraphCache.publishInvalidation(changedRoots);
+            }
+        }
 
+        Contact deferred = null;
         if (!alreadyExists) {
             // Create a new secondary contact
             Contact secondary = Contact.builder()
                     .email(email)
                     .phoneNumber(phoneNumber)
-                    .linkedId(oldestPrimary.getId().toString())
+                    .linkedId(oldestPrimary.getId())
                     .linkPrecedence(LinkPrecedence.SECONDARY)
                     .createdAt(LocalDateTime.now())
                     .updatedAt(LocalDateTime.now())
                     .build();
 
-            contactRepository.save(secondary);
+            if (writeBehindSecondary) {
+                secondary.setId(writeBehind.nextId());
+                deferred = secondary;
+            } else {
+                metrics.stage("insert", () -> contactRepository.save(secondary));
+                events.add(ContactEvent.secondaryAdded(oldestPrimary.getId(), secondary));
+            }
+            allRelated.add(secondary);
         }
+        if (deferred == null) {
+            refreshProjection(changedRoots);
+        }
+        eventOutbox.record(events);
 
-        // Get all contacts linked to the oldest primary
-        List<Contact> allRelated = contactRepository.findAllByLinkedIdOrId(oldestPrimary.getId());
-        // Add the oldest primary itself if not already included
-        if (!allRelated.stream().anyMatch(c -> c.getId().equals(oldestPrimary.getId()))) {
-            allRelated.add(oldestPrimary);
+        Outcome outcome = !demotedIds.isEmpty() ? Outcome.MERGED : !alreadyExists ? Outcome.CREATED_SECONDARY : Outcome.NO_OP;
+        return new Reconciliation(allRelated, changedRoots, outcome, deferred);
+    }
+
+    // The matched contacts and their clusters, including contacts still in the write-behind buffer
+    private List<Contact> findCluster(String email, String phoneNumber) {
+        if (!writeBehind.isEnabled()) {
+            return contactRepository.findClusterByEmailOrPhoneNumber(email, phoneNumber);
+        }
+        while (true) {
+            long flushes = writeBehind.flushes();
+            List<Contact> cluster = withPending(contactRepository.findClusterByEmailOrPhoneNumber(email, phoneNumber),
+                    email, phoneNumber);
+            if (writeBehind.flushes() == flushes) {
+                return cluster;
+            }
         }
+    }
 
-        return buildResponse(allRelated);
+    // findCluster, unless a cluster it would load is hot: then only the hot roots, from the same statement
+    private ClusterMatch matchCluster(String email, String phoneNumber) {
+        if (hotThreshold <= 0) {
+            return new ClusterMatch(findCluster(email, phoneNumber), Set.of());
+        }
+        while (true) {
+            long flushes = writeBehind.flushes();
+            ClusterMatch match = hotClusterRepository.findClusterUnlessHot(email, phoneNumber, hotThreshold);
+            if (!match.hotRoots().isEmpty() || !writeBehind.isEnabled()) {
+                return match;
+            }
+            List<Contact> cluster = withPending(match.contacts(), email, phoneNumber);
+            if (writeBehind.flushes() == flushes) {
+                return new ClusterMatch(cluster, Set.of());
+            }
+        }
     }
 
-    private Map<String, Object> buildResponse(List<Contact> contacts) {
-        // Find the primary contact
-        Contact primaryContact = contacts.stream()
-                .filter(c -> c.getLinkPrecedence() == LinkPrecedence.PRIMARY)
+    private List<Contact> withPending(List<Contact> cluster, String email, String phoneNumber) {
+        Map<Long, Contact> byId = new LinkedHashMap<>();
+        cluster.forEach(c -> byId.put(c.getId(), c));
+        for (Contact pending : writeBehind.pendingMatching(email, phoneNumber)) {
+            // Matched only through a pending contact, so its cluster is not loaded yet
+            if (!byId.containsKey(pending.getLinkedId())) {
+                List<Contact> linked = contactRepository.findAllByLinkedIdOrId(pending.getLinkedId());
+                Optional<Contact> root = linked.stream().filter(c -> c.getId().equals(pending.getLinkedId())).findFirst();
+                if (root.isPresent() && root.get().getLinkedId() != null) {
+                    // Merged away since it was appended
+                    linked = contactRepository.findAllByLinkedIdOrId(root.get().getLinkedId());
+                }
+                linked.forEach(c -> byId.putIfAbsent(c.getId(), c));
+            }
+            byId.putIfAbsent(pending.getId(), pending);
+        }
+        writeBehind.pendingLinkedTo(new ArrayList<>(byId.keySet())).forEach(c -> byId.putIfAbsent(c.getId(), c));
+
+        // Stored clusters are flat; only a pending copy can still point at a demoted primary
+        for (Contact contact : byId.values()) {
+            Contact linked = contact.getLinkedId() != null ? byId.get(contact.getLinkedId()) : null;
+            if (linked != null && linked.getLinkPrecedence() == LinkPrecedence.SECONDARY) {
+                contact.setLinkedId(linked.getLinkedId());
+            }
+        }
+        return new ArrayList<>(byId.values());
+    }
+
+    // Same decisions as reconcile, for clusters at or above the hot threshold, without loading their members:
+    // primaries come from one contact per identifier, the duplicate check is an index probe, a new secondary
+    // is added to the cluster's bounded summary, and the response is that summary. Only a merge or a cluster
+    // turning hot reads the whole cluster; its contact_cluster row is rebuilt by HotClusterRefresher.
+    private Reconciliation reconcileHot(String email, String phoneNumber, Set<Long> hotRoots) {
+        // Lock the primaries, then re-read until no unlocked one remains, as lockClusterPrimaries does
+        Set<Long> locked = new HashSet<>();
+        Set<Long> roots = new HashSet<>(hotRoots);
+        List<ClusterSize> sizes = List.of();
+        while (!locked.containsAll(roots)) {
+            roots.removeAll(locked);
+            lockManager.lockContacts(roots);
+            locked.addAll(roots);
+            sizes = hotClusterRepository.findSizesByEmailOrPhoneNumber(email, phoneNumber);
+            roots = rootsOf(sizes);
+        }
+        entityManager.clear();
+
+        List<Contact> primaries = contactRepository.findAllById(roots);
+        Contact oldestPrimary = primaries.stream().min(Comparator.comparing(Contact::getCreatedAt)).orElseThrow();
+        Long root = oldestPrimary.getId();
+        boolean summarized = sizes.stream().anyMatch(size -> size.getPrimaryContactId().equals(root) && size.getSummarized());
+        Set<Long> demotedIds = new HashSet<>(roots);
+        demotedIds.remove(root);
+
+        boolean alreadyExists = contactRepository.existsByEmailAndPhoneNumber(email, phoneNumber)
+                || containsExactly(writeBehind.pendingMatching(email, phoneNumber), email, phoneNumber);
+        // Before the insert: whether the summary gains an identifier (the request matched no other cluster)
+        boolean emailIsNew = !alreadyExists && email != null && !contactRepository.existsByEmail(email);
+        boolean phoneIsNew = !alreadyExists && phoneNumber != null && !contactRepository.existsByPhoneNumber(phoneNumber);
+
+        List<ContactEvent> events = new ArrayList<>(2);
+        if (!demotedIds.isEmpty()) {
+            int relinked = metrics.stage("merge", () -> contactRepository.relinkAll(root, demotedIds,
+                    LinkPrecedence.SECONDARY, LocalDateTime.now()));
+            metrics.mergedRows(relinked);
+            events.add(ContactEvent.merged(root, demotedIds));
+        }
+        Long secondaryId = null;
+        if (!alreadyExists) {
+            Contact secondary = Contact.builder()
+                    .email(email)
+                    .phoneNumber(phoneNumber)
+                    .linkedId(root)
+                    .linkPrecedence(LinkPrecedence.SECONDARY)
+                    .createdAt(LocalDateTime.now())
+                    .updatedAt(LocalDateTime.now())
+                    .build();
+            metrics.stage("insert", () -> contactRepository.saveAndFlush(secondary));
+            secondaryId = secondary.getId();
+            events.add(ContactEvent.secondaryAdded(root, secondary));
+        }
+        eventOutbox.record(events);
+
+        if (!demotedIds.isEmpty() || !summarized) {
+            // The merged clusters' lookups resolve again once the refresher rebuilt the root's contact_cluster row
+            metrics.stage("summary", () -> {
+                hotClusterRepository.rebuild(root, hotThreshold);
+                hotClusterRepository.deleteAllByIdInBatch(demotedIds);
+                contactClusterRepository.deleteAllByIdInBatch(demotedIds);
+            });
+        } else if (secondaryId != null) {
+            Long appended = secondaryId;
+            metrics.stage("summary", () -> hotClusterRepository.append(root, appended, email, emailIsNew,
+                    phoneNumber, phoneIsNew, hotThreshold));
+        }
+
+        Set<Long> changedRoots = new HashSet<>(demotedIds);
+        if (!demotedIds.isEmpty() || !alreadyExists) {
+            changedRoots.add(root);
+            identityGraphCache.publishInvalidation(changedRoots);
+        }
+        HotCluster summary = hotClusterRepository.findById(root).orElseThrow();
+        Outcome outcome = !demotedIds.isEmpty() ? Outcome.MERGED : !alreadyExists ? Outcome.CREATED_SECONDARY : Outcome.NO_OP;
+        return new Reconciliation(null, changedRoots, outcome, null, toSummary(summary), summary.getMemberCount());
+    }
+
+    private static Set<Long> rootsOf(List<ClusterSize> sizes) {
+        return sizes.stream().map(ClusterSize::getPrimaryContactId).collect(Collectors.toCollection(HashSet::new));
+    }
+
+    // Rewrite the contact_cluster rows of the changed roots inside the writing transaction
+    private void refreshProjection(Set<Long> changedRoots) {
+        if (!changedRoots.isEmpty()) {
+            metrics.stage("projection", () -> contactClusterRepository.refresh(changedRoots.toArray(Long[]::new)));
+        }
+    }
+
+    // Read-only lookup of a consolidated contact from the projections; never writes. Hot clusters answer from
+    // their summary, which is current; identifiers they gained or absorbed since their contact_cluster row was
+    // last rebuilt are not in that row yet, so a miss is resolved through the contact table to a summary.
+    public Optional<ContactSummary> lookup(String email, String phoneNumber) {
+        return lookup(null, email, phoneNumber);
+    }
+
+    public Optional<ContactSummary> lookup(String tenant, String email, String phoneNumber) {
+        return shardRouter.route(tenant, () -> lookupInStore(email, phoneNumber));
+    }
+
+    private Optional<ContactSummary> lookupInStore(String email, String phoneNumber) {
+        Optional<Long> root = email != null
+                ? contactClusterRepository.findPrimaryContactIdByEmail(normalizer.email(email))
+                : contactClusterRepository.findPrimaryContactIdByPhoneNumber(normalizer.phoneNumber(phoneNumber));
+        return root.flatMap(id -> hotClusterRepository.findById(id).map(ContactService::toSummary)
+                        .or(() -> contactClusterRepository.findById(id).map(ContactService::toSummary)))
+                .or(() -> hotSummaryOf(email, phoneNumber))
+                .map(summary -> summary.limit(maxListSize));
+    }
+
+    // Summary of the hot cluster carrying the identifier, found from its contacts
+    private Optional<ContactSummary> hotSummaryOf(String email, String phoneNumber) {
+        if (hotThreshold <= 0) {
+            return Optional.empty();
+        }
+        List<ClusterSize> sizes = email != null
+                ? hotClusterRepository.findSizesByEmailOrPhoneNumber(normalizer.email(email), null)
+                : hotClusterRepository.findSizesByEmailOrPhoneNumber(null, normalizer.phoneNumber(phoneNumber));
+        return sizes.stream()
+                .filter(ClusterSize::getSummarized)
                 .findFirst()
-                .orElse(contacts.get(0));
+                .flatMap(size -> hotClusterRepository.findById(size.getPrimaryContactId()))
+                .map(ContactService::toSummary);
+    }
 
-        // Get all unique emails and phone numbers
-        Set<String> emails = contacts.stream()
-                .map(Contact::getEmail)
-                .filter(Objects::nonNull)
-                .collect(Collectors.toSet());
+    // One page of a primary's secondaries in id order, after the given id; empty if it is not a live primary
+    public Optional<SecondaryContactsPage> secondaries(Long primaryContactId, long after, int limit) {
+        return secondaries(null, primaryContactId, after, limit);
+    }
 
-        Set<String> phoneNumbers = contacts.stream()
-                .map(Contact::getPhoneNumber)
-                .filter(Objects::nonNull)
-                .collect(Collectors.toSet());
+    public Optional<SecondaryContactsPage> secondaries(String tenant, Long primaryContactId, long after, int limit) {
+        return shardRouter.route(tenant, () -> secondariesInStore(primaryContactId, after, limit));
+    }
 
-        // Get secondary contact IDs
-        List<Long> secondaryIds = contacts.stream()
-                .filter(c -> c.getLinkPrecedence() == LinkPrecedence.SECONDARY)
+    private Optional<SecondaryContactsPage> secondariesInStore(Long primaryContactId, long after, int limit) {
+        List<Contact> page = contactRepository.findSecondariesAfter(primaryContactId, after, Limit.of(limit + 1));
+        if (page.isEmpty() && contactRepository.findById(primaryContactId)
+                .filter(c -> c.getLinkPrecedence() == LinkPrecedence.PRIMARY && c.getDeletedAt() == null).isEmpty()) {
+            return Optional.empty();
+        }
+        List<SecondaryContact> secondaries = page.stream()
+                .limit(limit)
+                .map(c -> new SecondaryContact(c.getId(), c.getEmail(), c.getPhoneNumber()))
+                .toList();
+        Long next = page.size() > limit ? secondaries.get(limit - 1).id() : null;
+        return Optional.of(new SecondaryContactsPage(primaryContactId, secondaries, next));
+    }
+
+    private static ContactSummary toSummary(ContactCluster cluster) {
+        return new ContactSummary(cluster.getPrimaryContactId(), List.of(cluster.getEmails()), List.of(cluster.getPhoneNumbers()),
+                List.of(cluster.getSecondaryContactIds()));
+    }
+
+    private static ContactSummary toSummary(HotCluster cluster) {
+        return new ContactSummary(cluster.getPrimaryContactId(), List.of(cluster.getEmails()), List.of(cluster.getPhoneNumbers()),
+                List.of(cluster.getSecondaryContactIds()), cluster.getEmailCount(), cluster.getPhoneNumberCount(),
+                cluster.getMemberCount() - 1);
+    }
+
+    // Lock the cluster's primaries and re-read it until no unlocked primary remains
+    List<Contact> lockClusterPrimaries(Supplier<List<Contact>> clusterReader, List<Contact> cluster) {
+        Set<Long> locked = new HashSet<>();
+        Set<Long> primaryIds = primaryIds(cluster);
+        while (!locked.containsAll(primaryIds)) {
+            primaryIds.removeAll(locked);
+            lockManager.lockContacts(primaryIds);
+            locked.addAll(primaryIds);
+            // Drop the cached rows so the re-read sees changes committed while we waited
+            entityManager.clear();
+            cluster = clusterReader.get();
+            primaryIds = primaryIds(cluster);
+        }
+        return cluster;
+    }
+
+    static Set<Long> primaryIds(List<Contact> contacts) {
+        return contacts.stream()
+                .filter(c -> c.getLinkPrecedence() == LinkPrecedence.PRIMARY)
                 .map(Contact::getId)
-                .collect(Collectors.toList());
+                .collect(Collectors.toCollection(HashSet::new));
+    }
+
+    static boolean containsExactly(List<Contact> contacts, String email, String phoneNumber) {
+        return contacts.stream()
+                .anyMatch(c ->
+                        Objects.equals(c.getEmail(), email) &&
+                        Objects.equals(c.getPhoneNumber(), phoneNumber)
+                );
+    }
+
+    ContactSummary buildResponse(List<Contact> contacts) {
+        // Primary first, then the rest in creation (id) order, so the response is deterministic
+        Contact[] ordered = contacts.toArray(new Contact[0]);
+        Arrays.sort(ordered, RESPONSE_ORDER);
+        Contact primaryContact = ordered[0];
 
-        Map<String, Object> response = new HashMap<>();
-        response.put("primaryContactId", primaryContact.getId());
-        response.put("emails", new ArrayList<>(emails));
-        response.put("phoneNumbers", new ArrayList<>(phoneNumbers));
-        response.put("secondaryContactIds", secondaryIds);
+        // One pass collecting distinct identifiers; small clusters dedupe by scanning the lists
+        Set<String> seenEmails = ordered.length > SMALL_CLUSTER ? new HashSet<>() : null;
+        Set<String> seenPhoneNumbers = ordered.length > SMALL_CLUSTER ? new HashSet<>() : null;
+        List<String> emails = new ArrayList<>(Math.min(ordered.length, SMALL_CLUSTER));
+        List<String> phoneNumbers = new ArrayList<>(Math.min(ordered.length, SMALL_CLUSTER));
+        List<Long> secondaryIds = new ArrayList<>(ordered.length - 1);
+        for (Contact contact : ordered) {
+            addDistinct(emails, seenEmails, contact.getEmail());
+            addDistinct(phoneNumbers, seenPhoneNumbers, contact.getPhoneNumber());
+            if (contact.getLinkPrecedence() == LinkPrecedence.SECONDARY) {
+                secondaryIds.add(contact.getId());
+            }
+        }
+        return new ContactSummary(primaryContact.getId(), emails, phoneNumbers, secondaryIds).limit(maxListSize);
+    }
+
+    private static void addDistinct(List<String> values, Set<String> seen, String value) {
+        if (value != null && (seen != null ? seen.add(value) : !values.contains(value))) {
+            values.add(value);
+        }
+    }
 
-        return response;
+    // Contacts now in the request's cluster, the roots it changed (empty for a read-only identify), what it did,
+    // and the new secondary left to the write-behind buffer, if any. Hot clusters carry their summary instead
+    // of their contacts.
+    private record Reconciliation(List<Contact> contacts, Set<Long> changedRoots, Outcome outcome, Contact deferred,
+                                  ContactSummary summary, int clusterSize) {
+
+        Reconciliation(List<Contact> contacts, Set<Long> changedRoots, Outcome outcome, Contact deferred) {
+            this(contacts, changedRoots, outcome, deferred, null, contacts.size());
+        }
     }
 }
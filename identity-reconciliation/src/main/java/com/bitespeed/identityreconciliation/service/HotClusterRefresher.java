@@ -0,0 +1,114 @@
+package com.bitespeed.identityreconciliation.service;
+
+import com.bitespeed.identityreconciliation.repository.ContactClusterRepository;
+import com.bitespeed.identityreconciliation.repository.HotClusterRepository;
+import com.bitespeed.identityreconciliation.sharding.ShardRouter;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rebuilds the contact_cluster rows of hot clusters in the background. Identify keeps a hot cluster's
+ * hot_cluster summary exact but only marks its projection row stale, since rewriting a row with
+ * hundreds of thousands of array entries (and their GIN entries) costs seconds. Every
+ * {@code identity.clusters.refresh-interval} this rebuilds each stale row once. Until then GET /identify
+ * resolves identifiers the row is missing through the contact table to the cluster's summary.
+ *
+ * It takes no locks: the stale flag is cleared in its own transaction before the rebuild reads the
+ * cluster, so a write committed after the rebuild's snapshot marks the row stale again. Each run covers
+ * every store, the default one and each tenant's.
+ */
+@Slf4j
+@Component
+public class HotClusterRefresher {
+
+    private final HotClusterRepository hotClusterRepository;
+    private final ContactClusterRepository contactClusterRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final ShardRouter shardRouter;
+    private final boolean enabled;
+    private final Duration refreshInterval;
+
+    private ScheduledExecutorService refresher;
+
+    public HotClusterRefresher(HotClusterRepository hotClusterRepository,
+                               ContactClusterRepository contactClusterRepository,
+                               TransactionTemplate transactionTemplate,
+                               ShardRouter shardRouter,
+                               @Value("${identity.clusters.hot-threshold:1000}") int hotThreshold,
+                               @Value("${identity.clusters.refresh-interval:30s}") Duration refreshInterval) {
+        this.hotClusterRepository = hotClusterRepository;
+        this.contactClusterRepository = contactClusterRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.shardRouter = shardRouter;
+        this.enabled = hotThreshold > 0;
+        this.refreshInterval = refreshInterval;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        refresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "hot-cluster-refresher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        refresher.scheduleWithFixedDelay(this::refreshQuietly, refreshInterval.toMillis(), refreshInterval.toMillis(),
+                TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (refresher != null) {
+            refresher.shutdownNow();
+        }
+    }
+
+    // Rebuild every stale projection row of the current store; returns how many were rebuilt
+    public int refresh() {
+        List<Long> roots = hotClusterRepository.findStaleRoots();
+        int refreshed = 0;
+        for (Long root : roots) {
+            Integer claimed = transactionTemplate.execute(status -> hotClusterRepository.clearStale(root));
+            if (claimed == null || claimed == 0) {
+                continue;
+            }
+            try {
+                transactionTemplate.executeWithoutResult(status ->
+                        contactClusterRepository.refreshProjection(new Long[]{root}));
+            } catch (RuntimeException e) {
+                // Hand the row back to the next run
+                transactionTemplate.executeWithoutResult(status -> hotClusterRepository.markStale(root));
+                throw e;
+            }
+            refreshed++;
+        }
+        return refreshed;
+    }
+
+    private void refreshQuietly() {
+        shardRouter.forEachStore(tenant -> {
+            try {
+                long started = System.nanoTime();
+                int refreshed = refresh();
+                if (refreshed > 0) {
+                    log.debug("Refreshed {} hot cluster projections of {} in {} ms", refreshed, ShardRouter.describe(tenant),
+                            (System.nanoTime() - started) / 1_000_000);
+                }
+            } catch (Exception e) {
+                log.warn("Hot cluster projection refresh of {} failed, retrying on the next one", ShardRouter.describe(tenant), e);
+            }
+        });
+    }
+}
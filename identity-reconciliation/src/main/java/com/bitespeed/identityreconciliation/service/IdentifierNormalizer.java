@@ -0,0 +1,57 @@
+package com.bitespeed.identityreconciliation.service;
+
+import com.bitespeed.identityreconciliation.dto.IdentifyRequest;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Canonical form of the identifiers, applied before anything is matched, locked, cached or stored,
+ * so spelling variants of one email or phone number land in the same cluster.
+ *
+ * Emails are trimmed and lower-cased. Phone numbers lose their separators (spaces, dashes, dots,
+ * parentheses, slashes) and a 00 international prefix becomes +, giving E.164 for numbers sent
+ * with a country code. Numbers without one get identity.identifiers.default-country-code (minus a
+ * leading trunk 0) when it is set, and are otherwise kept as national digits. Anything that is
+ * not a phone number after stripping is kept as sent, just without separators.
+ */
+@Component
+public class IdentifierNormalizer {
+
+    private static final Pattern SEPARATORS = Pattern.compile("[\\s().\\-/]");
+    private static final Pattern INTERNATIONAL_PREFIX = Pattern.compile("^00(?=\\d)");
+    private static final Pattern NATIONAL = Pattern.compile("\\d+");
+
+    private final String defaultCountryCode;
+
+    public IdentifierNormalizer(@Value("${identity.identifiers.default-country-code:}") String defaultCountryCode) {
+        this.defaultCountryCode = defaultCountryCode.replaceAll("\\D", "");
+    }
+
+    public String email(String email) {
+        if (email == null || email.isBlank()) {
+            return null;
+        }
+        return email.trim().toLowerCase(Locale.ROOT);
+    }
+
+    public String phoneNumber(String phoneNumber) {
+        if (phoneNumber == null || phoneNumber.isBlank()) {
+            return null;
+        }
+        String stripped = INTERNATIONAL_PREFIX.matcher(SEPARATORS.matcher(phoneNumber).replaceAll("")).replaceFirst("+");
+        if (stripped.isEmpty()) {
+            return phoneNumber.trim();
+        }
+        if (!defaultCountryCode.isEmpty() && NATIONAL.matcher(stripped).matches()) {
+            return "+" + defaultCountryCode + (stripped.charAt(0) == '0' ? stripped.substring(1) : stripped);
+        }
+        return stripped;
+    }
+
+    public IdentifyRequest normalize(IdentifyRequest request) {
+        return new IdentifyRequest(email(request.email()), phoneNumber(request.phoneNumber()), request.tenant());
+    }
+}
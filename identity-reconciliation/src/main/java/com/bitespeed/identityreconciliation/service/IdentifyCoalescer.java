@@ -0,0 +1,115 @@
+package com.bitespeed.identityreconciliation.service;
+
+import com.bitespeed.identityreconciliation.dto.ContactSummary;
+import com.bitespeed.identityreconciliation.sharding.TenantContext;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Single-flight for identify: concurrent calls with the same tenant and normalized email and phone number share
+ * one reconciliation. The first caller (the leader) runs it; callers arriving while it is in flight wait for its
+ * result, or its exception, instead of queueing on the same lock stripes and rows. The leader's result is what
+ * each of them would have got after it committed, since a repeat of the same pair changes nothing.
+ *
+ * Only in-flight calls are tracked, and at most {@code identity.coalescing.max-keys} of them: past that, new
+ * keys run uncoalesced. identify.coalesce counts calls by result (leader, joined, bypassed), so the hit rate is
+ * joined / (leader + joined).
+ */
+@Component
+public class IdentifyCoalescer {
+
+    private final ConcurrentHashMap<Key, CompletableFuture<ContactSummary>> flights = new ConcurrentHashMap<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final boolean enabled;
+    private final int maxKeys;
+    private final Counter leaders;
+    private final Counter joined;
+    private final Counter bypassed;
+
+    public IdentifyCoalescer(MeterRegistry meterRegistry,
+                             @Value("${identity.coalescing.enabled:true}") boolean enabled,
+                             @Value("${identity.coalescing.max-keys:10000}") int maxKeys) {
+        this.enabled = enabled;
+        this.maxKeys = maxKeys;
+        this.leaders = counter(meterRegistry, "leader");
+        this.joined = counter(meterRegistry, "joined");
+        this.bypassed = counter(meterRegistry, "bypassed");
+        Gauge.builder("identify.coalesce.in-flight", inFlight, AtomicInteger::get)
+                .description("Identify keys with a reconciliation in flight")
+                .register(meterRegistry);
+    }
+
+    // Runs identify for the normalized pair, or waits for the call already running it
+    public ContactSummary coalesce(String email, String phoneNumber, Supplier<ContactSummary> identify) {
+        if (!enabled) {
+            return identify.get();
+        }
+        Key key = new Key(TenantContext.current(), email, phoneNumber);
+        CompletableFuture<ContactSummary> running = flights.get(key);
+        if (running == null) {
+            if (inFlight.incrementAndGet() > maxKeys) {
+                inFlight.decrementAndGet();
+                bypassed.increment();
+                return identify.get();
+            }
+            CompletableFuture<ContactSummary> flight = new CompletableFuture<>();
+            running = flights.putIfAbsent(key, flight);
+            if (running == null) {
+                leaders.increment();
+                return lead(key, flight, identify);
+            }
+            inFlight.decrementAndGet();
+        }
+        joined.increment();
+        return await(running);
+    }
+
+    private ContactSummary lead(Key key, CompletableFuture<ContactSummary> flight, Supplier<ContactSummary> identify) {
+        try {
+            ContactSummary summary = identify.get();
+            flight.complete(summary);
+            return summary;
+        } catch (RuntimeException | Error e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            // Calls arriving from now on start their own flight and see everything this one committed
+            flights.remove(key, flight);
+            inFlight.decrementAndGet();
+        }
+    }
+
+    private static ContactSummary await(CompletableFuture<ContactSummary> flight) {
+        try {
+            return flight.join();
+        } catch (CompletionException e) {
+            // The leader's own exception, so joined calls fail the same way it did
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            if (e.getCause() instanceof Error cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    private static Counter counter(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("identify.coalesce")
+                .description("Identify calls by whether they ran the reconciliation or shared one in flight")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    private record Key(String tenant, String email, String phoneNumber) {
+    }
+}
@@ -0,0 +1,89 @@
+package com.bitespeed.identityreconciliation.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+// Instrumentation of the identify path: each stage is an observation (an "identify.stage" timer
+// tagged by stage, and a child span of the request), plus outcome counters and size histograms
+@Component
+public class IdentifyMetrics {
+
+    public static final String STAGE_OBSERVATION = "identify.stage";
+
+    private final ObservationRegistry observationRegistry;
+    private final DistributionSummary clusterSize;
+    private final DistributionSummary mergedRows;
+    private final Map<Outcome, Counter> outcomes = new EnumMap<>(Outcome.class);
+
+    public IdentifyMetrics(ObservationRegistry observationRegistry, MeterRegistry meterRegistry) {
+        this.observationRegistry = observationRegistry;
+        this.clusterSize = DistributionSummary.builder("identify.cluster.size")
+                .description("Contacts in the cluster returned by identify")
+                .baseUnit("contacts")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.mergedRows = DistributionSummary.builder("identify.merge.rows")
+                .description("Rows re-linked by a primary merge")
+                .baseUnit("rows")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        for (Outcome outcome : Outcome.values()) {
+            outcomes.put(outcome, Counter.builder("identify.outcome")
+                    .description("Identify calls by what they did to the contact graph")
+                    .tag("outcome", outcome.tag)
+                    .register(meterRegistry));
+        }
+    }
+
+    public <T> T stage(String stage, Supplier<T> action) {
+        return observation(stage).observe(action);
+    }
+
+    public void stage(String stage, Runnable action) {
+        observation(stage).observe(action);
+    }
+
+    // For stages that do not fit a callback, e.g. waiting for a lock; the caller stops it
+    public Observation start(String stage) {
+        return observation(stage).start();
+    }
+
+    public void outcome(Outcome outcome) {
+        outcomes.get(outcome).increment();
+    }
+
+    public void clusterSize(int contacts) {
+        clusterSize.record(contacts);
+    }
+
+    public void mergedRows(int rows) {
+        mergedRows.record(rows);
+    }
+
+    private Observation observation(String stage) {
+        return Observation.createNotStarted(STAGE_OBSERVATION, observationRegistry)
+                .contextualName("identify " + stage)
+                .lowCardinalityKeyValue("stage", stage);
+    }
+
+    public enum Outcome {
+        CREATED_PRIMARY("created-primary"),
+        CREATED_SECONDARY("created-secondary"),
+        MERGED("merged"),
+        NO_OP("no-op");
+
+        private final String tag;
+
+        Outcome(String tag) {
+            this.tag = tag;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.bitespeed.identityreconciliation.service;
+
+import com.bitespeed.identityreconciliation.model.IdentifierHash;
+import com.bitespeed.identityreconciliation.repository.ContactRepository;
+import com.bitespeed.identityreconciliation.sharding.TenantContext;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+@Component
+public class IdentityLockManager {
+
+    private final ContactRepository contactRepository;
+    private final IdentifierNormalizer normalizer;
+    private final ReentrantLock[] stripes;
+    private final boolean advisoryLocks;
+
+    public IdentityLockManager(ContactRepository contactRepository,
+                               IdentifierNormalizer normalizer,
+                               @Value("${identity.locks.stripes:1024}") int stripeCount,
+                               @Value("${identity.locks.advisory:true}") boolean advisoryLocks) {
+        this.contactRepository = contactRepository;
+        this.normalizer = normalizer;
+        // Round up to a power of two so a stripe can be picked with a mask
+        this.stripes = new ReentrantLock[Integer.highestOneBit(Math.max(1, stripeCount - 1)) << 1];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+        this.advisoryLocks = advisoryLocks;
+    }
+
+    // One lock key per provided identifier, sorted so every caller acquires locks in the same order. Identifiers
+    // are normalized as they are stored, so two spellings of one email or phone share a key. Keys are per tenant,
+    // so tenants sharing a shard database (and this node's stripes) do not wait on each other.
+    public long[] keysFor(String email, String phoneNumber) {
+        String tenant = TenantContext.current();
+        String prefix = tenant == null ? "" : tenant + "/";
+        String normalizedEmail = normalizer.email(email);
+        String normalizedPhoneNumber = normalizer.phoneNumber(phoneNumber);
+        long[] keys = new long[2];
+        int count = 0;
+        if (normalizedEmail != null) {
+            keys[count++] = IdentifierHash.of(prefix + "email:" + normalizedEmail);
+        }
+        if (normalizedPhoneNumber != null) {
+            keys[count++] = IdentifierHash.of(prefix + "phone:" + normalizedPhoneNumber);
+        }
+        long[] result = Arrays.copyOf(keys, count);
+        Arrays.sort(result);
+        return result;
+    }
+
+    // One lock key per contact, sorted. Per tenant like the identifier keys, since the stores of tenants sharing
+    // a shard hand out the same contact ids.
+    public long[] keysForContacts(Collection<Long> contactIds) {
+        String tenant = TenantContext.current();
+        String prefix = tenant == null ? "" : tenant + "/";
+        long[] keys = new long[contactIds.size()];
+        int count = 0;
+        for (long contactId : contactIds) {
+            keys[count++] = IdentifierHash.of(prefix + "contact:" + contactId);
+        }
+        Arrays.sort(keys);
+        return keys;
+    }
+
+    // Run the action while holding the in-process stripes of the given keys.
+    // Requests on unrelated identifiers land on different stripes and run in parallel.
+    public <T> T withStripes(long[] keys, Supplier<T> action) {
+        int[] indexes = Arrays.stream(keys).mapToInt(this::stripeIndex).distinct().sorted().toArray();
+        int acquired = 0;
+        try {
+            for (int index : indexes) {
+                stripes[index].lock();
+                acquired++;
+            }
+            return action.get();
+        } finally {
+            for (int i = acquired - 1; i >= 0; i--) {
+                stripes[indexes[i]].unlock();
+            }
+        }
+    }
+
+    // Serialize with other nodes on the same identifiers; must run inside a transaction
+    public void lockIdentifiers(long[] keys) {
+        if (advisoryLocks && keys.length > 0) {
+            contactRepository.acquireAdvisoryLocks(Arrays.stream(keys).boxed().toArray(Long[]::new));
+        }
+    }
+
+    // Serialize with other nodes touching the same primaries; must run inside a transaction
+    public void lockContacts(Collection<Long> contactIds) {
+        if (advisoryLocks && !contactIds.isEmpty()) {
+            contactRepository.acquireAdvisoryLocks(Arrays.stream(keysForContacts(contactIds)).boxed().toArray(Long[]::new));
+        }
+    }
+
+    private int stripeIndex(long key) {
+        return (int) (key ^ (key >>> 32)) & (stripes.length - 1);
+    }
+}
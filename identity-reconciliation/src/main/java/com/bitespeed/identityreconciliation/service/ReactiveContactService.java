@@ -0,0 +1,217 @@
+package com.bitespeed.identityreconciliation.service;
+
+import com.bitespeed.identityreconciliation.cache.IdentityGraphCache;
+import com.bitespeed.identityreconciliation.dto.ContactSummary;
+import com.bitespeed.identityreconciliation.model.Contact;
+import com.bitespeed.identityreconciliation.model.LinkPrecedence;
+import com.bitespeed.identityreconciliation.repository.ReactiveContactRepository;
+import com.bitespeed.identityreconciliation.service.IdentifyMetrics.Outcome;
+import io.r2dbc.spi.ConnectionFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.PessimisticLockingFailureException;
+import org.springframework.r2dbc.connection.R2dbcTransactionManager;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Non-blocking identify for the reactive profile: the same steps and decisions as
+ * {@link ContactService}, run as one R2DBC transaction. Requests are serialized on
+ * transaction-scoped advisory locks only, since the in-process lock stripes would block
+ * an event-loop thread; the identity graph cache is shared with the blocking path.
+ */
+@Service
+@ConditionalOnProperty(name = "spring.main.web-application-type", havingValue = "reactive")
+public class ReactiveContactService {
+
+    private static final int MAX_ATTEMPTS = 3;
+
+    private final ReactiveContactRepository contactRepository;
+    private final ContactService contactService;
+    private final IdentifierNormalizer normalizer;
+    private final IdentityLockManager lockManager;
+    private final IdentityGraphCache identityGraphCache;
+    private final IdentifyMetrics metrics;
+    private final TransactionalOperator transactionalOperator;
+
+    public ReactiveContactService(ReactiveContactRepository contactRepository,
+                                  ContactService contactService,
+                                  IdentifierNormalizer normalizer,
+                                  IdentityLockManager lockManager,
+                                  IdentityGraphCache identityGraphCache,
+                                  IdentifyMetrics metrics,
+                                  ConnectionFactory connectionFactory) {
+        this.contactRepository = contactRepository;
+        this.contactService = contactService;
+        this.normalizer = normalizer;
+        this.lockManager = lockManager;
+        this.identityGraphCache = identityGraphCache;
+        this.metrics = metrics;
+        // Not a bean, so JPA's @Transactional keeps a single transaction manager to resolve
+        this.transactionalOperator = TransactionalOperator.create(new R2dbcTransactionManager(connectionFactory));
+    }
+
+    public Mono<ContactSummary> identifyOrLinkContact(String email, String phoneNumber) {
+        return identify(normalizer.email(email), normalizer.phoneNumber(phoneNumber));
+    }
+
+    private Mono<ContactSummary> identify(String email, String phoneNumber) {
+        List<Contact> cached = identityGraphCache.lookup(email, phoneNumber);
+        if (cached != null) {
+            metrics.outcome(Outcome.NO_OP);
+            metrics.clusterSize(cached.size());
+            return Mono.just(contactService.buildResponse(cached));
+        }
+
+        long[] keys = lockManager.keysFor(email, phoneNumber);
+        return Mono.defer(() -> {
+                    long cacheGeneration = identityGraphCache.generation();
+                    return transactionalOperator.transactional(reconcile(email, phoneNumber, keys))
+                            .map(result -> {
+                                if (result.changedRoots().isEmpty()) {
+                                    identityGraphCache.put(result.contacts(), cacheGeneration);
+                                } else {
+                                    identityGraphCache.applyWrite(result.contacts(), result.changedRoots());
+                                }
+                                return result;
+                            });
+                })
+                // Deadlock between nodes re-locking a cluster that changed under them
+                .retryWhen(Retry.max(MAX_ATTEMPTS - 1).filter(PessimisticLockingFailureException.class::isInstance)
+                        .onRetryExhaustedThrow((spec, signal) -> signal.failure()))
+                .map(result -> {
+                    metrics.outcome(result.outcome());
+                    metrics.clusterSize(result.contacts().size());
+                    return contactService.buildResponse(result.contacts());
+                });
+    }
+
+    // See ContactService.lookup
+    public Mono<ContactSummary> lookup(String email, String phoneNumber) {
+        return contactRepository.findProjectionByEmailOrPhoneNumber(normalizer.email(email), normalizer.phoneNumber(phoneNumber))
+                .map(c -> new ContactSummary(c.getPrimaryContactId(), List.of(c.getEmails()),
+                        List.of(c.getPhoneNumbers()), List.of(c.getSecondaryContactIds())));
+    }
+
+    private Mono<Reconciliation> reconcile(String email, String phoneNumber, long[] keys) {
+        return lockKeys(Arrays.stream(keys).boxed().toArray(Long[]::new))
+                .then(contactRepository.findClusterByEmailOrPhoneNumber(email, phoneNumber))
+                .flatMap(cluster -> cluster.isEmpty()
+                        ? createPrimary(email, phoneNumber)
+                        : link(email, phoneNumber, cluster));
+    }
+
+    private Mono<Reconciliation> createPrimary(String email, String phoneNumber) {
+        LocalDateTime now = LocalDateTime.now();
+        Contact contact = Contact.builder()
+                .email(email)
+                .phoneNumber(phoneNumber)
+                .linkPrecedence(LinkPrecedence.PRIMARY)
+                .createdAt(now)
+                .updatedAt(now)
+                .build();
+        return contactRepository.insert(contact)
+                .flatMap(created -> contactRepository.refreshClusters(new Long[]{created.getId()})
+                        .thenReturn(new Reconciliation(List.of(created), Set.of(created.getId()), Outcome.CREATED_PRIMARY)));
+    }
+
+    private Mono<Reconciliation> link(String email, String phoneNumber, List<Contact> matched) {
+        boolean exists = ContactService.containsExactly(matched, email, phoneNumber);
+        Mono<List<Contact>> clusterMono = !exists || ContactService.primaryIds(matched).size() > 1
+                ? lockClusterPrimaries(email, phoneNumber, matched, new HashSet<>())
+                : Mono.just(matched);
+
+        return clusterMono.flatMap(cluster -> {
+            boolean alreadyExists = ContactService.containsExactly(cluster, email, phoneNumber);
+            List<Contact> allPrimaries = cluster.stream()
+                    .filter(c -> c.getLinkPrecedence() == LinkPrecedence.PRIMARY)
+                    .toList();
+            Contact oldestPrimary = allPrimaries.stream()
+                    .min(Comparator.comparing(Contact::getCreatedAt))
+                    .orElse(cluster.get(0));
+            Set<Long> demotedIds = allPrimaries.stream()
+                    .map(Contact::getId)
+                    .filter(id -> !id.equals(oldestPrimary.getId()))
+                    .collect(Collectors.toSet());
+
+            Mono<Void> merge = Mono.empty();
+            if (!demotedIds.isEmpty()) {
+                LocalDateTime now = LocalDateTime.now();
+                merge = contactRepository.relinkAll(oldestPrimary.getId(), demotedIds, LinkPrecedence.SECONDARY, now)
+                        .doOnNext(relinked -> {
+                            metrics.mergedRows(relinked.intValue());
+                            for (Contact contact : cluster) {
+                                if (demotedIds.contains(contact.getId()) || demotedIds.contains(contact.getLinkedId())) {
+                                    contact.setLinkPrecedence(LinkPrecedence.SECONDARY);
+                                    contact.setLinkedId(oldestPrimary.getId());
+                                    contact.setUpdatedAt(now);
+                                }
+                            }
+                        })
+                        .then();
+            }
+
+            Set<Long> changedRoots = new HashSet<>(demotedIds);
+            Mono<Void> publish = Mono.empty();
+            if (!demotedIds.isEmpty() || !alreadyExists) {
+                changedRoots.add(oldestPrimary.getId());
+                publish = Flux.fromIterable(identityGraphCache.invalidationPayloads(changedRoots))
+                        .concatMap(payload -> contactRepository.notifyChannel(IdentityGraphCache.INVALIDATION_CHANNEL, payload))
+                        .then();
+            }
+
+            Mono<Optional<Contact>> insert = Mono.just(Optional.empty());
+            if (!alreadyExists) {
+                LocalDateTime now = LocalDateTime.now();
+                insert = contactRepository.insert(Contact.builder()
+                                .email(email)
+                                .phoneNumber(phoneNumber)
+                                .linkedId(oldestPrimary.getId())
+                                .linkPrecedence(LinkPrecedence.SECONDARY)
+                                .createdAt(now)
+                                .updatedAt(now)
+                                .build())
+                        .map(Optional::of);
+            }
+
+            Outcome outcome = !demotedIds.isEmpty() ? Outcome.MERGED : !alreadyExists ? Outcome.CREATED_SECONDARY : Outcome.NO_OP;
+            Mono<Void> refresh = changedRoots.isEmpty()
+                    ? Mono.empty()
+                    : contactRepository.refreshClusters(changedRoots.toArray(Long[]::new));
+            return merge.then(publish).then(insert).flatMap(secondary -> refresh.then(Mono.fromCallable(() -> {
+                List<Contact> allRelated = cluster.stream()
+                        .filter(c -> c.getId().equals(oldestPrimary.getId()) || oldestPrimary.getId().equals(c.getLinkedId()))
+                        .collect(Collectors.toCollection(ArrayList::new));
+                secondary.ifPresent(allRelated::add);
+                return new Reconciliation(allRelated, changedRoots, outcome);
+            })));
+        });
+    }
+
+    // Lock the cluster's primaries and re-read it until no unlocked primary remains
+    private Mono<List<Contact>> lockClusterPrimaries(String email, String phoneNumber, List<Contact> cluster, Set<Long> locked) {
+        Set<Long> pending = ContactService.primaryIds(cluster);
+        pending.removeAll(locked);
+        if (pending.isEmpty()) {
+            return Mono.just(cluster);
+        }
+        locked.addAll(pending);
+        return lockKeys(Arrays.stream(lockManager.keysForContacts(pending)).boxed().toArray(Long[]::new))
+                .then(contactRepository.findClusterByEmailOrPhoneNumber(email, phoneNumber))
+                .flatMap(next -> lockClusterPrimaries(email, phoneNumber, next, locked));
+    }
+
+    // Always taken: advisory locks are the reactive path's only serialization
+    private Mono<Void> lockKeys(Long[] keys) {
+        return keys.length == 0 ? Mono.empty() : contactRepository.acquireAdvisoryLocks(keys);
+    }
+
+    private record Reconciliation(List<Contact> contacts, Set<Long> changedRoots, Outcome outcome) {
+    }
+}
@@ -0,0 +1,103 @@
+package com.bitespeed.identityreconciliation.sharding;
+
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+/**
+ * Tenant-to-shard routing. Every tenant (a storefront brand) has its own store: a schema named
+ * {@code tenant_<tenant>} in the database of its shard, with the same tables, sequence and indexes as the
+ * default store. Requests without a tenant use the default store (spring.datasource), as before sharding.
+ *
+ * {@link #route} binds the request's tenant to the thread for the whole reconciliation, so every
+ * connection it takes comes from that shard's pool, pointed at that tenant's schema, and no request ever
+ * reads another tenant's store. Tenants on the same shard share its pool and database but not a row,
+ * index entry or lock key, so adding shards spreads both the data and the write contention.
+ */
+@Component
+public class ShardRouter {
+
+    // Becomes part of a schema and a NOTIFY channel name
+    private static final Pattern TENANT = Pattern.compile("[a-z0-9_]{1,40}");
+
+    private final boolean enabled;
+    private final Map<String, String> shardByTenant;
+    private final List<String> tenants;
+
+    public ShardRouter(ShardingProperties properties) {
+        this.enabled = properties.enabled();
+        this.shardByTenant = enabled ? Map.copyOf(properties.tenants()) : Map.of();
+        shardByTenant.forEach((tenant, shard) -> {
+            if (!TENANT.matcher(tenant).matches()) {
+                throw new IllegalStateException("Tenant names must match " + TENANT + ": " + tenant);
+            }
+            if (!properties.shards().containsKey(shard)) {
+                throw new IllegalStateException("Tenant " + tenant + " is on shard " + shard +
+                        ", which is not in identity.sharding.shards");
+            }
+        });
+        this.tenants = shardByTenant.keySet().stream().sorted().toList();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public List<String> tenants() {
+        return tenants;
+    }
+
+    // Whether requests for this tenant can be routed; no (or a blank) tenant means the default store
+    public boolean isKnown(String tenant) {
+        return isDefault(tenant) || shardByTenant.containsKey(tenant);
+    }
+
+    // Shard of the tenant, or null for the default store
+    public String shardOf(String tenant) {
+        return tenant == null ? null : shardByTenant.get(tenant);
+    }
+
+    // Run the action against the tenant's store
+    public <T> T route(String tenant, Supplier<T> action) {
+        if (!isKnown(tenant)) {
+            throw new IllegalArgumentException("Unknown tenant: " + tenant);
+        }
+        return TenantContext.call(isDefault(tenant) ? null : tenant, action);
+    }
+
+    // route() for offline jobs (import, check), which throw checked exceptions
+    public <T> T routeJob(String tenant, Callable<T> job) throws Exception {
+        if (!isKnown(tenant)) {
+            throw new IllegalArgumentException("Unknown tenant: " + tenant);
+        }
+        return TenantContext.callJob(isDefault(tenant) ? null : tenant, job);
+    }
+
+    // Run the action once against every store, the default one first; background jobs use it to cover every
+    // tenant, and get the tenant (null for the default store) to report which one failed
+    public void forEachStore(Consumer<String> action) {
+        List<String> stores = new ArrayList<>(tenants.size() + 1);
+        stores.add(null);
+        stores.addAll(tenants);
+        for (String tenant : stores) {
+            TenantContext.run(tenant, () -> action.accept(tenant));
+        }
+    }
+
+    private static boolean isDefault(String tenant) {
+        return tenant == null || tenant.isBlank();
+    }
+
+    public static String schema(String tenant) {
+        return "tenant_" + tenant;
+    }
+
+    // How logs name a store
+    public static String describe(String tenant) {
+        return tenant == null ? "the default store" : "tenant " + tenant;
+    }
+}
@@ -0,0 +1,77 @@
+package com.bitespeed.identityreconciliation.sharding;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.postgresql.PGConnection;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.*;
+
+// Hands out connections of the current tenant's shard pool (the default store's without a tenant), with
+// search_path pointed at the tenant's schema, so JPA, JdbcTemplate and the repositories' SQL run unchanged
+// against whichever store is bound. An unknown shard never falls back to the default store.
+class ShardRoutingDataSource extends AbstractRoutingDataSource implements DisposableBean {
+
+    private final ShardRouter shardRouter;
+    private final List<HikariDataSource> pools = new ArrayList<>();
+    // Schema each shard connection was last pointed at, by physical connection, so a checkout only costs a
+    // SET when the connection last served another tenant
+    private final Map<PGConnection, String> schemas = Collections.synchronizedMap(new WeakHashMap<>());
+
+    ShardRoutingDataSource(ShardRouter shardRouter, HikariDataSource defaultStore, Map<String, HikariDataSource> shards) {
+        this.shardRouter = shardRouter;
+        setDefaultTargetDataSource(defaultStore);
+        setTargetDataSources(new HashMap<>(shards));
+        setLenientFallback(false);
+        pools.add(defaultStore);
+        pools.addAll(shards.values());
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        return shardRouter.shardOf(TenantContext.current());
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return inTenantSchema(super.getConnection());
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return inTenantSchema(super.getConnection(username, password));
+    }
+
+    private Connection inTenantSchema(Connection connection) throws SQLException {
+        String tenant = TenantContext.current();
+        if (tenant == null) {
+            return connection;
+        }
+        try {
+            String schema = ShardRouter.schema(tenant);
+            PGConnection physical = connection.unwrap(PGConnection.class);
+            if (!schema.equals(schemas.get(physical))) {
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("SET search_path TO " + schema);
+                }
+                // A SET inside a transaction that rolls back would be undone
+                if (!connection.getAutoCommit()) {
+                    connection.commit();
+                }
+                schemas.put(physical, schema);
+            }
+            return connection;
+        } catch (SQLException | RuntimeException e) {
+            connection.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public void destroy() {
+        pools.forEach(HikariDataSource::close);
+    }
+}
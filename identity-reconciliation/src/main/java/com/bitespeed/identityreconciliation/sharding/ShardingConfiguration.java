@@ -0,0 +1,85 @@
+package com.bitespeed.identityreconciliation.sharding;
+
+import com.zaxxer.hikari.HikariDataSource;
+import lombok.extern.slf4j.Slf4j;
+import org.flywaydb.core.Flyway;
+import org.flywaydb.core.api.callback.Callback;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+import javax.sql.DataSource;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+// With identity.sharding.enabled the application's DataSource routes by tenant: the default store's pool
+// (spring.datasource) plus one pool per shard. Boot's DataSource auto-configuration backs off for it.
+@Slf4j
+@Configuration(proxyBeanMethods = false)
+@EnableConfigurationProperties(ShardingProperties.class)
+public class ShardingConfiguration {
+
+    @Bean
+    @ConditionalOnProperty("identity.sharding.enabled")
+    public DataSource dataSource(DataSourceProperties properties, ShardingProperties sharding, ShardRouter shardRouter,
+                                Environment environment) {
+        // ReactiveContactService reaches Postgres over R2DBC, which only knows the default store
+        if ("reactive".equals(environment.getProperty("spring.main.web-application-type"))) {
+            throw new IllegalStateException("identity.sharding is not supported by the reactive profile");
+        }
+        Binder binder = Binder.get(environment);
+        HikariDataSource defaultStore = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+        binder.bind("spring.datasource.hikari", Bindable.ofInstance(defaultStore));
+
+        Map<String, HikariDataSource> shards = new LinkedHashMap<>();
+        sharding.shards().forEach((name, shard) -> {
+            HikariDataSource pool = properties.initializeDataSourceBuilder()
+                    .type(HikariDataSource.class)
+                    .url(shard.url())
+                    .username(shard.username() != null ? shard.username() : properties.determineUsername())
+                    .password(shard.password() != null ? shard.password() : properties.determinePassword())
+                    .build();
+            binder.bind("spring.datasource.hikari", Bindable.ofInstance(pool));
+            binder.bind("identity.sharding.shards." + name + ".hikari", Bindable.ofInstance(pool));
+            pool.setPoolName("shard-" + name);
+            shards.put(name, pool);
+        });
+        return new ShardRoutingDataSource(shardRouter, defaultStore, shards);
+    }
+
+    // Tenant schemas are migrated like the default store, by Flyway with the same configuration, once the
+    // default store is; they are created on the first start that lists their tenant
+    @Bean
+    @ConditionalOnProperty("identity.sharding.enabled")
+    public SmartInitializingSingleton tenantSchemaMigrations(ObjectProvider<Flyway> flyway, DataSource dataSource,
+                                                             ShardRouter shardRouter) {
+        return () -> flyway.ifAvailable(defaultStore -> {
+            Callback[] callbacks = Stream.concat(Arrays.stream(defaultStore.getConfiguration().getCallbacks()),
+                    Stream.of(new TenantSchemaCallback())).toArray(Callback[]::new);
+            for (String tenant : shardRouter.tenants()) {
+                String schema = ShardRouter.schema(tenant);
+                int applied = shardRouter.route(tenant, () -> Flyway.configure()
+                        .configuration(defaultStore.getConfiguration())
+                        .dataSource(dataSource)
+                        .schemas(schema)
+                        .defaultSchema(schema)
+                        .callbacks(callbacks)
+                        .load()
+                        .migrate()
+                        .migrationsExecuted);
+                if (applied > 0) {
+                    log.info("Applied {} migrations to {} on shard {}", applied, schema, shardRouter.shardOf(tenant));
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,24 @@
+package com.bitespeed.identityreconciliation.sharding;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.Map;
+
+// identity.sharding: the shard databases by name, and the shard each tenant lives on
+@ConfigurationProperties("identity.sharding")
+public record ShardingProperties(boolean enabled, Map<String, Shard> shards, Map<String, String> tenants) {
+
+    public ShardingProperties {
+        shards = shards != null ? shards : Map.of();
+        tenants = tenants != null ? tenants : Map.of();
+    }
+
+    public static ShardingProperties disabled() {
+        return new ShardingProperties(false, Map.of(), Map.of());
+    }
+
+    // Username and password default to spring.datasource's; pool settings are spring.datasource.hikari's,
+    // overridden by identity.sharding.shards.<name>.hikari
+    public record Shard(String url, String username, String password) {
+    }
+}
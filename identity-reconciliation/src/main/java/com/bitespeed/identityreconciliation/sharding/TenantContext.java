@@ -0,0 +1,63 @@
+package com.bitespeed.identityreconciliation.sharding;
+
+import java.util.concurrent.Callable;
+import java.util.function.Supplier;
+
+// The tenant whose store the current thread reads and writes; null is the default store. Bound by
+// ShardRouter.route, read by ShardRoutingDataSource and by everything keyed per tenant (cache, locks,
+// coalescing). Not inherited: work handed to other threads binds it again.
+public final class TenantContext {
+
+    private static final ThreadLocal<String> CURRENT = new ThreadLocal<>();
+
+    private TenantContext() {
+    }
+
+    public static String current() {
+        return CURRENT.get();
+    }
+
+    // Second key of the advisory locks held once per store (event dispatch, archiving), so tenants sharing a
+    // shard do not exclude each other: 0 for the default store. String.hashCode is the same on every node.
+    public static int lockKey() {
+        String tenant = CURRENT.get();
+        return tenant == null ? 0 : tenant.hashCode();
+    }
+
+    // Run the action with the tenant bound, restoring whatever was bound before
+    public static <T> T call(String tenant, Supplier<T> action) {
+        String previous = CURRENT.get();
+        CURRENT.set(tenant);
+        try {
+            return action.get();
+        } finally {
+            restore(previous);
+        }
+    }
+
+    // call() for jobs that throw checked exceptions
+    public static <T> T callJob(String tenant, Callable<T> job) throws Exception {
+        String previous = CURRENT.get();
+        CURRENT.set(tenant);
+        try {
+            return job.call();
+        } finally {
+            restore(previous);
+        }
+    }
+
+    public static void run(String tenant, Runnable action) {
+        call(tenant, () -> {
+            action.run();
+            return null;
+        });
+    }
+
+    private static void restore(String previous) {
+        if (previous == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(previous);
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.bitespeed.identityreconciliation.sharding;
+
+import org.flywaydb.core.api.MigrationVersion;
+import org.flywaydb.core.api.callback.Callback;
+import org.flywaydb.core.api.callback.Context;
+import org.flywaydb.core.api.callback.Event;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+
+// V2 looks its foreign key up in pg_constraint by name alone, which sees the constraint of every tenant schema
+// already migrated on the same shard and then skips adding its own. Before V2 runs in a tenant schema, this adds
+// the column and constraint the way V2 does, so V2's lookup finds the schema's own. V2 itself is left as it is:
+// editing it would change its checksum on every default store already migrated.
+class TenantSchemaCallback implements Callback {
+
+    private static final MigrationVersion V2 = MigrationVersion.fromVersion("2");
+
+    @Override
+    public boolean supports(Event event, Context context) {
+        return event == Event.BEFORE_EACH_MIGRATE && V2.equals(context.getMigrationInfo().getVersion());
+    }
+
+    @Override
+    public boolean canHandleInTransaction(Event event, Context context) {
+        return true;
+    }
+
+    @Override
+    public void handle(Event event, Context context) {
+        try (Statement statement = context.getConnection().createStatement()) {
+            statement.execute("ALTER TABLE contact ADD COLUMN IF NOT EXISTS linked_contact_id BIGINT");
+            statement.execute("""
+                    DO $$
+                    BEGIN
+                        IF NOT EXISTS (SELECT 1 FROM pg_constraint
+                                       WHERE conname = 'fk_contact_linked_contact' AND conrelid = 'contact'::regclass) THEN
+                            ALTER TABLE contact ADD CONSTRAINT fk_contact_linked_contact
+                                FOREIGN KEY (linked_contact_id) REFERENCES contact (id) NOT VALID;
+                        END IF;
+                    END $$""");
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not prepare V2 in a tenant schema", e);
+        }
+    }
+
+    @Override
+    public String getCallbackName() {
+        return "tenant-schema-v2";
+    }
+}
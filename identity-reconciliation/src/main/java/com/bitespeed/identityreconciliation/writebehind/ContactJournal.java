@@ -0,0 +1,163 @@
+package com.bitespeed.identityreconciliation.writebehind;
+
+import com.bitespeed.identityreconciliation.model.Contact;
+import com.bitespeed.identityreconciliation.model.LinkPrecedence;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+// Append-only journal of buffered secondaries: one JSON line per contact. Lines go to numbered segment
+// files; a flush rotates to a new segment and deletes the closed ones once their contacts are committed.
+// append() and rotate() are serialized by the buffer; sync() is called outside its lock and does group
+// commit: one force covers every line written before it started, so appenders waiting on it share it.
+class ContactJournal implements Closeable {
+
+    private static final String PREFIX = "contacts-";
+    private static final String SUFFIX = ".journal";
+
+    private final Path directory;
+    private final ObjectMapper objectMapper;
+    // Held while forcing or closing a segment
+    private final ReentrantLock syncLock = new ReentrantLock();
+    private FileChannel segment;
+    private long segmentNumber;
+    // Lines written so far, and lines known to be on disk
+    private volatile long written;
+    private volatile long durable;
+
+    ContactJournal(Path directory, ObjectMapper objectMapper) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.objectMapper = objectMapper;
+        this.segmentNumber = segments().stream().mapToLong(ContactJournal::number).max().orElse(0) + 1;
+        this.segment = open(segmentNumber);
+    }
+
+    // Writes the contact's line without forcing it; returns its position, to pass to sync()
+    long append(Contact contact) throws IOException {
+        byte[] line = (objectMapper.writeValueAsString(Entry.of(contact)) + "\n").getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.wrap(line);
+        while (buffer.hasRemaining()) {
+            segment.write(buffer);
+        }
+        return ++written;
+    }
+
+    // Returns once the line at this position is on disk. Whoever gets the lock first forces every line
+    // written so far; the appenders queued behind it find their lines covered and return without forcing.
+    void sync(long position) throws IOException {
+        if (durable >= position) {
+            return;
+        }
+        syncLock.lock();
+        try {
+            if (durable < position) {
+                long upTo = written;
+                segment.force(false);
+                durable = upTo;
+            }
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    // Start a new segment; returns every closed segment, whose contacts are all still pending or flushed.
+    // The closed segment is forced first, since appenders still waiting in sync() only force the new one.
+    List<Path> rotate() throws IOException {
+        syncLock.lock();
+        try {
+            long upTo = written;
+            segment.force(false);
+            durable = upTo;
+            segment.close();
+            segment = open(++segmentNumber);
+        } finally {
+            syncLock.unlock();
+        }
+        return segments().stream().filter(path -> number(path) < segmentNumber).toList();
+    }
+
+    static void delete(List<Path> segments) throws IOException {
+        for (Path path : segments) {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    // Contacts of the closed segments in append order. A torn last line is a crash mid-append,
+    // before its request was answered, so it is dropped.
+    List<Contact> readClosed(List<Path> segments) throws IOException {
+        List<Contact> contacts = new ArrayList<>();
+        for (Path path : segments) {
+            try (BufferedReader reader = Files.newBufferedReader(path)) {
+                for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                    try {
+                        contacts.add(objectMapper.readValue(line, Entry.class).toContact());
+                    } catch (JsonProcessingException e) {
+                        break;
+                    }
+                }
+            }
+        }
+        return contacts;
+    }
+
+    @Override
+    public void close() throws IOException {
+        segment.close();
+    }
+
+    private FileChannel open(long number) throws IOException {
+        return FileChannel.open(directory.resolve(PREFIX + number + SUFFIX),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> path.getFileName().toString().startsWith(PREFIX)
+                            && path.getFileName().toString().endsWith(SUFFIX))
+                    .sorted((a, b) -> Long.compare(number(a), number(b)))
+                    .toList();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static long number(Path path) {
+        String name = path.getFileName().toString();
+        return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+    }
+
+    record Entry(long id, String email, String phoneNumber, long linkedId, LocalDateTime createdAt) {
+
+        static Entry of(Contact contact) {
+            return new Entry(contact.getId(), contact.getEmail(), contact.getPhoneNumber(), contact.getLinkedId(),
+                    contact.getCreatedAt());
+        }
+
+        Contact toContact() {
+            return Contact.builder()
+                    .id(id)
+                    .email(email)
+                    .phoneNumber(phoneNumber)
+                    .linkedId(linkedId)
+                    .linkPrecedence(LinkPrecedence.SECONDARY)
+                    .createdAt(createdAt)
+                    .updatedAt(createdAt)
+                    .build();
+        }
+    }
+}
@@ -0,0 +1,324 @@
+package com.bitespeed.identityreconciliation.writebehind;
+
+import com.bitespeed.identityreconciliation.cache.IdentityGraphCache;
+import com.bitespeed.identityreconciliation.events.ContactEventOutbox;
+import com.bitespeed.identityreconciliation.model.Contact;
+import com.bitespeed.identityreconciliation.repository.ContactBatchRepository;
+import com.bitespeed.identityreconciliation.repository.ContactClusterRepository;
+import com.bitespeed.identityreconciliation.service.IdentityLockManager;
+import com.bitespeed.identityreconciliation.sharding.TenantContext;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Optional write-behind for the most common identify write, a new secondary on an existing cluster.
+ * Instead of inserting it in the request's transaction, identify takes an id from a pooled block of
+ * the contact sequence, journals the contact to local disk and answers; the buffer inserts pending
+ * contacts with one JDBC batch per flush (every {@code identity.write-behind.flush-interval}, or as
+ * soon as {@code max-pending} are waiting).
+ *
+ * Until flushed, pending contacts are part of their cluster for every identify on this node (the
+ * cluster read overlays them), so a repeat never inserts a duplicate. A flush repoints contacts
+ * whose primary was merged away meanwhile, then refreshes the lookup projection and the other
+ * nodes' caches for their clusters; GET /identify and other nodes see them only from then on, so
+ * the mode is meant for a single writer node.
+ *
+ * Durability: a contact is forced to the journal before its request is answered; appends waiting at
+ * the same time share one force. Other identifies on this node see a contact as soon as it is
+ * written, possibly just before that force completes. Journal segments are deleted only after the
+ * flush that inserted them commits, and on startup any left over are replayed (inserts skip ids
+ * already present), so a crash loses nothing that was acknowledged.
+ */
+@Slf4j
+@Component
+public class WriteBehindBuffer {
+
+    private final ContactBatchRepository contactBatchRepository;
+    private final ContactClusterRepository contactClusterRepository;
+    private final IdentityLockManager lockManager;
+    private final IdentityGraphCache identityGraphCache;
+    private final ContactEventOutbox eventOutbox;
+    private final TransactionTemplate transactionTemplate;
+    private final ObjectMapper objectMapper;
+    private final boolean enabled;
+    private final Path journalDirectory;
+    private final Duration flushInterval;
+    private final int maxPending;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    // One flush at a time; appends continue while a flush writes
+    private final ReentrantLock flushLock = new ReentrantLock();
+    // Pending contacts by id, in append order, and indexed the ways identify reads them
+    private final LinkedHashMap<Long, Contact> pending = new LinkedHashMap<>();
+    private final Map<String, List<Contact>> byEmail = new HashMap<>();
+    private final Map<String, List<Contact>> byPhoneNumber = new HashMap<>();
+    private final Map<Long, List<Contact>> byLinkedId = new HashMap<>();
+    private long nextId;
+    private long blockEnd = -1;
+    // Bumped by every flush between its commit and removing its contacts, see flushes()
+    private volatile long flushes;
+
+    private ContactJournal journal;
+    private ScheduledExecutorService flusher;
+
+    public WriteBehindBuffer(ContactBatchRepository contactBatchRepository,
+                             ContactClusterRepository contactClusterRepository,
+                             IdentityLockManager lockManager,
+                             IdentityGraphCache identityGraphCache,
+                             ContactEventOutbox eventOutbox,
+                             TransactionTemplate transactionTemplate,
+                             ObjectMapper objectMapper,
+                             MeterRegistry meterRegistry,
+                             @Value("${identity.write-behind.enabled:false}") boolean enabled,
+                             @Value("${identity.write-behind.journal-dir:write-behind}") Path journalDirectory,
+                             @Value("${identity.write-behind.flush-interval:100ms}") Duration flushInterval,
+                             @Value("${identity.write-behind.max-pending:1000}") int maxPending) {
+        this.contactBatchRepository = contactBatchRepository;
+        this.contactClusterRepository = contactClusterRepository;
+        this.lockManager = lockManager;
+        this.identityGraphCache = identityGraphCache;
+        this.eventOutbox = eventOutbox;
+        this.transactionTemplate = transactionTemplate;
+        this.objectMapper = objectMapper;
+        this.enabled = enabled;
+        this.journalDirectory = journalDirectory;
+        this.flushInterval = flushInterval;
+        this.maxPending = maxPending;
+        if (enabled) {
+            Gauge.builder("identify.write-behind.pending", this, WriteBehindBuffer::pendingCount)
+                    .description("Secondary contacts journaled but not yet inserted")
+                    .baseUnit("contacts")
+                    .register(meterRegistry);
+        }
+    }
+
+    // Buffers the default store's writes only: tenant stores (identity.sharding) are written through
+    public boolean isEnabled() {
+        return enabled && TenantContext.current() == null;
+    }
+
+    // Replay whatever a previous process journaled but did not flush, then start flushing
+    @PostConstruct
+    public void start() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        journal = new ContactJournal(journalDirectory, objectMapper);
+        List<Path> leftOver = journal.rotate();
+        List<Contact> recovered = journal.readClosed(leftOver);
+        if (!recovered.isEmpty()) {
+            write(recovered);
+            log.info("Write-behind: recovered {} journaled contacts from {}", recovered.size(), journalDirectory);
+        }
+        ContactJournal.delete(leftOver);
+
+        flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "write-behind-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flushQuietly, flushInterval.toMillis(), flushInterval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() throws IOException {
+        if (flusher != null) {
+            flusher.shutdown();
+            flush();
+            journal.close();
+        }
+    }
+
+    // Id for a contact that will be appended; taken from a block of the pooled contact sequence.
+    // Runs inside the request's transaction; ids of a rolled back request are simply skipped.
+    public long nextId() {
+        lock.lock();
+        try {
+            if (nextId > blockEnd) {
+                List<Long> block = contactBatchRepository.reserveIds(Contact.ID_BLOCK_SIZE);
+                nextId = block.get(0);
+                blockEnd = block.get(block.size() - 1);
+            }
+            return nextId++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Journal a committed request's new secondary; it is durable when this returns. The line is written
+    // under the lock and forced after it, so concurrent appends share one force (group commit)
+    public void append(Contact contact) {
+        int size;
+        long position;
+        lock.lock();
+        try {
+            position = journal.append(contact);
+            Contact stored = copy(contact);
+            pending.put(stored.getId(), stored);
+            index(byEmail, stored.getEmail(), stored);
+            index(byPhoneNumber, stored.getPhoneNumber(), stored);
+            index(byLinkedId, stored.getLinkedId(), stored);
+            size = pending.size();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not journal contact " + contact.getId(), e);
+        } finally {
+            lock.unlock();
+        }
+        try {
+            journal.sync(position);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not journal contact " + contact.getId(), e);
+        }
+        if (size >= maxPending) {
+            flusher.execute(this::flushQuietly);
+        }
+    }
+
+    // Copies of the pending contacts carrying the email or phone number
+    public List<Contact> pendingMatching(String email, String phoneNumber) {
+        if (!isEnabled()) {
+            return List.of();
+        }
+        lock.lock();
+        try {
+            List<Contact> matches = new ArrayList<>();
+            byEmail.getOrDefault(email, List.of()).forEach(c -> matches.add(copy(c)));
+            byPhoneNumber.getOrDefault(phoneNumber, List.of()).forEach(c -> matches.add(copy(c)));
+            return matches;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Copies of the pending contacts linked to any of these contacts
+    public List<Contact> pendingLinkedTo(Collection<Long> contactIds) {
+        if (!isEnabled()) {
+            return List.of();
+        }
+        lock.lock();
+        try {
+            List<Contact> linked = new ArrayList<>();
+            for (Long id : contactIds) {
+                byLinkedId.getOrDefault(id, List.of()).forEach(c -> linked.add(copy(c)));
+            }
+            return linked;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Insert everything pending so far; contacts leave the buffer only once their insert committed
+    public void flush() {
+        flushLock.lock();
+        try {
+            List<Contact> batch;
+            List<Path> segments;
+            lock.lock();
+            try {
+                if (pending.isEmpty()) {
+                    return;
+                }
+                batch = new ArrayList<>(pending.values());
+                segments = journal.rotate();
+            } finally {
+                lock.unlock();
+            }
+
+            write(batch);
+
+            lock.lock();
+            try {
+                flushes++;
+                for (Contact contact : batch) {
+                    pending.remove(contact.getId());
+                    unindex(byEmail, contact.getEmail(), contact);
+                    unindex(byPhoneNumber, contact.getPhoneNumber(), contact);
+                    unindex(byLinkedId, contact.getLinkedId(), contact);
+                }
+            } finally {
+                lock.unlock();
+            }
+            ContactJournal.delete(segments);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not rotate the write-behind journal in " + journalDirectory, e);
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    // A reader that saw the same count before querying the database and after reading the buffer
+    // saw every pending contact in one of the two: a flush it missed in the buffer committed earlier
+    public long flushes() {
+        return flushes;
+    }
+
+    public int pendingCount() {
+        lock.lock();
+        try {
+            return pending.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // A failed flush keeps its contacts and segments, so the next one retries them
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (Exception e) {
+            log.warn("Write-behind flush of {} contacts failed, retrying on the next one", pendingCount(), e);
+        }
+    }
+
+    // One transaction: lock the primaries like a merge does, insert, repoint contacts whose primary
+    // was demoted since, then refresh the clusters for lookups and other nodes' caches. Their events
+    // name the primary they ended up with; a replayed journal may record a contact's event twice.
+    private void write(List<Contact> contacts) {
+        Long[] ids = contacts.stream().map(Contact::getId).toArray(Long[]::new);
+        transactionTemplate.executeWithoutResult(status -> {
+            lockManager.lockContacts(contacts.stream().map(Contact::getLinkedId).distinct().toList());
+            contactBatchRepository.insertMissing(contacts);
+            List<Long> roots = contactBatchRepository.relinkToPrimaries(ids);
+            contactClusterRepository.refresh(roots.toArray(Long[]::new));
+            identityGraphCache.publishInvalidation(roots);
+            eventOutbox.recordSecondariesAdded(ids);
+        });
+    }
+
+    private static <K> void index(Map<K, List<Contact>> index, K key, Contact contact) {
+        if (key != null) {
+            index.computeIfAbsent(key, k -> new ArrayList<>(1)).add(contact);
+        }
+    }
+
+    private static <K> void unindex(Map<K, List<Contact>> index, K key, Contact contact) {
+        List<Contact> contacts = key != null ? index.get(key) : null;
+        if (contacts != null) {
+            contacts.remove(contact);
+            if (contacts.isEmpty()) {
+                index.remove(key);
+            }
+        }
+    }
+
+    private static Contact copy(Contact contact) {
+        return contact.toBuilder().build();
+    }
+}
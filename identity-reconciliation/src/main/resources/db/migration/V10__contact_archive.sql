@@ -0,0 +1,19 @@
+-- Soft-deleted contacts, and the contacts of soft-deleted primaries, moved out of contact by ContactArchiver.
+-- Range-partitioned by the month they were archived in; the archiver creates the partitions it writes to, so a
+-- month can be dropped or detached as a whole instead of deleting rows. Runs outside a transaction (see the
+-- .conf file) so the index below can be built CONCURRENTLY.
+CREATE TABLE IF NOT EXISTS contact_archive (
+    id                BIGINT NOT NULL,
+    phone_number      VARCHAR(255),
+    email             VARCHAR(255),
+    linked_contact_id BIGINT,
+    link_precedence   VARCHAR(255) CHECK (link_precedence IN ('PRIMARY', 'SECONDARY')),
+    created_at        TIMESTAMP(6),
+    updated_at        TIMESTAMP(6),
+    deleted_at        TIMESTAMP(6),
+    archived_at       TIMESTAMP(6) NOT NULL,
+    PRIMARY KEY (id, archived_at)
+) PARTITION BY RANGE (archived_at);
+
+-- The soft-deleted contacts, so the archiver finds them (and the orphans linked to them) without a scan
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_contact_deleted_at ON contact (id) WHERE deleted_at IS NOT NULL;
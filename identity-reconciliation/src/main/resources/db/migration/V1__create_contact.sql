@@ -0,0 +1,12 @@
+-- Original contact schema, as previously generated by Hibernate (ddl-auto=update).
+-- Existing databases are baselined at this version and skip it.
+CREATE TABLE IF NOT EXISTS contact (
+    id              BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    phone_number    VARCHAR(255),
+    email           VARCHAR(255),
+    linked_id       VARCHAR(255),
+    link_precedence VARCHAR(255) CHECK (link_precedence IN ('PRIMARY', 'SECONDARY')),
+    created_at      TIMESTAMP(6),
+    updated_at      TIMESTAMP(6),
+    deleted_at      TIMESTAMP(6)
+);
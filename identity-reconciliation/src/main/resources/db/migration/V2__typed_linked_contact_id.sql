@@ -0,0 +1,44 @@
+-- Replace the VARCHAR linked_id with a typed, indexed BIGINT link column.
+-- Runs outside a transaction (see the .conf file) so the backfill can commit per batch
+-- and the indexes can be built CONCURRENTLY without blocking writers.
+
+-- 1. Expand: nullable column add is a catalog-only change.
+ALTER TABLE contact ADD COLUMN IF NOT EXISTS linked_contact_id BIGINT;
+
+-- 2. Backfill from the legacy column in id-range batches, committing after each one
+--    so row locks are short-lived and no single transaction touches the whole table.
+DO $$
+DECLARE
+    batch_size CONSTANT BIGINT := 10000;
+    batch_start BIGINT;
+    max_id BIGINT;
+BEGIN
+    SELECT COALESCE(MIN(id), 0), COALESCE(MAX(id), -1) INTO batch_start, max_id FROM contact;
+    WHILE batch_start <= max_id LOOP
+        UPDATE contact
+           SET linked_contact_id = CAST(linked_id AS BIGINT)
+         WHERE id >= batch_start AND id < batch_start + batch_size
+           AND linked_id IS NOT NULL
+           AND linked_contact_id IS NULL;
+        COMMIT;
+        batch_start := batch_start + batch_size;
+    END LOOP;
+END $$;
+
+-- 3. Indexes for the identify path: match by email / phone, cluster fetch by link.
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_contact_email ON contact (email);
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_contact_phone_number ON contact (phone_number);
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_contact_linked_contact_id ON contact (linked_contact_id);
+
+-- 4. Foreign key, added NOT VALID (no scan) and validated separately (no write lock).
+DO $$
+BEGIN
+    IF NOT EXISTS (SELECT 1 FROM pg_constraint WHERE conname = 'fk_contact_linked_contact') THEN
+        ALTER TABLE contact ADD CONSTRAINT fk_contact_linked_contact
+            FOREIGN KEY (linked_contact_id) REFERENCES contact (id) NOT VALID;
+    END IF;
+END $$;
+ALTER TABLE contact VALIDATE CONSTRAINT fk_contact_linked_contact;
+
+-- The legacy linked_id column is no longer read or written by the application and
+-- can be dropped in a later release once no old instances remain.
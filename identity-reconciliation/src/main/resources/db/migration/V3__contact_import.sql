@@ -0,0 +1,15 @@
+-- Checkpoints of bulk contact imports, so an interrupted import resumes after its last committed chunk
+CREATE TABLE IF NOT EXISTS contact_import (
+    id                BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    file_name         VARCHAR(1024),
+    file_size         BIGINT,
+    status            VARCHAR(255) CHECK (status IN ('COPYING', 'RELINKING', 'DONE')),
+    id_base           BIGINT,
+    rows_read         BIGINT,
+    rows_to_import    BIGINT,
+    rows_written      BIGINT,
+    contacts_relinked BIGINT,
+    started_at        TIMESTAMP(6),
+    updated_at        TIMESTAMP(6),
+    CONSTRAINT uq_contact_import_file UNIQUE (file_name, file_size)
+);
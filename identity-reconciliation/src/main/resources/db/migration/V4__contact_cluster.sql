@@ -0,0 +1,36 @@
+-- Denormalized read model for GET /identify: one row per cluster, maintained by every identify write.
+-- Lookups by email or phone are a GIN probe on the identifier arrays.
+CREATE TABLE IF NOT EXISTS contact_cluster (
+    primary_contact_id    BIGINT PRIMARY KEY,
+    emails                VARCHAR(255)[] NOT NULL,
+    phone_numbers         VARCHAR(255)[] NOT NULL,
+    secondary_contact_ids BIGINT[] NOT NULL,
+    updated_at            TIMESTAMP(6)
+);
+
+-- Backfill from the existing contacts (same statement as ContactClusterRepository.rebuildAll).
+-- Clusters written by nodes still on the previous version are refreshed on their next identify write.
+WITH members AS (
+    SELECT COALESCE(c.linked_contact_id, c.id) AS root, c.id, c.email, c.phone_number, c.link_precedence,
+           CASE WHEN c.linked_contact_id IS NULL THEN 0 ELSE 1 END AS primary_rank
+      FROM contact c
+     WHERE c.link_precedence = 'PRIMARY' OR c.linked_contact_id IS NOT NULL
+)
+INSERT INTO contact_cluster (primary_contact_id, emails, phone_numbers, secondary_contact_ids, updated_at)
+SELECT r.root, COALESCE(e.emails, '{}'), COALESCE(p.phone_numbers, '{}'), COALESCE(s.ids, '{}'), LOCALTIMESTAMP
+  FROM (SELECT root FROM members WHERE primary_rank = 0) r
+  LEFT JOIN (SELECT root, array_agg(email ORDER BY primary_rank, first_id) AS emails
+               FROM (SELECT root, email, min(primary_rank) AS primary_rank, min(id) AS first_id
+                       FROM members WHERE email IS NOT NULL GROUP BY root, email) x
+              GROUP BY root) e ON e.root = r.root
+  LEFT JOIN (SELECT root, array_agg(phone_number ORDER BY primary_rank, first_id) AS phone_numbers
+               FROM (SELECT root, phone_number, min(primary_rank) AS primary_rank, min(id) AS first_id
+                       FROM members WHERE phone_number IS NOT NULL GROUP BY root, phone_number) x
+              GROUP BY root) p ON p.root = r.root
+  LEFT JOIN (SELECT root, array_agg(id ORDER BY id) AS ids
+               FROM members WHERE link_precedence = 'SECONDARY' GROUP BY root) s ON s.root = r.root
+ON CONFLICT (primary_contact_id) DO NOTHING;
+
+-- Built after the backfill, which is faster than maintaining them row by row
+CREATE INDEX IF NOT EXISTS idx_contact_cluster_emails ON contact_cluster USING GIN (emails);
+CREATE INDEX IF NOT EXISTS idx_contact_cluster_phone_numbers ON contact_cluster USING GIN (phone_numbers);
@@ -0,0 +1,20 @@
+-- Contact ids move from one IDENTITY value per insert to a pooled-lo sequence: the application takes
+-- one nextval per block of 50 ids (Contact.ID_BLOCK_SIZE) and assigns them in memory, so inserts can
+-- be batched. The IDENTITY column's internal sequence is replaced by a standalone contact_id_seq, owned
+-- by the column, with the same name: Hibernate's schema validation (ddl-auto=validate in the prod profile)
+-- only sees standalone sequences, and so does ddl-auto=update, which otherwise tries to create it.
+-- The column default keeps writers that insert without an id working; each of those uses the first id
+-- of a block and leaves the rest unused, so the two never collide.
+DO $$
+DECLARE
+    next_id BIGINT;
+BEGIN
+    -- Waits for open transactions holding ids from the sequence and keeps new ones out until commit
+    ALTER SEQUENCE contact_id_seq INCREMENT BY 50;
+    -- The first block starts after every id handed out so far, whether or not it was inserted yet
+    SELECT GREATEST(s.last_value + 1, (SELECT COALESCE(MAX(id), 0) + 1 FROM contact)) INTO next_id FROM contact_id_seq s;
+
+    ALTER TABLE contact ALTER COLUMN id DROP IDENTITY;
+    EXECUTE format('CREATE SEQUENCE contact_id_seq START WITH %s INCREMENT BY 50 OWNED BY contact.id', next_id);
+    ALTER TABLE contact ALTER COLUMN id SET DEFAULT nextval('contact_id_seq');
+END $$;
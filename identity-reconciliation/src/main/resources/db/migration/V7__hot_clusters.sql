@@ -0,0 +1,21 @@
+-- Bounded summaries of hot clusters (thousands of contacts sharing a landline or a test email). Identify
+-- reconciles those from this row instead of loading the cluster: the first entries of each response list,
+-- in response order, with the full counts. Their contact_cluster row is rebuilt in the background
+-- (projection_stale) rather than on every write. Runs outside a transaction (see the .conf file) so the
+-- index below can be built CONCURRENTLY.
+CREATE TABLE IF NOT EXISTS hot_cluster (
+    primary_contact_id    BIGINT PRIMARY KEY,
+    emails                VARCHAR(255)[] NOT NULL,
+    phone_numbers         VARCHAR(255)[] NOT NULL,
+    secondary_contact_ids BIGINT[] NOT NULL,
+    email_count           INTEGER NOT NULL,
+    phone_number_count    INTEGER NOT NULL,
+    member_count          INTEGER NOT NULL,
+    projection_stale      BOOLEAN NOT NULL DEFAULT FALSE,
+    updated_at            TIMESTAMP(6)
+);
+
+-- Secondaries of a primary in id order, for paging them without sorting the whole cluster; it also serves
+-- every lookup the single-column index did.
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_contact_linked_contact_id_id ON contact (linked_contact_id, id);
+DROP INDEX CONCURRENTLY IF EXISTS idx_contact_linked_contact_id;
@@ -0,0 +1,13 @@
+-- Transactional outbox of cluster changes (new primaries, new secondaries, merges) for downstream systems.
+-- Identify writes a row in the transaction that makes the change; ContactEventDispatcher publishes rows in id
+-- order and deletes them, so the table only holds what has not been dispatched yet.
+CREATE TABLE IF NOT EXISTS contact_event (
+    id                 BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    type               VARCHAR(255) NOT NULL CHECK (type IN ('PRIMARY_CREATED', 'SECONDARY_ADDED', 'PRIMARIES_MERGED')),
+    primary_contact_id BIGINT NOT NULL,
+    contact_id         BIGINT,
+    merged_contact_ids BIGINT[],
+    email              VARCHAR(255),
+    phone_number       VARCHAR(255),
+    created_at         TIMESTAMP(6)
+);
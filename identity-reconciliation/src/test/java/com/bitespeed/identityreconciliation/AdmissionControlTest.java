@@ -0,0 +1,99 @@
+package com.bitespeed.identityreconciliation;
+
+import com.bitespeed.identityreconciliation.admission.AdmissionLimiter;
+import com.bitespeed.identityreconciliation.admission.AdmissionLimiter.Permit;
+import com.bitespeed.identityreconciliation.admission.AdmissionLimiter.Priority;
+import com.bitespeed.identityreconciliation.admission.AdmissionLimiters;
+import com.bitespeed.identityreconciliation.cache.IdentityGraphCache;
+import com.bitespeed.identityreconciliation.repository.ContactClusterRepository;
+import com.bitespeed.identityreconciliation.repository.ContactRepository;
+import com.bitespeed.identityreconciliation.service.ContactService;
+import org.junit.jupiter.api.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.context.WebApplicationContext;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+// Admission control at the endpoints, with the identity graph cache on so repeats can bypass it. Shares
+// IdentityGraphCacheTest's context, so MockMvc is built by hand instead of with @AutoConfigureMockMvc.
+@SpringBootTest(properties = "identity.cache.enabled=true")
+public class AdmissionControlTest {
+
+    @Autowired
+    private WebApplicationContext webApplicationContext;
+
+    @Autowired
+    private AdmissionLimiters admissionLimiters;
+
+    @Autowired
+    private ContactService contactService;
+
+    @Autowired
+    private IdentityGraphCache identityGraphCache;
+
+    @Autowired
+    private ContactRepository contactRepository;
+
+    @Autowired
+    private ContactClusterRepository contactClusterRepository;
+
+    private MockMvc mockMvc;
+
+    @BeforeEach
+    void setUpMockMvc() {
+        mockMvc = MockMvcBuilders.webAppContextSetup(webApplicationContext).build();
+    }
+
+    @BeforeEach
+    @AfterEach
+    void cleanDatabase() {
+        contactRepository.deleteAllInBatch();
+        contactClusterRepository.deleteAllInBatch();
+        identityGraphCache.invalidateAll();
+    }
+
+    @Test
+    void testCachedRepeatsAreAdmittedWhenOverloaded() throws Exception {
+        contactService.identifyOrLinkContact("doc@future.com", "9999999999");
+        AdmissionLimiter admissionLimiter = admissionLimiters.forTenant(null);
+        List<Permit> held = new ArrayList<>();
+        try {
+            for (Permit permit = admissionLimiter.tryAcquire(Priority.READ); permit != null;
+                 permit = admissionLimiter.tryAcquire(Priority.READ)) {
+                held.add(permit);
+            }
+            mockMvc.perform(post("/identify").contentType(MediaType.APPLICATION_JSON)
+                            .content("{\"email\": \"doc@future.com\", \"phoneNumber\": \"9999999999\"}"))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$.contact.phoneNumbers[0]").value("9999999999"));
+            // Anything that needs the database is shed
+            mockMvc.perform(post("/identify").contentType(MediaType.APPLICATION_JSON)
+                            .content("{\"email\": \"doc@future.com\", \"phoneNumber\": \"8888888888\"}"))
+                    .andExpect(status().isTooManyRequests())
+                    .andExpect(header().string(HttpHeaders.RETRY_AFTER, "1"))
+                    .andExpect(jsonPath("$.error").value("Too many requests, retry later."));
+            mockMvc.perform(get("/identify").param("email", "doc@future.com"))
+                    .andExpect(status().isTooManyRequests());
+            // Once the cached cluster is gone the same repeat needs the database too
+            identityGraphCache.invalidateAll();
+            mockMvc.perform(post("/identify").contentType(MediaType.APPLICATION_JSON)
+                            .content("{\"email\": \"doc@future.com\", \"phoneNumber\": \"9999999999\"}"))
+                    .andExpect(status().isTooManyRequests());
+        } finally {
+            held.forEach(permit -> permit.release(true));
+        }
+        mockMvc.perform(post("/identify").contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"email\": \"doc@future.com\", \"phoneNumber\": \"8888888888\"}"))
+                .andExpect(status().isOk());
+    }
+}
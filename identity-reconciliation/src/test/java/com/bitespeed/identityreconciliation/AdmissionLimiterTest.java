@@ -0,0 +1,129 @@
+package com.bitespeed.identityreconciliation;
+
+import com.bitespeed.identityreconciliation.admission.AdmissionLimiter;
+import com.bitespeed.identityreconciliation.admission.AdmissionLimiter.Permit;
+import com.bitespeed.identityreconciliation.admission.AdmissionLimiter.Priority;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+public class AdmissionLimiterTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private AdmissionLimiter limiter(int initialLimit, int minLimit, int maxLimit, double writeShare) {
+        return new AdmissionLimiter(meterRegistry, "default", true, initialLimit, minLimit, maxLimit, writeShare, 2.0, Duration.ofSeconds(1));
+    }
+
+    private double rejected(String priority) {
+        return meterRegistry.get("identify.admission.rejected").tag("priority", priority).counter().count();
+    }
+
+    private static List<Permit> acquire(AdmissionLimiter limiter, Priority priority, int permits) {
+        List<Permit> acquired = new ArrayList<>();
+        for (int i = 0; i < permits; i++) {
+            Permit permit = limiter.tryAcquire(priority);
+            Assertions.assertNotNull(permit, "Permit " + i + " rejected");
+            acquired.add(permit);
+        }
+        return acquired;
+    }
+
+    // Runs rounds of calls that keep the limiter busy and each take about the given latency
+    private static void load(AdmissionLimiter limiter, int rounds, long latencyMillis) throws InterruptedException {
+        for (int round = 0; round < rounds; round++) {
+            List<Permit> permits = acquire(limiter, Priority.READ, limiter.getLimit());
+            Thread.sleep(latencyMillis);
+            permits.forEach(permit -> permit.release(true));
+        }
+    }
+
+    @Test
+    void testWritesAreShedBeforeReads() {
+        AdmissionLimiter limiter = limiter(10, 10, 10, 0.5);
+
+        List<Permit> writes = acquire(limiter, Priority.WRITE, 5);
+        Assertions.assertNull(limiter.tryAcquire(Priority.WRITE));
+        List<Permit> reads = acquire(limiter, Priority.READ, 5);
+        Assertions.assertNull(limiter.tryAcquire(Priority.READ));
+        Assertions.assertEquals(10, limiter.getInFlight());
+        Assertions.assertEquals(1, rejected("write"));
+        Assertions.assertEquals(1, rejected("read"));
+
+        // A finished call frees room for a read; writes wait until the calls in flight are back under their share
+        writes.get(0).release(true);
+        Assertions.assertNull(limiter.tryAcquire(Priority.WRITE));
+        Permit read = limiter.tryAcquire(Priority.READ);
+        Assertions.assertNotNull(read);
+
+        read.release(true);
+        reads.forEach(permit -> permit.release(true));
+        Assertions.assertNotNull(limiter.tryAcquire(Priority.WRITE));
+        Assertions.assertEquals(5, meterRegistry.get("identify.admission.in-flight").gauge().value());
+    }
+
+    @Test
+    void testFailuresBackOffToTheMinimum() {
+        AdmissionLimiter limiter = limiter(20, 4, 200, 0.8);
+
+        limiter.tryAcquire(Priority.WRITE).release(false);
+        Assertions.assertEquals(18, limiter.getLimit());
+        for (int i = 0; i < 50; i++) {
+            limiter.tryAcquire(Priority.WRITE).release(false);
+        }
+        Assertions.assertEquals(4, limiter.getLimit());
+        Assertions.assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    void testLimitGrowsWhileLatencyHoldsAndShrinksWhenItRises() throws Exception {
+        AdmissionLimiter limiter = limiter(10, 4, 200, 0.8);
+
+        load(limiter, 5, 2);
+        int grown = limiter.getLimit();
+        Assertions.assertTrue(grown > 10, "Limit did not grow: " + grown);
+
+        load(limiter, 5, 40);
+        int shrunk = limiter.getLimit();
+        Assertions.assertTrue(shrunk < grown, "Limit did not shrink: " + shrunk + " >= " + grown);
+        Assertions.assertEquals(shrunk, (int) meterRegistry.get("identify.admission.limit").gauge().value());
+    }
+
+    @Test
+    void testBatchLatencyCountsPerItem() throws Exception {
+        AdmissionLimiter limiter = limiter(10, 4, 200, 0.8);
+
+        load(limiter, 5, 5);
+        int before = limiter.getLimit();
+        // Batches of 1000 items taking 50ms are 50us per identify, well within the latency so far
+        List<Permit> batches = acquire(limiter, Priority.WRITE, (int) (before * 0.8));
+        Thread.sleep(50);
+        batches.forEach(permit -> permit.release(true, 1000));
+        Assertions.assertTrue(limiter.getLimit() >= before, "Limit shrank: " + limiter.getLimit() + " < " + before);
+    }
+
+    @Test
+    void testCallsUnderHalfTheLimitLeaveItAsIs() throws Exception {
+        AdmissionLimiter limiter = limiter(20, 4, 200, 0.8);
+
+        for (int i = 0; i < 20; i++) {
+            Permit permit = limiter.tryAcquire(Priority.WRITE);
+            Thread.sleep(i < 10 ? 1 : 20);
+            permit.release(true);
+        }
+        Assertions.assertEquals(20, limiter.getLimit());
+    }
+
+    @Test
+    void testDisabledLimiterAdmitsEverything() {
+        AdmissionLimiter limiter = new AdmissionLimiter(meterRegistry, "default", false, 1, 1, 1, 0.5, 2.0, Duration.ofMillis(1500));
+
+        acquire(limiter, Priority.WRITE, 100).forEach(permit -> permit.release(false));
+        Assertions.assertEquals(0, limiter.getInFlight());
+        Assertions.assertEquals(2, limiter.retryAfterSeconds());
+    }
+}
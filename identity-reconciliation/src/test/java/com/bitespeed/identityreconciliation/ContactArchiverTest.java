@@ -0,0 +1,114 @@
+package com.bitespeed.identityreconciliation;
+
+import com.bitespeed.identityreconciliation.dto.ContactSummary;
+import com.bitespeed.identityreconciliation.model.Contact;
+import com.bitespeed.identityreconciliation.model.ContactCluster;
+import com.bitespeed.identityreconciliation.repository.ContactClusterRepository;
+import com.bitespeed.identityreconciliation.repository.ContactRepository;
+import com.bitespeed.identityreconciliation.service.ContactArchiver;
+import com.bitespeed.identityreconciliation.service.ContactService;
+import org.junit.jupiter.api.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@SpringBootTest(properties = {
+        // Soft deletes are written straight to the table, which the identity graph cache would not see
+        "identity.cache.enabled=false",
+        // Archived only when a test asks
+        "identity.archive.interval=1h",
+        "identity.archive.batch-size=2",
+        "identity.archive.batch-delay=0ms"
+})
+public class ContactArchiverTest {
+
+    @Autowired
+    private ContactService contactService;
+
+    @Autowired
+    private ContactArchiver archiver;
+
+    @Autowired
+    private ContactRepository contactRepository;
+
+    @Autowired
+    private ContactClusterRepository contactClusterRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    @AfterEach
+    void cleanDatabase() {
+        contactRepository.deleteAllInBatch();
+        contactClusterRepository.deleteAllInBatch();
+        jdbcTemplate.update("DELETE FROM contact_archive");
+    }
+
+    private void softDelete(Long id) {
+        Contact contact = contactRepository.findById(id).orElseThrow();
+        contact.setDeletedAt(LocalDateTime.now());
+        contactRepository.save(contact);
+    }
+
+    @Test
+    void testIdentifyIgnoresDeletedSecondary() {
+        ContactSummary doc = contactService.identifyOrLinkContact("doc@hillvalley.edu", "123456");
+        Long emmett = contactService.identifyOrLinkContact("emmett@hillvalley.edu", "123456").secondaryContactIds().get(0);
+        softDelete(emmett);
+
+        ContactSummary summary = contactService.identifyOrLinkContact("doc@hillvalley.edu", "123456");
+        Assertions.assertEquals(List.of("doc@hillvalley.edu"), summary.emails());
+        Assertions.assertTrue(summary.secondaryContactIds().isEmpty());
+
+        // The deleted email no longer matches: the pair is added again as a new secondary
+        ContactSummary readded = contactService.identifyOrLinkContact("emmett@hillvalley.edu", "123456");
+        Assertions.assertEquals(doc.primaryContactId(), readded.primaryContactId());
+        Assertions.assertEquals(1, readded.secondaryContactIds().size());
+        Assertions.assertNotEquals(emmett, readded.secondaryContactIds().get(0));
+    }
+
+    @Test
+    void testDeletedPrimaryTakesItsClusterWithIt() {
+        ContactSummary marty = contactService.identifyOrLinkContact("marty@hillvalley.edu", "555000");
+        contactService.identifyOrLinkContact("mcfly@hillvalley.edu", "555000");
+        softDelete(marty.primaryContactId());
+
+        // The orphaned secondary matches nothing either, so the identifiers start a new cluster
+        ContactSummary fresh = contactService.identifyOrLinkContact("mcfly@hillvalley.edu", "555000");
+        Assertions.assertNotEquals(marty.primaryContactId(), fresh.primaryContactId());
+        Assertions.assertTrue(fresh.secondaryContactIds().isEmpty());
+        Assertions.assertTrue(contactService.secondaries(marty.primaryContactId(), 0, 10).isEmpty());
+    }
+
+    @Test
+    void testArchiverMovesDeletedAndOrphanedContacts() {
+        ContactSummary doc = contactService.identifyOrLinkContact("doc@hillvalley.edu", "123456");
+        Long emmett = contactService.identifyOrLinkContact("emmett@hillvalley.edu", "123456").secondaryContactIds().get(0);
+        ContactSummary marty = contactService.identifyOrLinkContact("marty@hillvalley.edu", "555000");
+        contactService.identifyOrLinkContact("mcfly@hillvalley.edu", "555000");
+        contactService.identifyOrLinkContact("calvin@klein.com", "555000");
+        softDelete(emmett);
+        softDelete(marty.primaryContactId());
+
+        // Batches of two: the deleted primary goes in the batch after its last orphan
+        Assertions.assertEquals(4, archiver.archive());
+        Assertions.assertEquals(0, archiver.archive());
+
+        Assertions.assertEquals(List.of(doc.primaryContactId()),
+                contactRepository.findAll().stream().map(Contact::getId).toList());
+        Assertions.assertEquals(4, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM contact_archive", Long.class));
+        Assertions.assertEquals(marty.primaryContactId(), jdbcTemplate.queryForObject(
+                "SELECT linked_contact_id FROM contact_archive WHERE email = 'mcfly@hillvalley.edu'", Long.class));
+
+        // Lookups no longer find the archived contacts
+        ContactCluster projection = contactClusterRepository.findById(doc.primaryContactId()).orElseThrow();
+        Assertions.assertArrayEquals(new String[]{"doc@hillvalley.edu"}, projection.getEmails());
+        Assertions.assertFalse(contactClusterRepository.existsById(marty.primaryContactId()));
+        Assertions.assertTrue(contactService.lookup(null, "555000").isEmpty());
+        Assertions.assertEquals(doc, contactService.identifyOrLinkContact("doc@hillvalley.edu", "123456"));
+    }
+}
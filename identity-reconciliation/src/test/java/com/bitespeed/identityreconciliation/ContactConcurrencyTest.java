@@ -0,0 +1,119 @@
+package com.bitespeed.identityreconciliation;
+
+import com.bitespeed.identityreconciliation.model.Contact;
+import com.bitespeed.identityreconciliation.model.LinkPrecedence;
+import com.bitespeed.identityreconciliation.repository.ContactClusterRepository;
+import com.bitespeed.identityreconciliation.repository.ContactRepository;
+import org.junit.jupiter.api.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+// Every request must reach the merge path; admission control would shed part of this burst with 429s
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = "identity.admission.enabled=false")
+public class ContactConcurrencyTest {
+
+    private static final int REQUESTS = 2000;
+    private static final int THREADS = 32;
+
+    @Autowired
+    private TestRestTemplate restTemplate;
+
+    @Autowired
+    private ContactRepository contactRepository;
+
+    @Autowired
+    private ContactClusterRepository contactClusterRepository;
+
+    @BeforeEach
+    @AfterEach
+    void cleanDatabase() {
+        contactRepository.deleteAllInBatch();
+        contactClusterRepository.deleteAllInBatch();
+    }
+
+    @Test
+    void testParallelIdentifyKeepsOnePrimaryPerComponent() throws Exception {
+        // A small pool of identifiers so requests constantly collide, link and merge
+        Random random = new Random(42);
+        List<String> bodies = new ArrayList<>();
+        for (int i = 0; i < REQUESTS; i++) {
+            String email = random.nextInt(10) == 0 ? null : "user" + random.nextInt(60) + "@flux.com";
+            String phone = random.nextInt(10) == 0 && email != null ? null : String.valueOf(9000000000L + random.nextInt(60));
+            bodies.add("{ \"email\": " + (email == null ? "null" : "\"" + email + "\"")
+                    + ", \"phoneNumber\": " + (phone == null ? "null" : "\"" + phone + "\"") + " }");
+        }
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<ResponseEntity<String>>> futures = new ArrayList<>();
+            for (String body : bodies) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    return restTemplate.postForEntity("/identify", new HttpEntity<>(body, headers), String.class);
+                }));
+            }
+            start.countDown();
+            for (Future<ResponseEntity<String>> future : futures) {
+                Assertions.assertEquals(200, future.get(2, TimeUnit.MINUTES).getStatusCode().value());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // Connected components over shared emails and phone numbers
+        List<Contact> contacts = contactRepository.findAll();
+        Map<Long, Long> parent = new HashMap<>();
+        Map<String, Long> firstByIdentifier = new HashMap<>();
+        for (Contact contact : contacts) {
+            parent.put(contact.getId(), contact.getId());
+        }
+        for (Contact contact : contacts) {
+            for (String identifier : Arrays.asList("e:" + contact.getEmail(), "p:" + contact.getPhoneNumber())) {
+                if (identifier.endsWith(":null")) {
+                    continue;
+                }
+                Long other = firstByIdentifier.putIfAbsent(identifier, contact.getId());
+                if (other != null) {
+                    parent.put(find(parent, contact.getId()), find(parent, other));
+                }
+            }
+        }
+
+        Map<Long, List<Contact>> components = new HashMap<>();
+        for (Contact contact : contacts) {
+            components.computeIfAbsent(find(parent, contact.getId()), k -> new ArrayList<>()).add(contact);
+        }
+
+        for (List<Contact> component : components.values()) {
+            List<Contact> primaries = component.stream()
+                    .filter(c -> c.getLinkPrecedence() == LinkPrecedence.PRIMARY)
+                    .toList();
+            Assertions.assertEquals(1, primaries.size(), "primaries in component " + component);
+            Long primaryId = primaries.get(0).getId();
+            for (Contact contact : component) {
+                if (!contact.getId().equals(primaryId)) {
+                    Assertions.assertEquals(primaryId, contact.getLinkedId(), "secondary " + contact.getId());
+                }
+            }
+        }
+    }
+
+    private static Long find(Map<Long, Long> parent, Long id) {
+        while (!parent.get(id).equals(id)) {
+            id = parent.get(id);
+        }
+        return id;
+    }
+}
@@ -0,0 +1,157 @@
+package com.bitespeed.identityreconciliation;
+
+import com.bitespeed.identityreconciliation.dto.ContactSummary;
+import com.bitespeed.identityreconciliation.dto.IdentifyRequest;
+import com.bitespeed.identityreconciliation.events.ContactEventDispatcher;
+import com.bitespeed.identityreconciliation.events.FileContactEventSink;
+import com.bitespeed.identityreconciliation.events.InMemoryContactEventSink;
+import com.bitespeed.identityreconciliation.model.ContactEvent;
+import com.bitespeed.identityreconciliation.model.ContactEventType;
+import com.bitespeed.identityreconciliation.repository.ContactClusterRepository;
+import com.bitespeed.identityreconciliation.repository.ContactEventRepository;
+import com.bitespeed.identityreconciliation.repository.ContactRepository;
+import com.bitespeed.identityreconciliation.service.ContactBatchService;
+import com.bitespeed.identityreconciliation.service.ContactService;
+import com.bitespeed.identityreconciliation.sharding.ShardRouter;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Limit;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+
+@SpringBootTest(properties = {
+        "identity.events.enabled=true",
+        "identity.events.sink=memory",
+        // Dispatched only when a test asks, so recorded events stay in the outbox
+        "identity.events.dispatch-interval=1h",
+        "identity.events.batch-size=2"
+})
+public class ContactEventTest {
+
+    @Autowired
+    private ContactService contactService;
+
+    @Autowired
+    private ContactBatchService contactBatchService;
+
+    @Autowired
+    private ContactEventDispatcher dispatcher;
+
+    @Autowired
+    private InMemoryContactEventSink sink;
+
+    @Autowired
+    private ContactRepository contactRepository;
+
+    @Autowired
+    private ContactClusterRepository contactClusterRepository;
+
+    @Autowired
+    private ContactEventRepository contactEventRepository;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private ShardRouter shardRouter;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @BeforeEach
+    @AfterEach
+    void cleanDatabase() {
+        contactRepository.deleteAllInBatch();
+        contactClusterRepository.deleteAllInBatch();
+        contactEventRepository.deleteAllInBatch();
+        sink.clear();
+    }
+
+    @Test
+    void testIdentifyPublishesChangesInOrder() {
+        ContactSummary doc = contactService.identifyOrLinkContact("doc@hillvalley.edu", "123456");
+        ContactSummary secondary = contactService.identifyOrLinkContact("emmett@hillvalley.edu", "123456");
+        ContactSummary marty = contactService.identifyOrLinkContact("marty@hillvalley.edu", "555000");
+        ContactSummary merged = contactService.identifyOrLinkContact("marty@hillvalley.edu", "123456");
+        // A repeat changes nothing and records nothing
+        contactService.identifyOrLinkContact("doc@hillvalley.edu", "123456");
+
+        // Recorded with the writes, published only by the dispatcher
+        Assertions.assertEquals(5, contactEventRepository.count());
+        Assertions.assertTrue(sink.events().isEmpty());
+        Assertions.assertEquals(5, dispatcher.dispatch());
+        Assertions.assertEquals(0, contactEventRepository.count());
+
+        List<ContactEvent> events = sink.events();
+        Assertions.assertEquals(List.of(ContactEventType.PRIMARY_CREATED, ContactEventType.SECONDARY_ADDED,
+                        ContactEventType.PRIMARY_CREATED, ContactEventType.PRIMARIES_MERGED, ContactEventType.SECONDARY_ADDED),
+                events.stream().map(ContactEvent::getType).toList());
+        Assertions.assertEquals(doc.primaryContactId(), events.get(0).getContactId());
+        Assertions.assertEquals("doc@hillvalley.edu", events.get(0).getEmail());
+        Assertions.assertEquals(secondary.secondaryContactIds().get(0), events.get(1).getContactId());
+        Assertions.assertEquals(doc.primaryContactId(), events.get(1).getPrimaryContactId());
+        Assertions.assertEquals(doc.primaryContactId(), events.get(3).getPrimaryContactId());
+        Assertions.assertArrayEquals(new Long[]{marty.primaryContactId()}, events.get(3).getMergedContactIds());
+        Assertions.assertEquals(merged.secondaryContactIds().get(2), events.get(4).getContactId());
+        Assertions.assertEquals(doc.primaryContactId(), events.get(4).getPrimaryContactId());
+        for (int i = 1; i < events.size(); i++) {
+            Assertions.assertTrue(events.get(i - 1).getId() < events.get(i).getId());
+        }
+    }
+
+    @Test
+    void testBatchPublishesChangesWithAssignedIds() {
+        List<ContactSummary> results = contactBatchService.identifyBatch(List.of(
+                new IdentifyRequest("lorraine@hillvalley.edu", "717171"),
+                new IdentifyRequest("baines@hillvalley.edu", "717171")));
+        dispatcher.dispatch();
+
+        List<ContactEvent> events = sink.events();
+        Assertions.assertEquals(List.of(ContactEventType.PRIMARY_CREATED, ContactEventType.SECONDARY_ADDED),
+                events.stream().map(ContactEvent::getType).toList());
+        Long primaryId = results.get(0).primaryContactId();
+        Assertions.assertEquals(primaryId, events.get(0).getContactId());
+        Assertions.assertEquals(primaryId, events.get(1).getPrimaryContactId());
+        Assertions.assertEquals(results.get(1).secondaryContactIds().get(0), events.get(1).getContactId());
+    }
+
+    @Test
+    void testFailedPublishKeepsEventsForTheNextDispatch() {
+        contactService.identifyOrLinkContact("biff@hillvalley.edu", "999999");
+        ContactEventDispatcher failing = new ContactEventDispatcher(contactEventRepository, events -> {
+            throw new IOException("sink unavailable");
+        }, transactionTemplate, shardRouter, true, Duration.ofHours(1), 500);
+
+        Assertions.assertThrows(RuntimeException.class, failing::dispatch);
+        Assertions.assertEquals(1, contactEventRepository.count());
+        Assertions.assertEquals(1, dispatcher.dispatch());
+        Assertions.assertEquals("biff@hillvalley.edu", sink.events().get(0).getEmail());
+    }
+
+    @Test
+    void testFileSinkAppendsJsonLines(@TempDir Path directory) throws Exception {
+        contactService.identifyOrLinkContact("george@hillvalley.edu", "818181");
+        contactService.identifyOrLinkContact("mcfly@hillvalley.edu", "818181");
+        List<ContactEvent> recorded = contactEventRepository.findAllByOrderById(Limit.unlimited());
+
+        Path file = directory.resolve("events/contact-events.ndjson");
+        FileContactEventSink fileSink = new FileContactEventSink(objectMapper, file);
+        fileSink.publish(recorded.subList(0, 1));
+        fileSink.publish(recorded.subList(1, 2));
+        fileSink.close();
+
+        List<String> lines = Files.readAllLines(file);
+        Assertions.assertEquals(2, lines.size());
+        for (int i = 0; i < lines.size(); i++) {
+            Assertions.assertEquals(recorded.get(i), objectMapper.readValue(lines.get(i), ContactEvent.class));
+        }
+    }
+}
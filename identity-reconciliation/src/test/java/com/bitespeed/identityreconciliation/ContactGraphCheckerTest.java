@@ -0,0 +1,186 @@
+package com.bitespeed.identityreconciliation;
+
+import com.bitespeed.identityreconciliation.cache.IdentityGraphCache;
+import com.bitespeed.identityreconciliation.consistency.ContactGraphChecker;
+import com.bitespeed.identityreconciliation.dto.ContactSummary;
+import com.bitespeed.identityreconciliation.model.Contact;
+import com.bitespeed.identityreconciliation.model.LinkPrecedence;
+import com.bitespeed.identityreconciliation.repository.ContactBatchRepository;
+import com.bitespeed.identityreconciliation.repository.ContactClusterRepository;
+import com.bitespeed.identityreconciliation.repository.ContactRepository;
+import com.bitespeed.identityreconciliation.repository.HotClusterRepository;
+import com.bitespeed.identityreconciliation.service.ContactService;
+import org.junit.jupiter.api.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+// Shares ContactIntegrationTest's context; the checker under test is built by hand instead
+@SpringBootTest
+@AutoConfigureMockMvc
+public class ContactGraphCheckerTest {
+
+    private static final LocalDateTime T0 = LocalDateTime.of(2024, 1, 1, 0, 0);
+
+    @Autowired
+    private ContactBatchRepository contactBatchRepository;
+
+    @Autowired
+    private HotClusterRepository hotClusterRepository;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private IdentityGraphCache identityGraphCache;
+
+    @Autowired
+    private ContactService contactService;
+
+    @Autowired
+    private ContactRepository contactRepository;
+
+    @Autowired
+    private ContactClusterRepository contactClusterRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private Contact healthy;
+    private Contact chainRoot;
+    private Contact demoted;
+    private Contact chained;
+    private Contact olderPrimary;
+    private Contact newerPrimary;
+    private Contact newerSecondary;
+    private Contact orphan;
+    private ContactGraphChecker contactGraphChecker;
+
+    @BeforeEach
+    void seedBrokenGraph() {
+        // Three workers, chunks of 2 and an identifier bound of 4 so the scan pages, splits and runs in several passes
+        contactGraphChecker = new ContactGraphChecker(contactBatchRepository, contactClusterRepository,
+                hotClusterRepository, transactionTemplate, identityGraphCache, 3, 2, 4);
+        cleanDatabase();
+        // A consistent cluster
+        healthy = save("doc@future.com", "100", null, LinkPrecedence.PRIMARY, 0);
+        save("doc@future.com", "101", healthy, LinkPrecedence.SECONDARY, 1);
+        // A chain: chained -> demoted -> chainRoot
+        chainRoot = save("marty@hillvalley.edu", "200", null, LinkPrecedence.PRIMARY, 0);
+        demoted = save("calvin@hillvalley.edu", "201", chainRoot, LinkPrecedence.SECONDARY, 1);
+        chained = save("calvin@hillvalley.edu", "202", demoted, LinkPrecedence.SECONDARY, 2);
+        // Two primaries sharing an email, as left by a merge that never ran
+        olderPrimary = save("biff@hillvalley.edu", "300", null, LinkPrecedence.PRIMARY, 0);
+        newerPrimary = save("biff@hillvalley.edu", "301", null, LinkPrecedence.PRIMARY, 1);
+        newerSecondary = save(null, "301", newerPrimary, LinkPrecedence.SECONDARY, 2);
+        // A secondary linked to nothing
+        orphan = save("lorraine@hillvalley.edu", "400", null, LinkPrecedence.SECONDARY, 0);
+        // A deleted cluster, which identify no longer sees
+        Contact deleted = save("george@hillvalley.edu", "500", null, LinkPrecedence.PRIMARY, 0);
+        save("george@hillvalley.edu", "501", deleted, LinkPrecedence.SECONDARY, 1);
+        deleted.setDeletedAt(T0);
+        contactRepository.save(deleted);
+    }
+
+    @AfterEach
+    void cleanDatabase() {
+        contactRepository.deleteAllInBatch();
+        contactClusterRepository.deleteAllInBatch();
+    }
+
+    @Test
+    void testReportFindsEveryAnomalyWithoutWriting() throws Exception {
+        List<Contact> before = contactRepository.findAll();
+
+        ContactGraphChecker.CheckResult result = contactGraphChecker.check(false);
+
+        Assertions.assertEquals(9, result.contacts());
+        Assertions.assertEquals(4, result.clusters());
+        Assertions.assertEquals(1, result.clustersWithSeveralPrimaries());
+        Assertions.assertEquals(1, result.chainedContacts());
+        Assertions.assertEquals(1, result.orphanedContacts());
+        // chained, newerPrimary, newerSecondary and orphan
+        Assertions.assertEquals(4, result.contactsToRelink());
+        Assertions.assertEquals(0, result.contactsRelinked());
+        Assertions.assertTrue(result.passes() > 1);
+        Assertions.assertEquals(before, contactRepository.findAll());
+    }
+
+    @Test
+    void testRepairFlattensEveryClusterOntoItsOldestPrimary() throws Exception {
+        ContactGraphChecker.CheckResult repaired = contactGraphChecker.check(true);
+        Assertions.assertEquals(4, repaired.contactsRelinked());
+
+        assertLinkedTo(chainRoot, chained);
+        assertLinkedTo(chainRoot, demoted);
+        assertLinkedTo(olderPrimary, newerPrimary);
+        assertLinkedTo(olderPrimary, newerSecondary);
+        Contact repairedOrphan = contactRepository.findById(orphan.getId()).orElseThrow();
+        Assertions.assertEquals(LinkPrecedence.PRIMARY, repairedOrphan.getLinkPrecedence());
+        Assertions.assertNull(repairedOrphan.getLinkedId());
+
+        // Lookups see the merged cluster, through contact_cluster too
+        ContactSummary biff = contactService.lookup(null, "301").orElseThrow();
+        Assertions.assertEquals(olderPrimary.getId(), biff.primaryContactId());
+        Assertions.assertEquals(List.of(newerPrimary.getId(), newerSecondary.getId()), biff.secondaryContactIds());
+        Assertions.assertEquals(olderPrimary.getId(),
+                contactClusterRepository.findPrimaryContactIdByEmail("biff@hillvalley.edu").orElseThrow());
+
+        ContactGraphChecker.CheckResult again = contactGraphChecker.check(false);
+        Assertions.assertEquals(9, again.contacts());
+        Assertions.assertEquals(4, again.clusters());
+        Assertions.assertEquals(0, again.clustersWithSeveralPrimaries());
+        Assertions.assertEquals(0, again.chainedContacts());
+        Assertions.assertEquals(0, again.orphanedContacts());
+        Assertions.assertEquals(0, again.contactsToRelink());
+    }
+
+    @Test
+    void testRepairNeverMergesClustersOnAnIdentifierHashCollision() throws Exception {
+        Contact emmett = save("emmett@hillvalley.edu", "600", null, LinkPrecedence.PRIMARY, 0);
+        Contact jennifer = save("jennifer@hillvalley.edu", "700", null, LinkPrecedence.PRIMARY, 1);
+        Contact jenniferSecondary = save("jennifer@hillvalley.edu", "701", jennifer, LinkPrecedence.SECONDARY, 2);
+        // Force a 64-bit hash collision between the two unrelated emails
+        jdbcTemplate.update("UPDATE contact SET email_hash = ? WHERE email = ?",
+                emmett.getEmailHash(), "jennifer@hillvalley.edu");
+
+        ContactGraphChecker.CheckResult result = contactGraphChecker.check(false);
+        Assertions.assertEquals(12, result.contacts());
+        Assertions.assertEquals(6, result.clusters());
+        Assertions.assertEquals(1, result.clustersWithSeveralPrimaries());
+        Assertions.assertEquals(4, result.contactsToRelink());
+        Assertions.assertEquals(1, result.hashCollisions());
+
+        ContactGraphChecker.CheckResult repaired = contactGraphChecker.check(true);
+        Assertions.assertEquals(4, repaired.contactsRelinked());
+        for (Contact primary : List.of(emmett, jennifer)) {
+            Contact stored = contactRepository.findById(primary.getId()).orElseThrow();
+            Assertions.assertEquals(LinkPrecedence.PRIMARY, stored.getLinkPrecedence());
+            Assertions.assertNull(stored.getLinkedId());
+        }
+        assertLinkedTo(jennifer, jenniferSecondary);
+        Assertions.assertEquals(0, contactGraphChecker.check(false).contactsToRelink());
+    }
+
+    private void assertLinkedTo(Contact primary, Contact contact) {
+        Contact stored = contactRepository.findById(contact.getId()).orElseThrow();
+        Assertions.assertEquals(LinkPrecedence.SECONDARY, stored.getLinkPrecedence());
+        Assertions.assertEquals(primary.getId(), stored.getLinkedId());
+    }
+
+    private Contact save(String email, String phone, Contact linkedTo, LinkPrecedence precedence, int minutes) {
+        return contactRepository.save(Contact.builder()
+                .email(email)
+                .phoneNumber(phone)
+                .linkedId(linkedTo != null ? linkedTo.getId() : null)
+                .linkPrecedence(precedence)
+                .createdAt(T0.plusMinutes(minutes))
+                .updatedAt(T0.plusMinutes(minutes))
+                .build());
+    }
+}
@@ -0,0 +1,174 @@
+package com.bitespeed.identityreconciliation;
+
+import com.bitespeed.identityreconciliation.importer.ContactImportService;
+import com.bitespeed.identityreconciliation.model.Contact;
+import com.bitespeed.identityreconciliation.model.LinkPrecedence;
+import com.bitespeed.identityreconciliation.repository.ContactBatchRepository;
+import com.bitespeed.identityreconciliation.repository.ContactImportRepository;
+import com.bitespeed.identityreconciliation.repository.ContactClusterRepository;
+import com.bitespeed.identityreconciliation.repository.ContactRepository;
+import com.bitespeed.identityreconciliation.service.ContactService;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataAccessResourceFailureException;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.doCallRealMethod;
+
+@SpringBootTest(properties = "identity.import.chunk-size=5")
+public class ContactImportServiceTest {
+
+    @Autowired
+    private ContactImportService contactImportService;
+
+    @Autowired
+    private ContactService contactService;
+
+    @Autowired
+    private ContactRepository contactRepository;
+
+    @Autowired
+    private ContactClusterRepository contactClusterRepository;
+
+    @Autowired
+    private ContactImportRepository contactImportRepository;
+
+    @SpyBean
+    private ContactBatchRepository contactBatchRepository;
+
+    @TempDir
+    private Path tempDir;
+
+    @BeforeEach
+    @AfterEach
+    void cleanDatabase() {
+        contactRepository.deleteAllInBatch();
+        contactClusterRepository.deleteAllInBatch();
+        contactImportRepository.deleteAllInBatch();
+    }
+
+    @Test
+    void testImportMatchesIdentifyingEachRowInOrder() throws Exception {
+        List<String[]> rows = sampleRows();
+        Path file = writeCsv(rows);
+
+        seedExistingContacts();
+        ContactImportService.ImportResult result = contactImportService.importFile(file);
+        Set<String> imported = layout();
+        Set<String> importedProjection = projection();
+
+        cleanDatabase();
+        seedExistingContacts();
+        rows.stream()
+                .filter(row -> row[0] != null || row[1] != null)
+                .forEach(row -> contactService.identifyOrLinkContact(row[0], row[1]));
+
+        Assertions.assertEquals(layout(), imported);
+        Assertions.assertEquals(projection(), importedProjection);
+        Assertions.assertEquals(rows.size(), result.rowsRead());
+        Assertions.assertEquals(contactRepository.count() - 2, result.rowsImported());
+        Assertions.assertTrue(result.contactsRelinked() > 0);
+    }
+
+    @Test
+    void testInterruptedImportResumesFromCheckpoint() throws Exception {
+        Path file = tempDir.resolve("contacts.ndjson");
+        Files.writeString(file, """
+                {"email": "doc@future.com", "phoneNumber": "9999999999"}
+                {"email": "emmett@future.com", "phoneNumber": "9999999999"}
+                {"email": "marty@hillvalley.edu", "phoneNumber": "1234567890"}
+                {"email": "doc@future.com", "phoneNumber": "9999999999"}
+                {"phoneNumber": ""}
+                {"email": "george@hillvalley.edu", "phoneNumber": "5555555555"}
+                {"email": "marty@hillvalley.edu", "phoneNumber": "5555555555"}
+                {"email": "biff@hillvalley.edu"}
+                {"email": "lorraine@hillvalley.edu", "phoneNumber": "1234567890"}
+                {"email": "doc@future.com", "phoneNumber": "1234567890"}
+                {"email": "jennifer@hillvalley.edu", "phoneNumber": "7777777777"}
+                """);
+
+        // The second chunk fails: the first one stays committed with its checkpoint
+        doCallRealMethod().doThrow(new DataAccessResourceFailureException("connection lost")).doCallRealMethod()
+                .when(contactBatchRepository).copyAll(anyList());
+        Assertions.assertThrows(DataAccessException.class, () -> contactImportService.importFile(file));
+        Assertions.assertEquals(5, contactRepository.count());
+
+        ContactImportService.ImportResult result = contactImportService.importFile(file);
+        Assertions.assertEquals(11, result.rowsRead());
+        Assertions.assertEquals(9, result.rowsImported());
+        Assertions.assertEquals(9, contactRepository.count());
+
+        Map<String, Contact> byEmail = contactRepository.findAll().stream()
+                .filter(c -> c.getPhoneNumber() != null)
+                .collect(Collectors.toMap(c -> c.getEmail() + "|" + c.getPhoneNumber(), Function.identity()));
+        Contact primary = byEmail.get("doc@future.com|9999999999");
+        Assertions.assertEquals(LinkPrecedence.PRIMARY, primary.getLinkPrecedence());
+        // The last doc@future.com row joined marty's cluster into doc's
+        for (String key : List.of("marty@hillvalley.edu|1234567890", "george@hillvalley.edu|5555555555",
+                "lorraine@hillvalley.edu|1234567890", "doc@future.com|1234567890")) {
+            Assertions.assertEquals(primary.getId(), byEmail.get(key).getLinkedId(), key);
+        }
+
+        // A completed import is not applied twice
+        contactImportService.importFile(file);
+        Assertions.assertEquals(9, contactRepository.count());
+    }
+
+    private void seedExistingContacts() {
+        contactService.identifyOrLinkContact("user3@example.com", "900003");
+        contactService.identifyOrLinkContact("user17@example.com", "900011");
+    }
+
+    // Small identifier pools so rows keep joining and merging clusters, plus duplicates and empty rows
+    private static List<String[]> sampleRows() {
+        Random random = new Random(42);
+        List<String[]> rows = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            String email = random.nextInt(5) == 0 ? null : "user" + random.nextInt(60) + "@example.com";
+            String phone = random.nextInt(5) == 0 ? null : "9000" + String.format("%02d", random.nextInt(60));
+            rows.add(new String[]{email, phone});
+        }
+        rows.add(new String[]{"\"quoted\", name@example.com", "900001"});
+        return rows;
+    }
+
+    private Path writeCsv(List<String[]> rows) throws Exception {
+        StringBuilder csv = new StringBuilder("phone_number,email\n");
+        for (String[] row : rows) {
+            csv.append(row[1] == null ? "" : row[1]).append(',')
+                    .append(row[0] == null ? "" : "\"" + row[0].replace("\"", "\"\"") + "\"").append('\n');
+        }
+        return Files.writeString(tempDir.resolve("contacts.csv"), csv);
+    }
+
+    // Every contact with its precedence and its primary's identifiers, independent of ids
+    private Set<String> layout() {
+        Map<Long, Contact> byId = contactRepository.findAll().stream()
+                .collect(Collectors.toMap(Contact::getId, Function.identity()));
+        return byId.values().stream()
+                .map(c -> {
+                    Contact primary = c.getLinkedId() == null ? c : byId.get(c.getLinkedId());
+                    return c.getEmail() + "|" + c.getPhoneNumber() + "|" + c.getLinkPrecedence()
+                            + "|" + primary.getEmail() + "|" + primary.getPhoneNumber() + "|" + primary.getLinkPrecedence();
+                })
+                .collect(Collectors.toSet());
+    }
+
+    // Cluster rows by their identifiers, independent of the ids either run assigned
+    private Set<String> projection() {
+        return contactClusterRepository.findAll().stream()
+                .map(c -> new TreeSet<>(List.of(c.getEmails())) + "|" + new TreeSet<>(List.of(c.getPhoneNumbers()))
+                        + "|" + c.getSecondaryContactIds().length)
+                .collect(Collectors.toSet());
+    }
+}
@@ -1,7 +1,9 @@
 package com.bitespeed.identityreconciliation;
 
 import com.bitespeed.identityreconciliation.model.Contact;
+import com.bitespeed.identityreconciliation.model.IdentifierHash;
 import com.bitespeed.identityreconciliation.model.LinkPrecedence;
+import com.bitespeed.identityreconciliation.repository.ContactClusterRepository;
 import com.bitespeed.identityreconciliation.repository.ContactRepository;
 import org.hamcrest.Matchers;
 import org.junit.jupiter.api.*;
@@ -14,10 +16,11 @@ import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.transaction.annotation.Transactional;
 import java.time.LocalDateTime;
 
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
-import jakarta.persistence.EntityManager;
 import org.springframework.test.context.TestPropertySource;
+import io.micrometer.core.instrument.MeterRegistry;
 
 @SpringBootTest
 @AutoConfigureMockMvc
@@ -31,13 +34,15 @@ public class ContactIntegrationTest {
     private ContactRepository contactRepository;
 
     @Autowired
-    private EntityManager entityManager;
+    private ContactClusterRepository contactClusterRepository;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
 
     @BeforeEach
     void cleanDatabase() {
         contactRepository.deleteAll();
-        // Reset PostgreSQL sequence for predictable IDs
-        entityManager.createNativeQuery("ALTER SEQUENCE contact_id_seq RESTART WITH 1").executeUpdate();
+        contactClusterRepository.deleteAllInBatch();
     }
 
     // Helper to fetch all contacts matching either email or phone number, handling nulls
@@ -274,7 +279,7 @@ public class ContactIntegrationTest {
         for (Contact c : allRelated) {
             if (!c.getId().equals(expectedPrimaryId)) {
                 Assertions.assertEquals(LinkPrecedence.SECONDARY, c.getLinkPrecedence());
-                Assertions.assertEquals(expectedPrimaryId.toString(), c.getLinkedId());
+                Assertions.assertEquals(expectedPrimaryId, c.getLinkedId());
             } else {
                 Assertions.assertEquals(LinkPrecedence.PRIMARY, c.getLinkPrecedence());
                 Assertions.assertNull(c.getLinkedId());
@@ -284,11 +289,10 @@ public class ContactIntegrationTest {
         int primaryContactId = com.jayway.jsonpath.JsonPath.read(response, "$.contact.primaryContactId");
         Assertions.assertEquals(expectedPrimaryId.intValue(), primaryContactId);
         java.util.List<String> emails = com.jayway.jsonpath.JsonPath.read(response, "$.contact.emails");
-        Assertions.assertTrue(emails.contains("one@flux.com"));
-        Assertions.assertTrue(emails.contains("two@flux.com"));
+        // Primary's identifiers first, then the rest in creation order
+        Assertions.assertEquals(java.util.List.of("one@flux.com", "two@flux.com"), emails);
         java.util.List<String> phoneNumbers = com.jayway.jsonpath.JsonPath.read(response, "$.contact.phoneNumbers");
-        Assertions.assertTrue(phoneNumbers.contains("1111111111"));
-        Assertions.assertTrue(phoneNumbers.contains("2222222222"));
+        Assertions.assertEquals(java.util.List.of("1111111111", "2222222222"), phoneNumbers);
         java.util.List<Integer> secondaryIds = com.jayway.jsonpath.JsonPath.read(response, "$.contact.secondaryContactIds");
         java.util.List<Integer> expectedSecondaries = allRelated.stream()
                 .filter(c -> !c.getId().equals(expectedPrimaryId))
@@ -338,7 +342,7 @@ public class ContactIntegrationTest {
         Contact secondary = contactRepository.save(Contact.builder()
                 .email("emmett@future.com")
                 .phoneNumber("9999999999")
-                .linkedId(primary.getId().toString())
+                .linkedId(primary.getId())
                 .linkPrecedence(LinkPrecedence.SECONDARY)
                 .createdAt(LocalDateTime.now())
                 .updatedAt(LocalDateTime.now())
@@ -360,4 +364,219 @@ public class ContactIntegrationTest {
         int primaryContactId = com.jayway.jsonpath.JsonPath.read(response, "$.contact.primaryContactId");
         org.junit.jupiter.api.Assertions.assertEquals(expectedPrimary.getId().intValue(), primaryContactId);
     }
-} 
\ No newline at end of file
+
+    @Test
+    void testMergeRelinksSecondariesOfDemotedPrimary() throws Exception {
+        Contact primary1 = contactRepository.save(Contact.builder()
+                .email("one@flux.com")
+                .phoneNumber("1111111111")
+                .linkPrecedence(LinkPrecedence.PRIMARY)
+                .createdAt(LocalDateTime.now().minusDays(2))
+                .updatedAt(LocalDateTime.now().minusDays(2))
+                .build());
+        Contact primary2 = contactRepository.save(Contact.builder()
+                .email("two@flux.com")
+                .phoneNumber("2222222222")
+                .linkPrecedence(LinkPrecedence.PRIMARY)
+                .createdAt(LocalDateTime.now().minusDays(1))
+                .updatedAt(LocalDateTime.now().minusDays(1))
+                .build());
+        Contact secondary2 = contactRepository.save(Contact.builder()
+                .email("three@flux.com")
+                .phoneNumber("2222222222")
+                .linkedId(primary2.getId())
+                .linkPrecedence(LinkPrecedence.SECONDARY)
+                .createdAt(LocalDateTime.now().minusHours(1))
+                .updatedAt(LocalDateTime.now().minusHours(1))
+                .build());
+        String json = """
+            { "email": "one@flux.com", "phoneNumber": "2222222222" }
+        """;
+        var result = mockMvc.perform(post("/identify")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(json))
+            .andExpect(status().isOk())
+            .andReturn();
+        String response = result.getResponse().getContentAsString();
+        int primaryContactId = com.jayway.jsonpath.JsonPath.read(response, "$.contact.primaryContactId");
+        Assertions.assertEquals(primary1.getId().intValue(), primaryContactId);
+        // The demoted primary's secondary must now hang off the oldest primary
+        Assertions.assertEquals(primary1.getId(), contactRepository.findById(secondary2.getId()).orElseThrow().getLinkedId());
+        Assertions.assertEquals(primary1.getId(), contactRepository.findById(primary2.getId()).orElseThrow().getLinkedId());
+        java.util.List<String> emails = com.jayway.jsonpath.JsonPath.read(response, "$.contact.emails");
+        Assertions.assertTrue(emails.containsAll(java.util.List.of("one@flux.com", "two@flux.com", "three@flux.com")));
+        java.util.List<Integer> secondaryIds = com.jayway.jsonpath.JsonPath.read(response, "$.contact.secondaryContactIds");
+        Assertions.assertTrue(secondaryIds.containsAll(java.util.List.of(primary2.getId().intValue(), secondary2.getId().intValue())));
+    }
+
+    @Test
+    void testBatchReconcilesItemsTogetherInRequestOrder() throws Exception {
+        Contact primary1 = contactRepository.save(Contact.builder()
+                .email("one@flux.com")
+                .phoneNumber("1111111111")
+                .linkPrecedence(LinkPrecedence.PRIMARY)
+                .createdAt(LocalDateTime.now().minusDays(2))
+                .updatedAt(LocalDateTime.now().minusDays(2))
+                .build());
+        Contact primary2 = contactRepository.save(Contact.builder()
+                .email("two@flux.com")
+                .phoneNumber("2222222222")
+                .linkPrecedence(LinkPrecedence.PRIMARY)
+                .createdAt(LocalDateTime.now().minusDays(1))
+                .updatedAt(LocalDateTime.now().minusDays(1))
+                .build());
+        String json = """
+            [
+              { "email": "new@flux.com", "phoneNumber": "3333333333" },
+              { "email": "one@flux.com", "phoneNumber": "2222222222" },
+              { "email": "new@flux.com", "phoneNumber": "4444444444" },
+              { "phoneNumber": "1111111111" },
+              { "email": "one@flux.com", "phoneNumber": "2222222222" }
+            ]
+        """;
+        var result = mockMvc.perform(post("/identify/batch")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(json))
+            .andExpect(status().isOk())
+            .andReturn();
+        String response = result.getResponse().getContentAsString();
+        java.util.List<Object> results = com.jayway.jsonpath.JsonPath.read(response, "$.results");
+        Assertions.assertEquals(5, results.size());
+
+        // Items 1, 3 and 4 end in the merged flux cluster under the oldest primary
+        for (int i : new int[] {1, 3, 4}) {
+            int primaryContactId = com.jayway.jsonpath.JsonPath.read(response, "$.results[" + i + "].contact.primaryContactId");
+            Assertions.assertEquals(primary1.getId().intValue(), primaryContactId);
+        }
+        java.util.List<String> emails = com.jayway.jsonpath.JsonPath.read(response, "$.results[1].contact.emails");
+        Assertions.assertTrue(emails.containsAll(java.util.List.of("one@flux.com", "two@flux.com")));
+        Assertions.assertEquals(primary1.getId(), contactRepository.findById(primary2.getId()).orElseThrow().getLinkedId());
+
+        // Items 0 and 2 form a new cluster: one new primary plus a secondary created in the same batch
+        int newPrimaryId = com.jayway.jsonpath.JsonPath.read(response, "$.results[0].contact.primaryContactId");
+        int samePrimaryId = com.jayway.jsonpath.JsonPath.read(response, "$.results[2].contact.primaryContactId");
+        Assertions.assertEquals(newPrimaryId, samePrimaryId);
+        java.util.List<String> phoneNumbers = com.jayway.jsonpath.JsonPath.read(response, "$.results[0].contact.phoneNumbers");
+        Assertions.assertTrue(phoneNumbers.containsAll(java.util.List.of("3333333333", "4444444444")));
+        java.util.List<Integer> secondaryIds = com.jayway.jsonpath.JsonPath.read(response, "$.results[0].contact.secondaryContactIds");
+        Assertions.assertEquals(1, secondaryIds.size());
+        Contact newSecondary = contactRepository.findById(secondaryIds.get(0).longValue()).orElseThrow();
+        Assertions.assertEquals(Long.valueOf(newPrimaryId), newSecondary.getLinkedId());
+
+        // Repeating the pair within the batch did not create a duplicate
+        Assertions.assertEquals(1, contactRepository.findByPhoneNumber("2222222222").stream()
+                .filter(c -> "one@flux.com".equals(c.getEmail())).count());
+    }
+
+    @Test
+    void testBatchRejectsItemWithoutIdentifiers() throws Exception {
+        String json = """
+            [ { "email": "doc@future.com" }, { "email": null, "phoneNumber": " " } ]
+        """;
+        mockMvc.perform(post("/identify/batch")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(json))
+            .andExpect(status().isBadRequest())
+            .andExpect(jsonPath("$.error").value("Item 1: Either email or phoneNumber must be provided."));
+    }
+
+    @Test
+    void testLookupReturnsSameClusterAsIdentify() throws Exception {
+        for (String json : java.util.List.of(
+                "{ \"email\": \"one@flux.com\", \"phoneNumber\": \"1111111111\" }",
+                "{ \"email\": \"two@flux.com\", \"phoneNumber\": \"2222222222\" }",
+                "{ \"email\": \"one@flux.com\", \"phoneNumber\": \"3333333333\" }")) {
+            mockMvc.perform(post("/identify").contentType(MediaType.APPLICATION_JSON).content(json))
+                .andExpect(status().isOk());
+        }
+        // Merges the two clusters, so the demoted primary's projection row must go
+        String merged = mockMvc.perform(post("/identify")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{ \"email\": \"two@flux.com\", \"phoneNumber\": \"1111111111\" }"))
+            .andExpect(status().isOk())
+            .andReturn().getResponse().getContentAsString();
+
+        for (String[] param : new String[][]{{"email", "two@flux.com"}, {"phoneNumber", "3333333333"}, {"email", "one@flux.com"}}) {
+            mockMvc.perform(get("/identify").param(param[0], param[1]))
+                .andExpect(status().isOk())
+                .andExpect(content().json(merged, true));
+        }
+        Assertions.assertEquals(1, contactClusterRepository.count());
+    }
+
+    @Test
+    void testLookupNeverWrites() throws Exception {
+        mockMvc.perform(get("/identify").param("email", "doc@future.com"))
+            .andExpect(status().isNotFound())
+            .andExpect(jsonPath("$.error").value("No contact found."));
+        Assertions.assertEquals(0, contactRepository.count());
+        Assertions.assertEquals(0, contactClusterRepository.count());
+    }
+
+    @Test
+    void testLookupRequiresExactlyOneIdentifier() throws Exception {
+        mockMvc.perform(get("/identify"))
+            .andExpect(status().isBadRequest())
+            .andExpect(jsonPath("$.error").value("Exactly one of email or phoneNumber must be provided."));
+        mockMvc.perform(get("/identify").param("email", "doc@future.com").param("phoneNumber", "9999999999"))
+            .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void testIdentifierVariantsJoinOneCluster() throws Exception {
+        mockMvc.perform(post("/identify")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{ \"email\": \"doc@future.com\", \"phoneNumber\": \"+91 99999 99999\" }"))
+            .andExpect(status().isOk());
+        for (String json : java.util.List.of(
+                "{ \"email\": \" Doc@Future.com \", \"phoneNumber\": \"+91-99999-99999\" }",
+                "{ \"email\": \"DOC@FUTURE.COM\", \"phoneNumber\": \"0091 (99999) 99999\" }")) {
+            mockMvc.perform(post("/identify").contentType(MediaType.APPLICATION_JSON).content(json))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.contact.emails").value(Matchers.contains("doc@future.com")))
+                .andExpect(jsonPath("$.contact.phoneNumbers").value(Matchers.contains("+919999999999")))
+                .andExpect(jsonPath("$.contact.secondaryContactIds").isEmpty());
+        }
+        Assertions.assertEquals(1, contactRepository.count());
+        Contact stored = contactRepository.findByEmail("doc@future.com").get(0);
+        Assertions.assertEquals(IdentifierHash.of("doc@future.com"), stored.getEmailHash());
+        Assertions.assertEquals(IdentifierHash.of("+919999999999"), stored.getPhoneHash());
+
+        mockMvc.perform(get("/identify").param("email", "Doc@Future.COM"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.contact.primaryContactId").value(stored.getId().intValue()));
+    }
+
+    @Test
+    void testIdentifyRecordsOutcomesAndStages() throws Exception {
+        double createdPrimary = outcomeCount("created-primary");
+        double createdSecondary = outcomeCount("created-secondary");
+        double merged = outcomeCount("merged");
+        double noOp = outcomeCount("no-op");
+        long merges = meterRegistry.get("identify.merge.rows").summary().count();
+
+        for (String json : java.util.List.of(
+                "{ \"email\": \"doc@future.com\", \"phoneNumber\": \"9999999999\" }",
+                "{ \"email\": \"doc@future.com\", \"phoneNumber\": \"9999999999\" }",
+                "{ \"email\": \"doc@future.com\", \"phoneNumber\": \"8888888888\" }",
+                "{ \"email\": \"marty@hillvalley.edu\", \"phoneNumber\": \"7777777777\" }",
+                "{ \"email\": \"marty@hillvalley.edu\", \"phoneNumber\": \"9999999999\" }")) {
+            mockMvc.perform(post("/identify").contentType(MediaType.APPLICATION_JSON).content(json))
+                .andExpect(status().isOk());
+        }
+
+        Assertions.assertEquals(createdPrimary + 2, outcomeCount("created-primary"));
+        Assertions.assertEquals(createdSecondary + 1, outcomeCount("created-secondary"));
+        Assertions.assertEquals(merged + 1, outcomeCount("merged"));
+        Assertions.assertEquals(noOp + 1, outcomeCount("no-op"));
+        Assertions.assertEquals(merges + 1, meterRegistry.get("identify.merge.rows").summary().count());
+        Assertions.assertTrue(meterRegistry.get("identify.cluster.size").summary().max() >= 4);
+        for (String stage : java.util.List.of("lock-wait", "transaction", "advisory-lock", "match", "lock-primaries", "merge", "insert", "projection", "response")) {
+            Assertions.assertTrue(meterRegistry.get("identify.stage").tag("stage", stage).timer().count() > 0, stage);
+        }
+    }
+
+    private double outcomeCount(String outcome) {
+        return meterRegistry.get("identify.outcome").tag("outcome", outcome).counter().count();
+    }
+}
@@ -0,0 +1,299 @@
+package com.bitespeed.identityreconciliation;
+
+import com.bitespeed.identityreconciliation.dto.ContactSummary;
+import com.bitespeed.identityreconciliation.dto.SecondaryContactsPage;
+import com.bitespeed.identityreconciliation.embedded.EmbeddedIdentityService;
+import com.bitespeed.identityreconciliation.embedded.InMemoryContactRepository;
+import com.bitespeed.identityreconciliation.model.Contact;
+import com.bitespeed.identityreconciliation.model.IdentifierHash;
+import com.bitespeed.identityreconciliation.model.LinkPrecedence;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// The identify scenarios of ContactIntegrationTest, against the embedded service and its in-memory store
+public class EmbeddedIdentityServiceTest {
+
+    private EmbeddedIdentityService service;
+    private InMemoryContactRepository contactRepository;
+
+    @BeforeEach
+    void start() {
+        service = EmbeddedIdentityService.inMemory();
+        contactRepository = service.contactRepository();
+    }
+
+    @AfterEach
+    void stop() throws IOException {
+        service.close();
+    }
+
+    private Contact savePrimary(String email, String phoneNumber, LocalDateTime createdAt) {
+        return contactRepository.save(Contact.builder()
+                .email(email)
+                .phoneNumber(phoneNumber)
+                .linkPrecedence(LinkPrecedence.PRIMARY)
+                .createdAt(createdAt)
+                .updatedAt(createdAt)
+                .build());
+    }
+
+    private Contact saveSecondary(String email, String phoneNumber, Contact primary) {
+        return contactRepository.save(Contact.builder()
+                .email(email)
+                .phoneNumber(phoneNumber)
+                .linkedId(primary.getId())
+                .linkPrecedence(LinkPrecedence.SECONDARY)
+                .createdAt(LocalDateTime.now())
+                .updatedAt(LocalDateTime.now())
+                .build());
+    }
+
+    @Test
+    void testNewContactIsCreatedAsPrimary() {
+        ContactSummary summary = service.identify("doc@future.com", "9999999999");
+        Contact stored = contactRepository.findById(summary.primaryContactId()).orElseThrow();
+        Assertions.assertEquals(LinkPrecedence.PRIMARY, stored.getLinkPrecedence());
+        Assertions.assertEquals(List.of("doc@future.com"), summary.emails());
+        Assertions.assertTrue(summary.secondaryContactIds().isEmpty());
+    }
+
+    @Test
+    void testDuplicateRequestReturnsSameContact() {
+        Contact primary = savePrimary("doc@future.com", "9999999999", LocalDateTime.now());
+        ContactSummary summary = service.identify("doc@future.com", "9999999999");
+        Assertions.assertEquals(primary.getId(), summary.primaryContactId());
+        Assertions.assertTrue(summary.secondaryContactIds().isEmpty());
+        Assertions.assertEquals(1, contactRepository.count());
+    }
+
+    @Test
+    void testNewIdentifierCreatesSecondary() {
+        Contact primary = savePrimary("doc@future.com", "9999999999", LocalDateTime.now());
+        ContactSummary byPhone = service.identify("emmett@future.com", "9999999999");
+        ContactSummary byEmail = service.identify("doc@future.com", "8888888888");
+
+        Assertions.assertEquals(primary.getId(), byEmail.primaryContactId());
+        Assertions.assertEquals(List.of("doc@future.com", "emmett@future.com"), byEmail.emails());
+        Assertions.assertEquals(List.of("9999999999", "8888888888"), byEmail.phoneNumbers());
+        Assertions.assertEquals(2, byEmail.secondaryContactIds().size());
+        Assertions.assertEquals(byPhone.secondaryContactIds().get(0), byEmail.secondaryContactIds().get(0));
+        Contact secondary = contactRepository.findById(byEmail.secondaryContactIds().get(1)).orElseThrow();
+        Assertions.assertEquals(primary.getId(), secondary.getLinkedId());
+        Assertions.assertEquals(LinkPrecedence.SECONDARY, secondary.getLinkPrecedence());
+    }
+
+    @Test
+    void testSingleIdentifierJoinsTheCluster() {
+        Contact primary = savePrimary("doc@future.com", "9999999999", LocalDateTime.now());
+        Assertions.assertEquals(primary.getId(), service.identify("doc@future.com", null).primaryContactId());
+        Assertions.assertEquals(primary.getId(), service.identify(null, "9999999999").primaryContactId());
+        // Each pair is recorded once
+        Assertions.assertEquals(primary.getId(), service.identify("doc@future.com", null).primaryContactId());
+        Assertions.assertEquals(3, contactRepository.count());
+    }
+
+    @Test
+    void testMergeTwoPrimaries() {
+        Contact primary1 = savePrimary("one@flux.com", "1111111111", LocalDateTime.now().minusDays(2));
+        Contact primary2 = savePrimary("two@flux.com", "2222222222", LocalDateTime.now().minusDays(1));
+        Contact secondary2 = saveSecondary("three@flux.com", "2222222222", primary2);
+
+        ContactSummary summary = service.identify("one@flux.com", "2222222222");
+        Assertions.assertEquals(primary1.getId(), summary.primaryContactId());
+        Assertions.assertEquals(List.of("one@flux.com", "two@flux.com", "three@flux.com"), summary.emails());
+        Assertions.assertEquals(List.of("1111111111", "2222222222"), summary.phoneNumbers());
+        // Demoted primary, its secondary, and the request's pair as a new secondary
+        Assertions.assertEquals(List.of(primary2.getId(), secondary2.getId()), summary.secondaryContactIds().subList(0, 2));
+        Assertions.assertEquals(3, summary.secondaryContactIds().size());
+
+        // The demoted primary's secondary now hangs off the oldest primary
+        for (Contact contact : contactRepository.findAllByLinkedIdOrId(primary1.getId())) {
+            if (!contact.getId().equals(primary1.getId())) {
+                Assertions.assertEquals(LinkPrecedence.SECONDARY, contact.getLinkPrecedence());
+                Assertions.assertEquals(primary1.getId(), contact.getLinkedId());
+            }
+        }
+        Assertions.assertEquals(4, contactRepository.findAllByLinkedIdOrId(primary1.getId()).size());
+        Assertions.assertTrue(contactRepository.findAllByLinkedIdOrId(primary2.getId()).stream()
+                .allMatch(contact -> contact.getId().equals(primary2.getId())));
+    }
+
+    @Test
+    void testRepeatedSecondaryLink() {
+        Contact primary = savePrimary("doc@future.com", "9999999999", LocalDateTime.now());
+        Contact secondary = saveSecondary("emmett@future.com", "9999999999", primary);
+        ContactSummary summary = service.identify("emmett@future.com", "9999999999");
+        Assertions.assertEquals(primary.getId(), summary.primaryContactId());
+        Assertions.assertEquals(List.of(secondary.getId()), summary.secondaryContactIds());
+        Assertions.assertEquals(2, contactRepository.count());
+    }
+
+    @Test
+    void testLookupReturnsSameClusterAsIdentify() {
+        service.identify("one@flux.com", "1111111111");
+        service.identify("two@flux.com", "2222222222");
+        service.identify("one@flux.com", "3333333333");
+        ContactSummary merged = service.identify("two@flux.com", "1111111111");
+
+        Assertions.assertEquals(merged, service.lookup("two@flux.com", null).orElseThrow());
+        Assertions.assertEquals(merged, service.lookup(null, "3333333333").orElseThrow());
+        Assertions.assertEquals(merged, service.lookup("ONE@flux.com", null).orElseThrow());
+    }
+
+    @Test
+    void testLookupNeverWrites() {
+        Assertions.assertTrue(service.lookup("doc@future.com", null).isEmpty());
+        Assertions.assertEquals(0, contactRepository.count());
+    }
+
+    @Test
+    void testIdentifierVariantsJoinOneCluster() {
+        ContactSummary first = service.identify("doc@future.com", "+91 99999 99999");
+        Assertions.assertEquals(first, service.identify(" Doc@Future.com ", "+91-99999-99999"));
+        Assertions.assertEquals(first, service.identify("DOC@FUTURE.COM", "0091 (99999) 99999"));
+        Assertions.assertEquals(1, contactRepository.count());
+
+        Contact stored = contactRepository.findByEmail("doc@future.com").get(0);
+        Assertions.assertEquals("+919999999999", stored.getPhoneNumber());
+        Assertions.assertEquals(IdentifierHash.of("doc@future.com"), stored.getEmailHash());
+        Assertions.assertEquals(IdentifierHash.of("+919999999999"), stored.getPhoneHash());
+    }
+
+    @Test
+    void testDeletedContactsTakeNoPart() {
+        ContactSummary marty = service.identify("marty@hillvalley.edu", "555000");
+        Long mcfly = service.identify("mcfly@hillvalley.edu", "555000").secondaryContactIds().get(0);
+        Contact secondary = contactRepository.findById(mcfly).orElseThrow();
+        secondary.setDeletedAt(LocalDateTime.now());
+        contactRepository.save(secondary);
+        Assertions.assertEquals(List.of("marty@hillvalley.edu"), service.identify("marty@hillvalley.edu", null).emails());
+
+        // Deleting the primary deletes its cluster
+        Contact primary = contactRepository.findById(marty.primaryContactId()).orElseThrow();
+        primary.setDeletedAt(LocalDateTime.now());
+        contactRepository.save(primary);
+        Assertions.assertTrue(service.lookup(null, "555000").isEmpty());
+        Assertions.assertNotEquals(marty.primaryContactId(), service.identify(null, "555000").primaryContactId());
+    }
+
+    @Test
+    void testSecondariesArePagedInIdOrder() {
+        ContactSummary doc = service.identify("doc@future.com", "1000");
+        for (int i = 1; i <= 5; i++) {
+            service.identify("doc@future.com", String.valueOf(1000 + i));
+        }
+        SecondaryContactsPage first = service.secondaries(doc.primaryContactId(), 0, 3).orElseThrow();
+        Assertions.assertEquals(List.of("1001", "1002", "1003"),
+                first.secondaries().stream().map(SecondaryContactsPage.SecondaryContact::phoneNumber).toList());
+        SecondaryContactsPage second = service.secondaries(doc.primaryContactId(), first.next(), 3).orElseThrow();
+        Assertions.assertEquals(2, second.secondaries().size());
+        Assertions.assertNull(second.next());
+        Assertions.assertTrue(service.secondaries(first.secondaries().get(0).id(), 0, 3).isEmpty());
+    }
+
+    @Test
+    void testConcurrentIdentifiesBuildOneCluster() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<ContactSummary>> results = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                String phoneNumber = String.valueOf(7_000_000 + i);
+                results.add(executor.submit(() -> service.identify("biff@hillvalley.edu", phoneNumber)));
+            }
+            for (Future<ContactSummary> result : results) {
+                result.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        ContactSummary cluster = service.lookup("biff@hillvalley.edu", null).orElseThrow();
+        Assertions.assertEquals(199, cluster.secondaryContactIds().size());
+        Assertions.assertEquals(200, cluster.phoneNumbers().size());
+    }
+
+    @Test
+    void testConcurrentBridgingMergesLeaveOnePrimary() throws Exception {
+        // Each identify bridges two clusters through different identifiers: a merge demotes a primary that
+        // a concurrent merge of the neighbouring pair may be relinking under
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            for (int round = 0; round < 20; round++) {
+                List<Integer> bridges = new ArrayList<>();
+                for (int i = 0; i < 32; i++) {
+                    savePrimary("c" + i + "@round" + round + ".com", String.valueOf(1_000_000 * (round + 1) + i),
+                            LocalDateTime.now());
+                    bridges.add(i);
+                }
+                Collections.shuffle(bridges);
+                List<Future<ContactSummary>> results = new ArrayList<>();
+                for (int i : bridges) {
+                    String email = "c" + i + "@round" + round + ".com";
+                    String phoneNumber = String.valueOf(1_000_000 * (round + 1) + (i + 1) % 32);
+                    results.add(executor.submit(() -> service.identify(email, phoneNumber)));
+                }
+                for (Future<ContactSummary> result : results) {
+                    result.get();
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        Map<Long, Contact> contacts = new HashMap<>();
+        contactRepository.findAll().forEach(contact -> contacts.put(contact.getId(), contact));
+        Map<String, Set<Long>> primaries = new HashMap<>();
+        for (Contact contact : contacts.values()) {
+            Long primaryId = contact.getLinkedId() == null ? contact.getId() : contact.getLinkedId();
+            Assertions.assertEquals(LinkPrecedence.PRIMARY, contacts.get(primaryId).getLinkPrecedence(),
+                    "contact " + contact.getId() + " links to a secondary");
+            primaries.computeIfAbsent(contact.getEmail().substring(contact.getEmail().indexOf('@')),
+                    round -> new HashSet<>()).add(primaryId);
+        }
+        Assertions.assertEquals(20, primaries.size());
+        primaries.forEach((round, ids) -> Assertions.assertEquals(1, ids.size(), round + " has several primaries"));
+    }
+
+    @Test
+    void testSnapshotRestoresTheStore(@TempDir Path directory) throws Exception {
+        Path file = directory.resolve("contacts.snapshot");
+        ContactSummary merged;
+        Long deleted;
+        try (EmbeddedIdentityService embedded = EmbeddedIdentityService.open(file)) {
+            embedded.identify("one@flux.com", "1111111111");
+            deleted = embedded.identify("gone@flux.com", null).primaryContactId();
+            embedded.identify("two@flux.com", "2222222222");
+            merged = embedded.identify("one@flux.com", "2222222222");
+            embedded.contactRepository().deleteById(deleted);
+        }
+        // A record cut short by a crash mid-append is ignored
+        Files.write(file, new byte[]{1, 0, 0}, StandardOpenOption.APPEND);
+
+        try (EmbeddedIdentityService reopened = EmbeddedIdentityService.open(file)) {
+            Assertions.assertEquals(merged, reopened.lookup("two@flux.com", null).orElseThrow());
+            Assertions.assertEquals(3, reopened.contactRepository().count());
+            Assertions.assertTrue(reopened.contactRepository().findById(deleted).isEmpty());
+            // New ids continue after the restored ones
+            Long next = reopened.identify("three@flux.com", null).primaryContactId();
+            Assertions.assertTrue(next > merged.secondaryContactIds().get(1));
+        }
+        try (EmbeddedIdentityService reopened = EmbeddedIdentityService.open(file)) {
+            Assertions.assertEquals(4, reopened.contactRepository().count());
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package com.bitespeed.identityreconciliation;
+
+import com.bitespeed.identityreconciliation.dto.ContactSummary;
+import com.bitespeed.identityreconciliation.dto.SecondaryContactsPage;
+import com.bitespeed.identityreconciliation.model.Contact;
+import com.bitespeed.identityreconciliation.model.ContactCluster;
+import com.bitespeed.identityreconciliation.model.HotCluster;
+import com.bitespeed.identityreconciliation.model.LinkPrecedence;
+import com.bitespeed.identityreconciliation.repository.ContactClusterRepository;
+import com.bitespeed.identityreconciliation.repository.ContactRepository;
+import com.bitespeed.identityreconciliation.repository.HotClusterRepository;
+import com.bitespeed.identityreconciliation.service.ContactService;
+import com.bitespeed.identityreconciliation.service.HotClusterRefresher;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@SpringBootTest(properties = {
+        "identity.clusters.hot-threshold=6",
+        // Refreshed only when a test asks, so stale projection rows stay stale
+        "identity.clusters.refresh-interval=1h",
+        "identity.response.max-list-size=3"
+})
+@AutoConfigureMockMvc
+public class HotClusterTest {
+
+    private static final String LANDLINE = "0800123456";
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private ContactService contactService;
+
+    @Autowired
+    private HotClusterRefresher refresher;
+
+    @Autowired
+    private ContactRepository contactRepository;
+
+    @Autowired
+    private ContactClusterRepository contactClusterRepository;
+
+    @Autowired
+    private HotClusterRepository hotClusterRepository;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @BeforeEach
+    @AfterEach
+    void cleanDatabase() {
+        contactRepository.deleteAllInBatch();
+        contactClusterRepository.deleteAllInBatch();
+        hotClusterRepository.deleteAllInBatch();
+    }
+
+    // A primary and secondaries sharing the landline, each with its own email
+    private ContactSummary landlineCluster(int contacts) {
+        ContactSummary summary = null;
+        for (int i = 0; i < contacts; i++) {
+            summary = contactService.identifyOrLinkContact("shopper" + i + "@store.com", LANDLINE);
+        }
+        return summary;
+    }
+
+    @Test
+    void testResponsesAreCutWithFullCounts() {
+        ContactSummary summary = landlineCluster(5);
+        Assertions.assertEquals(List.of("shopper0@store.com", "shopper1@store.com", "shopper2@store.com"), summary.emails());
+        Assertions.assertEquals(3, summary.secondaryContactIds().size());
+        Assertions.assertEquals(5, summary.emailCount());
+        Assertions.assertEquals(1, summary.phoneNumberCount());
+        Assertions.assertEquals(4, summary.secondaryContactCount());
+        Assertions.assertTrue(summary.isTruncated());
+        Assertions.assertEquals(summary, contactService.lookup(null, LANDLINE).orElseThrow());
+        Assertions.assertFalse(hotClusterRepository.existsById(summary.primaryContactId()));
+    }
+
+    @Test
+    void testHotClusterIsAnsweredFromItsSummary() {
+        ContactSummary before = landlineCluster(6);
+        contactService.identifyOrLinkContact("newcomer@store.com", LANDLINE);
+        ContactSummary summary = contactService.identifyOrLinkContact("latecomer@store.com", LANDLINE);
+
+        Assertions.assertEquals(before.primaryContactId(), summary.primaryContactId());
+        Assertions.assertEquals(before.secondaryContactIds(), summary.secondaryContactIds());
+        Assertions.assertEquals(8, summary.emailCount());
+        Assertions.assertEquals(7, summary.secondaryContactCount());
+        Assertions.assertEquals(8, contactRepository.count());
+        Contact latecomer = contactRepository.findByEmail("latecomer@store.com").get(0);
+        Assertions.assertEquals(before.primaryContactId(), latecomer.getLinkedId());
+
+        // The appended summary is what a rebuild from the contacts produces
+        HotCluster appended = hotClusterRepository.findById(summary.primaryContactId()).orElseThrow();
+        Assertions.assertEquals(6, appended.getEmails().length);
+        transactionTemplate.executeWithoutResult(status -> hotClusterRepository.rebuild(summary.primaryContactId(), 6));
+        HotCluster rebuilt = hotClusterRepository.findById(summary.primaryContactId()).orElseThrow();
+        Assertions.assertArrayEquals(rebuilt.getEmails(), appended.getEmails());
+        Assertions.assertArrayEquals(rebuilt.getPhoneNumbers(), appended.getPhoneNumbers());
+        Assertions.assertArrayEquals(rebuilt.getSecondaryContactIds(), appended.getSecondaryContactIds());
+        Assertions.assertEquals(rebuilt.getEmailCount(), appended.getEmailCount());
+        Assertions.assertEquals(rebuilt.getMemberCount(), appended.getMemberCount());
+
+        // Lookups find the new email from the summary at once; the projection row catches up in the background
+        Assertions.assertEquals(summary, contactService.lookup("latecomer@store.com", null).orElseThrow());
+        Assertions.assertEquals(1, refresher.refresh());
+        Assertions.assertEquals(0, refresher.refresh());
+        ContactCluster projection = contactClusterRepository.findById(summary.primaryContactId()).orElseThrow();
+        Assertions.assertEquals(8, projection.getEmails().length);
+        Assertions.assertEquals(summary, contactService.lookup("latecomer@store.com", null).orElseThrow());
+    }
+
+    @Test
+    void testHotClusterRepeatDoesNotDuplicate() {
+        landlineCluster(7);
+        ContactSummary first = contactService.identifyOrLinkContact("shopper2@store.com", LANDLINE);
+        Assertions.assertEquals(first, contactService.identifyOrLinkContact("shopper2@store.com", LANDLINE));
+        Assertions.assertEquals(7, contactRepository.count());
+        Assertions.assertEquals(7, first.emailCount());
+
+        // A phone-only request adds its contact once, like on the regular path
+        ContactSummary phoneOnly = contactService.identifyOrLinkContact(null, LANDLINE);
+        Assertions.assertEquals(phoneOnly, contactService.identifyOrLinkContact(null, LANDLINE));
+        Assertions.assertEquals(8, contactRepository.count());
+        Assertions.assertEquals(7, phoneOnly.secondaryContactCount());
+        Assertions.assertEquals(7, phoneOnly.emailCount());
+    }
+
+    @Test
+    void testHotClusterAbsorbsNewerCluster() {
+        ContactSummary hot = landlineCluster(7);
+        ContactSummary newer = contactService.identifyOrLinkContact("regular@home.com", "5551234567");
+
+        ContactSummary merged = contactService.identifyOrLinkContact("regular@home.com", LANDLINE);
+        Assertions.assertEquals(hot.primaryContactId(), merged.primaryContactId());
+        Assertions.assertEquals(8, merged.secondaryContactCount());
+        Assertions.assertEquals(2, merged.phoneNumberCount());
+        Assertions.assertEquals(LinkPrecedence.SECONDARY,
+                contactRepository.findById(newer.primaryContactId()).orElseThrow().getLinkPrecedence());
+        Assertions.assertFalse(contactClusterRepository.existsById(newer.primaryContactId()));
+
+        // The absorbed cluster's identifiers resolve to the summary before the projection row is rebuilt, and after
+        Assertions.assertEquals(merged, contactService.lookup(null, "5551234567").orElseThrow());
+        refresher.refresh();
+        Assertions.assertEquals(merged, contactService.lookup(null, "5551234567").orElseThrow());
+    }
+
+    @Test
+    void testSecondariesArePaged() throws Exception {
+        ContactSummary summary = landlineCluster(8);
+        List<Long> all = contactRepository.findAllByLinkedIdOrId(summary.primaryContactId()).stream()
+                .filter(c -> c.getLinkPrecedence() == LinkPrecedence.SECONDARY)
+                .map(Contact::getId)
+                .sorted()
+                .toList();
+        Assertions.assertEquals(7, all.size());
+
+        List<Long> paged = new ArrayList<>();
+        Long after = 0L;
+        while (after != null) {
+            String body = mockMvc.perform(get("/identify/" + summary.primaryContactId() + "/secondaries")
+                            .param("after", String.valueOf(after)).param("limit", "3"))
+                    .andExpect(status().isOk())
+                    .andReturn().getResponse().getContentAsString();
+            SecondaryContactsPage page = objectMapper.readValue(body, SecondaryContactsPage.class);
+            page.secondaries().forEach(secondary -> paged.add(secondary.id()));
+            after = page.next();
+        }
+        Assertions.assertEquals(all, paged);
+
+        mockMvc.perform(get("/identify").param("phoneNumber", LANDLINE))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.contact.secondaryContactIds", Matchers.hasSize(3)))
+                .andExpect(jsonPath("$.contact.secondaryContactCount").value(7))
+                .andExpect(jsonPath("$.contact.emailCount").value(8));
+        mockMvc.perform(get("/identify/" + summary.primaryContactId() + "/secondaries").param("limit", "0"))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(get("/identify/" + all.get(0) + "/secondaries"))
+                .andExpect(status().isNotFound());
+    }
+}
@@ -0,0 +1,38 @@
+package com.bitespeed.identityreconciliation;
+
+import com.bitespeed.identityreconciliation.model.IdentifierHash;
+import com.bitespeed.identityreconciliation.service.IdentifierNormalizer;
+import com.bitespeed.identityreconciliation.service.IdentityLockManager;
+import com.bitespeed.identityreconciliation.sharding.TenantContext;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+public class IdentifierNormalizerTest {
+
+    @Test
+    void testNationalNumbersUseDefaultCountryCode() {
+        IdentifierNormalizer normalizer = new IdentifierNormalizer("+91");
+        Assertions.assertEquals("+919999999999", normalizer.phoneNumber("099999 99999"));
+        Assertions.assertEquals("+919999999999", normalizer.phoneNumber("9999999999"));
+        Assertions.assertEquals("+14155550100", normalizer.phoneNumber("+1 (415) 555-0100"));
+        Assertions.assertEquals("ext:12", new IdentifierNormalizer("").phoneNumber(" ext: 12 "));
+        Assertions.assertNull(normalizer.phoneNumber("  "));
+    }
+
+    @Test
+    void testLockKeysFollowTheNormalizedIdentifiers() {
+        IdentityLockManager lockManager = new IdentityLockManager(null, new IdentifierNormalizer("+91"), 16, false);
+        long[] keys = lockManager.keysFor("doc@future.com", "+919999999999");
+        Assertions.assertArrayEquals(keys, lockManager.keysFor(" Doc@Future.COM ", "099999 99999"));
+        long[] expected = {IdentifierHash.of("email:doc@future.com"), IdentifierHash.of("phone:+919999999999")};
+        Arrays.sort(expected);
+        Assertions.assertArrayEquals(expected, keys);
+
+        Assertions.assertEquals(1, lockManager.keysFor(null, "9999999999").length);
+        Assertions.assertEquals(0, lockManager.keysFor(" ", null).length);
+        long[] tenantKeys = TenantContext.call("hillvalley", () -> lockManager.keysFor("doc@future.com", "9999999999"));
+        Assertions.assertFalse(Arrays.equals(keys, tenantKeys));
+    }
+}
@@ -0,0 +1,130 @@
+package com.bitespeed.identityreconciliation;
+
+import com.bitespeed.identityreconciliation.dto.ContactSummary;
+import com.bitespeed.identityreconciliation.service.IdentifyCoalescer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+public class IdentifyCoalescerTest {
+
+    private static final ContactSummary DOC = new ContactSummary(1L, List.of("doc@hillvalley.edu"), List.of("123456"), List.of());
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private double count(String result) {
+        return meterRegistry.get("identify.coalesce").tag("result", result).counter().count();
+    }
+
+    // Runs callers concurrently; the first one blocks in identify until all the others have joined its flight
+    private List<Future<ContactSummary>> startFlight(IdentifyCoalescer coalescer, int callers, CountDownLatch release,
+                                                     Supplier<ContactSummary> identify, ExecutorService executor) throws Exception {
+        CountDownLatch leading = new CountDownLatch(1);
+        List<Future<ContactSummary>> results = new ArrayList<>();
+        results.add(executor.submit(() -> coalescer.coalesce("doc@hillvalley.edu", "123456", () -> {
+            leading.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            return identify.get();
+        })));
+        Assertions.assertTrue(leading.await(5, TimeUnit.SECONDS));
+        for (int i = 1; i < callers; i++) {
+            results.add(executor.submit(() -> coalescer.coalesce("doc@hillvalley.edu", "123456", () -> {
+                throw new AssertionError("Joined call ran identify");
+            })));
+        }
+        while (count("joined") < callers - 1) {
+            Thread.sleep(1);
+        }
+        return results;
+    }
+
+    @Test
+    void testConcurrentIdenticalCallsShareOneReconciliation() throws Exception {
+        IdentifyCoalescer coalescer = new IdentifyCoalescer(meterRegistry, true, 100);
+        AtomicInteger reconciliations = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<ContactSummary>> results = startFlight(coalescer, 8, release, () -> {
+                reconciliations.incrementAndGet();
+                return DOC;
+            }, executor);
+            Assertions.assertEquals(1.0, meterRegistry.get("identify.coalesce.in-flight").gauge().value());
+            release.countDown();
+
+            for (Future<ContactSummary> result : results) {
+                Assertions.assertSame(DOC, result.get(5, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        Assertions.assertEquals(1, reconciliations.get());
+        Assertions.assertEquals(1, count("leader"));
+        Assertions.assertEquals(7, count("joined"));
+        Assertions.assertEquals(0.0, meterRegistry.get("identify.coalesce.in-flight").gauge().value());
+
+        // Once the flight has landed, the next call reconciles again
+        Assertions.assertSame(DOC, coalescer.coalesce("doc@hillvalley.edu", "123456", () -> {
+            reconciliations.incrementAndGet();
+            return DOC;
+        }));
+        Assertions.assertEquals(2, reconciliations.get());
+    }
+
+    @Test
+    void testJoinedCallsFailWithTheLeadersException() throws Exception {
+        IdentifyCoalescer coalescer = new IdentifyCoalescer(meterRegistry, true, 100);
+        IllegalStateException failure = new IllegalStateException("database unavailable");
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            List<Future<ContactSummary>> results = startFlight(coalescer, 3, release, () -> {
+                throw failure;
+            }, executor);
+            release.countDown();
+
+            for (Future<ContactSummary> result : results) {
+                Exception e = Assertions.assertThrows(Exception.class, () -> result.get(5, TimeUnit.SECONDS));
+                Assertions.assertSame(failure, e.getCause());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void testKeysPastTheBoundRunUncoalesced() throws Exception {
+        IdentifyCoalescer coalescer = new IdentifyCoalescer(meterRegistry, true, 1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            List<Future<ContactSummary>> results = startFlight(coalescer, 2, release, () -> DOC, executor);
+
+            // The one tracked key is taken, so a different pair runs on its own
+            ContactSummary marty = new ContactSummary(2L, List.of("marty@hillvalley.edu"), List.of(), List.of());
+            Assertions.assertSame(marty, coalescer.coalesce("marty@hillvalley.edu", null, () -> marty));
+            Assertions.assertEquals(1, count("bypassed"));
+
+            release.countDown();
+            for (Future<ContactSummary> result : results) {
+                Assertions.assertSame(DOC, result.get(5, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.bitespeed.identityreconciliation;
+
+import com.bitespeed.identityreconciliation.cache.IdentityGraphCache;
+import com.bitespeed.identityreconciliation.dto.ContactSummary;
+import com.bitespeed.identityreconciliation.dto.IdentifyRequest;
+import com.bitespeed.identityreconciliation.model.Contact;
+import com.bitespeed.identityreconciliation.model.LinkPrecedence;
+import com.bitespeed.identityreconciliation.repository.ContactBatchRepository;
+import com.bitespeed.identityreconciliation.repository.ContactClusterRepository;
+import com.bitespeed.identityreconciliation.repository.ContactRepository;
+import com.bitespeed.identityreconciliation.service.ContactBatchService;
+import com.bitespeed.identityreconciliation.service.ContactService;
+import org.junit.jupiter.api.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+@SpringBootTest(properties = "identity.cache.enabled=true")
+public class IdentityGraphCacheTest {
+
+    @Autowired
+    private ContactService contactService;
+
+    @Autowired
+    private IdentityGraphCache identityGraphCache;
+
+    @Autowired
+    private ContactRepository contactRepository;
+
+    @Autowired
+    private ContactClusterRepository contactClusterRepository;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private ContactBatchService contactBatchService;
+
+    @Autowired
+    private ContactBatchRepository contactBatchRepository;
+
+    @BeforeEach
+    @AfterEach
+    void cleanDatabase() {
+        contactRepository.deleteAllInBatch();
+        contactClusterRepository.deleteAllInBatch();
+        identityGraphCache.invalidateAll();
+    }
+
+    @Test
+    void testRepeatIdentifyIsServedFromCache() {
+        ContactSummary first = contactService.identifyOrLinkContact("doc@future.com", "9999999999");
+        List<Contact> cached = identityGraphCache.lookup("doc@future.com", "9999999999");
+        Assertions.assertNotNull(cached);
+        Assertions.assertEquals(first, contactService.identifyOrLinkContact("doc@future.com", "9999999999"));
+        // A new combination is not a repeat and must go to the database
+        Assertions.assertNull(identityGraphCache.lookup("doc@future.com", "8888888888"));
+    }
+
+    @Test
+    void testNewSecondaryIsWrittenThrough() {
+        contactService.identifyOrLinkContact("doc@future.com", "9999999999");
+        contactService.identifyOrLinkContact("emmett@future.com", "9999999999");
+        List<Contact> cached = identityGraphCache.lookup("emmett@future.com", "9999999999");
+        Assertions.assertNotNull(cached);
+        Assertions.assertEquals(2, cached.size());
+        Assertions.assertEquals(1, cached.stream().filter(c -> c.getLinkPrecedence() == LinkPrecedence.PRIMARY).count());
+    }
+
+    @Test
+    void testMergeUnionsCachedClusters() {
+        ContactSummary one = contactService.identifyOrLinkContact("one@flux.com", "1111111111");
+        contactService.identifyOrLinkContact("two@flux.com", "2222222222");
+        contactService.identifyOrLinkContact("one@flux.com", "2222222222");
+        List<Contact> cached = identityGraphCache.lookup("two@flux.com", "2222222222");
+        Assertions.assertNotNull(cached);
+        Contact primary = cached.stream().filter(c -> c.getLinkPrecedence() == LinkPrecedence.PRIMARY).findFirst().orElseThrow();
+        Assertions.assertEquals(one.primaryContactId(), primary.getId());
+        Assertions.assertEquals(3, cached.size());
+    }
+
+    @Test
+    void testNotificationFromAnotherNodeEvictsCluster() throws Exception {
+        ContactSummary response = contactService.identifyOrLinkContact("doc@future.com", "9999999999");
+        Assertions.assertNotNull(identityGraphCache.lookup("doc@future.com", "9999999999"));
+        transactionTemplate.executeWithoutResult(status -> contactRepository.notifyChannel(
+                IdentityGraphCache.INVALIDATION_CHANNEL, "other-node:" + response.primaryContactId()));
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (identityGraphCache.lookup("doc@future.com", "9999999999") != null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        Assertions.assertNull(identityGraphCache.lookup("doc@future.com", "9999999999"));
+    }
+
+    @Test
+    void testLargeInvalidationsStayUnderTheNotifyLimit() {
+        List<Long> roots = new ArrayList<>();
+        for (long i = 0; i < 3000; i++) {
+            roots.add(1_000_000_000_000L + i);
+        }
+        List<String> payloads = identityGraphCache.invalidationPayloads(roots);
+        Assertions.assertTrue(payloads.size() > 1);
+        Set<Long> announced = new HashSet<>();
+        for (String payload : payloads) {
+            Assertions.assertTrue(payload.length() < 8000, "Payload of " + payload.length() + " bytes");
+            for (String id : payload.substring(payload.indexOf(':') + 1).split(",")) {
+                announced.add(Long.valueOf(id));
+            }
+        }
+        Assertions.assertEquals(new HashSet<>(roots), announced);
+        // Postgres takes every one of them
+        transactionTemplate.executeWithoutResult(status -> identityGraphCache.publishInvalidation(roots));
+
+        // Past a bound, one notification drops every cluster instead
+        for (long i = 3000; i < 20_000; i++) {
+            roots.add(1_000_000_000_000L + i);
+        }
+        Assertions.assertEquals(List.of(identityGraphCache.getNodeId() + ":" + IdentityGraphCache.ALL_ROOTS),
+                identityGraphCache.invalidationPayloads(roots));
+    }
+
+    @Test
+    void testWholeStoreNotificationFromAnotherNodeEvictsEveryCluster() throws Exception {
+        contactService.identifyOrLinkContact("doc@future.com", "9999999999");
+        contactService.identifyOrLinkContact("marty@future.com", "8888888888");
+        transactionTemplate.executeWithoutResult(status -> contactRepository.notifyChannel(
+                IdentityGraphCache.INVALIDATION_CHANNEL, "other-node:" + IdentityGraphCache.ALL_ROOTS));
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (identityGraphCache.lookup("marty@future.com", "8888888888") != null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        Assertions.assertNull(identityGraphCache.lookup("doc@future.com", "9999999999"));
+        Assertions.assertNull(identityGraphCache.lookup("marty@future.com", "8888888888"));
+    }
+
+    @Test
+    void testBatchMergingManyClustersPublishesTheirRoots() {
+        // 800 primaries with 13-digit ids: their roots alone take over 11000 bytes
+        LocalDateTime now = LocalDateTime.now();
+        List<Contact> primaries = new ArrayList<>();
+        for (int i = 0; i < 800; i++) {
+            primaries.add(Contact.builder()
+                    .id(1_000_000_000_000L + i)
+                    .email("customer" + i + "@flux.com")
+                    .phoneNumber(String.valueOf(5_000_000 + i))
+                    .linkPrecedence(LinkPrecedence.PRIMARY)
+                    .createdAt(now.plusNanos(i * 1000L))
+                    .updatedAt(now)
+                    .build());
+        }
+        contactBatchRepository.insertAll(primaries);
+
+        // Every item merges two of them
+        List<IdentifyRequest> requests = new ArrayList<>();
+        for (int i = 0; i < 800; i += 2) {
+            requests.add(new IdentifyRequest("customer" + i + "@flux.com", String.valueOf(5_000_000 + i + 1), null));
+        }
+        List<ContactSummary> results = contactBatchService.identifyBatch(requests);
+
+        Assertions.assertEquals(400, results.size());
+        Assertions.assertEquals(1_000_000_000_000L, results.get(0).primaryContactId());
+        Assertions.assertTrue(results.get(0).secondaryContactIds().contains(1_000_000_000_001L));
+        // 400 demoted primaries and 400 new contacts for the new email and phone pairs
+        Assertions.assertEquals(800, contactRepository.findAll().stream()
+                .filter(c -> c.getLinkPrecedence() == LinkPrecedence.SECONDARY).count());
+    }
+}
@@ -0,0 +1,24 @@
+package com.bitespeed.identityreconciliation;
+
+import com.bitespeed.identityreconciliation.config.JsonHintsConfiguration;
+import com.bitespeed.identityreconciliation.dto.IdentifyRequest;
+import com.bitespeed.identityreconciliation.model.ContactEvent;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.aot.hint.RuntimeHints;
+import org.springframework.aot.hint.TypeReference;
+import org.springframework.aot.hint.predicate.RuntimeHintsPredicates;
+
+public class JsonHintsTest {
+
+    @Test
+    public void testTypesSerializedOutsideControllersAreReflectable() {
+        RuntimeHints hints = new RuntimeHints();
+        new JsonHintsConfiguration.JsonHints().registerHints(hints, getClass().getClassLoader());
+
+        Assertions.assertTrue(RuntimeHintsPredicates.reflection().onType(ContactEvent.class).test(hints));
+        Assertions.assertTrue(RuntimeHintsPredicates.reflection().onType(IdentifyRequest.class).test(hints));
+        Assertions.assertTrue(RuntimeHintsPredicates.reflection().onType(
+                TypeReference.of("com.bitespeed.identityreconciliation.writebehind.ContactJournal$Entry")).test(hints));
+    }
+}
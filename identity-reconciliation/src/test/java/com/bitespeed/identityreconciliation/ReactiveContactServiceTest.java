@@ -0,0 +1,132 @@
+package com.bitespeed.identityreconciliation;
+
+import com.bitespeed.identityreconciliation.dto.ContactSummary;
+import com.bitespeed.identityreconciliation.model.Contact;
+import com.bitespeed.identityreconciliation.model.ContactCluster;
+import com.bitespeed.identityreconciliation.repository.ContactClusterRepository;
+import com.bitespeed.identityreconciliation.repository.ContactRepository;
+import com.bitespeed.identityreconciliation.service.ContactService;
+import com.bitespeed.identityreconciliation.service.ReactiveContactService;
+import org.junit.jupiter.api.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.BiFunction;
+import java.util.stream.Stream;
+
+@SpringBootTest
+@ActiveProfiles("reactive")
+@AutoConfigureWebTestClient
+public class ReactiveContactServiceTest {
+
+    // Creates primaries, secondaries, two merges (one demoting the newer side) and repeats
+    private static final String[][] REQUESTS = {
+            {"one@flux.com", "1111111111"},
+            {"two@flux.com", "2222222222"},
+            {"one@flux.com", "3333333333"},
+            {"three@flux.com", "2222222222"},
+            {"one@flux.com", "2222222222"},
+            {"two@flux.com", "1111111111"},
+            {null, "3333333333"},
+            {"one@flux.com", "1111111111"},
+            {"four@flux.com", "4444444444"},
+            {"four@flux.com", "3333333333"},
+            {"five@flux.com", null},
+            {"two@flux.com", "3333333333"},
+    };
+
+    @Autowired
+    private ReactiveContactService reactiveContactService;
+
+    @Autowired
+    private ContactService contactService;
+
+    @Autowired
+    private ContactRepository contactRepository;
+
+    @Autowired
+    private ContactClusterRepository contactClusterRepository;
+
+    @Autowired
+    private WebTestClient webTestClient;
+
+    @BeforeEach
+    @AfterEach
+    void cleanDatabase() {
+        contactRepository.deleteAllInBatch();
+        contactClusterRepository.deleteAllInBatch();
+    }
+
+    @Test
+    void testReactiveAndJpaPathsProduceIdenticalClusters() {
+        List<String> reactive = replay((email, phone) -> reactiveContactService.identifyOrLinkContact(email, phone).block());
+        contactRepository.deleteAllInBatch();
+        contactClusterRepository.deleteAllInBatch();
+        List<String> jpa = replay(contactService::identifyOrLinkContact);
+
+        Assertions.assertEquals(jpa, reactive);
+    }
+
+    @Test
+    void testIdentifyEndpoint() {
+        webTestClient.post().uri("/identify")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue("{\"email\":\"doc@future.com\",\"phoneNumber\":\"9999999999\"}")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.contact.primaryContactId").isNumber()
+                .jsonPath("$.contact.emails[0]").isEqualTo("doc@future.com")
+                .jsonPath("$.contact.phoneNumbers[0]").isEqualTo("9999999999")
+                .jsonPath("$.contact.secondaryContactIds").isEmpty();
+
+        webTestClient.get().uri("/identify?phoneNumber=9999999999")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.contact.emails[0]").isEqualTo("doc@future.com");
+
+        webTestClient.get().uri("/identify?email=marty@hillvalley.edu")
+                .exchange()
+                .expectStatus().isNotFound();
+
+        webTestClient.post().uri("/identify")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue("{\"email\":\" \",\"phoneNumber\":null}")
+                .exchange()
+                .expectStatus().isBadRequest()
+                .expectBody()
+                .jsonPath("$.error").isEqualTo("Either email or phoneNumber must be provided.");
+    }
+
+    // Responses, final table rows and projection rows, with ids replaced by their creation rank so separate runs compare
+    private List<String> replay(BiFunction<String, String, ContactSummary> identify) {
+        List<ContactSummary> responses = new ArrayList<>();
+        for (String[] request : REQUESTS) {
+            responses.add(identify.apply(request[0], request[1]));
+        }
+        List<Long> ids = contactRepository.findAll().stream().map(Contact::getId).sorted().toList();
+
+        List<String> snapshot = new ArrayList<>();
+        for (ContactSummary response : responses) {
+            snapshot.add(ids.indexOf(response.primaryContactId()) + " " + response.emails() + " " + response.phoneNumbers()
+                    + " " + response.secondaryContactIds().stream().map(ids::indexOf).toList());
+        }
+        contactRepository.findAll().stream()
+                .sorted(Comparator.comparing(Contact::getId))
+                .forEach(c -> snapshot.add(ids.indexOf(c.getId()) + " " + c.getEmail() + " " + c.getPhoneNumber() + " "
+                        + c.getLinkPrecedence() + " " + (c.getLinkedId() == null ? "-" : ids.indexOf(c.getLinkedId()))));
+        contactClusterRepository.findAll().stream()
+                .sorted(Comparator.comparing(ContactCluster::getPrimaryContactId))
+                .forEach(c -> snapshot.add(ids.indexOf(c.getPrimaryContactId()) + " " + List.of(c.getEmails()) + " "
+                        + List.of(c.getPhoneNumbers()) + " " + Stream.of(c.getSecondaryContactIds()).map(ids::indexOf).toList()));
+        return snapshot;
+    }
+}
@@ -0,0 +1,266 @@
+package com.bitespeed.identityreconciliation;
+
+import com.bitespeed.identityreconciliation.admission.AdmissionLimiter;
+import com.bitespeed.identityreconciliation.admission.AdmissionLimiter.Permit;
+import com.bitespeed.identityreconciliation.admission.AdmissionLimiter.Priority;
+import com.bitespeed.identityreconciliation.admission.AdmissionLimiters;
+import com.bitespeed.identityreconciliation.cache.IdentityGraphCache;
+import com.bitespeed.identityreconciliation.dto.ContactSummary;
+import com.bitespeed.identityreconciliation.repository.ContactArchiveRepository;
+import com.bitespeed.identityreconciliation.repository.ContactEventRepository;
+import com.bitespeed.identityreconciliation.service.ContactService;
+import com.bitespeed.identityreconciliation.service.IdentityLockManager;
+import com.bitespeed.identityreconciliation.sharding.ShardRouter;
+import com.bitespeed.identityreconciliation.sharding.TenantContext;
+import org.junit.jupiter.api.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+// Default store in bitespeed_shards, hillvalley and twinpines on shard a, lyonestates on shard b; every store is
+// created by the Flyway migrations, as in production
+@SpringBootTest(properties = {
+        "spring.datasource.url=" + ShardingTest.SERVER + "bitespeed_shards",
+        "spring.flyway.enabled=true",
+        // As in application.properties, which src/test/resources replaces
+        "spring.flyway.postgresql.transactional-lock=false",
+        "spring.jpa.hibernate.ddl-auto=none",
+        "spring.datasource.hikari.maximum-pool-size=3",
+        "spring.datasource.hikari.minimum-idle=1",
+        "identity.sharding.enabled=true",
+        "identity.sharding.shards.a.url=" + ShardingTest.SERVER + "bitespeed_shard_a",
+        "identity.sharding.shards.b.url=" + ShardingTest.SERVER + "bitespeed_shard_b",
+        "identity.sharding.tenants.hillvalley=a",
+        "identity.sharding.tenants.twinpines=a",
+        "identity.sharding.tenants.lyonestates=b"
+})
+@AutoConfigureMockMvc
+public class ShardingTest {
+
+    static final String SERVER = "jdbc:postgresql://localhost:5432/";
+    private static final String USER = "postgres";
+    private static final String PASSWORD = "post@123";
+
+    static {
+        try (Connection connection = DriverManager.getConnection(SERVER + "postgres", USER, PASSWORD);
+             Statement statement = connection.createStatement()) {
+            for (String database : List.of("bitespeed_shards", "bitespeed_shard_a", "bitespeed_shard_b")) {
+                ResultSet exists = statement.executeQuery("SELECT 1 FROM pg_database WHERE datname = '" + database + "'");
+                if (!exists.next()) {
+                    statement.execute("CREATE DATABASE " + database);
+                }
+            }
+        } catch (SQLException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private ContactService contactService;
+
+    @Autowired
+    private ShardRouter shardRouter;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private IdentityGraphCache identityGraphCache;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private IdentityLockManager lockManager;
+
+    @Autowired
+    private ContactArchiveRepository contactArchiveRepository;
+
+    @Autowired
+    private ContactEventRepository contactEventRepository;
+
+    @Autowired
+    private AdmissionLimiters admissionLimiters;
+
+    @BeforeEach
+    @AfterEach
+    void cleanDatabase() {
+        shardRouter.forEachStore(tenant -> {
+            jdbcTemplate.update("DELETE FROM contact_event");
+            jdbcTemplate.update("DELETE FROM contact_cluster");
+            jdbcTemplate.update("DELETE FROM contact");
+            identityGraphCache.invalidateAll();
+        });
+    }
+
+    private static long count(String database, String schema, String email) throws SQLException {
+        try (Connection connection = DriverManager.getConnection(SERVER + database, USER, PASSWORD);
+             Statement statement = connection.createStatement()) {
+            ResultSet result = statement.executeQuery(
+                    "SELECT count(*) FROM " + schema + ".contact WHERE email = '" + email + "'");
+            result.next();
+            return result.getLong(1);
+        }
+    }
+
+    @Test
+    void testTenantsReconcileSeparately() {
+        ContactSummary hillValley = contactService.identifyOrLinkContact("hillvalley", "doc@hillvalley.edu", "123456");
+        // Same shard, and very likely the same contact id, but another store
+        ContactSummary twinPines = contactService.identifyOrLinkContact("twinpines", "doc@hillvalley.edu", "654321");
+        ContactSummary lyonEstates = contactService.identifyOrLinkContact("lyonestates", "doc@hillvalley.edu", "123456");
+        ContactSummary defaultStore = contactService.identifyOrLinkContact("doc@hillvalley.edu", "654321");
+
+        Assertions.assertTrue(twinPines.secondaryContactIds().isEmpty());
+        Assertions.assertEquals(List.of("654321"), twinPines.phoneNumbers());
+        Assertions.assertTrue(lyonEstates.secondaryContactIds().isEmpty());
+        Assertions.assertTrue(defaultStore.secondaryContactIds().isEmpty());
+
+        // Repeats are served per store too, from the cache or the database
+        ContactSummary repeat = contactService.identifyOrLinkContact("hillvalley", "doc@hillvalley.edu", "123456");
+        Assertions.assertEquals(hillValley.primaryContactId(), repeat.primaryContactId());
+        Assertions.assertEquals(List.of("123456"), repeat.phoneNumbers());
+
+        ContactSummary linked = contactService.identifyOrLinkContact("hillvalley", "emmett@hillvalley.edu", "123456");
+        Assertions.assertEquals(1, linked.secondaryContactIds().size());
+        Assertions.assertEquals(List.of("doc@hillvalley.edu"),
+                contactService.identifyOrLinkContact("lyonestates", "doc@hillvalley.edu", "123456").emails());
+    }
+
+    @Test
+    void testTenantsOnOneShardTakeTheirOwnLocks() throws Exception {
+        CountDownLatch held = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService holder = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> holding = holder.submit(() -> TenantContext.run("hillvalley", () ->
+                    transactionTemplate.executeWithoutResult(status -> {
+                        lockManager.lockContacts(List.of(1L));
+                        Assertions.assertTrue(contactArchiveRepository.tryLockArchive(TenantContext.lockKey()));
+                        Assertions.assertTrue(contactEventRepository.tryLockDispatch(TenantContext.lockKey()));
+                        held.countDown();
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    })));
+            Assertions.assertTrue(held.await(10, TimeUnit.SECONDS));
+
+            // Contact 1 of another store on the same shard, and its archiver and dispatcher, are not held
+            TenantContext.run("twinpines", () -> transactionTemplate.executeWithoutResult(status -> {
+                jdbcTemplate.execute("SET LOCAL lock_timeout = '2s'");
+                lockManager.lockContacts(List.of(1L));
+                Assertions.assertTrue(contactArchiveRepository.tryLockArchive(TenantContext.lockKey()));
+                Assertions.assertTrue(contactEventRepository.tryLockDispatch(TenantContext.lockKey()));
+            }));
+            TenantContext.run("hillvalley", () -> transactionTemplate.executeWithoutResult(status -> {
+                Assertions.assertFalse(contactArchiveRepository.tryLockArchive(TenantContext.lockKey()));
+                Assertions.assertFalse(contactEventRepository.tryLockDispatch(TenantContext.lockKey()));
+            }));
+
+            release.countDown();
+            holding.get(10, TimeUnit.SECONDS);
+        } finally {
+            release.countDown();
+            holder.shutdownNow();
+        }
+    }
+
+    @Test
+    void testEachShardAdmitsItsOwnCalls() throws Exception {
+        AdmissionLimiter shardA = admissionLimiters.forTenant("hillvalley");
+        Assertions.assertSame(shardA, admissionLimiters.forTenant("twinpines"));
+        List<Permit> held = new ArrayList<>();
+        try {
+            for (Permit permit = shardA.tryAcquire(Priority.READ); permit != null; permit = shardA.tryAcquire(Priority.READ)) {
+                held.add(permit);
+            }
+            for (String tenant : List.of("hillvalley", "twinpines")) {
+                mockMvc.perform(post("/identify").contentType(MediaType.APPLICATION_JSON)
+                                .content("{\"email\": \"doc@hillvalley.edu\", \"tenant\": \"" + tenant + "\"}"))
+                        .andExpect(status().isTooManyRequests());
+            }
+            // A full shard a leaves shard b and the default store alone
+            mockMvc.perform(post("/identify").contentType(MediaType.APPLICATION_JSON)
+                            .content("{\"email\": \"doc@hillvalley.edu\", \"tenant\": \"lyonestates\"}"))
+                    .andExpect(status().isOk());
+            mockMvc.perform(post("/identify").contentType(MediaType.APPLICATION_JSON)
+                            .content("{\"email\": \"doc@hillvalley.edu\"}"))
+                    .andExpect(status().isOk());
+        } finally {
+            held.forEach(permit -> permit.release(true));
+        }
+    }
+
+    @Test
+    void testContactsAreWrittenToTheTenantSchemaOnItsShard() throws SQLException {
+        contactService.identifyOrLinkContact("hillvalley", "marty@hillvalley.edu", "555000");
+        contactService.identifyOrLinkContact("lyonestates", "lorraine@hillvalley.edu", "555001");
+        contactService.identifyOrLinkContact("biff@hillvalley.edu", "555002");
+
+        Assertions.assertEquals(1, count("bitespeed_shard_a", "tenant_hillvalley", "marty@hillvalley.edu"));
+        Assertions.assertEquals(0, count("bitespeed_shard_a", "tenant_twinpines", "marty@hillvalley.edu"));
+        Assertions.assertEquals(1, count("bitespeed_shard_b", "tenant_lyonestates", "lorraine@hillvalley.edu"));
+        Assertions.assertEquals(1, count("bitespeed_shards", "public", "biff@hillvalley.edu"));
+        Assertions.assertEquals(0, count("bitespeed_shards", "public", "marty@hillvalley.edu"));
+    }
+
+    @Test
+    void testRequestsChooseTheirStore() throws Exception {
+        mockMvc.perform(post("/identify")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"email\": \"george@hillvalley.edu\", \"phoneNumber\": \"777000\", \"tenant\": \"twinpines\"}"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.contact.emails[0]").value("george@hillvalley.edu"));
+
+        mockMvc.perform(get("/identify").param("email", "george@hillvalley.edu").param("tenant", "twinpines"))
+                .andExpect(status().isOk());
+        mockMvc.perform(get("/identify").param("email", "george@hillvalley.edu").param("tenant", "hillvalley"))
+                .andExpect(status().isNotFound());
+        mockMvc.perform(get("/identify").param("email", "george@hillvalley.edu"))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    void testUnknownTenantsAndMixedBatchesAreRejected() throws Exception {
+        mockMvc.perform(post("/identify")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"email\": \"strickland@hillvalley.edu\", \"tenant\": \"oxnard\"}"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.error").value("Unknown tenant: oxnard"));
+        mockMvc.perform(get("/identify").param("email", "strickland@hillvalley.edu").param("tenant", "oxnard"))
+                .andExpect(status().isBadRequest());
+
+        mockMvc.perform(post("/identify/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[{\"email\": \"strickland@hillvalley.edu\", \"tenant\": \"hillvalley\"}," +
+                                "{\"email\": \"strickland@hillvalley.edu\", \"tenant\": \"lyonestates\"}]"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.error").value("Item 1: All items must be for the same tenant."));
+    }
+}
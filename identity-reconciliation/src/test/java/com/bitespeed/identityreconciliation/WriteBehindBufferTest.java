@@ -0,0 +1,214 @@
+package com.bitespeed.identityreconciliation;
+
+import com.bitespeed.identityreconciliation.cache.IdentityGraphCache;
+import com.bitespeed.identityreconciliation.dto.ContactSummary;
+import com.bitespeed.identityreconciliation.events.ContactEventOutbox;
+import com.bitespeed.identityreconciliation.model.Contact;
+import com.bitespeed.identityreconciliation.model.LinkPrecedence;
+import com.bitespeed.identityreconciliation.repository.ContactBatchRepository;
+import com.bitespeed.identityreconciliation.repository.ContactClusterRepository;
+import com.bitespeed.identityreconciliation.repository.ContactRepository;
+import com.bitespeed.identityreconciliation.service.ContactService;
+import com.bitespeed.identityreconciliation.service.IdentityLockManager;
+import com.bitespeed.identityreconciliation.writebehind.WriteBehindBuffer;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+@SpringBootTest(properties = {
+        "identity.write-behind.enabled=true",
+        "identity.write-behind.journal-dir=" + WriteBehindBufferTest.JOURNAL_DIR,
+        // Flushed only when a test asks, so pending contacts stay pending
+        "identity.write-behind.flush-interval=1h"
+})
+public class WriteBehindBufferTest {
+
+    static final String JOURNAL_DIR = "target/write-behind-test";
+
+    @Autowired
+    private ContactService contactService;
+
+    @Autowired
+    private WriteBehindBuffer writeBehind;
+
+    @Autowired
+    private ContactRepository contactRepository;
+
+    @Autowired
+    private ContactClusterRepository contactClusterRepository;
+
+    @Autowired
+    private ContactBatchRepository contactBatchRepository;
+
+    @Autowired
+    private IdentityLockManager lockManager;
+
+    @Autowired
+    private IdentityGraphCache identityGraphCache;
+
+    @Autowired
+    private ContactEventOutbox eventOutbox;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @BeforeEach
+    @AfterEach
+    void cleanDatabase() {
+        writeBehind.flush();
+        contactRepository.deleteAllInBatch();
+        contactClusterRepository.deleteAllInBatch();
+    }
+
+    @Test
+    void testNewSecondaryIsAnsweredBeforeItIsInserted() {
+        ContactSummary primary = contactService.identifyOrLinkContact("doc@future.com", "9999999999");
+        ContactSummary response = contactService.identifyOrLinkContact("emmett@future.com", "9999999999");
+
+        Assertions.assertEquals(primary.primaryContactId(), response.primaryContactId());
+        Assertions.assertEquals(List.of("doc@future.com", "emmett@future.com"), response.emails());
+        Assertions.assertEquals(1, response.secondaryContactIds().size());
+        Assertions.assertEquals(1, contactRepository.count());
+        Assertions.assertEquals(1, writeBehind.pendingCount());
+
+        // A repeat sees the pending secondary instead of inserting another
+        Assertions.assertEquals(response, contactService.identifyOrLinkContact("emmett@future.com", "9999999999"));
+        Assertions.assertEquals(1, writeBehind.pendingCount());
+
+        // An email only the pending secondary carries still finds the cluster
+        ContactSummary linked = contactService.identifyOrLinkContact("emmett@future.com", "8888888888");
+        Assertions.assertEquals(primary.primaryContactId(), linked.primaryContactId());
+        Assertions.assertEquals(2, linked.secondaryContactIds().size());
+        Assertions.assertEquals(2, writeBehind.pendingCount());
+
+        writeBehind.flush();
+        Assertions.assertEquals(0, writeBehind.pendingCount());
+        Assertions.assertEquals(3, contactRepository.count());
+        Contact secondary = contactRepository.findById(response.secondaryContactIds().get(0)).orElseThrow();
+        Assertions.assertEquals(LinkPrecedence.SECONDARY, secondary.getLinkPrecedence());
+        Assertions.assertEquals(primary.primaryContactId(), secondary.getLinkedId());
+        Assertions.assertEquals(linked, contactService.identifyOrLinkContact("emmett@future.com", "9999999999"));
+        Assertions.assertEquals(linked, contactService.lookup("emmett@future.com", null).orElseThrow());
+    }
+
+    @Test
+    void testJournaledSecondariesSurviveACrash() throws Exception {
+        ContactSummary primary = contactService.identifyOrLinkContact("doc@future.com", "9999999999");
+        ContactSummary response = contactService.identifyOrLinkContact("emmett@future.com", "9999999999");
+        Assertions.assertEquals(1, contactRepository.count());
+
+        // The process dies before flushing: keep a copy of the journal, as a crash mid-flush would leave it
+        Path journal = Path.of(JOURNAL_DIR);
+        Path copy = Files.createTempDirectory("write-behind-copy");
+        for (Path segment : list(journal)) {
+            Files.copy(segment, copy.resolve(segment.getFileName()));
+        }
+
+        // A restarted node replays the journal before serving
+        restart(journal);
+        Assertions.assertEquals(2, contactRepository.count());
+        Contact secondary = contactRepository.findById(response.secondaryContactIds().get(0)).orElseThrow();
+        Assertions.assertEquals(primary.primaryContactId(), secondary.getLinkedId());
+        Assertions.assertEquals(response, contactService.lookup("emmett@future.com", null).orElseThrow());
+
+        // Replaying contacts that were already inserted changes nothing
+        for (Path segment : list(copy)) {
+            Files.move(segment, journal.resolve(segment.getFileName()), StandardCopyOption.REPLACE_EXISTING);
+        }
+        restart(journal);
+        Assertions.assertEquals(2, contactRepository.count());
+        Assertions.assertEquals(response, contactService.lookup("emmett@future.com", null).orElseThrow());
+    }
+
+    @Test
+    void testPendingSecondaryFollowsMergeOfItsPrimary() {
+        ContactSummary older = contactService.identifyOrLinkContact("biff@future.com", "2222222222");
+        ContactSummary newer = contactService.identifyOrLinkContact("marty@future.com", "1111111111");
+        ContactSummary pending = contactService.identifyOrLinkContact("calvin@future.com", "1111111111");
+        Assertions.assertEquals(newer.primaryContactId(), pending.primaryContactId());
+
+        // Links the two clusters while the secondary of the newer one is still buffered
+        ContactSummary merged = contactService.identifyOrLinkContact("biff@future.com", "1111111111");
+        Assertions.assertEquals(older.primaryContactId(), merged.primaryContactId());
+        Assertions.assertTrue(merged.secondaryContactIds().containsAll(pending.secondaryContactIds()));
+
+        writeBehind.flush();
+        Contact secondary = contactRepository.findById(pending.secondaryContactIds().get(0)).orElseThrow();
+        Assertions.assertEquals(older.primaryContactId(), secondary.getLinkedId());
+        Assertions.assertEquals(merged, contactService.identifyOrLinkContact("calvin@future.com", "1111111111"));
+        Assertions.assertEquals(merged, contactService.lookup("calvin@future.com", null).orElseThrow());
+    }
+
+    @Test
+    void testFlushOfManyClustersPublishesTheirRoots() throws Exception {
+        // 1200 primaries with 13-digit ids: a flush touching all of them announces over 16000 bytes of roots
+        LocalDateTime now = LocalDateTime.now();
+        List<Contact> primaries = new ArrayList<>();
+        for (int i = 0; i < 1200; i++) {
+            primaries.add(contact(1_000_000_000_000L + i, "customer" + i + "@flux.com", null, now));
+        }
+        contactBatchRepository.insertAll(primaries);
+
+        // Its own buffer, with the cache on so flushes publish, and room for every secondary before a flush
+        IdentityGraphCache cache = new IdentityGraphCache(contactRepository, true, 100_000, Duration.ofMinutes(1));
+        WriteBehindBuffer buffer = new WriteBehindBuffer(contactBatchRepository, contactClusterRepository, lockManager,
+                cache, eventOutbox, transactionTemplate, objectMapper, new SimpleMeterRegistry(), true,
+                Files.createTempDirectory("write-behind-many"), Duration.ofHours(1), 10_000);
+        buffer.start();
+        try {
+            for (Contact primary : primaries) {
+                Contact secondary = contact(buffer.nextId(), primary.getEmail(), "555" + primary.getId() % 10_000, now);
+                secondary.setLinkedId(primary.getId());
+                secondary.setLinkPrecedence(LinkPrecedence.SECONDARY);
+                buffer.append(secondary);
+            }
+            Assertions.assertEquals(1200, buffer.pendingCount());
+
+            buffer.flush();
+            Assertions.assertEquals(0, buffer.pendingCount());
+            Assertions.assertEquals(2400, contactRepository.count());
+        } finally {
+            buffer.stop();
+        }
+    }
+
+    private static Contact contact(long id, String email, String phoneNumber, LocalDateTime now) {
+        return Contact.builder()
+                .id(id)
+                .email(email)
+                .phoneNumber(phoneNumber)
+                .linkPrecedence(LinkPrecedence.PRIMARY)
+                .createdAt(now)
+                .updatedAt(now)
+                .build();
+    }
+
+    private void restart(Path journal) throws Exception {
+        WriteBehindBuffer restarted = new WriteBehindBuffer(contactBatchRepository, contactClusterRepository, lockManager,
+                identityGraphCache, eventOutbox, transactionTemplate, objectMapper, new SimpleMeterRegistry(), true, journal,
+                Duration.ofHours(1), 1000);
+        restarted.start();
+        restarted.stop();
+    }
+
+    private static List<Path> list(Path directory) throws Exception {
+        try (Stream<Path> files = Files.list(directory)) {
+            return new ArrayList<>(files.toList());
+        }
+    }
+}